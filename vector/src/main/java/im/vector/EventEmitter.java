@@ -6,49 +6,247 @@ import android.os.Looper;
 
 import org.matrix.androidsdk.util.Log;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import im.vector.util.VectorScheduler;
+
+/**
+ * Dispatch values to listeners.
+ * - each listener is called on the UI thread or on the scheduler background thread,
+ * - the listeners can be weakly registered, they are unregistered once they have been released,
+ * - the values fired with the same coalescing key within a frame are delivered once (the latest value wins).
+ * The listeners list is copied on write, so the methods can be called from any thread.
+ */
 public class EventEmitter<T> {
     private static final String LOG_TAG = EventEmitter.class.getSimpleName();
 
-    private final Set<Listener<T>> mCallbacks;
+    // the coalescing delay
+    private static final long FRAME_DURATION_MS = 16;
+
+    /**
+     * A registered listener.
+     */
+    private static class Registration<T> {
+        final Listener<T> mListener;
+        final WeakReference<Listener<T>> mWeakListener;
+        final boolean mOnUiThread;
+
+        Registration(Listener<T> listener, boolean isWeak, boolean onUiThread) {
+            mListener = isWeak ? null : listener;
+            mWeakListener = isWeak ? new WeakReference<>(listener) : null;
+            mOnUiThread = onUiThread;
+        }
+
+        /**
+         * @return the listener, null if it has been released
+         */
+        Listener<T> getListener() {
+            return (null != mListener) ? mListener : mWeakListener.get();
+        }
+    }
+
+    // the listeners, the list is replaced at each update
+    private volatile List<Registration<T>> mRegistrations = Collections.emptyList();
     private final Handler mUiHandler;
 
+    // the coalesced values by key, in the fire order
+    private final Map<Object, T> mPendingValueByKey = new LinkedHashMap<>();
+
+    // statistics
+    private final AtomicInteger mFiredCount = new AtomicInteger(0);
+    private final AtomicInteger mCoalescedCount = new AtomicInteger(0);
+    private final AtomicInteger mDeliveredCount = new AtomicInteger(0);
+
     public EventEmitter() {
-        mCallbacks = new HashSet<>();
         mUiHandler = new Handler(Looper.getMainLooper());
     }
 
+    /**
+     * Register a listener called on the UI thread.
+     *
+     * @param cb the listener
+     */
     public void register(Listener<T> cb) {
-        mCallbacks.add(cb);
+        register(cb, true, false);
     }
 
-    public void unregister(Listener<T> cb) {
-        mCallbacks.remove(cb);
+    /**
+     * Register a listener.
+     *
+     * @param cb         the listener
+     * @param onUiThread true to call it on the UI thread, false to call it on the scheduler background thread
+     * @param isWeak     true to keep only a weak reference to the listener
+     */
+    public synchronized void register(Listener<T> cb, boolean onUiThread, boolean isWeak) {
+        if ((null == cb) || (null != findRegistration(cb))) {
+            return;
+        }
+
+        List<Registration<T>> registrations = new ArrayList<>(mRegistrations);
+        registrations.add(new Registration<>(cb, isWeak, onUiThread));
+        mRegistrations = Collections.unmodifiableList(registrations);
+    }
+
+    public synchronized void unregister(Listener<T> cb) {
+        Registration<T> registration = findRegistration(cb);
+
+        if (null != registration) {
+            removeRegistration(registration);
+        }
+    }
+
+    /**
+     * Find the registration of a listener.
+     *
+     * @param cb the listener
+     * @return the registration, null if the listener is not registered
+     */
+    private Registration<T> findRegistration(Listener<T> cb) {
+        for (Registration<T> registration : mRegistrations) {
+            if (registration.getListener() == cb) {
+                return registration;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove a registration.
+     *
+     * @param registration the registration
+     */
+    private synchronized void removeRegistration(Registration<T> registration) {
+        List<Registration<T>> registrations = new ArrayList<>(mRegistrations);
+
+        if (registrations.remove(registration)) {
+            mRegistrations = Collections.unmodifiableList(registrations);
+        }
     }
 
     /**
-     * Fires all registered callbacks on the UI thread.
+     * Fires all registered callbacks.
      *
-     * @param t
+     * @param t the value
      */
     public void fire(final T t) {
-        final Set<Listener<T>> callbacks = new HashSet<>(mCallbacks);
-
-        mUiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                for (Listener<T> cb : callbacks) {
-                                    try {
-                                        cb.onEventFired(EventEmitter.this, t);
-                                    } catch (Exception e) {
-                                        Log.e(LOG_TAG, "Callback threw: " + e.getMessage(), e);
-                                    }
-                                }
-                            }
-                        }
-        );
+        mFiredCount.incrementAndGet();
+        deliver(mRegistrations, t, false);
+    }
+
+    /**
+     * Fires all registered callbacks at the next frame.
+     * The values fired with the same key until then are not delivered, only the latest one is.
+     *
+     * @param key the coalescing key
+     * @param t   the value
+     */
+    public void fire(final Object key, final T t) {
+        mFiredCount.incrementAndGet();
+
+        synchronized (mPendingValueByKey) {
+            boolean isFlushScheduled = !mPendingValueByKey.isEmpty();
+
+            if (mPendingValueByKey.containsKey(key)) {
+                mCoalescedCount.incrementAndGet();
+            }
+
+            mPendingValueByKey.put(key, t);
+
+            if (isFlushScheduled) {
+                return;
+            }
+        }
+
+        mUiHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                List<T> values;
+
+                synchronized (mPendingValueByKey) {
+                    values = new ArrayList<>(mPendingValueByKey.values());
+                    mPendingValueByKey.clear();
+                }
+
+                for (T value : values) {
+                    deliver(mRegistrations, value, true);
+                }
+            }
+        }, FRAME_DURATION_MS);
+    }
+
+    /**
+     * Deliver a value to the listeners.
+     *
+     * @param registrations the listeners snapshot
+     * @param t             the value
+     * @param isUiThread    true when it is called from a UI thread runnable
+     */
+    private void deliver(List<Registration<T>> registrations, final T t, boolean isUiThread) {
+        final List<Listener<T>> uiListeners = new ArrayList<>();
+
+        for (Registration<T> registration : registrations) {
+            final Listener<T> listener = registration.getListener();
+
+            if (null == listener) {
+                // the weak listener has been released
+                removeRegistration(registration);
+            } else if (registration.mOnUiThread) {
+                uiListeners.add(listener);
+            } else {
+                VectorScheduler.getInstance().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onEventFired(listener, t);
+                    }
+                }, 0);
+            }
+        }
+
+        if (!uiListeners.isEmpty()) {
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener<T> listener : uiListeners) {
+                        onEventFired(listener, t);
+                    }
+                }
+            };
+
+            if (isUiThread) {
+                runnable.run();
+            } else {
+                mUiHandler.post(runnable);
+            }
+        }
+    }
+
+    /**
+     * Call a listener.
+     *
+     * @param listener the listener
+     * @param t        the value
+     */
+    private void onEventFired(Listener<T> listener, T t) {
+        try {
+            listener.onEventFired(EventEmitter.this, t);
+            mDeliveredCount.incrementAndGet();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Callback threw: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a description of the fired values
+     */
+    public String getStats() {
+        return mFiredCount.get() + " fired, " + mCoalescedCount.get() + " coalesced, " + mDeliveredCount.get() + " delivered, " + mRegistrations.size() + " listeners";
     }
 
     public interface Listener<T> {
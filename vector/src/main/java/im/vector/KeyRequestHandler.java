@@ -35,7 +35,7 @@ import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +43,8 @@ import im.vector.activity.CommonActivityUtils;
 
 /**
  * Manage the key share events
+ * The requests are grouped by user : the keys are automatically shared with the verified devices
+ * and a single dialog is displayed for the other devices of the user.
  */
 public class KeyRequestHandler {
     private static final String LOG_TAG = KeyRequestHandler.class.getSimpleName();
@@ -50,13 +52,13 @@ public class KeyRequestHandler {
     // shared instance
     private static KeyRequestHandler mInstance = null;
 
-    // the user/device for which we currently have a dialog open
+    // the user/devices for which we currently have a dialog open
     private String mCurrentUser;
-    private String mCurrentDevice;
+    private final List<String> mCurrentDevices = new ArrayList<>();
     private AlertDialog mAlertDialog;
 
-    // userId -> deviceId -> [keyRequest]
-    private final Map<String, Map<String, List<IncomingRoomKeyRequest>>> mPendingKeyRequests = new HashMap<>();
+    // userId -> deviceId -> requestId -> keyRequest, in the reception order
+    private final Map<String, Map<String, Map<String, IncomingRoomKeyRequest>>> mPendingKeyRequests = new LinkedHashMap<>();
 
     /**
      * Provide the shared instance
@@ -92,22 +94,26 @@ public class KeyRequestHandler {
             return;
         }
 
-        if (!mPendingKeyRequests.containsKey(userId)) {
-            mPendingKeyRequests.put(userId, new HashMap<String, List<IncomingRoomKeyRequest>>());
-        }
+        Map<String, Map<String, IncomingRoomKeyRequest>> devices = mPendingKeyRequests.get(userId);
 
-        if (!mPendingKeyRequests.get(userId).containsKey(deviceId)) {
-            mPendingKeyRequests.get(userId).put(deviceId, new ArrayList<IncomingRoomKeyRequest>());
+        if (null == devices) {
+            devices = new LinkedHashMap<>();
+            mPendingKeyRequests.put(userId, devices);
         }
 
-        List<IncomingRoomKeyRequest> requests = mPendingKeyRequests.get(userId).get(deviceId);
+        Map<String, IncomingRoomKeyRequest> requests = devices.get(deviceId);
 
-        if (requests.contains(keyRequest)) {
+        if (null == requests) {
+            requests = new LinkedHashMap<>();
+            devices.put(deviceId, requests);
+        }
+
+        if (requests.containsKey(requestId)) {
             Log.d(LOG_TAG, "## handleKeyRequest() : Already have this key request, ignoring");
             return;
         }
 
-        requests.add(keyRequest);
+        requests.put(requestId, keyRequest);
 
         if (null != mCurrentUser) {
             // ignore for now
@@ -134,39 +140,34 @@ public class KeyRequestHandler {
             return;
         }
 
-        if (TextUtils.equals(userId, mCurrentUser) && TextUtils.equals(deviceId, mCurrentDevice)) {
-            Log.d(LOG_TAG, "## handleKeyRequestCancellation() : room key request cancellation for the user we currently have a dialog open for ");
+        Map<String, Map<String, IncomingRoomKeyRequest>> devices = mPendingKeyRequests.get(userId);
 
-            if (null != mAlertDialog) {
-                mAlertDialog.cancel();
-            }
+        if (null == devices) {
             return;
         }
 
-        if (!mPendingKeyRequests.containsKey(userId)) {
-            return;
-        }
-
-        List<IncomingRoomKeyRequest> requests = mPendingKeyRequests.get(userId).get(deviceId);
-
-        if (null == requests) {
-            return;
-        }
+        Map<String, IncomingRoomKeyRequest> requests = devices.get(deviceId);
 
-        if (!requests.contains(cancellation)) {
+        if ((null == requests) || (null == requests.remove(requestId))) {
             return;
         }
 
         Log.d(LOG_TAG, "## handleKeyRequestCancellation() : Forgetting room key request");
 
-        requests.remove(cancellation);
-
         if (requests.isEmpty()) {
-            mPendingKeyRequests.get(userId).remove(deviceId);
-        }
+            devices.remove(deviceId);
 
-        if (mPendingKeyRequests.get(userId).isEmpty()) {
-            mPendingKeyRequests.remove(userId);
+            if (devices.isEmpty()) {
+                mPendingKeyRequests.remove(userId);
+            }
+
+            if (TextUtils.equals(userId, mCurrentUser) && mCurrentDevices.remove(deviceId) && mCurrentDevices.isEmpty()) {
+                Log.d(LOG_TAG, "## handleKeyRequestCancellation() : room key request cancellation for the user we currently have a dialog open for ");
+
+                if (null != mAlertDialog) {
+                    mAlertDialog.cancel();
+                }
+            }
         }
     }
 
@@ -174,7 +175,7 @@ public class KeyRequestHandler {
      * Manage the next request
      */
     public void processNextRequest() {
-        if ((null != mCurrentUser) || (null != mCurrentDevice)) {
+        if (null != mCurrentUser) {
             Log.d(LOG_TAG, "## processNextRequest() : nothing to do");
             return;
         }
@@ -189,47 +190,61 @@ public class KeyRequestHandler {
             return;
         }
 
-        String deviceId = mPendingKeyRequests.get(userId).keySet().iterator().next();
-
-        Log.d(LOG_TAG, "## processNextRequest() : Starting KeyShareDialog for " + userId + ":" + deviceId);
-
         mCurrentUser = userId;
-        mCurrentDevice = deviceId;
+        mCurrentDevices.clear();
+        mCurrentDevices.addAll(mPendingKeyRequests.get(userId).keySet());
+
+        Log.d(LOG_TAG, "## processNextRequest() : Starting KeyShareDialog for " + userId + " : " + mCurrentDevices);
 
         initKeyShareDialog();
     }
 
     /**
-     * The Key share dialog is closed.
+     * Share or ignore the pending requests of a device.
      *
-     * @param share true to share the key.
+     * @param userId   the user id
+     * @param deviceId the device id
+     * @param share    true to share the keys
      */
-    private void onDisplayKeyShareDialogClose(boolean share) {
-        // sanity check
-        if (mPendingKeyRequests.containsKey(mCurrentUser)) {
-            if (share) {
-                List<IncomingRoomKeyRequest> requests = mPendingKeyRequests.get(mCurrentUser).get(mCurrentDevice);
-
-                for (IncomingRoomKeyRequest req : requests) {
-                    if (null != req.mShare) {
-                        try {
-                            req.mShare.run();
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## onDisplayKeyShareDialogClose() : req.mShare failed " + e.getMessage());
-                        }
+    private void closeDeviceRequests(String userId, String deviceId, boolean share) {
+        Map<String, Map<String, IncomingRoomKeyRequest>> devices = mPendingKeyRequests.get(userId);
+
+        if (null == devices) {
+            return;
+        }
+
+        Map<String, IncomingRoomKeyRequest> requests = devices.remove(deviceId);
+
+        if (devices.isEmpty()) {
+            mPendingKeyRequests.remove(userId);
+        }
+
+        if (share && (null != requests)) {
+            for (IncomingRoomKeyRequest req : requests.values()) {
+                if (null != req.mShare) {
+                    try {
+                        req.mShare.run();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## closeDeviceRequests() : req.mShare failed " + e.getMessage());
                     }
                 }
             }
+        }
+    }
 
-            mPendingKeyRequests.get(mCurrentUser).remove(mCurrentDevice);
-
-            if (mPendingKeyRequests.get(mCurrentUser).isEmpty()) {
-                mPendingKeyRequests.remove(mCurrentUser);
-            }
+    /**
+     * The Key share dialog is closed.
+     *
+     * @param share true to share the key.
+     */
+    private void onDisplayKeyShareDialogClose(boolean share) {
+        // the decision applies to all the devices of the dialog
+        for (String deviceId : mCurrentDevices) {
+            closeDeviceRequests(mCurrentUser, deviceId, share);
         }
 
         mCurrentUser = null;
-        mCurrentDevice = null;
+        mCurrentDevices.clear();
         mAlertDialog = null;
 
         processNextRequest();
@@ -242,7 +257,7 @@ public class KeyRequestHandler {
         if (null == VectorApp.getCurrentActivity()) {
             // wait that an activity is ready
             mCurrentUser = null;
-            mCurrentDevice = null;
+            mCurrentDevices.clear();
             return;
         }
 
@@ -252,23 +267,49 @@ public class KeyRequestHandler {
         session.getCrypto().getDeviceList().downloadKeys(Arrays.asList(mCurrentUser), false, new ApiCallback<MXUsersDevicesMap<MXDeviceInfo>>() {
             @Override
             public void onSuccess(MXUsersDevicesMap<MXDeviceInfo> devicesMap) {
-                final MXDeviceInfo deviceInfo = devicesMap.getObject(mCurrentDevice, mCurrentUser);
+                final List<MXDeviceInfo> devicesToConfirm = new ArrayList<>();
+                final List<MXDeviceInfo> newDevices = new ArrayList<>();
 
-                if (null == deviceInfo) {
-                    Log.e(LOG_TAG, "## displayKeyShareDialog() : No details found for device " + mCurrentUser + ":" + mCurrentDevice);
-                    onDisplayKeyShareDialogClose(false);
-                    return;
-                }
+                for (String deviceId : new ArrayList<>(mCurrentDevices)) {
+                    MXDeviceInfo deviceInfo = devicesMap.getObject(deviceId, mCurrentUser);
 
-                if (deviceInfo.isUnknown()) {
-                    session.getCrypto().setDeviceVerification(MXDeviceInfo.DEVICE_VERIFICATION_UNVERIFIED, mCurrentDevice, mCurrentUser, new SimpleApiCallback<Void>() {
-                        @Override
-                        public void onSuccess(Void info) {
-                            displayKeyShareDialog(session, deviceInfo, true);
+                    if ((null == deviceInfo) || deviceInfo.isVerified() || deviceInfo.isBlocked()) {
+                        if (null == deviceInfo) {
+                            Log.e(LOG_TAG, "## displayKeyShareDialog() : No details found for device " + mCurrentUser + ":" + deviceId);
+                        } else {
+                            Log.d(LOG_TAG, "## displayKeyShareDialog() : " + (deviceInfo.isVerified() ? "share" : "ignore") + " the requests of the device " + mCurrentUser + ":" + deviceId);
                         }
-                    });
+
+                        // no need to ask the user
+                        closeDeviceRequests(mCurrentUser, deviceId, (null != deviceInfo) && deviceInfo.isVerified());
+                        mCurrentDevices.remove(deviceId);
+                    } else {
+                        devicesToConfirm.add(deviceInfo);
+
+                        if (deviceInfo.isUnknown()) {
+                            newDevices.add(deviceInfo);
+                        }
+                    }
+                }
+
+                if (devicesToConfirm.isEmpty()) {
+                    onDisplayKeyShareDialogClose(false);
+                } else if (newDevices.isEmpty()) {
+                    displayKeyShareDialog(session, devicesToConfirm, false);
                 } else {
-                    displayKeyShareDialog(session, deviceInfo, false);
+                    // the new devices are flagged as unverified before displaying the dialog
+                    final int[] remainingCount = {newDevices.size()};
+
+                    for (MXDeviceInfo deviceInfo : newDevices) {
+                        session.getCrypto().setDeviceVerification(MXDeviceInfo.DEVICE_VERIFICATION_UNVERIFIED, deviceInfo.deviceId, mCurrentUser, new SimpleApiCallback<Void>() {
+                            @Override
+                            public void onSuccess(Void info) {
+                                if (0 == --remainingCount[0]) {
+                                    displayKeyShareDialog(session, devicesToConfirm, true);
+                                }
+                            }
+                        });
+                    }
                 }
             }
 
@@ -298,21 +339,33 @@ public class KeyRequestHandler {
      * Display the share key dialog
      *
      * @param session      the session
-     * @param deviceInfo   the device info
-     * @param wasNewDevice true if the device was a new one.
+     * @param devicesInfo  the devices info
+     * @param wasNewDevice true if a device was a new one.
      */
-    private void displayKeyShareDialog(final MXSession session, final MXDeviceInfo deviceInfo, final boolean wasNewDevice) {
+    private void displayKeyShareDialog(final MXSession session, final List<MXDeviceInfo> devicesInfo, final boolean wasNewDevice) {
         if (null == VectorApp.getCurrentActivity()) {
             // wait that an activity is ready
             mCurrentUser = null;
-            mCurrentDevice = null;
+            mCurrentDevices.clear();
             return;
         }
 
         final Activity activity = VectorApp.getCurrentActivity();
+        String dialogText;
+
+        if (1 == devicesInfo.size()) {
+            MXDeviceInfo deviceInfo = devicesInfo.get(0);
+            String deviceName = TextUtils.isEmpty(deviceInfo.displayName()) ? deviceInfo.deviceId : deviceInfo.displayName();
+            dialogText = wasNewDevice ? activity.getString(R.string.you_added_a_new_device, deviceName) : activity.getString(R.string.your_unverified_device_requesting, deviceName);
+        } else {
+            List<String> deviceNames = new ArrayList<>();
+
+            for (MXDeviceInfo deviceInfo : devicesInfo) {
+                deviceNames.add("'" + (TextUtils.isEmpty(deviceInfo.displayName()) ? deviceInfo.deviceId : deviceInfo.displayName()) + "'");
+            }
 
-        String deviceName = TextUtils.isEmpty(deviceInfo.displayName()) ? deviceInfo.deviceId : deviceInfo.displayName();
-        String dialogText = wasNewDevice ? activity.getString(R.string.you_added_a_new_device, deviceName) : activity.getString(R.string.your_unverified_device_requesting, deviceName);
+            dialogText = activity.getString(R.string.your_unverified_devices_requesting, TextUtils.join(", ", deviceNames));
+        }
 
         AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(activity);
         alertDialogBuilder.setMessage(dialogText);
@@ -333,25 +386,30 @@ public class KeyRequestHandler {
                                 dialog.dismiss();
                                 onDisplayKeyShareDialogClose(true);
                             }
-                        })
-                .setPositiveButton(R.string.start_verification,
-                        new DialogInterface.OnClickListener() {
-                            public void onClick(final DialogInterface dialog, int id) {
-                                dialog.dismiss();
-                                CommonActivityUtils.displayDeviceVerificationDialog(deviceInfo, mCurrentUser, session, activity, new SimpleApiCallback<Void>() {
-                                    @Override
-                                    public void onSuccess(Void info) {
-                                        if (deviceInfo.isVerified()) {
-                                            dialog.dismiss();
-                                            onDisplayKeyShareDialogClose(true);
-                                        } else {
-                                            displayKeyShareDialog(session, deviceInfo, wasNewDevice);
-                                        }
-                                    }
-                                });
-                            }
                         });
 
+        // the devices are verified one by one
+        if (1 == devicesInfo.size()) {
+            final MXDeviceInfo deviceInfo = devicesInfo.get(0);
+
+            alertDialogBuilder.setPositiveButton(R.string.start_verification,
+                    new DialogInterface.OnClickListener() {
+                        public void onClick(final DialogInterface dialog, int id) {
+                            dialog.dismiss();
+                            CommonActivityUtils.displayDeviceVerificationDialog(deviceInfo, mCurrentUser, session, activity, new SimpleApiCallback<Void>() {
+                                @Override
+                                public void onSuccess(Void info) {
+                                    if (deviceInfo.isVerified()) {
+                                        dialog.dismiss();
+                                        onDisplayKeyShareDialogClose(true);
+                                    } else {
+                                        displayKeyShareDialog(session, devicesInfo, wasNewDevice);
+                                    }
+                                }
+                            });
+                        }
+                    });
+        }
 
         // create alert dialog
         mAlertDialog = alertDialogBuilder.create();
@@ -30,7 +30,6 @@ import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.ssl.Fingerprint;
 import org.matrix.androidsdk.ssl.UnrecognizedCertificateException;
-import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.HomeServerConnectionConfig;
@@ -45,15 +44,24 @@ import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 
 import im.vector.activity.CommonActivityUtils;
 import im.vector.activity.SplashActivity;
 import im.vector.activity.VectorHomeActivity;
 import im.vector.gcm.GcmRegistrationManager;
+import im.vector.search.HistoricalRoomsIndex;
+import im.vector.search.MessagesSearchIndex;
+import im.vector.search.PeopleDirectory;
+import im.vector.search.RoomFilesIndex;
 import im.vector.services.EventStreamService;
 import im.vector.store.LoginStorage;
 import im.vector.util.PreferencesManager;
+import im.vector.util.PushRulesEvaluator;
+import im.vector.util.RecentRoomsOrder;
+import im.vector.util.RoomAliasCache;
+import im.vector.util.RoomMembersStats;
 import im.vector.widgets.WidgetsManager;
 
 import java.util.ArrayList;
@@ -130,7 +138,7 @@ public class Matrix {
 
                         for (MXSession session : instance.mMXSessions) {
                             if (session.isAlive()) {
-                                BingRulesManager bingRulesManager = session.getDataHandler().getBingRulesManager();
+                                PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(session);
                                 Collection<Room> rooms = session.getDataHandler().getStore().getRooms();
 
                                 for (Room room : rooms) {
@@ -139,7 +147,7 @@ public class Matrix {
                                     } else {
                                         int notificationCount = room.getNotificationCount();
 
-                                        if (bingRulesManager.isRoomMentionOnly(room.getRoomId())) {
+                                        if (pushRulesEvaluator.isRoomMentionOnly(room.getRoomId())) {
                                             notificationCount = room.getHighlightCount();
                                         }
 
@@ -482,8 +490,17 @@ public class Matrix {
 
         if (clearCredentials) {
             mLoginStorage.removeCredentials(session.getHomeServerConfig());
+            MessagesSearchIndex.deleteIndex(context, session);
+            RoomFilesIndex.deleteIndex(context, session);
         }
 
+        HistoricalRoomsIndex.release(session);
+        RoomAliasCache.release(session);
+        RoomMembersStats.release(session);
+        PushRulesEvaluator.release(session);
+        PeopleDirectory.release(session);
+        RecentRoomsOrder.release(session);
+
         session.getDataHandler().removeListener(mLiveEventListener);
 
         SimpleApiCallback<Void> callback = new SimpleApiCallback<Void>() {
@@ -637,6 +654,106 @@ public class Matrix {
         session.getDataHandler().addListener(mLiveEventListener);
         session.setUseDataSaveMode(PreferencesManager.useDataSaveMode(context));
 
+        // feed the local indexes (the server cannot search in the encrypted rooms)
+        session.getDataHandler().addListener(new MXEventListener() {
+            @Override
+            public void onLiveEvent(Event event, RoomState roomState) {
+                RoomAliasCache.getInstance(session).onLiveEvent(event);
+                RoomMembersStats.getInstance(session).onLiveEvent(event);
+                PeopleDirectory.getInstance(session).onLiveEvent(event);
+                RecentRoomsOrder.getInstance(session).onLiveEvent(event);
+
+                PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(session);
+
+                if (null != pushRulesEvaluator) {
+                    pushRulesEvaluator.onLiveEvent(event);
+                }
+
+                MessagesSearchIndex index = MessagesSearchIndex.getInstance(context, session);
+                RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(context, session);
+
+                if ((null != index) && (null != filesIndex)) {
+                    filesIndex.onLiveEvent(event);
+
+                    if (Event.EVENT_TYPE_REDACTION.equals(event.getType())) {
+                        index.removeEvent(event.getRedacts());
+                        filesIndex.removeEvent(event.getRedacts());
+                    } else {
+                        index.indexEvent(event);
+                        filesIndex.indexEvent(event);
+                    }
+                }
+            }
+
+            @Override
+            public void onEventDecrypted(Event event) {
+                MessagesSearchIndex index = MessagesSearchIndex.getInstance(context, session);
+                RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(context, session);
+
+                if ((null != index) && (null != filesIndex)) {
+                    index.indexEvent(event);
+                    filesIndex.indexEvent(event);
+                }
+            }
+
+            @Override
+            public void onPresenceUpdate(Event event, User user) {
+                RoomMembersStats.getInstance(session).onPresenceUpdate(user);
+            }
+
+            @Override
+            public void onRoomFlush(String roomId) {
+                RoomMembersStats.getInstance(session).onRoomUpdate(roomId);
+
+                // the attachments received during the timeline gap are not indexed
+                RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(context, session);
+
+                if (null != filesIndex) {
+                    filesIndex.onRoomFlush(roomId);
+                }
+            }
+
+            @Override
+            public void onStoreReady() {
+                RoomAliasCache.getInstance(session).onRoomsUpdate();
+                RoomMembersStats.getInstance(session).onRoomsUpdate();
+                RecentRoomsOrder.getInstance(session).onRoomsUpdate();
+
+                RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(context, session);
+
+                if (null != filesIndex) {
+                    filesIndex.onStoreReady(session.getDataHandler().getStore().getSummaries());
+                }
+            }
+
+            @Override
+            public void onInitialSyncComplete(String toToken) {
+                RoomAliasCache.getInstance(session).onRoomsUpdate();
+                RoomMembersStats.getInstance(session).onRoomsUpdate();
+                RecentRoomsOrder.getInstance(session).onRoomsUpdate();
+            }
+
+            @Override
+            public void onJoinRoom(String roomId) {
+                RoomAliasCache.getInstance(session).onRoomsUpdate();
+                RecentRoomsOrder.getInstance(session).onJoinRoom(roomId);
+            }
+
+            @Override
+            public void onLeaveRoom(String roomId) {
+                RoomAliasCache.getInstance(session).onRoomsUpdate();
+                RoomMembersStats.getInstance(session).onRoomUpdate(roomId);
+                RecentRoomsOrder.getInstance(session).onLeaveRoom(roomId);
+                PeopleDirectory.getInstance(session).onLeaveRoom();
+
+                HistoricalRoomsIndex historicalRoomsIndex = HistoricalRoomsIndex.getInstance(session);
+
+                if (null != historicalRoomsIndex) {
+                    historicalRoomsIndex.onLeaveRoom(context, roomId);
+                }
+            }
+        });
+
         session.getDataHandler().addListener(new MXEventListener() {
             @Override
             public void onInitialSyncComplete(String toToken) {
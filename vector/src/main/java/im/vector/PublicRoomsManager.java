@@ -17,6 +17,7 @@
 
 package im.vector;
 
+import android.support.v4.util.LruCache;
 import android.text.TextUtils;
 
 import org.matrix.androidsdk.util.Log;
@@ -29,16 +30,31 @@ import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.PublicRoomsResponse;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import im.vector.util.VectorScheduler;
 
 /**
- * Manage the public rooms
+ * Manage the public rooms.
+ * The public rooms pages are cached by directory and pattern:
+ * - a cached directory is displayed at once, and it is refreshed in background when it is not fresh anymore,
+ * - the next page is prefetched when a page is paginated,
+ * - the requests of the previous filter are not dispatched anymore when the filter changes.
+ * The HTTP requests cannot be aborted so their responses fill the cache of their own filter.
  */
 public class PublicRoomsManager {
     private static final String LOG_TAG = PublicRoomsManager.class.getSimpleName();
 
     public static final int PUBLIC_ROOMS_LIMIT = 20;
 
+    // the cached pages are displayed without refresh during this delay
+    private static final long FRESH_PAGES_DELAY_MS = 2 * 60 * 1000;
+    // the cached pages are displayed and refreshed in background during this delay
+    private static final long STALE_PAGES_DELAY_MS = 30 * 60 * 1000;
+    private static final int MAX_CACHED_FILTERS = 10;
+
     public interface PublicRoomsManagerListener {
         /**
          * Called when the number of public rooms count have been updated
@@ -46,6 +62,48 @@ public class PublicRoomsManager {
         void onPublicRoomsCountRefresh(Integer publicRoomsCount);
     }
 
+    /**
+     * The cached pages of a filter.
+     */
+    private static class CachedPages {
+        final List<PublicRoom> mRooms = new ArrayList<>();
+        String mNextToken;
+        Integer mEstimatedCount;
+        long mRefreshTs;
+        // the prefetched page after mNextToken
+        PublicRoomsResponse mPrefetchedPage;
+    }
+
+    /**
+     * A page request, shared by the callers requesting the same page.
+     */
+    private static class PageRequest {
+        final String mFilterKey;
+        final String mToken;
+        String mServer;
+        final String mThirdPartyInstanceId;
+        final boolean mIncludeAllNetworks;
+        final String mPattern;
+        // empty when the response is only cached
+        final List<ApiCallback<List<PublicRoom>>> mCallbacks = new ArrayList<>();
+
+        PageRequest(String filterKey, String token, String server, String thirdPartyInstanceId, boolean includeAllNetworks, String pattern) {
+            mFilterKey = filterKey;
+            mToken = token;
+            mServer = server;
+            mThirdPartyInstanceId = thirdPartyInstanceId;
+            mIncludeAllNetworks = includeAllNetworks;
+            mPattern = pattern;
+        }
+
+        /**
+         * @return the request identifier
+         */
+        String getId() {
+            return buildRequestId(mFilterKey, mToken);
+        }
+    }
+
     // session
     private MXSession mSession;
 
@@ -55,9 +113,6 @@ public class PublicRoomsManager {
     // define the number of public rooms
     private Integer mPublicRoomsCount = null;
 
-    // request key to avoid dispatching invalid data
-    private String mRequestKey = null;
-
     // pagination information
 
     private String mRequestServer;
@@ -66,6 +121,23 @@ public class PublicRoomsManager {
     private String mThirdPartyInstanceId;
     private boolean mIncludeAllNetworks;
 
+    // the displayed filter
+    private String mFilterKey;
+
+    // incremented at each search, used to detect the superseded cached results
+    private int mSearchGeneration = 0;
+
+    // the cached pages by filter
+    private final LruCache<String, CachedPages> mCachedPages = new LruCache<>(MAX_CACHED_FILTERS);
+
+    // the in-flight requests by request id
+    private final Map<String, PageRequest> mPageRequests = new HashMap<>();
+
+    // statistics
+    private int mCacheHitsCount = 0;
+    private int mPrefetchHitsCount = 0;
+    private int mSupersededCount = 0;
+
     // public room listeners
     private final List<PublicRoomsManagerListener> mListeners = new ArrayList<>();
 
@@ -91,6 +163,13 @@ public class PublicRoomsManager {
      * @param session the session
      */
     public void setSession(MXSession session) {
+        // the cached pages depend on the session home server
+        if (mSession != session) {
+            mCachedPages.evictAll();
+            mPageRequests.clear();
+            mPublicRoomsCount = null;
+        }
+
         mSession = session;
     }
 
@@ -98,7 +177,13 @@ public class PublicRoomsManager {
      * @return true if there is a public room requests in progress
      */
     public boolean isRequestInProgress() {
-        return !TextUtils.isEmpty(mRequestKey);
+        for (PageRequest request : mPageRequests.values()) {
+            if (!request.mCallbacks.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -109,100 +194,196 @@ public class PublicRoomsManager {
     }
 
     /**
-     * Trigger a public rooms request.
+     * Build a filter key.
+     *
+     * @param server               the server, null for the home server
+     * @param thirdPartyInstanceId the third party instance id
+     * @param includeAllNetworks   true to search in all the connected network
+     * @param pattern              the pattern
+     * @return the filter key
+     */
+    private static String buildFilterKey(String server, String thirdPartyInstanceId, boolean includeAllNetworks, String pattern) {
+        return server + "|" + thirdPartyInstanceId + "|" + includeAllNetworks + "|" + (TextUtils.isEmpty(pattern) ? "" : pattern);
+    }
+
+    /**
+     * Build a request identifier.
+     *
+     * @param filterKey the filter key
+     * @param token     the pagination token, null for the first page
+     * @return the request identifier
+     */
+    private static String buildRequestId(String filterKey, String token) {
+        return filterKey + "|" + token;
+    }
+
+    /**
+     * Provides the cached pages of a filter.
      *
-     * @param callback the asynchronous callback.
+     * @param filterKey the filter key
+     * @return the cached pages, null if there is none or if they are too old
      */
-    private void launchPublicRoomsRequest(final ApiCallback<List<PublicRoom>> callback) {
-        final String fToken = mRequestKey;
+    private CachedPages getCachedPages(String filterKey) {
+        CachedPages pages = mCachedPages.get(filterKey);
+
+        if ((null != pages) && ((System.currentTimeMillis() - pages.mRefreshTs) > STALE_PAGES_DELAY_MS)) {
+            mCachedPages.remove(filterKey);
+            pages = null;
+        }
+
+        return pages;
+    }
 
+    /**
+     * Send a page request.
+     *
+     * @param request the request
+     */
+    private void launchPublicRoomsRequest(final PageRequest request) {
         // GA issue
         if (null == mSession) {
             return;
         }
 
-        mSession.getEventsApiClient().loadPublicRooms(mRequestServer, mThirdPartyInstanceId, mIncludeAllNetworks, mSearchedPattern, mForwardPaginationToken, PUBLIC_ROOMS_LIMIT, new ApiCallback<PublicRoomsResponse>() {
+        mPageRequests.put(request.getId(), request);
+
+        mSession.getEventsApiClient().loadPublicRooms(request.mServer, request.mThirdPartyInstanceId, request.mIncludeAllNetworks, request.mPattern, request.mToken, PUBLIC_ROOMS_LIMIT, new ApiCallback<PublicRoomsResponse>() {
             @Override
             public void onSuccess(PublicRoomsResponse publicRoomsResponse) {
-                // check if the request response is still expected
-                if (TextUtils.equals(fToken, mRequestKey)) {
-                    List<PublicRoom> list = publicRoomsResponse.chunk;
-
-                    // avoid the null case
-                    if (null == list) {
-                        list = new ArrayList<>();
-                    }
-
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : retrieves " + list.size() + " rooms");
-
-                    mForwardPaginationToken = publicRoomsResponse.next_batch;
-
-                    if (null != callback) {
-                        callback.onSuccess(list);
-                    }
-
-                    mRequestKey = null;
-                } else {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : the request has been cancelled");
-                }
+                onPageReceived(request, publicRoomsResponse);
             }
 
             @Override
             public void onNetworkError(Exception e) {
-                // check if the request response is still expected
-                if (TextUtils.equals(fToken, mRequestKey)) {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : onNetworkError " + e.getMessage());
+                Log.d(LOG_TAG, "## launchPublicRoomsRequest() : onNetworkError " + e.getMessage());
 
-                    if (null != callback) {
-                        callback.onNetworkError(e);
-                    }
-                    mRequestKey = null;
-                } else {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : the request has been cancelled");
+                for (ApiCallback<List<PublicRoom>> callback : removeRequest(request)) {
+                    callback.onNetworkError(e);
                 }
             }
 
             @Override
             public void onMatrixError(MatrixError e) {
-                // check if the request response is still expected
-                if (TextUtils.equals(fToken, mRequestKey)) {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : MatrixError " + e.getLocalizedMessage());
-
-                    // mRequestServer == null means to search on its own home server
-                    // on some servers, it triggers an "internal server error"
-                    // so try with the server url
-                    if (MatrixError.UNKNOWN.equals(e.errcode) && (null == mRequestServer)) {
-                        mRequestServer = mSession.getHomeServerConfig().getHomeserverUri().getHost();
-                        Log.e(LOG_TAG, "## launchPublicRoomsRequest() : mRequestServer == null fails -> try " + mRequestServer);
-                        launchPublicRoomsRequest(callback);
-                    } else {
-                        if (null != callback) {
-                            callback.onMatrixError(e);
-                        }
+                Log.d(LOG_TAG, "## launchPublicRoomsRequest() : MatrixError " + e.getLocalizedMessage());
+
+                // mRequestServer == null means to search on its own home server
+                // on some servers, it triggers an "internal server error"
+                // so try with the server url
+                if (MatrixError.UNKNOWN.equals(e.errcode) && (null == request.mServer) && (null != mSession)) {
+                    request.mServer = mSession.getHomeServerConfig().getHomeserverUri().getHost();
+
+                    if (TextUtils.equals(request.mFilterKey, mFilterKey)) {
+                        mRequestServer = request.mServer;
                     }
-                    mRequestKey = null;
+
+                    Log.e(LOG_TAG, "## launchPublicRoomsRequest() : mRequestServer == null fails -> try " + request.mServer);
+                    launchPublicRoomsRequest(request);
                 } else {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : the request has been cancelled");
+                    for (ApiCallback<List<PublicRoom>> callback : removeRequest(request)) {
+                        callback.onMatrixError(e);
+                    }
                 }
             }
 
             @Override
             public void onUnexpectedError(Exception e) {
-                // check if the request response is still expected
-                if (TextUtils.equals(fToken, mRequestKey)) {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : onUnexpectedError " + e.getLocalizedMessage());
+                Log.d(LOG_TAG, "## launchPublicRoomsRequest() : onUnexpectedError " + e.getLocalizedMessage());
 
-                    if (null != callback) {
-                        callback.onUnexpectedError(e);
-                    }
-                    mRequestKey = null;
-                } else {
-                    Log.d(LOG_TAG, "## launchPublicRoomsRequest() : the request has been cancelled");
+                for (ApiCallback<List<PublicRoom>> callback : removeRequest(request)) {
+                    callback.onUnexpectedError(e);
                 }
             }
         });
     }
 
+    /**
+     * Remove a request from the in-flight ones.
+     *
+     * @param request the request
+     * @return the callbacks to call
+     */
+    private List<ApiCallback<List<PublicRoom>>> removeRequest(PageRequest request) {
+        if (mPageRequests.get(request.getId()) == request) {
+            mPageRequests.remove(request.getId());
+        }
+
+        return new ArrayList<>(request.mCallbacks);
+    }
+
+    /**
+     * A page has been received.
+     *
+     * @param request  the request
+     * @param response the response
+     */
+    private void onPageReceived(PageRequest request, PublicRoomsResponse response) {
+        // the session has been updated in the meantime
+        if (mPageRequests.get(request.getId()) != request) {
+            Log.d(LOG_TAG, "## onPageReceived() : the request has been dropped");
+            return;
+        }
+
+        List<ApiCallback<List<PublicRoom>>> callbacks = removeRequest(request);
+
+        // avoid the null case
+        List<PublicRoom> list = (null == response.chunk) ? new ArrayList<PublicRoom>() : response.chunk;
+
+        Log.d(LOG_TAG, "## onPageReceived() : retrieves " + list.size() + " rooms");
+
+        CachedPages pages;
+
+        if (null == request.mToken) {
+            pages = new CachedPages();
+            pages.mRooms.addAll(list);
+            pages.mNextToken = response.next_batch;
+            pages.mEstimatedCount = response.total_room_count_estimate;
+            pages.mRefreshTs = System.currentTimeMillis();
+            mCachedPages.put(request.mFilterKey, pages);
+
+            // the default directory
+            if (TextUtils.equals(request.mFilterKey, buildFilterKey(null, null, false, null)) && (null != response.total_room_count_estimate)) {
+                mPublicRoomsCount = response.total_room_count_estimate;
+            }
+        } else {
+            pages = getCachedPages(request.mFilterKey);
+
+            // the cached pages have been refreshed in the meantime
+            if ((null != pages) && !TextUtils.equals(pages.mNextToken, request.mToken)) {
+                pages = null;
+            }
+
+            if (callbacks.isEmpty()) {
+                // prefetched page
+                if (null != pages) {
+                    pages.mPrefetchedPage = response;
+                }
+                return;
+            }
+
+            if (null != pages) {
+                pages.mRooms.addAll(list);
+                pages.mNextToken = response.next_batch;
+                pages.mPrefetchedPage = null;
+            }
+        }
+
+        if (callbacks.isEmpty()) {
+            Log.d(LOG_TAG, "## onPageReceived() : the page is only cached");
+            return;
+        }
+
+        mForwardPaginationToken = response.next_batch;
+
+        for (ApiCallback<List<PublicRoom>> callback : callbacks) {
+            callback.onSuccess(list);
+        }
+
+        // the user is paginating : prefetch the next page
+        if ((null != request.mToken) && (null != pages) && !TextUtils.isEmpty(pages.mNextToken) && !mPageRequests.containsKey(buildRequestId(request.mFilterKey, pages.mNextToken))) {
+            launchPublicRoomsRequest(new PageRequest(request.mFilterKey, pages.mNextToken, request.mServer, request.mThirdPartyInstanceId, request.mIncludeAllNetworks, request.mPattern));
+        }
+    }
+
     /**
      * Start a new public rooms search
      *
@@ -215,18 +396,62 @@ public class PublicRoomsManager {
     public void startPublicRoomsSearch(final String server, final String thirdPartyInstanceId, final boolean includeAllNetworks, final String pattern, final ApiCallback<List<PublicRoom>> callback) {
         Log.d(LOG_TAG, "## startPublicRoomsSearch() " + " : server " + server + " pattern " + pattern);
 
-        // on android, a request cannot be cancelled
-        // so define a key to detect if the request makes senses
-        mRequestKey = "startPublicRoomsSearch" + System.currentTimeMillis();
+        // the pending requests of the previous filter are not dispatched anymore
+        for (PageRequest request : mPageRequests.values()) {
+            if (!request.mCallbacks.isEmpty()) {
+                request.mCallbacks.clear();
+                mSupersededCount++;
+            }
+        }
+
+        final int generation = ++mSearchGeneration;
 
         // init the parameters
+        mFilterKey = buildFilterKey(server, thirdPartyInstanceId, includeAllNetworks, pattern);
         mRequestServer = server;
         mThirdPartyInstanceId = thirdPartyInstanceId;
         mIncludeAllNetworks = includeAllNetworks;
         mSearchedPattern = pattern;
         mForwardPaginationToken = null;
 
-        launchPublicRoomsRequest(callback);
+        CachedPages pages = getCachedPages(mFilterKey);
+
+        if (null != pages) {
+            mCacheHitsCount++;
+            mForwardPaginationToken = pages.mNextToken;
+
+            final List<PublicRoom> rooms = new ArrayList<>(pages.mRooms);
+
+            // keep the asynchronous behaviour
+            VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if ((generation == mSearchGeneration) && (null != callback)) {
+                        callback.onSuccess(rooms);
+                    }
+                }
+            }, 0);
+
+            // refresh the first page in background
+            if (((System.currentTimeMillis() - pages.mRefreshTs) > FRESH_PAGES_DELAY_MS) && !mPageRequests.containsKey(buildRequestId(mFilterKey, null))) {
+                Log.d(LOG_TAG, "## startPublicRoomsSearch() : refresh the cached pages");
+                launchPublicRoomsRequest(new PageRequest(mFilterKey, null, server, thirdPartyInstanceId, includeAllNetworks, pattern));
+            }
+
+            Log.d(LOG_TAG, "## startPublicRoomsSearch() : " + getStats());
+            return;
+        }
+
+        PageRequest request = mPageRequests.get(buildRequestId(mFilterKey, null));
+
+        if (null == request) {
+            request = new PageRequest(mFilterKey, null, server, thirdPartyInstanceId, includeAllNetworks, pattern);
+            launchPublicRoomsRequest(request);
+        }
+
+        if (null != callback) {
+            request.mCallbacks.add(callback);
+        }
     }
 
     /**
@@ -248,15 +473,65 @@ public class PublicRoomsManager {
             return false;
         }
 
-        // on android, a request cannot be cancelled
-        // so define a key to detect if the request makes senses
-        mRequestKey = "forwardPaginate" + System.currentTimeMillis();
+        final String requestId = buildRequestId(mFilterKey, mForwardPaginationToken);
+        PageRequest request = mPageRequests.get(requestId);
+
+        // the page is being prefetched
+        if (null != request) {
+            mPrefetchHitsCount++;
+            request.mCallbacks.add(callback);
+            return true;
+        }
+
+        request = new PageRequest(mFilterKey, mForwardPaginationToken, mRequestServer, mThirdPartyInstanceId, mIncludeAllNetworks, mSearchedPattern);
+        request.mCallbacks.add(callback);
+
+        CachedPages pages = getCachedPages(mFilterKey);
 
-        launchPublicRoomsRequest(callback);
+        // the page has been prefetched
+        if ((null != pages) && (null != pages.mPrefetchedPage) && TextUtils.equals(pages.mNextToken, mForwardPaginationToken)) {
+            mPrefetchHitsCount++;
+
+            final PageRequest fRequest = request;
+            final PublicRoomsResponse prefetchedPage = pages.mPrefetchedPage;
+            pages.mPrefetchedPage = null;
+            mPageRequests.put(requestId, request);
+
+            VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onPageReceived(fRequest, prefetchedPage);
+                }
+            }, 0);
+
+            return true;
+        }
+
+        launchPublicRoomsRequest(request);
 
         return true;
     }
 
+    /**
+     * Provides the cached estimated public rooms count of a directory.
+     *
+     * @param server               the server, null for the home server
+     * @param thirdPartyInstanceId the third party instance id
+     * @param includeAllNetworks   true to count in all the connected network
+     * @return the estimated count, null if it is not known
+     */
+    public Integer getCachedPublicRoomsCount(String server, String thirdPartyInstanceId, boolean includeAllNetworks) {
+        CachedPages pages = getCachedPages(buildFilterKey(server, thirdPartyInstanceId, includeAllNetworks, null));
+        return (null == pages) ? null : pages.mEstimatedCount;
+    }
+
+    /**
+     * @return a description of the cache efficiency
+     */
+    public String getStats() {
+        return mCachedPages.size() + " cached filters, " + mCacheHitsCount + " cache hits, " + mPrefetchHitsCount + " prefetch hits, " + mSupersededCount + " superseded requests";
+    }
+
     /**
      * @return the number of public rooms
      */
@@ -282,6 +557,19 @@ public class PublicRoomsManager {
      */
     public void refreshPublicRoomsCount(final PublicRoomsManagerListener listener) {
         if (null != mSession) {
+            CachedPages pages = getCachedPages(buildFilterKey(null, null, false, null));
+
+            // the count has been retrieved with the default directory first page
+            if ((null != pages) && (null != pages.mEstimatedCount) && ((System.currentTimeMillis() - pages.mRefreshTs) < FRESH_PAGES_DELAY_MS)) {
+                Log.d(LOG_TAG, "## refreshPublicRoomsCount() : use the cached count " + pages.mEstimatedCount);
+                mPublicRoomsCount = pages.mEstimatedCount;
+
+                if (null != listener) {
+                    listener.onPublicRoomsCountRefresh(mPublicRoomsCount);
+                }
+                return;
+            }
+
             if (mCountRefreshInProgress) {
                 if (null != listener) {
                     mListeners.add(listener);
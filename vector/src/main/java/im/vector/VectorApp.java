@@ -64,8 +64,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.activity.CommonActivityUtils;
 import im.vector.activity.JitsiCallActivity;
@@ -75,6 +73,7 @@ import im.vector.activity.WidgetActivity;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
 import im.vector.gcm.GcmRegistrationManager;
+import im.vector.search.HistoricalRoomsIndex;
 import im.vector.services.EventStreamService;
 import im.vector.util.BugReporter;
 import im.vector.util.CallsManager;
@@ -83,6 +82,7 @@ import im.vector.util.PreferencesManager;
 import im.vector.util.RageShake;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorMarkdownParser;
+import im.vector.util.VectorScheduler;
 
 /**
  * The main application injection point
@@ -117,8 +117,7 @@ public class VectorApp extends MultiDexApplication {
     /**
      * Background application detection
      */
-    private Timer mActivityTransitionTimer;
-    private TimerTask mActivityTransitionTimerTask;
+    private VectorScheduler.Task mActivityTransitionTask;
     private boolean mIsInBackground = true;
 
     /**
@@ -193,8 +192,7 @@ public class VectorApp extends MultiDexApplication {
 
         instance = this;
         mCallsManager = new CallsManager(this);
-        mActivityTransitionTimer = null;
-        mActivityTransitionTimerTask = null;
+        mActivityTransitionTask = null;
 
         try {
             PackageInfo packageInfo = getPackageManager().getPackageInfo(getPackageName(), 0);
@@ -401,6 +399,7 @@ public class VectorApp extends MultiDexApplication {
 
                 if (session.getDataHandler().areLeftRoomsSynced()) {
                     session.getDataHandler().releaseLeftRooms();
+                    HistoricalRoomsIndex.release(session);
                 }
             }
         }
@@ -421,54 +420,33 @@ public class VectorApp extends MultiDexApplication {
     private void startActivityTransitionTimer() {
         Log.d(LOG_TAG, "## startActivityTransitionTimer()");
 
-        try {
-            mActivityTransitionTimer = new Timer();
-            mActivityTransitionTimerTask = new TimerTask() {
-                @Override
-                public void run() {
-                    // reported by GA
-                    try {
-                        if (mActivityTransitionTimerTask != null) {
-                            mActivityTransitionTimerTask.cancel();
-                            mActivityTransitionTimerTask = null;
-                        }
-
-                        if (mActivityTransitionTimer != null) {
-                            mActivityTransitionTimer.cancel();
-                            mActivityTransitionTimer = null;
-                        }
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## startActivityTransitionTimer() failed " + e.getMessage());
-                    }
+        if (null != mActivityTransitionTask) {
+            mActivityTransitionTask.cancel();
+        }
 
-                    if (null != mCurrentActivity) {
-                        Log.e(LOG_TAG, "## startActivityTransitionTimer() : the timer expires but there is an active activity.");
+        mActivityTransitionTask = VectorScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mActivityTransitionTask = null;
+
+                if (null != mCurrentActivity) {
+                    Log.e(LOG_TAG, "## startActivityTransitionTimer() : the timer expires but there is an active activity.");
+                } else {
+                    VectorApp.this.mIsInBackground = true;
+                    mIsCallingInBackground = (null != mCallsManager.getActiveCall());
+
+                    // if there is a pending call
+                    // the application is not suspended
+                    if (!mIsCallingInBackground) {
+                        Log.d(LOG_TAG, "Suspend the application because there was no resumed activity within " + (MAX_ACTIVITY_TRANSITION_TIME_MS / 1000) + " seconds");
+                        CommonActivityUtils.displayMemoryInformation(null, " app suspended");
+                        suspendApp();
                     } else {
-                        VectorApp.this.mIsInBackground = true;
-                        mIsCallingInBackground = (null != mCallsManager.getActiveCall());
-
-                        // if there is a pending call
-                        // the application is not suspended
-                        if (!mIsCallingInBackground) {
-                            Log.d(LOG_TAG, "Suspend the application because there was no resumed activity within " + (MAX_ACTIVITY_TRANSITION_TIME_MS / 1000) + " seconds");
-                            CommonActivityUtils.displayMemoryInformation(null, " app suspended");
-                            suspendApp();
-                        } else {
-                            Log.d(LOG_TAG, "App not suspended due to call in progress");
-                        }
+                        Log.d(LOG_TAG, "App not suspended due to call in progress");
                     }
                 }
-            };
-
-            mActivityTransitionTimer.schedule(mActivityTransitionTimerTask, MAX_ACTIVITY_TRANSITION_TIME_MS);
-        } catch (Throwable throwable) {
-            Log.e(LOG_TAG, "## startActivityTransitionTimer() : failed to start the timer " + throwable.getMessage());
-
-            if (null != mActivityTransitionTimer) {
-                mActivityTransitionTimer.cancel();
-                mActivityTransitionTimer = null;
             }
-        }
+        }, MAX_ACTIVITY_TRANSITION_TIME_MS);
     }
 
     /**
@@ -497,14 +475,9 @@ public class VectorApp extends MultiDexApplication {
     private void stopActivityTransitionTimer() {
         Log.d(LOG_TAG, "## stopActivityTransitionTimer()");
 
-        if (mActivityTransitionTimerTask != null) {
-            mActivityTransitionTimerTask.cancel();
-            mActivityTransitionTimerTask = null;
-        }
-
-        if (mActivityTransitionTimer != null) {
-            mActivityTransitionTimer.cancel();
-            mActivityTransitionTimer = null;
+        if (mActivityTransitionTask != null) {
+            mActivityTransitionTask.cancel();
+            mActivityTransitionTask = null;
         }
 
         if (isAppInBackground() && !mIsCallingInBackground) {
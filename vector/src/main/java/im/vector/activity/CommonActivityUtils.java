@@ -82,8 +82,6 @@ import java.io.FileOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -99,8 +97,12 @@ import im.vector.contacts.PIDsRetriever;
 import im.vector.fragments.VectorUnknownDevicesFragment;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.services.EventStreamService;
+import im.vector.util.AvatarLoader;
+import im.vector.util.MemoryPressureManager;
 import im.vector.util.PreferencesManager;
+import im.vector.util.RecentRoomsOrder;
 import im.vector.util.ThemeUtils;
+import im.vector.util.VectorScheduler;
 import im.vector.util.VectorUtils;
 import me.leolin.shortcutbadger.ShortcutBadger;
 
@@ -1322,42 +1324,40 @@ public class CommonActivityUtils {
             return;
         }
 
-        ArrayList<RoomSummary> mergedSummaries = new ArrayList<>(session.getDataHandler().getStore().getSummaries());
+        RecentRoomsOrder recentRoomsOrder = RecentRoomsOrder.getInstance(session);
 
-        // keep only the joined room
-        for (int index = 0; index < mergedSummaries.size(); index++) {
-            RoomSummary summary = mergedSummaries.get(index);
-            Room room = session.getDataHandler().getRoom(summary.getRoomId());
-
-            if ((null == room) || room.isInvited() || room.isConferenceUserRoom()) {
-                mergedSummaries.remove(index);
-                index--;
-            }
+        if (null == recentRoomsOrder) {
+            return;
         }
 
-        Collections.sort(mergedSummaries, new Comparator<RoomSummary>() {
-            @Override
-            public int compare(RoomSummary lhs, RoomSummary rhs) {
-                if (lhs == null || lhs.getLatestReceivedEvent() == null) {
-                    return 1;
-                } else if (rhs == null || rhs.getLatestReceivedEvent() == null) {
-                    return -1;
-                }
+        final long startTime = System.currentTimeMillis();
 
-                if (lhs.getLatestReceivedEvent().getOriginServerTs() > rhs.getLatestReceivedEvent().getOriginServerTs()) {
-                    return -1;
-                } else if (lhs.getLatestReceivedEvent().getOriginServerTs() < rhs.getLatestReceivedEvent().getOriginServerTs()) {
-                    return 1;
+        // the rooms are sorted in background
+        recentRoomsOrder.getJoinedRoomSummaries(new RecentRoomsOrder.Listener() {
+            @Override
+            public void onRoomSummaries(List<RoomSummary> summaries) {
+                if (session.isAlive() && !fromActivity.isFinishing()) {
+                    displayRoomsSelection(fromActivity, intent, session, summaries, startTime);
                 }
-                return 0;
             }
         });
+    }
 
+    /**
+     * Display the rooms selection dialog to send some dedicated intent data.
+     *
+     * @param fromActivity the caller activity
+     * @param intent       the intent param
+     * @param session      the session
+     * @param summaries    the joined rooms summaries, the most recent first
+     * @param startTime    the time when the selection has been requested
+     */
+    private static void displayRoomsSelection(final Activity fromActivity, final Intent intent, final MXSession session, final List<RoomSummary> summaries, final long startTime) {
         AlertDialog.Builder builderSingle = new AlertDialog.Builder(fromActivity);
         builderSingle.setTitle(fromActivity.getText(R.string.send_files_in));
 
         VectorRoomsSelectionAdapter adapter = new VectorRoomsSelectionAdapter(fromActivity, R.layout.adapter_item_vector_recent_room, session);
-        adapter.addAll(mergedSummaries);
+        adapter.addAll(summaries);
 
         builderSingle.setNegativeButton(fromActivity.getText(R.string.cancel),
                 new DialogInterface.OnClickListener() {
@@ -1367,8 +1367,6 @@ public class CommonActivityUtils {
                     }
                 });
 
-        final ArrayList<RoomSummary> fMergedSummaries = mergedSummaries;
-
         builderSingle.setAdapter(adapter,
                 new DialogInterface.OnClickListener() {
 
@@ -1378,7 +1376,7 @@ public class CommonActivityUtils {
                         fromActivity.runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                RoomSummary summary = fMergedSummaries.get(which);
+                                RoomSummary summary = summaries.get(which);
 
                                 HashMap<String, Object> params = new HashMap<>();
                                 params.put(VectorRoomActivity.EXTRA_MATRIX_ID, session.getMyUserId());
@@ -1390,7 +1388,15 @@ public class CommonActivityUtils {
                         });
                     }
                 });
-        builderSingle.show();
+
+        AlertDialog dialog = builderSingle.create();
+        dialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialog) {
+                Log.d(LOG_TAG, "## displayRoomsSelection() : " + summaries.size() + " rooms displayed in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+        });
+        dialog.show();
     }
 
     //==============================================================================================================
@@ -1801,6 +1807,8 @@ public class CommonActivityUtils {
         Log.e(LOW_MEMORY_LOG_TAG, "usedSize   " + (usedSize / 1048576L) + " MB");
         Log.e(LOW_MEMORY_LOG_TAG, "freeSize   " + (freeSize / 1048576L) + " MB");
         Log.e(LOW_MEMORY_LOG_TAG, "totalSize  " + (totalSize / 1048576L) + " MB");
+        Log.e(LOW_MEMORY_LOG_TAG, "tasks      " + VectorScheduler.getInstance().getLiveTasksCount());
+        Log.e(LOW_MEMORY_LOG_TAG, "avatars    " + AvatarLoader.getInstance().getStats());
         Log.e(LOW_MEMORY_LOG_TAG, "---------------------------------------------------");
 
 
@@ -1833,7 +1841,12 @@ public class CommonActivityUtils {
             // it seems that onLowMemory is called whereas the device is seen on low memory condition
             // so, test if the both conditions
             if (displayMemoryInformation(activity, "onLowMemory test")) {
-                if (CommonActivityUtils.shouldRestartApp(activity)) {
+                // release the caches before trying something more radical
+                MemoryPressureManager.trim(activity, MemoryPressureManager.TIER_CRITICAL);
+
+                if (!displayMemoryInformation(activity, "onLowMemory after trim")) {
+                    Log.e(LOW_MEMORY_LOG_TAG, "the caches release was enough");
+                } else if (CommonActivityUtils.shouldRestartApp(activity)) {
                     Log.e(LOW_MEMORY_LOG_TAG, "restart");
                     CommonActivityUtils.restartApp(activity);
                 } else {
@@ -1859,7 +1872,8 @@ public class CommonActivityUtils {
     public static void onTrimMemory(Activity activity, int level) {
         String activityName = (null != activity) ? activity.getClass().getSimpleName() : "NotAvailable";
         Log.e(LOW_MEMORY_LOG_TAG, "Active application : onTrimMemory from " + activityName + " level=" + level);
-        // TODO implement things to reduce memory usage
+
+        MemoryPressureManager.onTrimMemory(activity, level);
 
         displayMemoryInformation(activity, "onTrimMemory");
     }
@@ -18,10 +18,7 @@ package im.vector.activity;
 
 import android.app.SearchManager;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -30,13 +27,11 @@ import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Filter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -44,8 +39,6 @@ import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import butterknife.BindView;
@@ -54,8 +47,10 @@ import im.vector.Matrix;
 import im.vector.R;
 import im.vector.adapters.AbsAdapter;
 import im.vector.adapters.HomeRoomAdapter;
+import im.vector.search.HistoricalRoomsIndex;
 import im.vector.util.RoomUtils;
 import im.vector.util.ThemeUtils;
+import im.vector.util.VectorScheduler;
 import im.vector.view.EmptyViewItemDecoration;
 import im.vector.view.SimpleDividerItemDecoration;
 
@@ -80,11 +75,24 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
     @BindView(R.id.historical_waiting_view)
     View mWaitingView;
 
+    // number of rooms added to the list when the user scrolls to its bottom
+    private static final int ROOMS_PAGE_SIZE = 50;
+
     // historical adapter
     private HomeRoomAdapter mHistoricalAdapter;
 
-    // pending tasks
-    private final List<AsyncTask> mSortingAsyncTasks = new ArrayList<>();
+    // the sorted historical rooms
+    private HistoricalRoomsIndex mHistoricalRoomsIndex;
+
+    // the rooms matching the current filter, only the first ones are displayed
+    private List<Room> mMatchedRooms = new ArrayList<>();
+    private int mDisplayedRoomsCount;
+
+    // incremented each time the displayed list is reset, the pending page appends are then ignored
+    private int mFilterGeneration;
+
+    // the filter is applied when the user stops typing
+    private final VectorScheduler.Debouncer mFilterDebouncer = VectorScheduler.getInstance().createDebouncer(300, true);
 
     // sessions
     private MXSession mSession;
@@ -139,11 +147,7 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
     @Override
     public void onStop() {
         super.onStop();
-
-        // Cancel running async tasks to prevent memory leaks
-        for (AsyncTask asyncTask : mSortingAsyncTasks) {
-            asyncTask.cancel(true);
-        }
+        mFilterDebouncer.cancel();
     }
 
     /*
@@ -170,6 +174,18 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
         mHistoricalAdapter = new HomeRoomAdapter(this, R.layout.adapter_item_room_view, this, null, this);
         mHistoricalRecyclerView.setAdapter(mHistoricalAdapter);
 
+        // the rooms are displayed page by page
+        mHistoricalRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+                if (layoutManager.findLastVisibleItemPosition() >= (mHistoricalAdapter.getItemCount() - (ROOMS_PAGE_SIZE / 2))) {
+                    displayNextRoomsPage();
+                }
+            }
+        });
+
         SearchManager searchManager = (SearchManager) getSystemService(Context.SEARCH_SERVICE);
         // Remove unwanted left margin
         LinearLayout searchEditFrame = mSearchView.findViewById(R.id.search_edit_frame);
@@ -204,80 +220,71 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
      */
 
     private void refreshHistorical() {
-        MXDataHandler dataHandler = mSession.getDataHandler();
+        // the index is released when the application is backgrounded
+        mHistoricalRoomsIndex = HistoricalRoomsIndex.getInstance(mSession);
 
-        if (!dataHandler.areLeftRoomsSynced()) {
+        if (!mHistoricalRoomsIndex.isReady()) {
             mHistoricalAdapter.setRooms(new ArrayList<Room>());
             mWaitingView.setVisibility(View.VISIBLE);
-            dataHandler.retrieveLeftRooms(new ApiCallback<Void>() {
-                @Override
-                public void onSuccess(Void info) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            initHistoricalRoomsData();
-                        }
-                    });
-                }
+        }
 
-                @Override
-                public void onNetworkError(Exception e) {
-                    onRequestDone(e.getLocalizedMessage());
-                }
+        mHistoricalRoomsIndex.load(this, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                mWaitingView.setVisibility(View.GONE);
+                applyFilter(mSearchView.getQuery().toString());
+            }
 
-                @Override
-                public void onMatrixError(MatrixError e) {
-                    onRequestDone(e.getLocalizedMessage());
-                }
+            @Override
+            public void onNetworkError(Exception e) {
+                onRequestDone(e.getLocalizedMessage());
+            }
 
-                @Override
-                public void onUnexpectedError(Exception e) {
-                    onRequestDone(e.getLocalizedMessage());
-                }
-            });
-        } else {
-            initHistoricalRoomsData();
-        }
+            @Override
+            public void onMatrixError(MatrixError e) {
+                onRequestDone(e.getLocalizedMessage());
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                onRequestDone(e.getLocalizedMessage());
+            }
+        });
     }
 
     /**
-     * Init history rooms data
+     * Display the historical rooms matching a pattern.
+     *
+     * @param pattern the pattern
      */
-    private void initHistoricalRoomsData() {
-        mWaitingView.setVisibility(View.GONE);
-        final List<Room> historicalRooms = new ArrayList<>(mSession.getDataHandler().getLeftRooms());
-        for (Iterator<Room> iterator = historicalRooms.iterator(); iterator.hasNext(); ) {
-            final Room room = iterator.next();
-            if (room.isConferenceUserRoom()) {
-                iterator.remove();
-            }
-        }
+    private void applyFilter(String pattern) {
+        mFilterGeneration++;
+        mMatchedRooms = mHistoricalRoomsIndex.search(pattern);
+        mDisplayedRoomsCount = Math.min(ROOMS_PAGE_SIZE, mMatchedRooms.size());
+        mHistoricalAdapter.setRooms(new ArrayList<>(mMatchedRooms.subList(0, mDisplayedRoomsCount)));
+        mHistoricalPlaceHolder.setVisibility(mMatchedRooms.isEmpty() ? View.VISIBLE : View.GONE);
+    }
 
-        AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                if (!isCancelled()) {
-                    try {
-                        Collections.sort(historicalRooms, RoomUtils.getHistoricalRoomsComparator(mSession, false));
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## initHistoricalRoomsData() : sort failed " + e.getMessage());
+    /**
+     * Display the next page of the matched rooms.
+     */
+    private void displayNextRoomsPage() {
+        if (mDisplayedRoomsCount < mMatchedRooms.size()) {
+            int count = Math.min(ROOMS_PAGE_SIZE, mMatchedRooms.size() - mDisplayedRoomsCount);
+            final List<Room> page = new ArrayList<>(mMatchedRooms.subList(mDisplayedRoomsCount, mDisplayedRoomsCount + count));
+            final int filterGeneration = mFilterGeneration;
+            mDisplayedRoomsCount += count;
+
+            // the adapter cannot be updated while the recycler view is computing its layout
+            mHistoricalRecyclerView.post(new Runnable() {
+                @Override
+                public void run() {
+                    // the list has been reset since the page has been computed
+                    if (filterGeneration == mFilterGeneration) {
+                        mHistoricalAdapter.addRooms(page);
                     }
                 }
-                return null;
-            }
-
-            @Override
-            protected void onPostExecute(Void args) {
-                mHistoricalAdapter.setRooms(historicalRooms);
-            }
-        };
-
-        try {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-            mSortingAsyncTasks.add(task);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## initHistoricalRoomsData() failed " + e.getMessage());
-            task.cancel(true);
+            });
         }
     }
 
@@ -287,38 +294,19 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
      * *********************************************************************************************
      */
     @Override
-    public boolean onQueryTextChange(String newText) {
-        // compute an unique pattern
-        final String filter = newText;
-
-        if (mSession.getDataHandler().areLeftRoomsSynced()) {
+    public boolean onQueryTextChange(final String newText) {
+        if ((null != mHistoricalRoomsIndex) && mHistoricalRoomsIndex.isReady()) {
             // wait before really triggering the search
             // else a search is triggered for each new character
-            // eg "matt" triggers
-            // 1 - search for m
-            // 2 - search for ma
-            // 3 - search for mat
-            // 4 - search for matt
-            // whereas only one search should have been triggered
-            // else it might trigger some lags evenif the search is done in a background thread
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            mFilterDebouncer.submit(new Runnable() {
                 @Override
                 public void run() {
-                    String queryText = mSearchView.getQuery().toString();
-                    String currentFilter = queryText;
-
-                    // display if the pattern matched
-                    if (TextUtils.equals(currentFilter, filter)) {
-                        mHistoricalAdapter.getFilter().filter(filter, new Filter.FilterListener() {
-                            @Override
-                            public void onFilterComplete(int count) {
-                                mHistoricalRecyclerView.scrollToPosition(0);
-                                mHistoricalPlaceHolder.setVisibility((0 != count) ? View.GONE : View.VISIBLE);
-                            }
-                        });
+                    if (TextUtils.equals(mSearchView.getQuery().toString(), newText) && mHistoricalRoomsIndex.isReady()) {
+                        applyFilter(newText);
+                        mHistoricalRecyclerView.scrollToPosition(0);
                     }
                 }
-            }, 500);
+            });
         }
         return true;
     }
@@ -389,14 +377,46 @@ public class HistoricalRoomsActivity extends RiotAppCompatActivity implements Se
         RoomUtils.displayHistoricalRoomMenu(this, mSession, room, itemView, this);
     }
 
+    /**
+     * Remove a forgotten room from the displayed list.
+     *
+     * @param roomId the room id
+     */
+    private void removeForgottenRoom(String roomId) {
+        mHistoricalRoomsIndex.removeRoom(roomId);
+
+        for (int index = 0; index < mMatchedRooms.size(); index++) {
+            if (TextUtils.equals(mMatchedRooms.get(index).getRoomId(), roomId)) {
+                mMatchedRooms.remove(index);
+
+                if (index < mDisplayedRoomsCount) {
+                    mDisplayedRoomsCount--;
+                }
+                break;
+            }
+        }
+
+        mFilterGeneration++;
+        mHistoricalAdapter.setRooms(new ArrayList<>(mMatchedRooms.subList(0, mDisplayedRoomsCount)));
+        mHistoricalPlaceHolder.setVisibility(mMatchedRooms.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
     @Override
     public void onForgotRoom(Room room) {
         mWaitingView.setVisibility(View.VISIBLE);
 
+        final String roomId = room.getRoomId();
+
         room.forget(new ApiCallback<Void>() {
             @Override
             public void onSuccess(Void info) {
-                initHistoricalRoomsData();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mWaitingView.setVisibility(View.GONE);
+                        removeForgottenRoom(roomId);
+                    }
+                });
             }
 
             @Override
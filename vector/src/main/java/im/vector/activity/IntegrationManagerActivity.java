@@ -59,6 +59,7 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import im.vector.Matrix;
 import im.vector.R;
+import im.vector.util.RoomMembersStats;
 import im.vector.widgets.Widget;
 import im.vector.widgets.WidgetsManager;
 
@@ -866,6 +867,6 @@ public class IntegrationManagerActivity extends RiotAppCompatActivity {
      * @param eventData the modular data
      */
     private void getMembershipCount(final Map<String, Object> eventData) {
-        sendIntegerResponse(mRoom.getJoinedMembers().size(), eventData);
+        sendIntegerResponse(RoomMembersStats.getInstance(mSession).getJoinedMembersCount(mRoom), eventData);
     }
 }
\ No newline at end of file
@@ -27,7 +27,6 @@ import android.speech.RecognizerIntent;
 import android.support.v7.app.ActionBar;
 import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -39,11 +38,10 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.R;
 import im.vector.util.ThemeUtils;
+import im.vector.util.VectorScheduler;
 
 /**
  * This class defines a base class to manage search in action bar
@@ -63,6 +61,9 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
     private MenuItem mMicroMenuItem;
     private MenuItem mClearEditTextMenuItem;
 
+    // the pattern updates are dispatched after a delay
+    private final VectorScheduler.Debouncer mPatternUpdateDebouncer = VectorScheduler.getInstance().createDebouncer(100, true);
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -86,46 +87,16 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
                 VectorBaseSearchActivity.this.refreshMenuEntries();
                 final String fPattern = mPatternToSearchEditText.getText().toString();
 
-                Timer timer = new Timer();
-
-                try {
-                    // wait a little delay before refreshing the results.
-                    // it avoid UI lags when the user is typing.
-                    timer.schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            VectorBaseSearchActivity.this.runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    if (TextUtils.equals(mPatternToSearchEditText.getText().toString(), fPattern)) {
-                                        VectorBaseSearchActivity.this.runOnUiThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                onPatternUpdate(true);
-                                            }
-                                        });
-                                    }
-                                }
-                            });
-                        }
-                    }, 100);
-                } catch (Throwable throwable) {
-                    Log.e(LOG_TAG, "## failed to start the timer " + throwable.getMessage());
-
-                    VectorBaseSearchActivity.this.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (TextUtils.equals(mPatternToSearchEditText.getText().toString(), fPattern)) {
-                                VectorBaseSearchActivity.this.runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        onPatternUpdate(true);
-                                    }
-                                });
-                            }
+                // wait a little delay before refreshing the results.
+                // it avoid UI lags when the user is typing.
+                mPatternUpdateDebouncer.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (TextUtils.equals(mPatternToSearchEditText.getText().toString(), fPattern)) {
+                            onPatternUpdate(true);
                         }
-                    });
-                }
+                    }
+                });
             }
 
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {
@@ -177,6 +148,13 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        // the pending pattern update must not be triggered on a destroyed activity
+        mPatternUpdateDebouncer.cancel();
+        super.onDestroy();
+    }
+
     /**
      * The search pattern has been updated.
      *
@@ -57,14 +57,13 @@ import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.call.IMXCall;
 
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.Matrix;
 import im.vector.R;
 import im.vector.VectorApp;
 import im.vector.services.EventStreamService;
 import im.vector.util.CallsManager;
+import im.vector.util.VectorScheduler;
 import im.vector.util.VectorUtils;
 import im.vector.view.VectorPendingCallView;
 
@@ -100,8 +99,7 @@ public class VectorCallViewActivity extends RiotAppCompatActivity implements Sen
     private View mAcceptIncomingCallButton;
 
     // video screen management
-    private Timer mVideoFadingEdgesTimer;
-    private TimerTask mVideoFadingEdgesTimerTask;
+    private VectorScheduler.Task mVideoFadingEdgesTask;
     private static final short FADE_IN_DURATION = 250;
     private static final short FADE_OUT_DURATION = 2000;
     private static final short VIDEO_FADING_TIMER = 5000;
@@ -810,10 +808,9 @@ public class VectorCallViewActivity extends RiotAppCompatActivity implements Sen
      * Stop the video fading timer.
      */
     private void stopVideoFadingEdgesScreenTimer() {
-        if (null != mVideoFadingEdgesTimer) {
-            mVideoFadingEdgesTimer.cancel();
-            mVideoFadingEdgesTimer = null;
-            mVideoFadingEdgesTimerTask = null;
+        if (null != mVideoFadingEdgesTask) {
+            mVideoFadingEdgesTask.cancel();
+            mVideoFadingEdgesTask = null;
         }
     }
 
@@ -829,27 +826,13 @@ public class VectorCallViewActivity extends RiotAppCompatActivity implements Sen
         // stop current timer in progress
         stopVideoFadingEdgesScreenTimer();
 
-        try {
-            mVideoFadingEdgesTimer = new Timer();
-            mVideoFadingEdgesTimerTask = new TimerTask() {
-                public void run() {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            stopVideoFadingEdgesScreenTimer();
-                            fadeOutVideoEdge();
-                        }
-                    });
-                }
-            };
-
-            mVideoFadingEdgesTimer.schedule(mVideoFadingEdgesTimerTask, VIDEO_FADING_TIMER);
-        } catch (Throwable throwable) {
-            Log.e(LOG_TAG, "## startVideoFadingEdgesScreenTimer() " + throwable.getMessage());
-
-            stopVideoFadingEdgesScreenTimer();
-            fadeOutVideoEdge();
-        }
+        mVideoFadingEdgesTask = VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mVideoFadingEdgesTask = null;
+                fadeOutVideoEdge();
+            }
+        }, VIDEO_FADING_TIMER);
     }
 
     /**
@@ -98,8 +98,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -118,8 +116,11 @@ import im.vector.services.EventStreamService;
 import im.vector.util.BugReporter;
 import im.vector.util.CallsManager;
 import im.vector.util.PreferencesManager;
+import im.vector.util.RoomAliasCache;
 import im.vector.util.RoomUtils;
+import im.vector.util.SharedFilesIngestor;
 import im.vector.util.ThemeUtils;
+import im.vector.util.VectorScheduler;
 import im.vector.util.VectorUtils;
 import im.vector.view.UnreadCounterBadgeView;
 import im.vector.view.VectorPendingCallView;
@@ -169,6 +170,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
 
     // Key used to restore the proper fragment after orientation change
     private static final String CURRENT_MENU_ID = "CURRENT_MENU_ID";
+    private static final String PENDING_INGESTION_INTENT = "PENDING_INGESTION_INTENT";
 
     // switch to a room activity
     private Map<String, Object> mAutomaticallyOpenedRoomParams = null;
@@ -184,7 +186,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     FloatingActionButton mFloatingActionButton;
 
     // mFloatingActionButton is hidden for 1s when there is scroll
-    private Timer mFloatingActionButtonTimer;
+    private final VectorScheduler.Debouncer mFloatingActionButtonDebouncer = VectorScheduler.getInstance().createDebouncer(1000, true);
 
     private MXEventListener mEventsListener;
 
@@ -215,6 +217,10 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     // a shared files intent is waiting the store init
     private Intent mSharedFilesIntent = null;
 
+    // the shared files intent waiting that the shared files are copied
+    private Intent mPendingIngestionIntent = null;
+    private SharedFilesIngestor.IngestionListener mIngestionListener = null;
+
     private final BroadcastReceiver mBrdRcvStopWaitingView = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -312,6 +318,22 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
             intent.removeExtra(EXTRA_JUMP_TO_ROOM_PARAMS);
             intent.removeExtra(EXTRA_MEMBER_ID);
             intent.removeExtra(VectorUniversalLinkReceiver.EXTRA_UNIVERSAL_LINK_URI);
+
+            // the activity has been recreated while the shared files were copied : wait again for them
+            final Intent pendingIngestionIntent = savedInstanceState.getParcelable(PENDING_INGESTION_INTENT);
+
+            if (null != pendingIngestionIntent) {
+                if (mSession.getDataHandler().getStore().isReady()) {
+                    this.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendSharedFiles(pendingIngestionIntent);
+                        }
+                    });
+                } else {
+                    mSharedFilesIntent = pendingIngestionIntent;
+                }
+            }
         } else {
 
             if (intent.hasExtra(EXTRA_CALL_SESSION_ID) && intent.hasExtra(EXTRA_CALL_ID)) {
@@ -373,7 +395,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
 
                         // it is a room alias
                         // convert the room alias to room Id
-                        mSession.getDataHandler().roomIdByAlias(roomIdOrAlias, new SimpleApiCallback<String>() {
+                        RoomAliasCache.getInstance(mSession).resolve(roomIdOrAlias, new SimpleApiCallback<String>() {
                             @Override
                             public void onSuccess(String roomId) {
                                 Log.d(LOG_TAG, "Retrieve the room ID " + roomId);
@@ -404,7 +426,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
                         @Override
                         public void run() {
                             Log.d(LOG_TAG, "shared intent : The store is ready -> display sendFilesTo");
-                            CommonActivityUtils.sendFilesTo(VectorHomeActivity.this, sharedFilesIntent);
+                            sendSharedFiles(sharedFilesIntent);
                         }
                     });
                 } else {
@@ -621,6 +643,12 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putInt(CURRENT_MENU_ID, mCurrentMenuId);
+
+        if (null != mPendingIngestionIntent) {
+            outState.putParcelable(PENDING_INGESTION_INTENT, mPendingIngestionIntent);
+        } else if ((null != mSharedFilesIntent) && SharedFilesIngestor.isIngestionIntent(mSharedFilesIntent)) {
+            outState.putParcelable(PENDING_INGESTION_INTENT, mSharedFilesIntent);
+        }
     }
 
     @Override
@@ -639,12 +667,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
             removeEventsListener();
         }
 
-        synchronized (this) {
-            if (null != mFloatingActionButtonTimer) {
-                mFloatingActionButtonTimer.cancel();
-                mFloatingActionButtonTimer = null;
-            }
-        }
+        mFloatingActionButtonDebouncer.cancel();
 
         if (mFabDialog != null) {
             // Prevent leak after orientation changed
@@ -659,6 +682,12 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     public void onDestroy() {
         super.onDestroy();
 
+        // the pending ingestion is kept for the recreated activity
+        if (null != mIngestionListener) {
+            SharedFilesIngestor.getInstance(this).removeIngestionListener(mIngestionListener);
+            mIngestionListener = null;
+        }
+
         // release the static instance if it is the current implementation
         if (sharedInstance == this) {
             sharedInstance = null;
@@ -787,13 +816,8 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
                 break;
         }
 
-        synchronized (this) {
-            if (null != mFloatingActionButtonTimer) {
-                mFloatingActionButtonTimer.cancel();
-                mFloatingActionButtonTimer = null;
-            }
-            mFloatingActionButton.show();
-        }
+        mFloatingActionButtonDebouncer.cancel();
+        mFloatingActionButton.show();
 
         // clear waiting view
         stopWaitingView();
@@ -911,6 +935,52 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
         hideKeyboard();
     }
 
+    /**
+     * Offer to send the shared files to a room.
+     * Wait that the shared files are copied if it is not yet done.
+     *
+     * @param sharedFilesIntent the shared files intent
+     */
+    private void sendSharedFiles(Intent sharedFilesIntent) {
+        if (!SharedFilesIngestor.isIngestionIntent(sharedFilesIntent)) {
+            CommonActivityUtils.sendFilesTo(this, sharedFilesIntent);
+            return;
+        }
+
+        showWaitingView();
+
+        SharedFilesIngestor ingestor = SharedFilesIngestor.getInstance(this);
+
+        if (null != mIngestionListener) {
+            ingestor.removeIngestionListener(mIngestionListener);
+        }
+
+        mPendingIngestionIntent = sharedFilesIntent;
+        mIngestionListener = new SharedFilesIngestor.IngestionListener() {
+            @Override
+            public void onProgress(int copiedCount, int totalCount) {
+                Log.d(LOG_TAG, "## sendSharedFiles() : " + copiedCount + " / " + totalCount + " copied files");
+            }
+
+            @Override
+            public void onComplete(Intent intent) {
+                mPendingIngestionIntent = null;
+                mIngestionListener = null;
+                hideWaitingView();
+
+                if (!isFinishing()) {
+                    CommonActivityUtils.sendFilesTo(VectorHomeActivity.this, intent);
+                }
+            }
+        };
+
+        if (!ingestor.waitForIngestion(sharedFilesIntent, mIngestionListener)) {
+            mPendingIngestionIntent = null;
+            mIngestionListener = null;
+            hideWaitingView();
+        }
+    }
+
     /**
      * SHow teh waiting view
      */
@@ -1146,60 +1216,21 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
      * @param fragmentTag the calling fragment tag
      */
     public void hideFloatingActionButton(String fragmentTag) {
-        synchronized (this) {
-            // check if the calling fragment is the current one
-            // during the fragment switch, the unplugged one might call this method
-            // before the new one is plugged.
-            // for example, if the switch is performed while the current list is scrolling.
-            if (TextUtils.equals(mCurrentFragmentTag, fragmentTag)) {
-                if (null != mFloatingActionButtonTimer) {
-                    mFloatingActionButtonTimer.cancel();
-                }
-
-                if (null != mFloatingActionButton) {
-                    mFloatingActionButton.hide();
-
-                    try {
-                        mFloatingActionButtonTimer = new Timer();
-                        mFloatingActionButtonTimer.schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                synchronized (this) {
-                                    if (null != mFloatingActionButtonTimer) {
-                                        mFloatingActionButtonTimer.cancel();
-                                        mFloatingActionButtonTimer = null;
-                                    }
-                                }
-                                VectorHomeActivity.this.runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        if (null != mFloatingActionButton) {
-                                            mFloatingActionButton.show();
-                                        }
-                                    }
-                                });
-                            }
-                        }, 1000);
-                    } catch (Throwable throwable) {
-                        Log.e(LOG_TAG, "failed to init mFloatingActionButtonTimer " + throwable.getMessage());
-
-                        if (null != mFloatingActionButtonTimer) {
-                            mFloatingActionButtonTimer.cancel();
-                            mFloatingActionButtonTimer = null;
-                        }
-
-                        VectorHomeActivity.this.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (null != mFloatingActionButton) {
-                                    mFloatingActionButton.show();
-                                }
-                            }
-                        });
-
+        // check if the calling fragment is the current one
+        // during the fragment switch, the unplugged one might call this method
+        // before the new one is plugged.
+        // for example, if the switch is performed while the current list is scrolling.
+        if (TextUtils.equals(mCurrentFragmentTag, fragmentTag) && (null != mFloatingActionButton)) {
+            mFloatingActionButton.hide();
+
+            mFloatingActionButtonDebouncer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (null != mFloatingActionButton) {
+                        mFloatingActionButton.show();
                     }
                 }
-            }
+            });
         }
     }
 
@@ -2182,7 +2213,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
 
                 if (null != mSharedFilesIntent) {
                     Log.d(LOG_TAG, "shared intent : the store is now ready, display sendFilesTo");
-                    CommonActivityUtils.sendFilesTo(VectorHomeActivity.this, mSharedFilesIntent);
+                    sendSharedFiles(mSharedFilesIntent);
                     mSharedFilesIntent = null;
                 }
             }
@@ -20,7 +20,6 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.view.ViewPager;
-import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -37,8 +36,6 @@ import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.util.List;
 
 import im.vector.Matrix;
@@ -193,6 +190,15 @@ public class VectorMediasViewerActivity extends MXCActionBarActivity {
         mAdapter.stopPlayingVideo();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (null != mAdapter) {
+            mAdapter.release();
+        }
+
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // the application is in a weird state
@@ -228,29 +234,13 @@ public class VectorMediasViewerActivity extends MXCActionBarActivity {
                 });
             } else {
                 // shared
+                // the cached file is exposed with its file name : there is no copy
                 Uri mediaUri = null;
 
-                File renamedFile = file;
-
-                if (!TextUtils.isEmpty(mediaInfo.mFileName))
-                    try {
-                        InputStream fin = new FileInputStream(file);
-                        String tmpUrl = mediasCache.saveMedia(fin, mediaInfo.mFileName, mediaInfo.mMimeType);
-
-                        if (null != tmpUrl) {
-                            renamedFile = mediasCache.mediaCacheFile(tmpUrl, mediaInfo.mMimeType);
-                        }
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## onAction() : mediasCache.mediaCacheFile.absolutePathToUri failed " + e.getMessage());
-                    }
-
-
-                if (null != renamedFile) {
-                    try {
-                        mediaUri = VectorContentProvider.absolutePathToUri(this, renamedFile.getAbsolutePath());
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## onAction() : RiotContentProvider.absolutePathToUri failed " + e.getMessage());
-                    }
+                try {
+                    mediaUri = VectorContentProvider.mediaFileToUri(this, file, mediaInfo.mFileName, mediaInfo.mMimeType);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onAction() : VectorContentProvider.mediaFileToUri failed " + e.getMessage());
                 }
 
                 if (null != mediaUri) {
@@ -90,7 +90,6 @@ import org.matrix.androidsdk.rest.model.PowerLevels;
 import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.User;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 import org.matrix.androidsdk.util.ResourceUtils;
 import org.matrix.androidsdk.view.AutoScrollDownListView;
@@ -102,8 +101,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.Matrix;
 import im.vector.R;
@@ -116,10 +113,13 @@ import im.vector.util.CallsManager;
 import im.vector.util.NotificationUtils;
 import im.vector.util.PreferencesManager;
 import im.vector.util.ReadMarkerManager;
+import im.vector.util.RoomLiveEventsBatcher;
+import im.vector.util.RoomMembersStats;
 import im.vector.util.SlashComandsParser;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorMarkdownParser;
 import im.vector.util.VectorRoomMediasSender;
+import im.vector.util.VectorScheduler;
 import im.vector.util.VectorUtils;
 import im.vector.view.ActiveWidgetsBanner;
 import im.vector.view.VectorAutoCompleteTextView;
@@ -231,6 +231,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     private TextView mActionBarHeaderRoomName;
 
     private View mActionBarHeaderActiveMembersLayout;
+    // a members status refresh is scheduled for the next frame
+    private boolean mIsRoomHeaderMembersStatusRefreshPending = false;
     private TextView mActionBarHeaderActiveMembersTextView;
 
     private View mActionBarHeaderActiveMembersInviteButton;
@@ -286,8 +288,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     private String mCallId = null;
 
     // typing event management
-    private Timer mTypingTimer = null;
-    private TimerTask mTypingTimerTask;
+    private VectorScheduler.Task mTypingTask = null;
     private long mLastTypingDate = 0;
 
     // scroll to a dedicated index
@@ -341,7 +342,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         @Override
         public void onPresenceUpdate(Event event, User user) {
             // the header displays active members
-            updateRoomHeaderMembersStatus();
+            scheduleRoomHeaderMembersStatusUpdate();
         }
 
         @Override
@@ -370,9 +371,51 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         @Override
         public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
             mSyncInProgressView.setVisibility(View.GONE);
+            mLiveEventsBatcher.onLiveEventsChunkProcessed();
         }
     };
 
+    /**
+     * Apply the live events updates once per sync chunk
+     */
+    private final RoomLiveEventsBatcher mLiveEventsBatcher = new RoomLiveEventsBatcher(new RoomLiveEventsBatcher.Listener() {
+        @Override
+        public void onFacetsUpdate(int facets) {
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_TITLE)) {
+                setTitle();
+            }
+
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_MEMBERS)) {
+                scheduleRoomHeaderMembersStatusUpdate();
+            }
+
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_AVATAR)) {
+                updateRoomHeaderAvatar();
+            }
+
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_POWER_LEVELS)) {
+                checkSendEventStatus();
+            }
+
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_TOPIC)) {
+                setTopic();
+            }
+
+            if ((0 != (facets & RoomLiveEventsBatcher.FACET_ENCRYPTION)) && (null != mRoom)) {
+                boolean canSendEncryptedEvent = mRoom.isEncrypted() && mSession.isCryptoEnabled();
+                mE2eImageView.setImageResource(canSendEncryptedEvent ? R.drawable.e2e_verified : R.drawable.e2e_unencrypted);
+                mVectorMessageListFragment.setIsRoomEncrypted(mRoom.isEncrypted());
+            }
+
+            // onRoomTypings refreshes the notifications area
+            if (0 != (facets & RoomLiveEventsBatcher.FACET_TYPING)) {
+                onRoomTypings();
+            } else if ((0 != (facets & RoomLiveEventsBatcher.FACET_NOTIFICATIONS_AREA)) && !VectorApp.isAppInBackground()) {
+                refreshNotificationsArea();
+            }
+        }
+    });
+
     /**
      * The room events listener
      */
@@ -383,7 +426,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                 @Override
                 public void run() {
                     updateActionBarTitleAndTopic();
-                    updateRoomHeaderMembersStatus();
+                    scheduleRoomHeaderMembersStatusUpdate();
                     updateRoomHeaderAvatar();
                 }
             });
@@ -401,50 +444,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
         @Override
         public void onLiveEvent(final Event event, RoomState roomState) {
-            VectorRoomActivity.this.runOnUiThread(new Runnable() {
-
-                @Override
-                public void run() {
-                    String eventType = event.getType();
-
-                    // The various events that could possibly change the room title
-                    if (Event.EVENT_TYPE_STATE_ROOM_NAME.equals(eventType)
-                            || Event.EVENT_TYPE_STATE_ROOM_ALIASES.equals(eventType)
-                            || Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
-                        setTitle();
-                        updateRoomHeaderMembersStatus();
-                        updateRoomHeaderAvatar();
-                    } else if (Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
-                        checkSendEventStatus();
-                    } else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(eventType)) {
-                        Log.d(LOG_TAG, "Updating room topic.");
-                        RoomState roomState = JsonUtils.toRoomState(event.getContent());
-                        setTopic(roomState.topic);
-                    } else if (Event.EVENT_TYPE_TYPING.equals(eventType)) {
-                        Log.d(LOG_TAG, "on room typing");
-                        onRoomTypings();
-                    }
-                    // header room specific
-                    else if (Event.EVENT_TYPE_STATE_ROOM_AVATAR.equals(eventType)) {
-                        Log.d(LOG_TAG, "Event room avatar");
-                        updateRoomHeaderAvatar();
-                    } else if (Event.EVENT_TYPE_MESSAGE_ENCRYPTION.equals(eventType)) {
-                        boolean canSendEncryptedEvent = mRoom.isEncrypted() && mSession.isCryptoEnabled();
-                        mE2eImageView.setImageResource(canSendEncryptedEvent ? R.drawable.e2e_verified : R.drawable.e2e_unencrypted);
-                        mVectorMessageListFragment.setIsRoomEncrypted(mRoom.isEncrypted());
-                    }
-
-                    if (!VectorApp.isAppInBackground()) {
-                        // do not send read receipt for the typing events
-                        // they are ephemeral ones.
-                        if (!Event.EVENT_TYPE_TYPING.equals(eventType)) {
-                            if (null != mRoom) {
-                                refreshNotificationsArea();
-                            }
-                        }
-                    }
-                }
-            });
+            // the UI is updated once per sync chunk
+            mLiveEventsBatcher.onLiveEvent(event);
         }
 
         @Override
@@ -472,32 +473,17 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
         @Override
         public void onEventSentStateUpdated(Event event) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    refreshNotificationsArea();
-                }
-            });
+            mLiveEventsBatcher.invalidate(RoomLiveEventsBatcher.FACET_NOTIFICATIONS_AREA);
         }
 
         @Override
         public void onEventSent(Event event, String prevEventId) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    refreshNotificationsArea();
-                }
-            });
+            mLiveEventsBatcher.invalidate(RoomLiveEventsBatcher.FACET_NOTIFICATIONS_AREA);
         }
 
         @Override
         public void onReceiptEvent(String roomId, List<String> senderIds) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    refreshNotificationsArea();
-                }
-            });
+            mLiveEventsBatcher.invalidate(RoomLiveEventsBatcher.FACET_NOTIFICATIONS_AREA);
         }
 
         @Override
@@ -1178,6 +1164,9 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
             mActiveWidgetsBanner.setOnUpdateListener(null);
         }
 
+        mLiveEventsBatcher.cancel();
+        Log.d(LOG_TAG, "## onDestroy() : " + mLiveEventsBatcher.getStats());
+
         super.onDestroy();
     }
 
@@ -2016,7 +2005,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         int notificationTimeoutMS = -1;
         if (isTyping) {
             // Check whether a typing event has been already reported to server (We wait for the end of the local timeout before considering this new event)
-            if (null != mTypingTimer) {
+            if (null != mTypingTask) {
                 // Refresh date of the last observed typing
                 System.currentTimeMillis();
                 mLastTypingDate = System.currentTimeMillis();
@@ -2040,42 +2029,17 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
             if (timerTimeoutInMs > 0) {
 
-                try {
-                    mTypingTimerTask = new TimerTask() {
-                        public void run() {
-                            synchronized (LOG_TAG) {
-                                if (mTypingTimerTask != null) {
-                                    mTypingTimerTask.cancel();
-                                    mTypingTimerTask = null;
-                                }
-
-                                if (mTypingTimer != null) {
-                                    mTypingTimer.cancel();
-                                    mTypingTimer = null;
-                                }
+                mTypingTask = VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTypingTask = null;
 
-                                Log.d(LOG_TAG, "##handleTypingNotification() : send end of typing");
+                        Log.d(LOG_TAG, "##handleTypingNotification() : send end of typing");
 
-                                // Post a new typing notification
-                                VectorRoomActivity.this.handleTypingNotification(0 != mLastTypingDate);
-                            }
-                        }
-                    };
-                } catch (Throwable throwable) {
-                    Log.e(LOG_TAG, "## mTypingTimerTask creation failed " + throwable.getMessage());
-                    return;
-                }
-
-                try {
-                    synchronized (LOG_TAG) {
-                        mTypingTimer = new Timer();
-                        mTypingTimer.schedule(mTypingTimerTask, TYPING_TIMEOUT_MS);
+                        // Post a new typing notification
+                        VectorRoomActivity.this.handleTypingNotification(0 != mLastTypingDate);
                     }
-                } catch (Throwable throwable) {
-                    Log.e(LOG_TAG, "fails to launch typing timer " + throwable.getMessage());
-                    mTypingTimer = null;
-                    mTypingTimerTask = null;
-                }
+                }, TYPING_TIMEOUT_MS);
 
                 // Compute the notification timeout in ms (consider the double of the local typing timeout)
                 notificationTimeoutMS = TYPING_TIMEOUT_MS * 2;
@@ -2085,15 +2049,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
             }
         } else {
             // Cancel any typing timer
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
-
-            if (mTypingTimer != null) {
-                mTypingTimer.cancel();
-                mTypingTimer = null;
-            }
+            cancelTypingTask();
             // Reset last typing date
             mLastTypingDate = 0;
         }
@@ -2109,31 +2065,26 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
             @Override
             public void onNetworkError(Exception e) {
-                if (mTypingTimerTask != null) {
-                    mTypingTimerTask.cancel();
-                    mTypingTimerTask = null;
-                }
-
-                if (mTypingTimer != null) {
-                    mTypingTimer.cancel();
-                    mTypingTimer = null;
-                }
+                cancelTypingTask();
                 // do not send again
                 // assume that the typing event is optional
             }
         });
     }
 
+    /**
+     * Cancel the pending end of typing task.
+     */
+    private void cancelTypingTask() {
+        if (null != mTypingTask) {
+            mTypingTask.cancel();
+            mTypingTask = null;
+        }
+    }
+
     private void cancelTypingNotification() {
         if (0 != mLastTypingDate) {
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
-            if (mTypingTimer != null) {
-                mTypingTimer.cancel();
-                mTypingTimer = null;
-            }
+            cancelTypingTask();
 
             mLastTypingDate = 0;
 
@@ -2968,10 +2919,33 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         }
     }
 
+    /**
+     * Refresh the members status in the expendable header at the next frame.
+     * The membership and presence updates received before this frame are displayed by a single refresh.
+     */
+    private void scheduleRoomHeaderMembersStatusUpdate() {
+        if ((null == mActionBarHeaderActiveMembersLayout) || mIsRoomHeaderMembersStatusRefreshPending) {
+            return;
+        }
+
+        mIsRoomHeaderMembersStatusRefreshPending = true;
+
+        mActionBarHeaderActiveMembersLayout.postOnAnimation(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsRoomHeaderMembersStatusRefreshPending) {
+                    updateRoomHeaderMembersStatus();
+                }
+            }
+        });
+    }
+
     /**
      * Display the active members count / members count in the expendable header.
      */
     private void updateRoomHeaderMembersStatus() {
+        mIsRoomHeaderMembersStatusRefreshPending = false;
+
         if (null != mActionBarHeaderActiveMembersLayout) {
             // refresh only if the action bar is hidden
             if (mActionBarCustomTitle.getVisibility() == View.GONE) {
@@ -2983,16 +2957,25 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                     RoomState roomState = (null != sRoomPreviewData) ? sRoomPreviewData.getRoomState() : mRoom.getState();
 
                     if (null != roomState) {
-                        Collection<RoomMember> members = roomState.getDisplayableMembers();
+                        RoomMembersStats membersStats = (null == sRoomPreviewData) ? RoomMembersStats.getInstance(mSession) : null;
 
-                        for (RoomMember member : members) {
-                            if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
-                                joinedMembersCount++;
+                        if (null != membersStats) {
+                            // the counters are incrementally updated
+                            joinedMembersCount = membersStats.getJoinedMembersCount(mRoom);
+                            activeMembersCount = membersStats.getActiveMembersCount(mRoom);
+                        } else {
+                            // the previewed room members are not tracked
+                            Collection<RoomMember> members = roomState.getDisplayableMembers();
 
-                                User user = mSession.getDataHandler().getStore().getUser(member.getUserId());
+                            for (RoomMember member : members) {
+                                if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
+                                    joinedMembersCount++;
 
-                                if ((null != user) && user.isActive()) {
-                                    activeMembersCount++;
+                                    User user = mSession.getDataHandler().getStore().getUser(member.getUserId());
+
+                                    if ((null != user) && user.isActive()) {
+                                        activeMembersCount++;
+                                    }
                                 }
                             }
                         }
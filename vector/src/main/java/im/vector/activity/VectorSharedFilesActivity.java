@@ -23,12 +23,11 @@ import org.matrix.androidsdk.data.RoomMediaMessage;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.MXSession;
-import org.matrix.androidsdk.util.ContentUtils;
 
-import java.io.File;
-import java.util.ArrayList;
+import java.util.List;
 
 import im.vector.Matrix;
+import im.vector.util.SharedFilesIngestor;
 
 /**
  * Dummy activity used to manage the shared
@@ -36,8 +35,6 @@ import im.vector.Matrix;
 public class VectorSharedFilesActivity extends RiotBaseActivity {
     private static final String LOG_TAG = VectorSharedFilesActivity.class.getSimpleName();
 
-    private final String SHARED_FOLDER = "VectorShared";
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -97,32 +94,16 @@ public class VectorSharedFilesActivity extends RiotBaseActivity {
     }
 
     /**
-     * Extract the medias list, copy them into a tmp directory and provide them to the home activity
+     * Extract the medias list, start to copy them into a tmp directory and provide them to the home activity
+     * The copy is done in background; the home activity waits that it is completed before sending the medias.
      *
      * @param intent        the intent
      * @param isAppLaunched true if the application is resumed
      */
     private void launchActivity(Intent intent, boolean isAppLaunched) {
-        File sharedFolder = new File(getCacheDir(), SHARED_FOLDER);
-
-        /**
-         * Clear the existing folder to reduce storage memory usage
-         */
-        if (sharedFolder.exists()) {
-            ContentUtils.deleteDirectory(sharedFolder);
-        }
+        List<RoomMediaMessage> sharedMediaMessages = RoomMediaMessage.listRoomMediaMessages(intent);
 
-        sharedFolder.mkdir();
-
-        ArrayList<RoomMediaMessage> cachedFiles = new ArrayList<>(RoomMediaMessage.listRoomMediaMessages(intent));
-
-        if (null != cachedFiles) {
-            for (RoomMediaMessage sharedDataItem : cachedFiles) {
-                sharedDataItem.saveMedia(this, sharedFolder);
-            }
-        }
-
-        Log.d(LOG_TAG, "onCreate : launch home activity with the files list " + cachedFiles.size() + " files");
+        Log.d(LOG_TAG, "onCreate : launch home activity with the files list " + sharedMediaMessages.size() + " files");
 
         Intent activityIntent;
 
@@ -134,15 +115,9 @@ public class VectorSharedFilesActivity extends RiotBaseActivity {
 
         activityIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
 
-        if (0 != cachedFiles.size()) {
-            Intent shareIntent = new Intent();
-            shareIntent.setAction(Intent.ACTION_SEND_MULTIPLE);
-            shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, cachedFiles);
-            shareIntent.setExtrasClassLoader(RoomMediaMessage.class.getClassLoader());
-            shareIntent.setType("*/*");
-
+        if (0 != sharedMediaMessages.size()) {
             // files to share
-            activityIntent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, shareIntent);
+            activityIntent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, SharedFilesIngestor.getInstance(this).ingest(this, sharedMediaMessages));
         }
 
         startActivity(activityIntent);
@@ -36,6 +36,7 @@ import im.vector.Matrix;
 import im.vector.R;
 import im.vector.adapters.VectorUnifiedSearchFragmentPagerAdapter;
 import im.vector.contacts.ContactsManager;
+import im.vector.search.SearchDispatcher;
 
 /**
  * Displays a generic activity search method
@@ -68,7 +69,8 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
     private VectorUnifiedSearchFragmentPagerAdapter mPagerAdapter;
     private ViewPager mViewPager;
 
-    private int mPosition;
+    // dispatch the patterns to the displayed tab
+    private SearchDispatcher mSearchDispatcher;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -112,6 +114,33 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         mViewPager = findViewById(R.id.search_view_pager);
         mViewPager.setAdapter(mPagerAdapter);
 
+        mSearchDispatcher = new SearchDispatcher(new SearchDispatcher.Delegate() {
+            @Override
+            public boolean isSearchable(int tab) {
+                return mPagerAdapter.isSearchable(tab);
+            }
+
+            @Override
+            public Object getResultsView(int tab) {
+                return mPagerAdapter.getFragmentView(tab);
+            }
+
+            @Override
+            public boolean search(int tab, String pattern, MatrixMessageListFragment.OnSearchResultListener listener) {
+                return mPagerAdapter.search(tab, pattern, listener);
+            }
+
+            @Override
+            public void cancelSearch(int tab) {
+                mPagerAdapter.cancelSearch(tab);
+            }
+        }, new SearchDispatcher.Listener() {
+            @Override
+            public void onSearchEnd(int tab, int count) {
+                VectorUnifiedSearchActivity.this.onSearchEnd(tab, count);
+            }
+        });
+
         mViewPager.addOnPageChangeListener(new ViewPager.OnPageChangeListener() {
             @Override
             public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
@@ -126,7 +155,7 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
                     // Check permission to access contacts
                     CommonActivityUtils.checkPermissions(permissions, VectorUnifiedSearchActivity.this);
                 }
-                searchAccordingToSelectedTab();
+                searchAccordingToSelectedTab(false);
             }
 
             @Override
@@ -140,17 +169,29 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         tabLayout.setupWithViewPager(mViewPager);
 
         // the tab i
+        int position;
         if ((null != getIntent()) && getIntent().hasExtra(EXTRA_TAB_INDEX)) {
-            mPosition = getIntent().getIntExtra(EXTRA_TAB_INDEX, 0);
+            position = getIntent().getIntExtra(EXTRA_TAB_INDEX, 0);
         } else {
-            mPosition = (null != savedInstanceState) ? savedInstanceState.getInt(KEY_STATE_CURRENT_TAB_INDEX, 0) : 0;
+            position = (null != savedInstanceState) ? savedInstanceState.getInt(KEY_STATE_CURRENT_TAB_INDEX, 0) : 0;
         }
-        mViewPager.setCurrentItem(mPosition);
+        mViewPager.setCurrentItem(position);
 
         // restore the searched pattern
         mPatternToSearchEditText.setText((null != savedInstanceState) ? savedInstanceState.getString(KEY_STATE_SEARCH_PATTERN, null) : null);
     }
 
+    @Override
+    protected void onPause() {
+        // the fragments cancel their searches while pausing
+        if (null != mSearchDispatcher) {
+            mSearchDispatcher.cancel();
+            Log.d(LOG_TAG, "## onPause() : " + mSearchDispatcher.getStats());
+        }
+
+        super.onPause();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -158,35 +199,25 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
 
     /**
      * Trigger a new search to the selected fragment.
+     * The search is not triggered if the fragment already displays the pattern results.
+     *
+     * @param force true to search even if the pattern has not been updated
      */
-    private void searchAccordingToSelectedTab() {
+    private void searchAccordingToSelectedTab(boolean force) {
         final String pattern = mPatternToSearchEditText.getText().toString().trim();
         final int position = mViewPager.getCurrentItem();
 
-        if (mPosition != position) {
-            mPagerAdapter.cancelSearch(mPosition);
+        // the displayed results are still valid
+        if (!force && mSearchDispatcher.isDisplayed(position, pattern)) {
+            return;
         }
 
-        mPosition = position;
-
         // the background image view should only be displayed when there is no pattern,
         // the rooms searches has a result : the public rooms list.
         resetUi(TextUtils.isEmpty(pattern) && !mPagerAdapter.isSearchInRoomNameFragment(position)
                 && !mPagerAdapter.isSearchInPeoplesFragment(position));
 
-        boolean isRemoteSearching = mPagerAdapter.search(position, pattern, new MatrixMessageListFragment.OnSearchResultListener() {
-            @Override
-            public void onSearchSucceed(int nbrMessages) {
-                onSearchEnd(position, nbrMessages);
-            }
-
-            @Override
-            public void onSearchFailed() {
-                onSearchEnd(position, 0);
-            }
-        });
-
-        if (isRemoteSearching) {
+        if (mSearchDispatcher.dispatch(position, pattern)) {
             mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
         }
     }
@@ -201,7 +232,8 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
             return;
         }
 
-        searchAccordingToSelectedTab();
+        // the explicit search requests are always performed
+        searchAccordingToSelectedTab(!isTypingUpdate);
     }
 
     @Override
@@ -276,7 +308,7 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
                 // trigger a contacts book refresh
                 ContactsManager.getInstance().refreshLocalContactsSnapshot();
 
-                searchAccordingToSelectedTab();
+                searchAccordingToSelectedTab(true);
             } else {
                 Log.d(LOG_TAG, "## onRequestPermissionsResult(): READ_CONTACTS permission not granted");
                 CommonActivityUtils.displayToast(this, getString(R.string.missing_permissions_warning));
@@ -310,7 +342,7 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
     //==============================================================================================================
 
     public void refreshSearch() {
-        searchAccordingToSelectedTab();
+        searchAccordingToSelectedTab(true);
     }
 }
 
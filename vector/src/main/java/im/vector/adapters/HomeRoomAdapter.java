@@ -19,6 +19,7 @@ package im.vector.adapters;
 import android.content.Context;
 import android.support.annotation.CallSuper;
 import android.support.annotation.LayoutRes;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,6 +31,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import im.vector.R;
+import im.vector.util.PushRulesEvaluator;
 import im.vector.util.RoomUtils;
 
 public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
@@ -147,6 +149,26 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
         notifyDataSetChanged();
     }
 
+    /**
+     * Append items to the adapter (e.g. a new page)
+     *
+     * @param rooms the rooms to append
+     */
+    public void addRooms(final List<Room> rooms) {
+        if ((null != rooms) && !rooms.isEmpty()) {
+            mRooms.addAll(rooms);
+
+            if (TextUtils.isEmpty(mCurrentFilterPattern)) {
+                int position = mFilteredRooms.size();
+                mFilteredRooms.addAll(rooms);
+                notifyItemRangeInserted(position, rooms.size());
+            } else {
+                filterRooms(mCurrentFilterPattern);
+                notifyDataSetChanged();
+            }
+        }
+    }
+
     /**
      * Provides the item at the dedicated position
      *
@@ -188,8 +210,10 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
         int badgeCount = 0;
         for (Room room : mFilteredRooms) {
             // sanity checks : reported by GA
-            if (null != room.getDataHandler() && (null != room.getDataHandler().getBingRulesManager())) {
-                if (room.getDataHandler().getBingRulesManager().isRoomMentionOnly(room.getRoomId())) {
+            PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(mSession);
+
+            if (null != pushRulesEvaluator) {
+                if (pushRulesEvaluator.isRoomMentionOnly(room.getRoomId())) {
                     badgeCount += room.getHighlightCount();
                 } else {
                     badgeCount += room.getNotificationCount();
@@ -36,6 +36,7 @@ import org.matrix.androidsdk.util.Log;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import im.vector.R;
+import im.vector.util.PushRulesEvaluator;
 import im.vector.util.RoomUtils;
 import im.vector.util.VectorUtils;
 
@@ -142,7 +143,9 @@ public class RoomViewHolder extends RecyclerView.ViewHolder {
         notificationCount = roomSummary.getNotificationCount();
 
         // fix a crash reported by GA
-        if ((null != room.getDataHandler()) && room.getDataHandler().getBingRulesManager().isRoomMentionOnly(room.getRoomId())) {
+        PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(session);
+
+        if ((null != pushRulesEvaluator) && pushRulesEvaluator.isRoomMentionOnly(room.getRoomId())) {
             notificationCount = highlightCount;
         }
 
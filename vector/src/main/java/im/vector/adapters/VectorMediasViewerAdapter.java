@@ -28,6 +28,8 @@ import android.media.MediaPlayer;
 import android.net.Uri;
 import android.support.v4.view.PagerAdapter;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
 
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.util.Log;
@@ -57,6 +59,7 @@ import im.vector.R;
 import org.matrix.androidsdk.db.MXMediasCache;
 
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.MediasViewerPrefetcher;
 import im.vector.util.SlidableMediaInfo;
 
 import java.io.File;
@@ -88,6 +91,12 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
     private int mAutoPlayItemAt = -1;
 
+    // prepare the images of the neighbour pages
+    private final MediasViewerPrefetcher mPrefetcher;
+
+    // the instantiated pages
+    private final SparseArray<View> mViewByPosition = new SparseArray<>();
+
     public VectorMediasViewerAdapter(Context context, MXSession session, MXMediasCache mediasCache, List<SlidableMediaInfo> mediaMessagesList, int maxImageWidth, int maxImageHeight) {
         this.mContext = context;
         this.mSession = session;
@@ -96,6 +105,32 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         this.mMaxImageHeight = maxImageHeight;
         this.mLayoutInflater = LayoutInflater.from(context);
         this.mMediasCache = mediasCache;
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        this.mPrefetcher = new MediasViewerPrefetcher(context, session, mediasCache, mediaMessagesList, metrics.widthPixels, metrics.heightPixels, new MediasViewerPrefetcher.Listener() {
+            @Override
+            public void onMediaPrepared(int position, MediasViewerPrefetcher.PreparedMedia media) {
+                View view = mViewByPosition.get(position);
+
+                // the page is not instantiated
+                if (null != view) {
+                    displayPreparedImage(view, position, media);
+                }
+            }
+
+            @Override
+            public boolean isPageInstantiated(int position) {
+                return null != mViewByPosition.get(position);
+            }
+        });
+    }
+
+    /**
+     * Cancel the pending preparations and release the prepared images.
+     */
+    public void release() {
+        Log.d(LOG_TAG, "## release() : " + mPrefetcher.getStats());
+        mPrefetcher.release();
     }
 
     @Override
@@ -112,6 +147,8 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
             final View view = (View) object;
             mLatestPrimaryView = view;
 
+            mPrefetcher.onPageSelected(position);
+
             view.post(new Runnable() {
                 @Override
                 public void run() {
@@ -271,66 +308,42 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
     }
 
     /**
-     * Download the high res image
+     * Display the high res image if it is prepared.
+     * Else it will be displayed when the prefetcher has prepared it.
      *
      * @param view     the slider page view
      * @param position the item position
      */
     private void downloadHighResPict(final View view, final int position) {
-        final WebView webView = view.findViewById(R.id.media_slider_image_webview);
-        final PieFractionView pieFractionView = view.findViewById(R.id.media_slider_piechart);
-        final SlidableMediaInfo imageInfo = mMediasMessagesList.get(position);
-        final String viewportContent = "width=640";
-        final String loadingUri = imageInfo.mMediaUrl;
-        final String downloadId = mMediasCache.loadBitmap(mContext, mSession.getHomeServerConfig(), loadingUri, imageInfo.mRotationAngle, imageInfo.mOrientation, imageInfo.mMimeType, imageInfo.mEncryptedFileInfo);
+        MediasViewerPrefetcher.PreparedMedia media = mPrefetcher.getPreparedMedia(position);
 
-        webView.getSettings().setDisplayZoomControls(false);
-
-        if (null != downloadId) {
-            pieFractionView.setVisibility(View.VISIBLE);
-            pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
-            mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
-                @Override
-                public void onDownloadError(String downloadId, JsonElement jsonElement) {
-                    MatrixError error = JsonUtils.toMatrixError(jsonElement);
-
-                    if ((null != error) && error.isSupportedErrorCode()) {
-                        Toast.makeText(VectorMediasViewerAdapter.this.mContext, error.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                    }
-                }
-
-                @Override
-                public void onDownloadProgress(String aDownloadId, DownloadStats stats) {
-                    if (aDownloadId.equals(downloadId)) {
-                        pieFractionView.setFraction(stats.mProgress);
-                    }
-                }
+        if (null != media) {
+            displayPreparedImage(view, position, media);
+        }
+    }
 
-                @Override
-                public void onDownloadComplete(String aDownloadId) {
-                    if (aDownloadId.equals(downloadId)) {
-                        pieFractionView.setVisibility(View.GONE);
-                        final File mediaFile = mMediasCache.mediaCacheFile(loadingUri, imageInfo.mMimeType);
+    /**
+     * Display a prepared image in a page.
+     *
+     * @param view     the slider page view
+     * @param position the item position
+     * @param media    the prepared image
+     */
+    private void displayPreparedImage(View view, int position, MediasViewerPrefetcher.PreparedMedia media) {
+        // already displayed
+        if (mHighResMediaIndex.indexOf(position) >= 0) {
+            return;
+        }
 
-                        if (null != mediaFile) {
-                            mHighResMediaIndex.add(position);
+        final WebView webView = view.findViewById(R.id.media_slider_image_webview);
+        final PieFractionView pieFractionView = view.findViewById(R.id.media_slider_piechart);
 
-                            Uri uri = Uri.fromFile(mediaFile);
-                            final String newHighResUri = uri.toString();
+        mHighResMediaIndex.add(position);
+        pieFractionView.setVisibility(View.GONE);
 
-                            webView.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    Uri mediaUri = Uri.parse(newHighResUri);
-                                    // refresh the UI
-                                    loadImage(webView, mediaUri, viewportContent, computeCss(newHighResUri, VectorMediasViewerAdapter.this.mMaxImageWidth, VectorMediasViewerAdapter.this.mMaxImageHeight, imageInfo.mRotationAngle));
-                                }
-                            });
-                        }
-                    }
-                }
-            });
-        }
+        String mediaUri = Uri.fromFile(media.mFile).toString();
+        webView.getSettings().setDisplayZoomControls(false);
+        loadImage(webView, Uri.parse(mediaUri), "width=640", computeCss(mediaUri, mMaxImageWidth, mMaxImageHeight, media.mRotationAngle));
     }
 
     @Override
@@ -386,28 +399,33 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
             videoLayout.setVisibility(View.GONE);
 
-            final int rotationAngle = mediaInfo.mRotationAngle;
+            int rotationAngle = mediaInfo.mRotationAngle;
 
             if (TextUtils.isEmpty(mediaInfo.mMimeType)) {
                 mediaInfo.mMimeType = "image/jpeg";
             }
 
-            final String mimeType = mediaInfo.mMimeType;
-            File mediaFile = mMediasCache.mediaCacheFile(mediaUrl, mimeType);
+            File mediaFile;
+            MediasViewerPrefetcher.PreparedMedia media = mPrefetcher.getPreparedMedia(position);
+
+            // is the high picture already prepared ?
+            if (null != media) {
+                mediaFile = media.mFile;
+                rotationAngle = media.mRotationAngle;
 
-            // is the high picture already downloaded ?
-            if (null != mediaFile) {
                 if (mHighResMediaIndex.indexOf(position) < 0) {
                     mHighResMediaIndex.add(position);
                 }
             } else {
-                // try to retrieve the thumbnail
+                // display the thumbnail until the high picture is prepared
+                mHighResMediaIndex.remove(Integer.valueOf(position));
                 mediaFile = mMediasCache.mediaCacheFile(mediaUrl, mMaxImageWidth, mMaxImageHeight, null);
             }
 
             // the thumbnail is not yet downloaded
             if (null == mediaFile) {
                 // display nothing
+                mViewByPosition.put(position, view);
                 container.addView(view, 0);
                 return view;
             }
@@ -423,6 +441,8 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
             container.addView(view, 0);
         }
 
+        mViewByPosition.put(position, view);
+
         // check if the media is downloading
         String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
 
@@ -437,7 +457,8 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                     pieFractionView.setVisibility(View.GONE);
                     MatrixError error = JsonUtils.toMatrixError(jsonElement);
 
-                    if ((null != error) && error.isSupportedErrorCode()) {
+                    // the neighbour pages are instantiated in advance, only the displayed page reports its error
+                    if ((null != error) && error.isSupportedErrorCode() && (position == mLatestPrimaryItemPosition)) {
                         Toast.makeText(VectorMediasViewerAdapter.this.mContext, error.getLocalizedMessage(), Toast.LENGTH_LONG).show();
                     }
                 }
@@ -822,6 +843,10 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
+        if (mViewByPosition.get(position) == object) {
+            mViewByPosition.remove(position);
+        }
+
         container.removeView((View) object);
     }
 }
@@ -70,6 +70,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -88,6 +89,8 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.listeners.IMessagesAdapterActionsListener;
 import im.vector.util.MatrixLinkMovementMethod;
 import im.vector.util.MatrixURLSpan;
+import im.vector.util.MediaMessagesIndex;
+import im.vector.util.MemoryPressureManager;
 import im.vector.util.EventGroup;
 import im.vector.util.PreferencesManager;
 import im.vector.util.RiotEventDisplay;
@@ -122,6 +125,22 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     // it avoids computing them several times
     private final HashMap<String, String> mEventFormattedTsMap = new HashMap<>();
 
+    // release the formatted texts caches when the memory is low
+    private final MemoryPressureManager.TrimMemoryListener mTrimMemoryListener = new MemoryPressureManager.TrimMemoryListener() {
+        @Override
+        public long onTrimMemory(int tier) {
+            long size = 0;
+
+            for (String formattedTs : mEventFormattedTsMap.values()) {
+                size += 2 * formattedTs.length();
+            }
+
+            mEventFormattedTsMap.clear();
+
+            return size + mHelper.clearHtmlCache();
+        }
+    };
+
     // define the e2e icon to use for a dedicated eventId
     // can be a drawable or
     private HashMap<String, Object> mE2eIconByEventId = new HashMap<>();
@@ -152,11 +171,15 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     // when the current user sends one but it will also come down the event stream
     private final HashMap<String, MessageRow> mEventRowMap = new HashMap<>();
 
+    // the image and video messages
+    private final MediaMessagesIndex mMediaMessagesIndex = new MediaMessagesIndex(this);
+
     private final HashMap<String, Integer> mEventType = new HashMap<>();
 
     // the message text colors
     private final int mDefaultMessageTextColor;
     private final int mNotSentMessageTextColor;
+    private final int mNoticeTextColor;
     private final int mSendingMessageTextColor;
     private final int mEncryptingMessageTextColor;
     private final int mHighlightMessageTextColor;
@@ -262,6 +285,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
         mDefaultMessageTextColor = getDefaultMessageTextColor();
         mNotSentMessageTextColor = getNotSentMessageTextColor();
+        mNoticeTextColor = getNoticeTextColor();
         mSendingMessageTextColor = getSendingMessageTextColor();
         mEncryptingMessageTextColor = getEncryptingMessageTextColor();
         mHighlightMessageTextColor = getHighlightMessageTextColor();
@@ -294,6 +318,8 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         mHideReadReceipts = PreferencesManager.hideReadReceipts(VectorApp.getInstance());
 
         mPadlockDrawable = CommonActivityUtils.tintDrawable(mContext, ContextCompat.getDrawable(mContext, R.drawable.e2e_unencrypted), R.attr.settings_icon_tint_color);
+
+        MemoryPressureManager.addListener(mTrimMemoryListener);
     }
 
     /*
@@ -389,7 +415,8 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             if (mIsSearchMode) {
                 mLiveMessagesRowList.add(0, row);
             } else {
-                insert(row, (!addToEventGroupToFront(row)) ? 0 : 1);
+                super.insert(row, (!addToEventGroupToFront(row)) ? 0 : 1);
+                mMediaMessagesIndex.addRow(row, true);
             }
 
             if (row.getEvent().eventId != null) {
@@ -404,6 +431,8 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             if (mIsSearchMode) {
                 mLiveMessagesRowList.remove(row);
             } else {
+                mMediaMessagesIndex.removeRow(row);
+
                 removeFromEventGroup(row);
 
                 // get the position before removing the item
@@ -435,6 +464,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             } else {
                 addToEventGroup(row);
                 super.add(row);
+                mMediaMessagesIndex.addRow(row, false);
             }
 
             if (row.getEvent().eventId != null) {
@@ -549,6 +579,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             removeEventById(oldEventId);
         }
 
+        mMediaMessagesIndex.onEventIdUpdated();
         notifyDataSetChanged();
     }
 
@@ -633,6 +664,39 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         if (!mIsSearchMode) {
             mEventRowMap.clear();
         }
+        mMediaMessagesIndex.clear();
+    }
+
+    @Override
+    public void insert(MessageRow row, int index) {
+        super.insert(row, index);
+        // the position is not tracked
+        mMediaMessagesIndex.invalidate();
+    }
+
+    @Override
+    public void addAll(Collection<? extends MessageRow> collection) {
+        super.addAll(collection);
+        mMediaMessagesIndex.invalidate();
+    }
+
+    @Override
+    public void addAll(MessageRow... items) {
+        super.addAll(items);
+        mMediaMessagesIndex.invalidate();
+    }
+
+    @Override
+    public void sort(Comparator<? super MessageRow> comparator) {
+        super.sort(comparator);
+        mMediaMessagesIndex.invalidate();
+    }
+
+    /**
+     * @return the index of the displayed image and video messages
+     */
+    public MediaMessagesIndex getMediaMessagesIndex() {
+        return mMediaMessagesIndex;
     }
 
     @Override
@@ -1135,7 +1199,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
             boolean shouldHighlighted = (null != mVectorMessagesAdapterEventsListener) && mVectorMessagesAdapterEventsListener.shouldHighlightEvent(event);
 
-            highlightPattern(bodyTextView, body, TextUtils.equals(Message.FORMAT_MATRIX_HTML, message.format) ? mHelper.getSanitisedHtml(message.formatted_body) : null, mPattern, shouldHighlighted);
+            highlightPattern(bodyTextView, body, TextUtils.equals(Message.FORMAT_MATRIX_HTML, message.format) ? mHelper.getSanitisedHtml(message.formatted_body) : null, mPattern, shouldHighlighted, event.eventId);
 
             int textColor;
 
@@ -1268,7 +1332,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
                 noticeTextView.setText("");
             } else {
                 SpannableStringBuilder strBuilder = new SpannableStringBuilder(notice);
-                MatrixURLSpan.refreshMatrixSpans(strBuilder, mVectorMessagesAdapterEventsListener);
+                MatrixURLSpan.refreshMatrixSpans(strBuilder, msg.eventId, mVectorMessagesAdapterEventsListener);
                 noticeTextView.setText(strBuilder);
             }
 
@@ -1285,7 +1349,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             // I don't understand why the render graph fails to do it.
             // the patch apply the alpha to the text color but it does not work for the hyperlinks.
             noticeTextView.setAlpha(1.0f);
-            noticeTextView.setTextColor(getNoticeTextColor());
+            noticeTextView.setTextColor(mNoticeTextColor);
         } catch (Exception e) {
             Log.e(LOG_TAG, "## getNoticeRoomMemberView() failed : " + e.getMessage());
         }
@@ -1333,7 +1397,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
                 }
             }
 
-            highlightPattern(emoteTextView, new SpannableString(body), htmlString, null, false);
+            highlightPattern(emoteTextView, new SpannableString(body), htmlString, null, false, event.eventId);
 
             int textColor;
 
@@ -1536,7 +1600,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      * @param pattern  the pattern to highlight
      */
     void highlightPattern(TextView textView, Spannable text, String pattern) {
-        highlightPattern(textView, text, null, pattern, false);
+        highlightPattern(textView, text, null, pattern, false, null);
     }
 
     /**
@@ -1547,9 +1611,10 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      * @param htmlFormattedText the text in HTML format
      * @param pattern           the pattern to highlight
      * @param isHighlighted     true when the event is highlighted
+     * @param eventId           the displayed event id, null if the matrix items must not be cached
      */
-    private void highlightPattern(TextView textView, Spannable text, String htmlFormattedText, String pattern, boolean isHighlighted) {
-        mHelper.highlightPattern(textView, text, htmlFormattedText, pattern, new BackgroundColorSpan(mSearchHighlightMessageTextColor), isHighlighted);
+    private void highlightPattern(TextView textView, Spannable text, String htmlFormattedText, String pattern, boolean isHighlighted, String eventId) {
+        mHelper.highlightPattern(textView, text, htmlFormattedText, pattern, new BackgroundColorSpan(mSearchHighlightMessageTextColor), isHighlighted, eventId);
     }
 
     /**
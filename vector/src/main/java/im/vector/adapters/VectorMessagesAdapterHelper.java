@@ -561,8 +561,9 @@ class VectorMessagesAdapterHelper {
      * @param pattern            the  pattern
      * @param highLightTextStyle the highlight text style
      * @param isHighlighted      true when the message is highlighted
+     * @param eventId            the displayed event id, null if the matrix items must not be cached
      */
-    void highlightPattern(TextView textView, Spannable text, String htmlFormattedText, String pattern, CharacterStyle highLightTextStyle, boolean isHighlighted) {
+    void highlightPattern(TextView textView, Spannable text, String htmlFormattedText, String pattern, CharacterStyle highLightTextStyle, boolean isHighlighted, String eventId) {
         // sanity check
         if (null == textView) {
             return;
@@ -631,7 +632,7 @@ class VectorMessagesAdapterHelper {
             }
         }
 
-        MatrixURLSpan.refreshMatrixSpans(strBuilder, mEventsListener);
+        MatrixURLSpan.refreshMatrixSpans(strBuilder, eventId, mEventsListener);
         textView.setText(strBuilder);
 
         if (null != mLinkMovementMethod) {
@@ -695,6 +696,22 @@ class VectorMessagesAdapterHelper {
 
     private final HashMap<String, String> mHtmlMap = new HashMap<>();
 
+    /**
+     * Clear the sanitised html cache.
+     *
+     * @return the estimated number of released bytes
+     */
+    long clearHtmlCache() {
+        long size = 0;
+
+        for (Map.Entry<String, String> entry : mHtmlMap.entrySet()) {
+            size += 2 * (entry.getKey().length() + ((null != entry.getValue()) ? entry.getValue().length() : 0));
+        }
+
+        mHtmlMap.clear();
+        return size;
+    }
+
     /**
      * Retrieves the sanitised html.
      * !!!!!! WARNING !!!!!!
@@ -59,6 +59,7 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.contacts.Contact;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
+import im.vector.search.PeopleDirectory;
 import im.vector.util.VectorUtils;
 
 /**
@@ -103,6 +104,11 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     private List<String> mDisplayNamesList = null;
     private String mPattern = "";
 
+    // the latest offline search results, used to narrow the next search when the pattern is extended
+    private List<ParticipantAdapterItem> mLatestOfflineSource = null;
+    private String mLatestOfflinePattern = null;
+    private List<ParticipantAdapterItem> mLatestOfflineMatches = null;
+
     private List<ParticipantAdapterItem> mItemsToHide = new ArrayList<>();
 
     // way to detect that the contacts list has been updated
@@ -292,7 +298,11 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
 
         List<ParticipantAdapterItem> participants = new ArrayList<>();
         // Add all known matrix users
-        participants.addAll(VectorUtils.listKnownParticipants(mSession).values());
+        PeopleDirectory peopleDirectory = PeopleDirectory.getInstance(mSession);
+
+        if (null != peopleDirectory) {
+            participants.addAll(peopleDirectory.getKnownParticipants());
+        }
         // Add phone contacts which have an email address
         addContacts(participants);
 
@@ -376,6 +386,8 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         }
 
         if (gotUpdates) {
+            // the matrix ids might have been updated
+            mLatestOfflineMatches = null;
             refresh(mFirstEntry, null);
         }
     }
@@ -418,8 +430,21 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
             fillUsedMembersList();
 
             final String fPattern = mPattern;
+            PeopleDirectory peopleDirectory = PeopleDirectory.getInstance(mSession);
 
-            mSession.searchUsers(mPattern, MAX_USERS_SEARCH_COUNT, mUsedMemberUserIds, new ApiCallback<SearchUsersResponse>() {
+            if (null == peopleDirectory) {
+                mIsOfflineContactsSearch = true;
+                searchAccountKnownContacts(theFirstEntry, searchListener);
+                return;
+            }
+
+            // display the known users matches while the user directory is searched
+            // the listener is only called with the user directory result
+            if (null != mUnusedParticipants) {
+                searchAccountKnownContacts(theFirstEntry, null);
+            }
+
+            peopleDirectory.searchUsers(mPattern, MAX_USERS_SEARCH_COUNT, mUsedMemberUserIds, new ApiCallback<SearchUsersResponse>() {
                 @Override
                 public void onSuccess(SearchUsersResponse searchUsersResponse) {
                     if (TextUtils.equals(fPattern, mPattern)) {
@@ -503,10 +528,18 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
             }
 
             List<ParticipantAdapterItem> unusedParticipants = new ArrayList<>();
+            List<ParticipantAdapterItem> source;
 
             synchronized (LOG_TAG) {
-                if (null != mUnusedParticipants) {
-                    unusedParticipants = new ArrayList<>(mUnusedParticipants);
+                source = mUnusedParticipants;
+            }
+
+            // the items matching the new pattern are a subset of the ones matching its prefix
+            if ((null != source) && (source == mLatestOfflineSource) && (null != mLatestOfflineMatches) && mPattern.startsWith(mLatestOfflinePattern)) {
+                unusedParticipants = mLatestOfflineMatches;
+            } else if (null != source) {
+                synchronized (LOG_TAG) {
+                    unusedParticipants = new ArrayList<>(source);
                 }
             }
 
@@ -515,6 +548,10 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
                     participantItemList.add(item);
                 }
             }
+
+            mLatestOfflineSource = source;
+            mLatestOfflinePattern = mPattern;
+            mLatestOfflineMatches = new ArrayList<>(participantItemList);
         } else {
             resetGroupExpansionPreferences();
 
@@ -19,7 +19,10 @@ package im.vector.adapters;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.text.TextUtils;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -31,7 +34,6 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.db.MXMediasCache;
@@ -46,6 +48,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
@@ -118,13 +123,15 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
 
     private ArrayList<ArrayList<ParticipantAdapterItem>> mRoomMembersListByGroupPosition;
 
-    private ArrayList<String> mDisplayNamesList = new ArrayList<>();
+    // display name -> number of displayed members using it
+    private HashMap<String, Integer> mDisplayNamesCount = new HashMap<>();
 
     private int mGroupIndexInvitedMembers = -1;  // "Invited" index
     private int mGroupIndexPresentMembers = -1; // "Favourites" index
 
     // search list view: list view displaying the result of the search based on "mSearchPattern"
-    private String mSearchPattern = "";
+    // it is read by the members thread
+    private volatile String mSearchPattern = "";
 
     //ParticipantAdapterItem mFirstEntry;
     private OnParticipantsListener mOnParticipantsListener;
@@ -204,12 +211,22 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
         if (TextUtils.isEmpty(aPattern)) {
             // refresh list members without any pattern filter (nominal display)
             mSearchPattern = null;
-            updateRoomMembersDataModel(searchListener);
+
+            if (aIsRefreshForced) {
+                updateRoomMembersDataModel(searchListener);
+            } else {
+                filterRoomMembersDataModel(searchListener);
+            }
         } else {
             // new pattern different from previous one?
             if (!aPattern.trim().equals(mSearchPattern) || aIsRefreshForced) {
                 mSearchPattern = aPattern.trim().toLowerCase();
-                updateRoomMembersDataModel(searchListener);
+
+                if (aIsRefreshForced) {
+                    updateRoomMembersDataModel(searchListener);
+                } else {
+                    filterRoomMembersDataModel(searchListener);
+                }
             } else {
                 // search pattern is identical, notify listener and exit
                 if (null != searchListener) {
@@ -280,276 +297,635 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
         return String.CASE_INSENSITIVE_ORDER.compare(s1, s2);
     }
 
+    //==============================================================================================================
+    // Members model
+    //==============================================================================================================
+
+    /**
+     * The members model is built and updated on a single background thread.
+     * The live updates are applied as deltas and a burst of updates triggers a single UI refresh per frame.
+     */
+    private static HandlerThread mMembersThread = null;
+    private static Handler mMembersThreadHandler = null;
+
+    // pending updates (guarded by mPendingUpdatesLock)
+    private final Object mPendingUpdatesLock = new Object();
+    private final Set<String> mPendingUserIds = new HashSet<>();
+    private boolean mIsFullRefreshPending = true;
+    private boolean mIsUpdateScheduled = false;
+    private OnRoomMembersSearchListener mPendingSearchListener = null;
+
+    // members thread model
+    private final HashMap<String, ParticipantAdapterItem> mItemByUserId = new HashMap<>();
+    private final HashMap<String, ParticipantAdapterItem> mThirdPartyInviteItemByToken = new HashMap<>();
+    private final ArrayList<ParticipantAdapterItem> mSortedParticipants = new ArrayList<>();
+    private final ArrayList<ParticipantAdapterItem> mSortedInvitedMembers = new ArrayList<>();
+    private ParticipantAdapterItem mMyItem = null;
+    private final HashMap<String, User> mUserSnapshotByUserId = new HashMap<>();
+    private PowerLevels mPowerLevels = null;
+    private boolean mIsModelBuilt = false;
+
+    // the model update is dropped after MAX_UPDATE_ATTEMPTS consecutive failures
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+    private int mFailedUpdatesCount = 0;
+
+    // UI thread : the latest computed result waiting for the next frame
+    private MembersModelSnapshot mPendingSnapshot = null;
+    private boolean mIsFrameCallbackPosted = false;
+    private Handler mUIHandler = null;
+
+    // UI thread : hash index of the room members user ids
+    private Set<String> mMemberUserIds = new HashSet<>();
+
+    /**
+     * The result of a members model computation.
+     */
+    private static class MembersModelSnapshot {
+        String mPattern;
+        boolean mIsSearchEnabled;
+        ArrayList<ParticipantAdapterItem> mPresentMembers;
+        ArrayList<ParticipantAdapterItem> mInvitedMembers;
+        HashMap<String, Integer> mDisplayNamesCount;
+        Set<String> mMemberUserIds;
+        OnRoomMembersSearchListener mSearchListener;
+    }
+
+    /**
+     * Comparator to order members : active ones first, then by power level, by last active ago and alphabetically.
+     * It uses users snapshots to avoid sort issues when the presences are updated while sorting.
+     */
+    private final Comparator<ParticipantAdapterItem> mMembersComparator = new Comparator<ParticipantAdapterItem>() {
+        @Override
+        public int compare(ParticipantAdapterItem part1, ParticipantAdapterItem part2) {
+            User userA = getUserSnapshot(part1.mUserId);
+            User userB = getUserSnapshot(part2.mUserId);
+
+            String userADisplayName = part1.getComparisonDisplayName();
+            String userBDisplayName = part2.getComparisonDisplayName();
+
+            boolean isUserA_Active = false;
+            boolean isUserB_Active = false;
+
+            if ((null != userA) && (null != userA.currently_active)) {
+                isUserA_Active = userA.currently_active;
+            }
+
+            if ((null != userB) && (null != userB.currently_active)) {
+                isUserB_Active = userB.currently_active;
+            }
+
+            int powerLevelA = 0;
+            int powerLevelB = 0;
+
+            if (null != mPowerLevels) {
+                if ((null != userA) && (null != userA.user_id)) {
+                    powerLevelA = mPowerLevels.getUserPowerLevel(userA.user_id);
+                }
+
+                if ((null != userB) && (null != userB.user_id)) {
+                    powerLevelB = mPowerLevels.getUserPowerLevel(userB.user_id);
+                }
+            }
+
+            if ((null == userA) && (null == userB)) {
+                return alphaComparator(userADisplayName, userBDisplayName);
+            } else if ((null != userA) && (null == userB)) {
+                return +1;
+            } else if ((null == userA) && (null != userB)) {
+                return -1;
+            } else if (isUserA_Active && isUserB_Active) {
+                if (powerLevelA == powerLevelB) {
+                    return alphaComparator(userADisplayName, userBDisplayName);
+                } else {
+                    return (powerLevelB - powerLevelA) > 0 ? +1 : -1;
+                }
+            }
+
+            if (isUserA_Active && !isUserB_Active) {
+                return -1;
+            }
+            if (!isUserA_Active && isUserB_Active) {
+                return +1;
+            }
+
+            // Finally, compare the timestamps
+            long lastActiveAgoA = (null != userA) ? userA.getAbsoluteLastActiveAgo() : 0;
+            long lastActiveAgoB = (null != userB) ? userB.getAbsoluteLastActiveAgo() : 0;
+
+            long diff = lastActiveAgoA - lastActiveAgoB;
+
+            if (diff == 0) {
+                return alphaComparator(userADisplayName, userBDisplayName);
+            }
+
+            // if only one member has a lastActiveAgo, prefer it
+            if (0 == lastActiveAgoA) {
+                return +1;
+            } else if (0 == lastActiveAgoB) {
+                return -1;
+            }
+
+            return (diff > 0) ? +1 : -1;
+        }
+    };
+
+    /**
+     * Get an user snapshot from an user id.
+     * Must be called from the members thread.
+     *
+     * @param userId the user id to find out
+     * @return the user if it exists
+     */
+    private User getUserSnapshot(String userId) {
+        User user = null;
+
+        if (null != userId) {
+            user = mUserSnapshotByUserId.get(userId);
+
+            if (null == user) {
+                user = mSession.getDataHandler().getUser(userId);
+
+                if (null != user) {
+                    // create a snapshot to avoid error while sorting the list
+                    // some exceptions could be triggered because of updates.
+                    user = user.deepCopy();
+                    mUserSnapshotByUserId.put(userId, user);
+                }
+            }
+        }
+
+        return user;
+    }
+
     /**
-     * Update the data model of the adapter which is based on a set of ParticipantAdapterItem objects.
+     * Update the whole data model of the adapter which is based on a set of ParticipantAdapterItem objects.
      *
      * @param aSearchListener search events listener, set to null if search not enabled
      */
     public void updateRoomMembersDataModel(final OnRoomMembersSearchListener aSearchListener) {
+        synchronized (mPendingUpdatesLock) {
+            mIsFullRefreshPending = true;
+        }
+
+        scheduleModelUpdate(aSearchListener);
+    }
+
+    /**
+     * Apply the current search pattern to the data model.
+     * The model is only built if it has not been done yet.
+     *
+     * @param aSearchListener search events listener
+     */
+    private void filterRoomMembersDataModel(final OnRoomMembersSearchListener aSearchListener) {
+        scheduleModelUpdate(aSearchListener);
+    }
+
+    /**
+     * Some room members have been updated (membership, profile or presence).
+     * Only these members are updated in the data model.
+     *
+     * @param userIds the updated user ids
+     */
+    public void onRoomMembersUpdate(Collection<String> userIds) {
+        if ((null == userIds) || userIds.isEmpty()) {
+            return;
+        }
+
+        synchronized (mPendingUpdatesLock) {
+            mPendingUserIds.addAll(userIds);
+        }
+
+        scheduleModelUpdate(null);
+    }
+
+    /**
+     * Tells if an user is a member of the room.
+     * It does not depend on the search pattern.
+     *
+     * @param userId the user id
+     * @return true if the user is an active member of the room
+     */
+    public boolean isRoomMember(String userId) {
+        return (null != userId) && mMemberUserIds.contains(userId);
+    }
+
+    /**
+     * Schedule an update of the data model on the members thread.
+     * The pending updates are merged until the members thread processes them.
+     *
+     * @param aSearchListener the search listener
+     */
+    private void scheduleModelUpdate(final OnRoomMembersSearchListener aSearchListener) {
         if (!mSession.isAlive()) {
-            Log.e(LOG_TAG, "updateRoomMembersDataModel the session is not anymore valid");
+            Log.e(LOG_TAG, "scheduleModelUpdate the session is not anymore valid");
             return;
         }
 
-        final Handler uiHandler = new Handler();
-        final String fPattern = mSearchPattern;
+        if (null == mUIHandler) {
+            mUIHandler = new Handler(Looper.getMainLooper());
+        }
 
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                ParticipantAdapterItem participantItem;
+        synchronized (VectorRoomDetailsMembersAdapter.class) {
+            if (null == mMembersThread) {
+                mMembersThread = new HandlerThread("VectorRoomDetailsMembersAdapter", Thread.MIN_PRIORITY);
+                mMembersThread.start();
+                mMembersThreadHandler = new Handler(mMembersThread.getLooper());
+            }
+        }
 
-                final boolean isSearchEnabled = isSearchModeEnabled();
-                final ArrayList<ParticipantAdapterItem> presentMembersList = new ArrayList<>();
-                final ArrayList<ArrayList<ParticipantAdapterItem>> roomMembersListByGroupPosition = new ArrayList<>();
-                final ArrayList<String> displayNamesList = new ArrayList<>();
+        synchronized (mPendingUpdatesLock) {
+            if (null != aSearchListener) {
+                mPendingSearchListener = aSearchListener;
+            }
 
-                // retrieve the room members
-                final ArrayList<ParticipantAdapterItem> actualParticipants = new ArrayList<>();
-                final ArrayList<ParticipantAdapterItem> invitedMembers = new ArrayList<>();
+            if (mIsUpdateScheduled) {
+                return;
+            }
 
-                Collection<RoomMember> activeMembers = mRoom.getActiveMembers();
-                String myUserId = mSession.getMyUserId();
-                final PowerLevels powerLevels = mRoom.getLiveState().getPowerLevels();
+            mIsUpdateScheduled = true;
+        }
 
-                // search loop to extract the following members: current user, invited, administrator and others
-                for (RoomMember member : activeMembers) {
-                    participantItem = new ParticipantAdapterItem(member);
+        mMembersThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                processPendingUpdates();
+            }
+        });
+    }
 
-                    // if search is enabled, just skipp the member if pattern does not match
-                    if (isSearchEnabled && (!participantItem.contains(mSearchPattern))) {
-                        continue;
-                    }
+    /**
+     * Process the pending updates.
+     * Must be called from the members thread.
+     */
+    private void processPendingUpdates() {
+        boolean isFullRefresh;
+        ArrayList<String> userIds;
+        OnRoomMembersSearchListener searchListener;
+        String pattern;
+
+        synchronized (mPendingUpdatesLock) {
+            isFullRefresh = mIsFullRefreshPending || !mIsModelBuilt;
+            userIds = new ArrayList<>(mPendingUserIds);
+            searchListener = mPendingSearchListener;
+            pattern = mSearchPattern;
+
+            mIsFullRefreshPending = false;
+            mPendingUserIds.clear();
+            mPendingSearchListener = null;
+            mIsUpdateScheduled = false;
+        }
 
-                    // oneself member ("You") is displayed on first raw
-                    if (member.getUserId().equals(myUserId)) {
-                        presentMembersList.add(participantItem);
-                    } else {
-                        if (RoomMember.MEMBERSHIP_INVITE.equals(member.membership)) {
-                            // invited members
-                            invitedMembers.add(participantItem);
-                        } else {
-                            // the other members..
-                            actualParticipants.add(participantItem);
-                        }
-                    }
+        boolean isMembersListUpdated = isFullRefresh || !userIds.isEmpty();
 
-                    if (!TextUtils.isEmpty(participantItem.mDisplayName)) {
-                        displayNamesList.add(participantItem.mDisplayName);
-                    }
+        try {
+            if (isFullRefresh) {
+                buildModel();
+            } else if (!userIds.isEmpty()) {
+                for (String userId : userIds) {
+                    applyMemberDelta(userId);
                 }
 
-                // add 3rd party invite
-                Collection<RoomThirdPartyInvite> thirdPartyInvites = mRoom.getLiveState().thirdPartyInvites();
+                // some third party invites might have been converted into room members
+                removeConvertedThirdPartyInvites();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## processPendingUpdates() failed " + e.getMessage());
+
+            // the model is rebuilt by the next update
+            synchronized (mPendingUpdatesLock) {
+                mIsModelBuilt = false;
+            }
 
-                for (RoomThirdPartyInvite invite : thirdPartyInvites) {
-                    // If the home server has converted the 3pid invite into a room member, do not show it
-                    if (null == mRoom.getLiveState().memberWithThirdPartyInviteToken(invite.token)) {
-                        ParticipantAdapterItem participant = new ParticipantAdapterItem(invite.display_name, "", null, true);
+            mFailedUpdatesCount++;
 
-                        if ((!isSearchEnabled) || participant.contains(mSearchPattern)) {
-                            invitedMembers.add(participant);
+            if (mFailedUpdatesCount < MAX_UPDATE_ATTEMPTS) {
+                scheduleModelUpdate(searchListener);
+            } else {
+                Log.e(LOG_TAG, "## processPendingUpdates() : the update is dropped after " + mFailedUpdatesCount + " attempts");
+                mFailedUpdatesCount = 0;
+
+                // the displayed members are kept
+                if (null != searchListener) {
+                    final OnRoomMembersSearchListener fSearchListener = searchListener;
+
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                fSearchListener.onSearchEnd(getItemsCount(), false);
+                            } catch (Exception e) {
+                                Log.e(LOG_TAG, "## processPendingUpdates() : onSearchEnd fails " + e.getMessage());
+                            }
                         }
-                    }
+                    });
                 }
+            }
+            return;
+        }
+
+        mFailedUpdatesCount = 0;
+
+        final MembersModelSnapshot snapshot = buildSnapshot(pattern, isMembersListUpdated);
+        snapshot.mSearchListener = searchListener;
+
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onSnapshotReady(snapshot);
+            }
+        });
+    }
 
-                final MXDataHandler fDataHandler = mSession.getDataHandler();
+    /**
+     * Build the whole model from the room state.
+     * Must be called from the members thread.
+     */
+    private void buildModel() {
+        mItemByUserId.clear();
+        mThirdPartyInviteItemByToken.clear();
+        mSortedParticipants.clear();
+        mSortedInvitedMembers.clear();
+        mUserSnapshotByUserId.clear();
+        mMyItem = null;
+
+        mPowerLevels = mRoom.getLiveState().getPowerLevels();
+
+        Collection<RoomMember> activeMembers = mRoom.getActiveMembers();
+        String myUserId = mSession.getMyUserId();
+
+        for (RoomMember member : activeMembers) {
+            ParticipantAdapterItem participantItem = new ParticipantAdapterItem(member);
+
+            // oneself member ("You") is displayed on first raw
+            if (member.getUserId().equals(myUserId)) {
+                mMyItem = participantItem;
+            } else if (RoomMember.MEMBERSHIP_INVITE.equals(member.membership)) {
+                mSortedInvitedMembers.add(participantItem);
+            } else {
+                mSortedParticipants.add(participantItem);
+            }
 
-                // Comparator to order members alphabetically
-                final Comparator<ParticipantAdapterItem> comparator = new Comparator<ParticipantAdapterItem>() {
-                    private final HashMap<String, User> usersMap = new HashMap<>();
+            mItemByUserId.put(member.getUserId(), participantItem);
+        }
 
-                    /**
-                     * Get an user snapshot from an user id.
-                     * @param userId the user id to find out
-                     * @return teh user if it exists
-                     */
-                    private User getUser(String userId) {
-                        User user = null;
+        // add 3rd party invite
+        Collection<RoomThirdPartyInvite> thirdPartyInvites = mRoom.getLiveState().thirdPartyInvites();
 
-                        if (null != userId) {
-                            user = usersMap.get(userId);
+        for (RoomThirdPartyInvite invite : thirdPartyInvites) {
+            // If the home server has converted the 3pid invite into a room member, do not show it
+            if (null == mRoom.getLiveState().memberWithThirdPartyInviteToken(invite.token)) {
+                ParticipantAdapterItem participant = new ParticipantAdapterItem(invite.display_name, "", null, true);
+                mSortedInvitedMembers.add(participant);
+                mThirdPartyInviteItemByToken.put(invite.token, participant);
+            }
+        }
 
-                            if (null == user) {
-                                user = fDataHandler.getUser(userId);
+        Collections.sort(mSortedParticipants, mMembersComparator);
+        Collections.sort(mSortedInvitedMembers, mMembersComparator);
 
-                                if (null != user) {
-                                    // create a snapshot to avoid error while sorting the list
-                                    // some exceptions could be triggered because of updates.
-                                    user = user.deepCopy();
-                                    usersMap.put(userId, user);
-                                }
-                            }
-                        }
+        synchronized (mPendingUpdatesLock) {
+            mIsModelBuilt = true;
+        }
+    }
 
-                        return user;
-                    }
+    /**
+     * Update a member in the model.
+     * Must be called from the members thread.
+     *
+     * @param userId the member user id
+     */
+    private void applyMemberDelta(String userId) {
+        ParticipantAdapterItem oldItem = mItemByUserId.remove(userId);
+
+        if (null != oldItem) {
+            if (oldItem == mMyItem) {
+                mMyItem = null;
+            } else if (!removeItem(mSortedParticipants, oldItem)) {
+                removeItem(mSortedInvitedMembers, oldItem);
+            }
+        }
 
-                    @Override
-                    public int compare(ParticipantAdapterItem part1, ParticipantAdapterItem part2) {
-                        User userA = getUser(part1.mUserId);
-                        User userB = getUser(part2.mUserId);
+        // the presence might have been updated
+        mUserSnapshotByUserId.remove(userId);
 
-                        String userADisplayName = part1.getComparisonDisplayName();
-                        String userBDisplayName = part2.getComparisonDisplayName();
+        RoomMember member = mRoom.getMember(userId);
 
-                        boolean isUserA_Active = false;
-                        boolean isUserB_Active = false;
+        if ((null != member) && (RoomMember.MEMBERSHIP_JOIN.equals(member.membership) || RoomMember.MEMBERSHIP_INVITE.equals(member.membership))) {
+            ParticipantAdapterItem participantItem = new ParticipantAdapterItem(member);
 
-                        if ((null != userA) && (null != userA.currently_active)) {
-                            isUserA_Active = userA.currently_active;
-                        }
+            if (TextUtils.equals(userId, mSession.getMyUserId())) {
+                mMyItem = participantItem;
+            } else if (RoomMember.MEMBERSHIP_INVITE.equals(member.membership)) {
+                insertSortedItem(mSortedInvitedMembers, participantItem);
+            } else {
+                insertSortedItem(mSortedParticipants, participantItem);
+            }
 
-                        if ((null != userB) && (null != userB.currently_active)) {
-                            isUserB_Active = userB.currently_active;
-                        }
+            mItemByUserId.put(userId, participantItem);
+        }
+    }
 
-                        int powerLevelA = 0;
-                        int powerLevelB = 0;
+    /**
+     * Remove the third party invites which have been converted into room members.
+     * Must be called from the members thread.
+     */
+    private void removeConvertedThirdPartyInvites() {
+        ArrayList<String> convertedTokens = new ArrayList<>();
 
-                        if (null != powerLevels) {
-                            if ((null != userA) && (null != userA.user_id)) {
-                                powerLevelA = powerLevels.getUserPowerLevel(userA.user_id);
-                            }
+        for (String token : mThirdPartyInviteItemByToken.keySet()) {
+            if (null != mRoom.getLiveState().memberWithThirdPartyInviteToken(token)) {
+                convertedTokens.add(token);
+            }
+        }
 
-                            if ((null != userB) && (null != userB.user_id)) {
-                                powerLevelB = powerLevels.getUserPowerLevel(userB.user_id);
-                            }
-                        }
+        for (String token : convertedTokens) {
+            removeItem(mSortedInvitedMembers, mThirdPartyInviteItemByToken.remove(token));
+        }
+    }
 
-                        if ((null == userA) && (null == userB)) {
-                            return alphaComparator(userADisplayName, userBDisplayName);
-                        } else if ((null != userA) && (null == userB)) {
-                            return +1;
-                        } else if ((null == userA) && (null != userB)) {
-                            return -1;
-                        } else if (isUserA_Active && isUserB_Active) {
-                            if (powerLevelA == powerLevelB) {
-                                return alphaComparator(userADisplayName, userBDisplayName);
-                            } else {
-                                return (powerLevelB - powerLevelA) > 0 ? +1 : -1;
-                            }
-                        }
+    /**
+     * Remove an item from a list by reference.
+     *
+     * @param list the list
+     * @param item the item to remove
+     * @return true if the item has been found
+     */
+    private static boolean removeItem(List<ParticipantAdapterItem> list, ParticipantAdapterItem item) {
+        for (int index = 0; index < list.size(); index++) {
+            if (list.get(index) == item) {
+                list.remove(index);
+                return true;
+            }
+        }
 
-                        if (isUserA_Active && !isUserB_Active) {
-                            return -1;
-                        }
-                        if (!isUserA_Active && isUserB_Active) {
-                            return +1;
-                        }
+        return false;
+    }
 
-                        // Finally, compare the timestamps
-                        long lastActiveAgoA = (null != userA) ? userA.getAbsoluteLastActiveAgo() : 0;
-                        long lastActiveAgoB = (null != userB) ? userB.getAbsoluteLastActiveAgo() : 0;
+    /**
+     * Insert an item in a sorted list.
+     *
+     * @param list the sorted list
+     * @param item the item to insert
+     */
+    private void insertSortedItem(List<ParticipantAdapterItem> list, ParticipantAdapterItem item) {
+        int pos = Collections.binarySearch(list, item, mMembersComparator);
 
-                        long diff = lastActiveAgoA - lastActiveAgoB;
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
 
-                        if (diff == 0) {
-                            return alphaComparator(userADisplayName, userBDisplayName);
-                        }
+        list.add(pos, item);
+    }
 
-                        // if only one member has a lastActiveAgo, prefer it
-                        if (0 == lastActiveAgoA) {
-                            return +1;
-                        } else if (0 == lastActiveAgoB) {
-                            return -1;
-                        }
+    /**
+     * Build the displayed lists from the model.
+     * Must be called from the members thread.
+     *
+     * @param pattern                the search pattern
+     * @param isMembersListUpdated true if the members list has been updated
+     * @return the snapshot
+     */
+    private MembersModelSnapshot buildSnapshot(String pattern, boolean isMembersListUpdated) {
+        MembersModelSnapshot snapshot = new MembersModelSnapshot();
 
-                        return (diff > 0) ? +1 : -1;
-                    }
-                };
-
-                // create "members present in the room" list
-                try {
-                    Collections.sort(actualParticipants, comparator);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "## updateRoomMembersDataModel failed while sorting " + e.getMessage());
-
-                    if (TextUtils.equals(fPattern, mSearchPattern)) {
-
-                        // most of the sort exception are triggered with
-                        //  java.lang.IllegalArgumentException: Comparison method violates its general contract!
-                        // it is triggered because the presences are updated while sorting.
-                        uiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                updateRoomMembersDataModel(aSearchListener);
-                            }
-                        });
-                    }
+        snapshot.mPattern = pattern;
+        snapshot.mIsSearchEnabled = !TextUtils.isEmpty(pattern);
+        snapshot.mPresentMembers = new ArrayList<>();
+        snapshot.mInvitedMembers = new ArrayList<>();
+        snapshot.mDisplayNamesCount = new HashMap<>();
 
-                    return;
-                }
+        if (null != mMyItem) {
+            addFilteredItem(snapshot, snapshot.mPresentMembers, mMyItem);
+        }
 
-                presentMembersList.addAll(actualParticipants);
-
-                uiHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // test if the pattern has been updated while searching the items.
-                        if (TextUtils.equals(mSearchPattern, fPattern)) {
-                            mDisplayNamesList = displayNamesList;
-                            mRoomMembersListByGroupPosition = roomMembersListByGroupPosition;
-                            mGroupIndexPresentMembers = -1;
-                            mGroupIndexPresentMembers = -1;
-
-                            int groupIndex = 0;
-
-                            // first group: members present in the room
-                            if (0 != presentMembersList.size()) {
-                                roomMembersListByGroupPosition.add(presentMembersList);
-                                mGroupIndexPresentMembers = groupIndex;
-                                groupIndex++;
-                            }
+        for (ParticipantAdapterItem item : mSortedParticipants) {
+            addFilteredItem(snapshot, snapshot.mPresentMembers, item);
+        }
 
-                            // second group: invited members only
-                            if (0 != invitedMembers.size()) {
-                                Collections.sort(invitedMembers, comparator);
-                                roomMembersListByGroupPosition.add(invitedMembers);
-                                mGroupIndexInvitedMembers = groupIndex;
-                            }
+        for (ParticipantAdapterItem item : mSortedInvitedMembers) {
+            addFilteredItem(snapshot, snapshot.mInvitedMembers, item);
+        }
 
-                            // notify end of search if listener is provided
-                            if (null != aSearchListener) {
-                                try {
-                                    aSearchListener.onSearchEnd(getItemsCount(), isSearchEnabled);
-                                } catch (Exception e) {
-                                    Log.e(LOG_TAG, "## updateRoomMembersDataModel() : onSearchEnd fails " + e.getMessage());
-                                }
-                            }
+        if (isMembersListUpdated) {
+            snapshot.mMemberUserIds = new HashSet<>(mItemByUserId.keySet());
+        }
 
-                            // force UI rendering update
-                            notifyDataSetChanged();
-                        }
-                    }
-                });
-            }
-        });
+        return snapshot;
+    }
 
-        t.setPriority(Thread.MIN_PRIORITY);
-        t.start();
+    /**
+     * Add an item to a snapshot list if it matches the snapshot pattern.
+     *
+     * @param snapshot the snapshot
+     * @param list     the list
+     * @param item     the item
+     */
+    private static void addFilteredItem(MembersModelSnapshot snapshot, List<ParticipantAdapterItem> list, ParticipantAdapterItem item) {
+        // if search is enabled, just skip the member if pattern does not match
+        if (snapshot.mIsSearchEnabled && !item.contains(snapshot.mPattern)) {
+            return;
+        }
+
+        list.add(item);
+
+        if (!TextUtils.isEmpty(item.mDisplayName)) {
+            Integer count = snapshot.mDisplayNamesCount.get(item.mDisplayName);
+            snapshot.mDisplayNamesCount.put(item.mDisplayName, (null == count) ? 1 : count + 1);
+        }
     }
 
     /**
-     * @return the participant User Ids except oneself.
+     * A new snapshot has been computed.
+     * It is applied at the next frame, only the latest snapshot is applied.
+     *
+     * @param snapshot the snapshot
      */
-    public ArrayList<String> getUserIdsList() {
-        ArrayList<String> idsListRetValue = new ArrayList<>();
+    private void onSnapshotReady(MembersModelSnapshot snapshot) {
+        if ((null != mPendingSnapshot) && (null == snapshot.mSearchListener)) {
+            snapshot.mSearchListener = mPendingSnapshot.mSearchListener;
+        }
+
+        if ((null != mPendingSnapshot) && (null == snapshot.mMemberUserIds)) {
+            snapshot.mMemberUserIds = mPendingSnapshot.mMemberUserIds;
+        }
 
-        if (mGroupIndexPresentMembers >= 0) {
-            int listSize = mRoomMembersListByGroupPosition.get(mGroupIndexPresentMembers).size();
+        mPendingSnapshot = snapshot;
 
-            // the first item is always oneself, so skipp first element
-            for (int index = 1; index < listSize; index++) {
-                ParticipantAdapterItem item = mRoomMembersListByGroupPosition.get(mGroupIndexPresentMembers).get(index);
+        if (!mIsFrameCallbackPosted) {
+            mIsFrameCallbackPosted = true;
 
-                // sanity check
-                if (null != item.mUserId) {
-                    idsListRetValue.add(item.mUserId);
+            Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mIsFrameCallbackPosted = false;
+
+                    MembersModelSnapshot pendingSnapshot = mPendingSnapshot;
+                    mPendingSnapshot = null;
+
+                    if (null != pendingSnapshot) {
+                        applySnapshot(pendingSnapshot);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Apply a snapshot to the adapter.
+     *
+     * @param snapshot the snapshot
+     */
+    private void applySnapshot(MembersModelSnapshot snapshot) {
+        if (null != snapshot.mMemberUserIds) {
+            mMemberUserIds = snapshot.mMemberUserIds;
+        }
+
+        // test if the pattern has been updated while searching the items.
+        // a new snapshot will be provided.
+        if (!TextUtils.equals(mSearchPattern, snapshot.mPattern)) {
+            if (null != snapshot.mSearchListener) {
+                synchronized (mPendingUpdatesLock) {
+                    if (null == mPendingSearchListener) {
+                        mPendingSearchListener = snapshot.mSearchListener;
+                    }
                 }
             }
+            return;
+        }
+
+        ArrayList<ArrayList<ParticipantAdapterItem>> roomMembersListByGroupPosition = new ArrayList<>();
+
+        mDisplayNamesCount = snapshot.mDisplayNamesCount;
+        mRoomMembersListByGroupPosition = roomMembersListByGroupPosition;
+        mGroupIndexPresentMembers = -1;
+        mGroupIndexInvitedMembers = -1;
+
+        int groupIndex = 0;
+
+        // first group: members present in the room
+        if (0 != snapshot.mPresentMembers.size()) {
+            roomMembersListByGroupPosition.add(snapshot.mPresentMembers);
+            mGroupIndexPresentMembers = groupIndex;
+            groupIndex++;
+        }
+
+        // second group: invited members only
+        if (0 != snapshot.mInvitedMembers.size()) {
+            roomMembersListByGroupPosition.add(snapshot.mInvitedMembers);
+            mGroupIndexInvitedMembers = groupIndex;
+        }
+
+        // notify end of search if listener is provided
+        if (null != snapshot.mSearchListener) {
+            try {
+                snapshot.mSearchListener.onSearchEnd(getItemsCount(), snapshot.mIsSearchEnabled);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## applySnapshot() : onSearchEnd fails " + e.getMessage());
+            }
         }
 
-        return idsListRetValue;
+        // force UI rendering update
+        notifyDataSetChanged();
     }
 
     /**
@@ -724,15 +1100,9 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
 
         // detect if the displayname is used several times
         if (!TextUtils.isEmpty(memberName)) {
-            int pos = mDisplayNamesList.indexOf(memberName);
-
-            if (pos >= 0) {
-                if (pos == mDisplayNamesList.lastIndexOf(memberName)) {
-                    pos = -1;
-                }
-            }
+            Integer count = mDisplayNamesCount.get(memberName);
 
-            if ((pos >= 0) && !TextUtils.isEmpty(participant.mUserId)) {
+            if ((null != count) && (count > 1) && !TextUtils.isEmpty(participant.mUserId)) {
                 memberName += " (" + participant.mUserId + ")";
             }
         }
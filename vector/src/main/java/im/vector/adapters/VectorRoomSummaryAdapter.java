@@ -50,6 +50,7 @@ import java.util.List;
 import im.vector.Matrix;
 import im.vector.PublicRoomsManager;
 import im.vector.R;
+import im.vector.util.PushRulesEvaluator;
 import im.vector.util.RiotEventDisplay;
 import im.vector.util.RoomUtils;
 import im.vector.util.ThemeUtils;
@@ -755,7 +756,7 @@ public class VectorRoomSummaryAdapter extends BaseExpandableListAdapter {
             highlightCount = childRoom.getHighlightCount();
             notificationCount = childRoom.getNotificationCount();
 
-            if (mMxSession.getDataHandler().getBingRulesManager().isRoomMentionOnly(childRoom.getRoomId())) {
+            if (PushRulesEvaluator.getInstance(mMxSession).isRoomMentionOnly(childRoom.getRoomId())) {
                 notificationCount = highlightCount;
             }
         }
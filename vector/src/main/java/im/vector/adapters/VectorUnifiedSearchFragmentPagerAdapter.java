@@ -24,6 +24,7 @@ import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v4.util.Pair;
 import android.support.v4.util.SparseArrayCompat;
 import android.text.TextUtils;
+import android.view.View;
 import android.view.ViewGroup;
 
 import org.matrix.androidsdk.MXSession;
@@ -32,6 +33,7 @@ import org.matrix.androidsdk.fragments.MatrixMessageListFragment;
 import im.vector.PublicRoomsManager;
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
+import im.vector.contacts.ContactsManager;
 import im.vector.fragments.VectorSearchMessagesListFragment;
 import im.vector.fragments.VectorSearchPeopleListFragment;
 import im.vector.fragments.VectorSearchRoomsFilesListFragment;
@@ -145,6 +147,8 @@ public class VectorUnifiedSearchFragmentPagerAdapter extends FragmentPagerAdapte
 
     /**
      * Cancel any pending search
+     *
+     * @param position the fragment position
      */
     public void cancelSearch(int position) {
         Pair<Integer, Fragment> pair = mFragmentsData.get(position);
@@ -155,12 +159,43 @@ public class VectorUnifiedSearchFragmentPagerAdapter extends FragmentPagerAdapte
         }
 
         if (titleId == R.string.tab_title_search_messages) {
-            ((VectorSearchMessagesListFragment) fragment).cancelCatchingRequests();
+            ((VectorSearchMessagesListFragment) fragment).cancelPendingSearch();
         } else if (titleId == R.string.tab_title_search_files) {
-            ((VectorSearchRoomsFilesListFragment) fragment).cancelCatchingRequests();
+            ((VectorSearchRoomsFilesListFragment) fragment).cancelPendingSearch();
         }
     }
 
+    /**
+     * Provides the view of the fragment at the provided position.
+     *
+     * @param position the fragment position
+     * @return the view, null if it is not created
+     */
+    public View getFragmentView(int position) {
+        Pair<Integer, Fragment> pair = mFragmentsData.get(position);
+        Fragment fragment = pair == null ? null : pair.second;
+
+        return (null == fragment) ? null : fragment.getView();
+    }
+
+    /**
+     * Tells if the fragment at the provided position can run a search i.e. its view is created.
+     *
+     * @param position the fragment position
+     * @return true if the search can be started
+     */
+    public boolean isSearchable(int position) {
+        Pair<Integer, Fragment> pair = mFragmentsData.get(position);
+        Fragment fragment = pair == null ? null : pair.second;
+
+        if ((null == fragment) || (null == fragment.getView())) {
+            return false;
+        }
+
+        // the people search waits that the local contacts are populated
+        return (pair.first != R.string.tab_title_search_people) || ContactsManager.getInstance().didPopulateLocalContacts();
+    }
+
     /**
      * Triggers a search in the currently displayed fragments
      *
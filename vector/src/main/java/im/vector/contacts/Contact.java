@@ -93,6 +93,18 @@ public class Contact implements java.io.Serializable {
          * @param e164PhoneNumber the genuine E164 phone number
          */
         public PhoneNumber(String rawPhoneNumber, String e164PhoneNumber) {
+            this(rawPhoneNumber, e164PhoneNumber, null, false);
+        }
+
+        /**
+         * Constructor
+         *
+         * @param rawPhoneNumber  the genuine phone number
+         * @param e164PhoneNumber the genuine E164 phone number
+         * @param deducedMsisdn   the msisdn deduced from the current country code
+         * @param isMsisdnDeduced true when deducedMsisdn has been computed (it is null when the phone number cannot be converted)
+         */
+        PhoneNumber(String rawPhoneNumber, String e164PhoneNumber, String deducedMsisdn, boolean isMsisdnDeduced) {
             mRawPhoneNumber = rawPhoneNumber;
             // without space, parenthesis
             mCleanedPhoneNumber = rawPhoneNumber.replaceAll("[\\D]", "");
@@ -105,8 +117,13 @@ public class Contact implements java.io.Serializable {
                 mMsisdnPhoneNumber = e164PhoneNumber;
             } else {
                 mE164PhoneNumber = null;
-                // Attempt to deduce msisdn format using current country code
-                refreshE164PhoneNumber();
+
+                if (isMsisdnDeduced) {
+                    refreshE164PhoneNumber(deducedMsisdn);
+                } else {
+                    // Attempt to deduce msisdn format using current country code
+                    refreshE164PhoneNumber();
+                }
             }
         }
 
@@ -116,7 +133,18 @@ public class Contact implements java.io.Serializable {
         public void refreshE164PhoneNumber() {
             if (TextUtils.isEmpty(mE164PhoneNumber)) {
                 // Attempt to deduce E164 format using the new country code
-                mMsisdnPhoneNumber = PhoneNumberUtils.getE164format(VectorApp.getInstance(), mRawPhoneNumber);
+                refreshE164PhoneNumber(PhoneNumberUtils.getE164format(VectorApp.getInstance(), mRawPhoneNumber));
+            }
+        }
+
+        /**
+         * Refresh the deduced e164 phone number with a computed one.
+         *
+         * @param deducedMsisdn the msisdn deduced from the current country code, null if it cannot be deduced
+         */
+        void refreshE164PhoneNumber(String deducedMsisdn) {
+            if (TextUtils.isEmpty(mE164PhoneNumber)) {
+                mMsisdnPhoneNumber = deducedMsisdn;
                 if (TextUtils.isEmpty(mMsisdnPhoneNumber)) {
                     mMsisdnPhoneNumber = mCleanedPhoneNumber;
                 }
@@ -211,24 +239,49 @@ public class Contact implements java.io.Serializable {
     public void addPhoneNumber(String aPn, String aPnE164) {
         // sanity check
         if (!TextUtils.isEmpty(aPn)) {
-            final PhoneNumber pn = new PhoneNumber(aPn, aPnE164);
-            mPhoneNumbers.add(pn);
+            addPhoneNumber(new PhoneNumber(aPn, aPnE164));
+        }
+    }
+
+    /**
+     * Add a phone number address to the list.
+     * The msisdn has been deduced by {@link PhoneNumberUtils#getE164formats(android.content.Context, java.util.Collection)}.
+     *
+     * @param aPn           the phone number to add
+     * @param aPnE164       the E164 phone number to add
+     * @param deducedMsisdn the msisdn deduced from the current country code, null if it cannot be deduced
+     */
+    public void addPhoneNumber(String aPn, String aPnE164, String deducedMsisdn) {
+        // sanity check
+        if (!TextUtils.isEmpty(aPn)) {
+            addPhoneNumber(new PhoneNumber(aPn, aPnE164, deducedMsisdn, true));
+        }
+    }
 
-            // test if the phone number also matches to a matrix ID
-            MXID mxid = PIDsRetriever.getInstance().getMXID(pn.mMsisdnPhoneNumber);
-            if (null != mxid) {
-                mMXIDsByElement.put(pn.mMsisdnPhoneNumber, mxid);
-            }
+    /**
+     * Add a phone number address to the list.
+     *
+     * @param pn the phone number to add
+     */
+    private void addPhoneNumber(PhoneNumber pn) {
+        mPhoneNumbers.add(pn);
+
+        // test if the phone number also matches to a matrix ID
+        MXID mxid = PIDsRetriever.getInstance().getMXID(pn.mMsisdnPhoneNumber);
+        if (null != mxid) {
+            mMXIDsByElement.put(pn.mMsisdnPhoneNumber, mxid);
         }
     }
 
     /**
      * Update the contacts with the new country code.
+     *
+     * @param msisdnByPhoneNumber the msisdns deduced from the new country code by raw phone number
      */
-    public void onCountryCodeUpdate() {
+    public void onCountryCodeUpdate(Map<String, String> msisdnByPhoneNumber) {
         if (null != mPhoneNumbers) {
             for (PhoneNumber pn : mPhoneNumbers) {
-                pn.refreshE164PhoneNumber();
+                pn.refreshE164PhoneNumber(msisdnByPhoneNumber.get(pn.mRawPhoneNumber));
             }
         }
     }
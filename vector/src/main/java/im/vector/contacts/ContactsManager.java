@@ -42,6 +42,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import im.vector.Matrix;
@@ -313,8 +314,21 @@ public class ContactsManager implements SharedPreferences.OnSharedPreferenceChan
     private void onCountryCodeUpdate() {
         synchronized (LOG_TAG) {
             if (null != mContactsList) {
+                // convert the phone numbers in one pass
+                List<String> phoneNumbers = new ArrayList<>();
+
                 for (Contact contact : mContactsList) {
-                    contact.onCountryCodeUpdate();
+                    for (Contact.PhoneNumber pn : contact.getPhonenumbers()) {
+                        if (TextUtils.isEmpty(pn.mE164PhoneNumber)) {
+                            phoneNumbers.add(pn.mRawPhoneNumber);
+                        }
+                    }
+                }
+
+                Map<String, String> msisdnByPhoneNumber = PhoneNumberUtils.getE164formats(VectorApp.getInstance(), phoneNumbers);
+
+                for (Contact contact : mContactsList) {
+                    contact.onCountryCodeUpdate(msisdnByPhoneNumber);
                 }
             }
         }
@@ -482,22 +496,28 @@ public class ContactsManager implements SharedPreferences.OnSharedPreferenceChan
                     }
 
                     if (null != phonesCur) {
+                        // the phone numbers without E164 format are converted in one pass
+                        List<String[]> phoneNumberRows = new ArrayList<>();
+                        List<String> phoneNumbersToConvert = new ArrayList<>();
+
                         try {
+                            int numberIndex = phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER);
+                            int normalizedNumberIndex = phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER);
+                            int contactIdIndex = phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_ID);
+
                             while (phonesCur.moveToNext()) {
-                                final String pn = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER));
-                                final String pnE164 = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER));
+                                final String pn = phonesCur.getString(numberIndex);
+                                final String pnE164 = phonesCur.getString(normalizedNumberIndex);
 
                                 if (!TextUtils.isEmpty(pn)) {
-                                    String contactId = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_ID));
+                                    String contactId = phonesCur.getString(contactIdIndex);
 
                                     if (null != contactId) {
-                                        Contact contact = dict.get(contactId);
-                                        if (null == contact) {
-                                            contact = new Contact(contactId);
-                                            dict.put(contactId, contact);
-                                        }
+                                        phoneNumberRows.add(new String[]{contactId, pn, pnE164});
 
-                                        contact.addPhoneNumber(pn, pnE164);
+                                        if (TextUtils.isEmpty(pnE164)) {
+                                            phoneNumbersToConvert.add(pn);
+                                        }
                                     }
                                 }
                             }
@@ -506,6 +526,20 @@ public class ContactsManager implements SharedPreferences.OnSharedPreferenceChan
                         }
 
                         phonesCur.close();
+
+                        Map<String, String> msisdnByPhoneNumber = PhoneNumberUtils.getE164formats(VectorApp.getInstance(), phoneNumbersToConvert);
+
+                        for (String[] row : phoneNumberRows) {
+                            Contact contact = dict.get(row[0]);
+                            if (null == contact) {
+                                contact = new Contact(row[0]);
+                                dict.put(row[0], contact);
+                            }
+
+                            contact.addPhoneNumber(row[1], row[2], msisdnByPhoneNumber.get(row[1]));
+                        }
+
+                        Log.d(LOG_TAG, "## refreshLocalContactsSnapshot(): phone numbers cache " + PhoneNumberUtils.getCacheStats());
                     }
 
                     // get the emails
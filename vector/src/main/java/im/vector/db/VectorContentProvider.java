@@ -20,13 +20,18 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 
 import im.vector.VectorApp;
 
@@ -37,6 +42,46 @@ public class VectorContentProvider extends ContentProvider {
 
     private static final String BUG_SEPARATOR = "bugreport";
 
+    // virtual URIs : content://AUTHORITIES/share/<encoded relative path>/<display name>?mime=<mime type>
+    private static final String SHARE_SEGMENT = "share";
+    private static final String MIME_PARAMETER = "mime";
+
+    /**
+     * Expose a private file under a virtual file name, without copying it.
+     *
+     * @param context     the application context
+     * @param file        the private file (e.g. a medias cache file)
+     * @param displayName the file name to display, the private file name is used when it is empty
+     * @param mimeType    the mime type, it is guessed from the display name when it is empty
+     * @return the content URI, null if the file is not a private file
+     */
+    public static Uri mediaFileToUri(Context context, File file, String displayName, String mimeType) {
+        if (null == file) {
+            return null;
+        }
+
+        String attachmentsBasePath = context.getFilesDir().getAbsolutePath();
+        String path = file.getAbsolutePath();
+
+        if (!path.startsWith(attachmentsBasePath)) {
+            return absolutePathToUri(context, path);
+        }
+
+        Uri.Builder builder = new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITIES)
+                .appendPath(SHARE_SEGMENT)
+                // appendPath encodes the separators so the relative path is a single segment
+                .appendPath(path.substring(attachmentsBasePath.length()))
+                .appendPath(TextUtils.isEmpty(displayName) ? file.getName() : displayName);
+
+        if (!TextUtils.isEmpty(mimeType)) {
+            builder.appendQueryParameter(MIME_PARAMETER, mimeType);
+        }
+
+        return builder.build();
+    }
+
     /**
      * Convert an absolute file path to a Content path
      *
@@ -66,39 +111,115 @@ public class VectorContentProvider extends ContentProvider {
         return null;
     }
 
-    @Override
-    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+    /**
+     * Tells if an URI is a virtual file name URI.
+     *
+     * @param uri the URI
+     * @return true if it has been built by {@link #mediaFileToUri(Context, File, String, String)}
+     */
+    private static boolean isShareUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return (3 == segments.size()) && TextUtils.equals(SHARE_SEGMENT, segments.get(0));
+    }
+
+    /**
+     * Retrieve the private file of an URI.
+     * The files outside the application directories are never provided.
+     *
+     * @param uri the URI
+     * @return the file, null if there is none
+     */
+    private File getPrivateFile(Uri uri) {
         try {
-            File privateFile = null;
+            File baseDir;
+            File privateFile;
 
-            if (uri.getPath().contains("/" + BUG_SEPARATOR + "/")) {
-                if (null != VectorApp.mLogsDirectoryFile) {
-                    privateFile = new File(VectorApp.mLogsDirectoryFile, uri.getLastPathSegment());
+            if (isShareUri(uri)) {
+                baseDir = getContext().getFilesDir();
+                privateFile = new File(baseDir, uri.getPathSegments().get(1));
+            } else if (uri.getPath().contains("/" + BUG_SEPARATOR + "/")) {
+                if (null == VectorApp.mLogsDirectoryFile) {
+                    return null;
                 }
+
+                baseDir = VectorApp.mLogsDirectoryFile;
+                privateFile = new File(baseDir, uri.getLastPathSegment());
             } else {
-                privateFile = new File(getContext().getFilesDir(), uri.getPath());
+                baseDir = getContext().getFilesDir();
+                privateFile = new File(baseDir, uri.getPath());
             }
 
-            if (privateFile.exists()) {
-                return ParcelFileDescriptor.open(privateFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            // reject the path traversals
+            if (!privateFile.getCanonicalPath().startsWith(baseDir.getCanonicalPath() + File.separator)) {
+                Log.e(LOG_TAG, "## getPrivateFile() : invalid path " + uri);
+                return null;
             }
+
+            return privateFile.exists() ? privateFile : null;
         } catch (Exception e) {
-            Log.e(LOG_TAG, "## openFile() failed " + e.getMessage());
+            Log.e(LOG_TAG, "## getPrivateFile() failed " + e.getMessage());
         }
 
         return null;
     }
 
+    /**
+     * Provide the display name of an URI.
+     *
+     * @param uri  the URI
+     * @param file the private file
+     * @return the display name
+     */
+    private static String getDisplayName(Uri uri, File file) {
+        return isShareUri(uri) ? uri.getLastPathSegment() : file.getName();
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        // the files are only shared in read only
+        if ((null != mode) && (mode.contains("w") || mode.contains("t") || mode.contains("a"))) {
+            throw new FileNotFoundException("read only provider");
+        }
+
+        File privateFile = getPrivateFile(uri);
+
+        if (null != privateFile) {
+            try {
+                // the file is streamed from the medias cache : there is no copy
+                return ParcelFileDescriptor.open(privateFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## openFile() failed " + e.getMessage());
+            }
+        }
+
+        throw new FileNotFoundException(uri.toString());
+    }
+
     @Override
     public int delete(Uri arg0, String arg1, String[] arg2) {
         return 0;
     }
 
     @Override
-    public String getType(Uri arg0) {
+    public String getType(Uri uri) {
+        if (isShareUri(uri)) {
+            String mimeType = uri.getQueryParameter(MIME_PARAMETER);
+
+            if (!TextUtils.isEmpty(mimeType)) {
+                return mimeType;
+            }
+        }
+
         String type = null;
-        String extension = MimeTypeMap.getFileExtensionFromUrl(arg0.toString().toLowerCase());
-        if (extension != null) {
+        String name = isShareUri(uri) ? uri.getLastPathSegment() : uri.toString();
+        String extension = MimeTypeMap.getFileExtensionFromUrl(name.toLowerCase());
+
+        // getFileExtensionFromUrl does not support the spaces
+        if (TextUtils.isEmpty(extension) && (name.lastIndexOf('.') >= 0)) {
+            extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        }
+
+        if (!TextUtils.isEmpty(extension)) {
             MimeTypeMap mime = MimeTypeMap.getSingleton();
             type = mime.getMimeTypeFromExtension(extension);
         }
@@ -117,9 +238,35 @@ public class VectorContentProvider extends ContentProvider {
     }
 
     @Override
-    public Cursor query(Uri arg0, String[] arg1, String arg2, String[] arg3,
-                        String arg4) {
-        return null;
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        File privateFile = getPrivateFile(uri);
+
+        if (null == privateFile) {
+            return null;
+        }
+
+        if (null == projection) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+
+        // only the openable columns are supported
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+
+        for (String column : projection) {
+            if (OpenableColumns.DISPLAY_NAME.equals(column)) {
+                columns.add(column);
+                values.add(getDisplayName(uri, privateFile));
+            } else if (OpenableColumns.SIZE.equals(column)) {
+                columns.add(column);
+                values.add(privateFile.length());
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns.toArray(new String[columns.size()]), 1);
+        cursor.addRow(values.toArray());
+        return cursor;
     }
 
     @Override
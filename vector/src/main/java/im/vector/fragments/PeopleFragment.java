@@ -63,7 +63,7 @@ import im.vector.adapters.PeopleAdapter;
 import im.vector.contacts.Contact;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
-import im.vector.util.VectorUtils;
+import im.vector.search.PeopleDirectory;
 import im.vector.view.EmptyViewItemDecoration;
 import im.vector.view.SimpleDividerItemDecoration;
 
@@ -344,7 +344,11 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
                 // sort requires about 2 seconds
                 // sort a 1000 items subset during a search requires about 75ms
                 mKnownContacts.clear();
-                mKnownContacts.addAll(new ArrayList<>(VectorUtils.listKnownParticipants(mSession).values()));
+                PeopleDirectory peopleDirectory = PeopleDirectory.getInstance(mSession);
+
+                if (null != peopleDirectory) {
+                    mKnownContacts.addAll(peopleDirectory.getKnownParticipants());
+                }
                 return null;
             }
 
@@ -399,7 +403,14 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
 
             final String fPattern = mCurrentFilter;
 
-            mSession.searchUsers(mCurrentFilter, MAX_KNOWN_CONTACTS_FILTER_COUNT, new HashSet<String>(), new ApiCallback<SearchUsersResponse>() {
+            PeopleDirectory peopleDirectory = PeopleDirectory.getInstance(mSession);
+
+            if (null == peopleDirectory) {
+                hideKnownContactLoadingView();
+                return;
+            }
+
+            peopleDirectory.searchUsers(mCurrentFilter, MAX_KNOWN_CONTACTS_FILTER_COUNT, new HashSet<String>(), new ApiCallback<SearchUsersResponse>() {
                 @Override
                 public void onSuccess(SearchUsersResponse searchUsersResponse) {
                     if (TextUtils.equals(fPattern, mCurrentFilter)) {
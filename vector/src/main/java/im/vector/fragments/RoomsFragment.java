@@ -486,6 +486,18 @@ public class RoomsFragment extends AbsHomeFragment implements AbsHomeFragment.On
 
         mAdapter.setNoMorePublicRooms(false);
 
+        // the count is cached with the directory first page
+        if (null == mEstimatedPublicRoomCount) {
+            Integer cachedCount = PublicRoomsManager.getInstance().getCachedPublicRoomsCount(mSelectedRoomDirectory.getServerUrl(),
+                    mSelectedRoomDirectory.getThirdPartyInstanceId(),
+                    mSelectedRoomDirectory.isIncludedAllNetworks());
+
+            if (null != cachedCount) {
+                mEstimatedPublicRoomCount = cachedCount;
+                mAdapter.setEstimatedPublicRoomsCount(cachedCount);
+            }
+        }
+
         if (null == mEstimatedPublicRoomCount) {
             final EventsRestClient eventsRestClient = mSession != null ? mSession.getEventsApiClient() : null;
             if (eventsRestClient == null) {
@@ -543,7 +555,8 @@ public class RoomsFragment extends AbsHomeFragment implements AbsHomeFragment.On
                     @Override
                     public void onSuccess(List<PublicRoom> publicRooms) {
                         if (null != getActivity()) {
-                            mAdapter.setNoMorePublicRooms(publicRooms.size() < PublicRoomsManager.PUBLIC_ROOMS_LIMIT);
+                            // the cached pages may contain several pages
+                            mAdapter.setNoMorePublicRooms(!PublicRoomsManager.getInstance().hasMoreResults());
                             mAdapter.setPublicRooms(publicRooms);
                             addPublicRoomsListener();
 
@@ -47,6 +47,7 @@ import org.matrix.androidsdk.adapters.MessageRow;
 import org.matrix.androidsdk.adapters.AbstractMessagesAdapter;
 import org.matrix.androidsdk.crypto.data.MXDeviceInfo;
 import org.matrix.androidsdk.crypto.data.MXUsersDevicesMap;
+import org.matrix.androidsdk.data.EventTimeline;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.fragments.MatrixMessageListFragment;
@@ -66,8 +67,6 @@ import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -84,6 +83,9 @@ import im.vector.adapters.VectorMessagesAdapter;
 import im.vector.db.VectorContentProvider;
 import im.vector.listeners.IMessagesAdapterActionsListener;
 import im.vector.receiver.VectorUniversalLinkReceiver;
+import im.vector.search.MessagesSearchIndex;
+import im.vector.search.RoomFilesIndex;
+import im.vector.util.PushRulesEvaluator;
 import im.vector.util.SlidableMediaInfo;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
@@ -268,6 +270,23 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         return TextUtils.equals(WidgetsManager.WIDGET_EVENT_TYPE, event.getType()) || super.canAddEvent(event);
     }
 
+    @Override
+    public void onEvent(Event event, EventTimeline.Direction direction, RoomState roomState) {
+        super.onEvent(event, direction, roomState);
+
+        // the live events are indexed by the session listener,
+        // the back paginated ones are indexed here.
+        if (direction == EventTimeline.Direction.BACKWARDS) {
+            MessagesSearchIndex index = MessagesSearchIndex.getInstance(getActivity(), mSession);
+            RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(getActivity(), mSession);
+
+            if ((null != index) && (null != filesIndex)) {
+                index.indexEvent(event);
+                filesIndex.indexEvent(event);
+            }
+        }
+    }
+
     /**
      * Update the encrypted status of the room
      *
@@ -777,29 +796,13 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
                 });
             } else {
                 // shared / forward
+                // the cached file is exposed with its file name : there is no copy
                 Uri mediaUri = null;
 
-                File renamedFile = file;
-
-                if (!TextUtils.isEmpty(filename)) {
-                    try {
-                        InputStream fin = new FileInputStream(file);
-                        String tmpUrl = mediasCache.saveMedia(fin, filename, mediaMimeType);
-
-                        if (null != tmpUrl) {
-                            renamedFile = mediasCache.mediaCacheFile(tmpUrl, mediaMimeType);
-                        }
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "onMediaAction shared / forward failed : " + e.getLocalizedMessage());
-                    }
-                }
-
-                if (null != renamedFile) {
-                    try {
-                        mediaUri = VectorContentProvider.absolutePathToUri(getActivity(), renamedFile.getAbsolutePath());
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "onMediaAction VectorContentProvider.absolutePathToUri: " + e.getLocalizedMessage());
-                    }
+                try {
+                    mediaUri = VectorContentProvider.mediaFileToUri(getActivity(), file, filename, mediaMimeType);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "onMediaAction VectorContentProvider.mediaFileToUri: " + e.getLocalizedMessage());
                 }
 
                 if (null != mediaUri) {
@@ -902,68 +905,17 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
      * @return the image and video messages list
      */
     ArrayList<SlidableMediaInfo> listSlidableMessages() {
-        ArrayList<SlidableMediaInfo> res = new ArrayList<>();
-
-        for (int position = 0; position < mAdapter.getCount(); position++) {
-            MessageRow row = mAdapter.getItem(position);
-            Message message = JsonUtils.toMessage(row.getEvent().getContent());
-
-            if (Message.MSGTYPE_IMAGE.equals(message.msgtype)) {
-                ImageMessage imageMessage = (ImageMessage) message;
-
-                SlidableMediaInfo info = new SlidableMediaInfo();
-                info.mMessageType = Message.MSGTYPE_IMAGE;
-                info.mFileName = imageMessage.body;
-                info.mMediaUrl = imageMessage.getUrl();
-                info.mRotationAngle = imageMessage.getRotation();
-                info.mOrientation = imageMessage.getOrientation();
-                info.mMimeType = imageMessage.getMimeType();
-                info.mEncryptedFileInfo = imageMessage.file;
-                res.add(info);
-            } else if (Message.MSGTYPE_VIDEO.equals(message.msgtype)) {
-                SlidableMediaInfo info = new SlidableMediaInfo();
-                VideoMessage videoMessage = (VideoMessage) message;
-                info.mMessageType = Message.MSGTYPE_VIDEO;
-                info.mFileName = videoMessage.body;
-                info.mMediaUrl = videoMessage.getUrl();
-                info.mThumbnailUrl = (null != videoMessage.info) ? videoMessage.info.thumbnail_url : null;
-                info.mMimeType = videoMessage.getMimeType();
-                info.mEncryptedFileInfo = videoMessage.file;
-                res.add(info);
-            }
-        }
-
-        return res;
+        return ((VectorMessagesAdapter) mAdapter).getMediaMessagesIndex().getMediasList();
     }
 
     /**
-     * Returns the mediaMessage position in listMediaMessages.
+     * Returns the media event position in the image and video messages list.
      *
-     * @param mediaMessagesList the media messages list
-     * @param mediaMessage      the imageMessage
-     * @return the imageMessage position. -1 if not found.
+     * @param event the image or video event
+     * @return the event position. -1 if not found.
      */
-    int getMediaMessagePosition(ArrayList<SlidableMediaInfo> mediaMessagesList, Message mediaMessage) {
-        String url = null;
-
-        if (mediaMessage instanceof ImageMessage) {
-            url = ((ImageMessage) mediaMessage).getUrl();
-        } else if (mediaMessage instanceof VideoMessage) {
-            url = ((VideoMessage) mediaMessage).getUrl();
-        }
-
-        // sanity check
-        if (null == url) {
-            return -1;
-        }
-
-        for (int index = 0; index < mediaMessagesList.size(); index++) {
-            if (mediaMessagesList.get(index).mMediaUrl.equals(url)) {
-                return index;
-            }
-        }
-
-        return -1;
+    int getMediaMessagePosition(Event event) {
+        return ((VectorMessagesAdapter) mAdapter).getMediaMessagesIndex().getMediaPosition(event.eventId);
     }
 
     @Override
@@ -998,7 +950,7 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
             // video and images are displayed inside a medias slider.
             if (Message.MSGTYPE_IMAGE.equals(message.msgtype) || (Message.MSGTYPE_VIDEO.equals(message.msgtype))) {
                 ArrayList<SlidableMediaInfo> mediaMessagesList = listSlidableMessages();
-                int listPosition = getMediaMessagePosition(mediaMessagesList, message);
+                int listPosition = getMediaMessagePosition(event);
 
                 if (listPosition >= 0) {
                     Intent viewImageIntent = new Intent(getActivity(), VectorMediasViewerActivity.class);
@@ -1201,8 +1153,6 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         }
     }
 
-    private final HashMap<String, Boolean> mHighlightStatusByEventId = new HashMap<>();
-
     @Override
     public boolean shouldHighlightEvent(Event event) {
         // sanity check
@@ -1210,16 +1160,7 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
             return false;
         }
 
-        String eventId = event.eventId;
-        Boolean status = mHighlightStatusByEventId.get(eventId);
-
-        if (null != status) {
-            return status;
-        }
-
-        boolean res = (null != mSession.getDataHandler().getBingRulesManager().fulfilledHighlightBingRule(event));
-        mHighlightStatusByEventId.put(eventId, res);
-
-        return res;
+        PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(mSession);
+        return (null != pushRulesEvaluator) && pushRulesEvaluator.isHighlighted(event);
     }
 }
@@ -23,8 +23,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -61,9 +59,9 @@ import org.matrix.androidsdk.util.Log;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 
 import im.vector.R;
 import im.vector.VectorApp;
@@ -74,6 +72,7 @@ import im.vector.activity.VectorRoomInviteMembersActivity;
 import im.vector.adapters.ParticipantAdapterItem;
 import im.vector.adapters.VectorRoomDetailsMembersAdapter;
 import im.vector.util.ThemeUtils;
+import im.vector.util.VectorScheduler;
 import im.vector.util.VectorUtils;
 
 public class VectorRoomDetailsMembersFragment extends Fragment {
@@ -100,16 +99,12 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
     private MenuItem mRemoveMembersMenuItem;
     private MenuItem mSwitchDeletionMenuItem;
 
-    // the UI handler to refresh the
-    private Handler mUIHandler;
-
-    // the member presences trigger refresh only after a delay
-    // to avoid lags
-    private Timer mRefreshTimer;
-    private TimerTask mRefreshTimerTask;
+    // the search pattern is applied only after a delay
+    // to avoid UI lags when the user is typing
+    private final VectorScheduler.Debouncer mSearchDebouncer = VectorScheduler.getInstance().createDebouncer(100, true);
 
     // list the up to date presence to avoid refreshing it twice
-    private final List<String> mUpdatedPresenceUserIds = new ArrayList<>();
+    private final Set<String> mUpdatedPresenceUserIds = new HashSet<>();
 
     // avoid dismissing the loading wheel when some new members are added
     private boolean mIsInvitingNewMembers;
@@ -123,8 +118,12 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                 public void run() {
                     String eventType = event.getType();
 
-                    if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
-                            Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType) ||
+                    if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) && (null != event.stateKey)) {
+                        // only update the member
+                        if (null != mAdapter) {
+                            mAdapter.onRoomMembersUpdate(Collections.singletonList(event.stateKey));
+                        }
+                    } else if (Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType) ||
                             Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
                         refreshRoomMembersList(mPatternValue, REFRESH_FORCED);
                     }
@@ -149,8 +148,8 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                     @Override
                     public void run() {
                         // test if the user is a member of the room
-                        if (mAdapter.getUserIdsList().indexOf(user.user_id) >= 0) {
-                            delayedUpdateRoomMembersDataModel();
+                        if (mAdapter.isRoomMember(user.user_id)) {
+                            mAdapter.onRoomMembersUpdate(Collections.singletonList(user.user_id));
                         }
                     }
                 });
@@ -207,36 +206,21 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             if (TextUtils.isEmpty(patternValue)) {
                 // search input is empty: restore a not filtered room members list
                 mClearSearchImageView.setVisibility(View.INVISIBLE);
+                mSearchDebouncer.cancel();
                 mPatternValue = null;
                 refreshRoomMembersList(mPatternValue, REFRESH_NOT_FORCED);
             } else {
-                Timer timer = new Timer();
                 // wait a little delay before refreshing the results.
                 // it avoid UI lags when the user is typing.
-                timer.schedule(new TimerTask() {
+                mSearchDebouncer.submit(new Runnable() {
                     @Override
                     public void run() {
-                        String text = null;
-
-                        // reported by GA
-                        try {
-                            text = mPatternToSearchEditText.getText().toString();
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## afterTextChanged() failed " + e.getMessage());
-                        }
-
-                        if (TextUtils.equals(text, patternValue) && (null != getActivity())) {
-                            mPatternValue = text;
-
-                            getActivity().runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    refreshRoomMembersList(mPatternValue, REFRESH_NOT_FORCED);
-                                }
-                            });
+                        if ((null != getActivity()) && TextUtils.equals(mPatternToSearchEditText.getText().toString(), patternValue)) {
+                            mPatternValue = patternValue;
+                            refreshRoomMembersList(mPatternValue, REFRESH_NOT_FORCED);
                         }
                     }
-                }, 100);
+                });
 
                 mClearSearchImageView.setVisibility(View.VISIBLE);
             }
@@ -329,11 +313,7 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             toggleMultiSelectionMode();
         }
 
-        if (null != mRefreshTimer) {
-            mRefreshTimer.cancel();
-            mRefreshTimer = null;
-            mRefreshTimerTask = null;
-        }
+        mSearchDebouncer.cancel();
     }
 
     @Override
@@ -464,8 +444,6 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
 
         setHasOptionsMenu(true);
 
-        mUIHandler = new Handler(Looper.getMainLooper());
-
         return mViewHierarchy;
     }
 
@@ -544,49 +522,6 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
     }
 
 
-    /**
-     * Trigger an UI refresh but it is only triggered after a delay
-     * to avoid lags.
-     */
-    private void delayedUpdateRoomMembersDataModel() {
-        if (null != mRefreshTimer) {
-            mRefreshTimer.cancel();
-            mRefreshTimer = null;
-            mRefreshTimerTask = null;
-        }
-
-        try {
-            mRefreshTimer = new Timer();
-            mRefreshTimerTask = new TimerTask() {
-                public void run() {
-                    mUIHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (null != mRefreshTimer) {
-                                mRefreshTimer.cancel();
-                            }
-                            mRefreshTimer = null;
-                            mRefreshTimerTask = null;
-                            mAdapter.updateRoomMembersDataModel(null);
-                        }
-                    });
-                }
-            };
-
-            mRefreshTimer.schedule(mRefreshTimerTask, 1000);
-        } catch (Throwable throwable) {
-            Log.e(LOG_TAG, "## delayedUpdateRoomMembersDataModel() failed " + throwable.getMessage());
-
-            if (null != mRefreshTimer) {
-                mRefreshTimer.cancel();
-                mRefreshTimer = null;
-            }
-
-            mRefreshTimerTask = null;
-            mAdapter.updateRoomMembersDataModel(null);
-        }
-    }
-
     /**
      * Refresh the member presences of the displayed members
      * if they are not yet known.
@@ -605,18 +540,13 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                 ParticipantAdapterItem participantAdapterItem = (ParticipantAdapterItem) item;
 
                 // test if a request has been done
-                if (mUpdatedPresenceUserIds.indexOf(participantAdapterItem.mUserId) < 0) {
-                    mUpdatedPresenceUserIds.add(participantAdapterItem.mUserId);
+                if ((null != participantAdapterItem.mUserId) && mUpdatedPresenceUserIds.add(participantAdapterItem.mUserId)) {
+                    final String userId = participantAdapterItem.mUserId;
 
-                    VectorUtils.getUserOnlineStatus(getActivity(), mSession, participantAdapterItem.mUserId, new SimpleApiCallback<Void>() {
+                    VectorUtils.getUserOnlineStatus(getActivity(), mSession, userId, new SimpleApiCallback<Void>() {
                         @Override
                         public void onSuccess(Void info) {
-                            mUIHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    delayedUpdateRoomMembersDataModel();
-                                }
-                            });
+                            mAdapter.onRoomMembersUpdate(Collections.singletonList(userId));
                         }
                     });
 
@@ -32,17 +32,24 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import org.matrix.androidsdk.adapters.AbstractMessagesAdapter;
+import org.matrix.androidsdk.adapters.MessageRow;
 import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 
 import im.vector.R;
 import im.vector.activity.VectorRoomActivity;
 
 import im.vector.adapters.VectorSearchMessagesListAdapter;
+import im.vector.search.MessagesSearchIndex;
 
 public class VectorSearchMessagesListFragment extends VectorMessageListFragment {
     private static final String LOG_TAG = VectorSearchMessagesListFragment.class.getSimpleName();
@@ -55,6 +62,22 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
 
     String mRoomId;
 
+    // max number of messages provided by the local index
+    private static final int LOCAL_SEARCH_LIMIT = 50;
+
+    // the local index results which are not yet displayed, the most recent first.
+    // they are displayed with the server page which covers their timestamp.
+    private final List<MessageRow> mPendingLocalRows = new ArrayList<>();
+
+    // the rows sorted by timestamp
+    private static final Comparator<MessageRow> mRowsComparator = new Comparator<MessageRow>() {
+        @Override
+        public int compare(MessageRow row1, MessageRow row2) {
+            long diff = row1.getEvent().getOriginServerTs() - row2.getEvent().getOriginServerTs();
+            return (diff == 0) ? 0 : ((diff < 0) ? -1 : +1);
+        }
+    };
+
     /**
      * static constructor
      *
@@ -94,6 +117,15 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
     @Override
     public void onPause() {
         super.onPause();
+        cancelPendingSearch();
+    }
+
+    /**
+     * Cancel the in-flight search.
+     * Its listeners are not called.
+     */
+    public void cancelPendingSearch() {
+        cancelCatchingRequests();
 
         if (mSession.isAlive()) {
             cancelSearch();
@@ -103,8 +135,10 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
             } else {
                 mSession.cancelSearchMessagesByText();
             }
-            mSearchingPattern = null;
         }
+
+        mSearchListeners.clear();
+        mSearchingPattern = null;
     }
 
     /**
@@ -156,6 +190,11 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
         if (null != mProgressView) {
             mProgressView.setVisibility(View.GONE);
         }
+
+        // a server results page has been received
+        if ((null != mAdapter) && (!mPendingLocalRows.isEmpty() || (0 != mAdapter.getCount()))) {
+            mergePendingLocalRows(TextUtils.isEmpty(mNextBatch));
+        }
     }
 
     /**
@@ -251,6 +290,7 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
             } else {
                 // start a new search
                 mAdapter.clear();
+                mPendingLocalRows.clear();
                 mSearchingPattern = pattern;
 
                 if (mAdapter instanceof VectorSearchMessagesListAdapter) {
@@ -259,59 +299,206 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
 
                 super.searchPattern(pattern, mIsMediaSearch, new OnSearchResultListener() {
                     @Override
-                    public void onSearchSucceed(int nbrMessages) {
-                        // the pattern has been updated while search
-                        if (!TextUtils.equals(pattern, mSearchingPattern)) {
-                            mAdapter.clear();
-                            mMessageListView.setVisibility(View.GONE);
-                        } else {
-
-                            mIsInitialSyncing = false;
-                            mMessageListView.setOnScrollListener(mScrollListener);
-                            mMessageListView.setAdapter(mAdapter);
-                            mMessageListView.setVisibility(View.VISIBLE);
-
-                            // scroll to the bottom
-                            scrollToBottom();
-
-                            for (OnSearchResultListener listener : mSearchListeners) {
-                                try {
-                                    listener.onSearchSucceed(nbrMessages);
-                                } catch (Exception e) {
-                                    Log.e(LOG_TAG, "## searchPattern() : failed " + e.getMessage());
-                                }
+                    public void onSearchSucceed(final int nbrMessages) {
+                        // the server cannot search in the encrypted rooms
+                        mergeLocalSearchResults(pattern, TextUtils.isEmpty(mNextBatch), new LocalSearchListener() {
+                            @Override
+                            public void onLocalSearchDone(int nbrLocalMessages) {
+                                onSearchDone(pattern, nbrMessages + nbrLocalMessages);
                             }
-                            mSearchListeners.clear();
-                            mSearchingPattern = null;
-
-                            // trigger a back pagination to fill the screen
-                            // the request could contain only a few items.
-                            backPaginate(true);
-                        }
+                        });
                     }
 
                     @Override
                     public void onSearchFailed() {
-                        mMessageListView.setVisibility(View.GONE);
-
-                        // clear the results list if teh search fails
-                        mAdapter.clear();
-
-                        for (OnSearchResultListener listener : mSearchListeners) {
-                            try {
-                                listener.onSearchFailed();
-                            } catch (Exception e) {
-                                Log.e(LOG_TAG, "## searchPattern() : onSearchFailed failed " + e.getMessage());
+                        // the local index can still provide some results (e.g. offline)
+                        mergeLocalSearchResults(pattern, true, new LocalSearchListener() {
+                            @Override
+                            public void onLocalSearchDone(int nbrLocalMessages) {
+                                if (nbrLocalMessages > 0) {
+                                    onSearchDone(pattern, nbrLocalMessages);
+                                } else {
+                                    onSearchError();
+                                }
                             }
-                        }
-                        mSearchListeners.clear();
-                        mSearchingPattern = null;
+                        });
                     }
                 });
             }
         }
     }
 
+    /**
+     * Local search listener
+     */
+    private interface LocalSearchListener {
+        /**
+         * The local results have been merged.
+         *
+         * @param nbrLocalMessages the number of added messages
+         */
+        void onLocalSearchDone(int nbrLocalMessages);
+    }
+
+    /**
+     * Search the pattern in the local messages index and merge the results with the server ones.
+     * The local results older than the displayed server results are kept until the server page
+     * which covers their timestamp is received, so the list remains sorted by timestamp.
+     * The media searches are only performed by the server.
+     *
+     * @param pattern            the searched pattern
+     * @param isServerSearchDone true if the server does not provide more results
+     * @param listener           the listener
+     */
+    private void mergeLocalSearchResults(final String pattern, final boolean isServerSearchDone, final LocalSearchListener listener) {
+        MessagesSearchIndex index = mIsMediaSearch ? null : MessagesSearchIndex.getInstance(getActivity(), mSession);
+
+        if (null == index) {
+            listener.onLocalSearchDone(0);
+            return;
+        }
+
+        index.search(pattern, mRoomId, LOCAL_SEARCH_LIMIT, new SimpleApiCallback<List<MessagesSearchIndex.SearchResult>>() {
+            @Override
+            public void onSuccess(List<MessagesSearchIndex.SearchResult> results) {
+                // the pattern has been updated while searching
+                if (!TextUtils.equals(pattern, mSearchingPattern) || !mSession.isAlive()) {
+                    listener.onLocalSearchDone(0);
+                    return;
+                }
+
+                mPendingLocalRows.clear();
+
+                for (MessagesSearchIndex.SearchResult result : results) {
+                    Event event = result.mEvent;
+                    Room room = mSession.getDataHandler().getRoom(event.roomId, false);
+
+                    if (null != room) {
+                        mPendingLocalRows.add(new MessageRow(event, room.getState()));
+                    }
+                }
+
+                Collections.sort(mPendingLocalRows, Collections.reverseOrder(mRowsComparator));
+
+                listener.onLocalSearchDone(mergePendingLocalRows(isServerSearchDone));
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## mergeLocalSearchResults() failed " + e.getMessage());
+                listener.onLocalSearchDone(0);
+            }
+        });
+    }
+
+    /**
+     * Display the pending local results covered by the displayed server results.
+     * The rows are sorted by timestamp and deduplicated by event id, the server may return a displayed local result.
+     *
+     * @param isServerSearchDone true if the server does not provide more results : all the local results are displayed
+     * @return the number of added local results
+     */
+    private int mergePendingLocalRows(boolean isServerSearchDone) {
+        List<MessageRow> rows = new ArrayList<>(mAdapter.getCount() + mPendingLocalRows.size());
+        HashSet<String> eventIds = new HashSet<>();
+        boolean isUpdated = false;
+
+        for (int i = 0; i < mAdapter.getCount(); i++) {
+            MessageRow row = mAdapter.getItem(i);
+
+            if (eventIds.add(row.getEvent().eventId)) {
+                rows.add(row);
+            } else {
+                isUpdated = true;
+            }
+        }
+
+        // the displayed rows are sorted : the first one is the oldest
+        long oldestTs = (isServerSearchDone || rows.isEmpty()) ? Long.MIN_VALUE : rows.get(0).getEvent().getOriginServerTs();
+        int count = 0;
+
+        while (!mPendingLocalRows.isEmpty() && (mPendingLocalRows.get(0).getEvent().getOriginServerTs() >= oldestTs)) {
+            MessageRow row = mPendingLocalRows.remove(0);
+
+            if (eventIds.add(row.getEvent().eventId)) {
+                rows.add(row);
+                count++;
+            }
+        }
+
+        if (isUpdated || (count > 0)) {
+            Collections.sort(rows, mRowsComparator);
+
+            mAdapter.setNotifyOnChange(false);
+            mAdapter.clear();
+
+            for (MessageRow row : rows) {
+                mAdapter.add(row, false);
+            }
+
+            mAdapter.notifyDataSetChanged();
+        }
+
+        return count;
+    }
+
+    /**
+     * The search is successfully done.
+     *
+     * @param pattern     the searched pattern
+     * @param nbrMessages the number of found messages
+     */
+    private void onSearchDone(String pattern, int nbrMessages) {
+        // the pattern has been updated while search
+        if (!TextUtils.equals(pattern, mSearchingPattern)) {
+            mAdapter.clear();
+            mMessageListView.setVisibility(View.GONE);
+        } else {
+
+            mIsInitialSyncing = false;
+            mMessageListView.setOnScrollListener(mScrollListener);
+            mMessageListView.setAdapter(mAdapter);
+            mMessageListView.setVisibility(View.VISIBLE);
+
+            // scroll to the bottom
+            scrollToBottom();
+
+            for (OnSearchResultListener listener : mSearchListeners) {
+                try {
+                    listener.onSearchSucceed(nbrMessages);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## searchPattern() : failed " + e.getMessage());
+                }
+            }
+            mSearchListeners.clear();
+            mSearchingPattern = null;
+
+            // trigger a back pagination to fill the screen
+            // the request could contain only a few items.
+            backPaginate(true);
+        }
+    }
+
+    /**
+     * The search failed.
+     */
+    private void onSearchError() {
+        mMessageListView.setVisibility(View.GONE);
+
+        // clear the results list if teh search fails
+        mAdapter.clear();
+
+        for (OnSearchResultListener listener : mSearchListeners) {
+            try {
+                listener.onSearchFailed();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## searchPattern() : onSearchFailed failed " + e.getMessage());
+            }
+        }
+        mSearchListeners.clear();
+        mSearchingPattern = null;
+    }
+
     @Override
     public boolean onRowLongClick(int position) {
         onContentClick(position);
@@ -26,25 +26,33 @@ import android.widget.Toast;
 import org.matrix.androidsdk.adapters.MessageRow;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
-import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.TokensChunkResponse;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import im.vector.search.RoomFilesIndex;
+
 public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesListFragment {
     private static final String LOG_TAG = VectorSearchRoomFilesListFragment.class.getSimpleName();
 
     private static final int MESSAGES_PAGINATION_LIMIT = 50;
 
+    // number of attachments displayed per page
+    private static final int FILES_PAGE_SIZE = 20;
+
     // set to false when there is no more available message in the room history
     private boolean mCanPaginateBack = true;
 
+    // the timestamp and the event id of the oldest displayed attachment
+    private long mOldestFileTs = Long.MAX_VALUE;
+    private String mOldestFileEventId = null;
+
     // crypto management
     private final String mTimeLineId = System.currentTimeMillis() + "";
 
@@ -123,9 +131,14 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
         mIsBackPaginating = true;
         mMessageListView.setVisibility(View.GONE);
 
-        remoteRoomHistoryRequest(new ArrayList<Event>(), new ApiCallback<ArrayList<Event>>() {
+        // restart from the most recent attachment
+        mOldestFileTs = Long.MAX_VALUE;
+        mOldestFileEventId = null;
+        mCanPaginateBack = true;
+
+        loadFilesPage(new ApiCallback<List<Event>>() {
             @Override
-            public void onSuccess(ArrayList<Event> eventsChunk) {
+            public void onSuccess(List<Event> eventsChunk) {
                 ArrayList<MessageRow> messageRows = new ArrayList<>(eventsChunk.size());
                 RoomState liveState = mRoom.getLiveState();
 
@@ -149,7 +162,7 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
                     try {
                         listener.onSearchSucceed(messageRows.size());
                     } catch (Exception e) {
-                        Log.e(LOG_TAG, "## remoteRoomHistoryRequest() : onSearchSucceed failed " + e.getMessage());
+                        Log.e(LOG_TAG, "## startFilesSearch() : onSearchSucceed failed " + e.getMessage());
                     }
                 }
 
@@ -167,7 +180,7 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
                     try {
                         listener.onSearchFailed();
                     } catch (Exception e) {
-                        Log.e(LOG_TAG, "## remoteRoomHistoryRequest() : onSearchFailed failed " + e.getMessage());
+                        Log.e(LOG_TAG, "## startFilesSearch() : onSearchFailed failed " + e.getMessage());
                     }
                 }
 
@@ -216,21 +229,33 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
             showLoadingBackProgress();
         }
 
-        remoteRoomHistoryRequest(new ArrayList<Event>(), new ApiCallback<ArrayList<Event>>() {
+        loadFilesPage(new ApiCallback<List<Event>>() {
             @Override
-            public void onSuccess(final ArrayList<Event> eventChunks) {
+            public void onSuccess(final List<Event> eventChunks) {
                 VectorSearchRoomFilesListFragment.this.getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
                         // is there any result to display
                         if (0 != eventChunks.size()) {
-                            mAdapter.setNotifyOnChange(false);
+                            // the chunk is sorted from the most recent to the oldest event
+                            ArrayList<MessageRow> messageRows = new ArrayList<>(eventChunks.size() + mAdapter.getCount());
+                            RoomState liveState = mRoom.getLiveState();
 
                             for (Event event : eventChunks) {
-                                MessageRow row = new MessageRow(event, mRoom.getLiveState());
-                                mAdapter.insert(row, 0);
+                                messageRows.add(new MessageRow(event, liveState));
                             }
 
+                            Collections.reverse(messageRows);
+
+                            for (int i = 0; i < mAdapter.getCount(); i++) {
+                                messageRows.add(mAdapter.getItem(i));
+                            }
+
+                            // rebuild the list once instead of inserting each row at the top
+                            mAdapter.setNotifyOnChange(false);
+                            mAdapter.clear();
+                            mAdapter.addAll(messageRows);
+
                             // Scroll the list down to where it was before adding rows to the top
                             mUiHandler.post(new Runnable() {
                                 @Override
@@ -321,6 +346,158 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
         });
     }
 
+    /**
+     * Load the next page of attachments, from the most recent to the oldest one.
+     * The page is read from the local files index; the server history is only crawled
+     * when the index does not contain enough attachments and the room creation has not been reached.
+     *
+     * @param callback the result callback
+     */
+    private void loadFilesPage(final ApiCallback<List<Event>> callback) {
+        loadFilesPage(true, callback);
+    }
+
+    /**
+     * Load the next page of attachments, from the most recent to the oldest one.
+     * The live timeline gap, if any, is crawled before serving the index page.
+     *
+     * @param canCrawlGap true to crawl the live timeline gap
+     * @param callback    the result callback
+     */
+    private void loadFilesPage(final boolean canCrawlGap, final ApiCallback<List<Event>> callback) {
+        final RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(getActivity(), mSession);
+
+        // cannot use the index : crawl the server history
+        if (null == filesIndex) {
+            remoteRoomHistoryRequest(new ArrayList<Event>(), new SimpleApiCallback<ArrayList<Event>>(callback) {
+                @Override
+                public void onSuccess(ArrayList<Event> events) {
+                    callback.onSuccess(events);
+                }
+            });
+            return;
+        }
+
+        filesIndex.getFiles(mRoom.getRoomId(), mOldestFileTs, mOldestFileEventId, FILES_PAGE_SIZE, new SimpleApiCallback<RoomFilesIndex.FilesPage>(callback) {
+            @Override
+            public void onSuccess(RoomFilesIndex.FilesPage page) {
+                RoomFilesIndex.HistoryState historyState = page.mHistoryState;
+
+                // some attachments have been received during a live timeline gap : fill it before reading the index
+                if (canCrawlGap && (null != historyState.mGapToken)) {
+                    crawlGap(filesIndex, historyState.mGapToken, historyState.mGapTs, new SimpleApiCallback<Void>(callback) {
+                        @Override
+                        public void onSuccess(Void info) {
+                            loadFilesPage(false, callback);
+                        }
+                    });
+                    return;
+                }
+
+                if ((page.mEvents.size() >= FILES_PAGE_SIZE) || historyState.mIsComplete) {
+                    mCanPaginateBack = !historyState.mIsComplete || (page.mEvents.size() >= FILES_PAGE_SIZE);
+                    onFilesPageLoaded(page.mEvents, callback);
+                    return;
+                }
+
+                // resume the history crawling where it has been stopped
+                mNextBatch = (null != historyState.mToken) ? historyState.mToken : mRoom.getLiveState().getToken();
+
+                remoteRoomHistoryRequest(new ArrayList<Event>(), new SimpleApiCallback<ArrayList<Event>>(callback) {
+                    @Override
+                    public void onSuccess(ArrayList<Event> events) {
+                        // the crawled attachments have been indexed
+                        filesIndex.getFiles(mRoom.getRoomId(), mOldestFileTs, mOldestFileEventId, FILES_PAGE_SIZE, new SimpleApiCallback<RoomFilesIndex.FilesPage>(callback) {
+                            @Override
+                            public void onSuccess(RoomFilesIndex.FilesPage page) {
+                                mCanPaginateBack = !page.mHistoryState.mIsComplete || (page.mEvents.size() >= FILES_PAGE_SIZE);
+                                onFilesPageLoaded(page.mEvents, callback);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Update the paging cursor and provide a loaded page.
+     *
+     * @param events   the page events
+     * @param callback the callback
+     */
+    private void onFilesPageLoaded(List<Event> events, ApiCallback<List<Event>> callback) {
+        if (!events.isEmpty()) {
+            Event oldestEvent = events.get(events.size() - 1);
+            mOldestFileTs = oldestEvent.getOriginServerTs();
+            mOldestFileEventId = oldestEvent.eventId;
+        }
+
+        callback.onSuccess(events);
+    }
+
+    /**
+     * Crawl the server history of a live timeline gap until the latest event known before the gap is reached.
+     * The retrieved attachments and the gap crawling state are stored in the files index.
+     * The callback is also called on error: the gap is crawled again by the next page load.
+     *
+     * @param filesIndex the files index
+     * @param token      the pagination token to resume the gap crawling
+     * @param gapTs      the latest event timestamp known before the gap
+     * @param callback   the callback
+     */
+    private void crawlGap(final RoomFilesIndex filesIndex, final String token, final long gapTs, final ApiCallback<Void> callback) {
+        mRoom.requestServerRoomHistory(token, MESSAGES_PAGINATION_LIMIT, new ApiCallback<TokensChunkResponse<Event>>() {
+            @Override
+            public void onSuccess(TokensChunkResponse<Event> eventsChunk) {
+                boolean isGapFilled = TextUtils.equals(eventsChunk.start, eventsChunk.end) || (null == eventsChunk.chunk) || eventsChunk.chunk.isEmpty();
+
+                if (!isGapFilled) {
+                    // decrypt the encrypted events
+                    if (mRoom.isEncrypted()) {
+                        for (Event event : eventsChunk.chunk) {
+                            mSession.getDataHandler().decryptEvent(event, mTimeLineId);
+                        }
+                    }
+
+                    filesIndex.indexEvents(eventsChunk.chunk);
+
+                    for (Event event : eventsChunk.chunk) {
+                        isGapFilled |= (event.getOriginServerTs() <= gapTs);
+                    }
+                }
+
+                filesIndex.updateGap(mRoom.getRoomId(), token, isGapFilled ? null : eventsChunk.end);
+
+                if (isGapFilled) {
+                    callback.onSuccess(null);
+                } else {
+                    crawlGap(filesIndex, eventsChunk.end, gapTs, callback);
+                }
+            }
+
+            private void onError(Exception e) {
+                Log.e(LOG_TAG, "## crawlGap() failed " + e.getMessage());
+                callback.onSuccess(null);
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                onError(e);
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                onError(new Exception(e.getLocalizedMessage()));
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                onError(e);
+            }
+        });
+    }
+
     /**
      * Filter and append the found events
      *
@@ -328,31 +505,23 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
      * @param eventsToAppend the retrieved events list.
      */
     private void appendEvents(ArrayList<Event> events, List<Event> eventsToAppend) {
-        // filter
-        ArrayList<Event> filteredEvents = new ArrayList<>(eventsToAppend.size());
         for (Event event : eventsToAppend) {
-            if (Event.EVENT_TYPE_MESSAGE.equals(event.getType())) {
-                Message message = JsonUtils.toMessage(event.getContent());
-
-                if (Message.MSGTYPE_FILE.equals(message.msgtype) ||
-                        Message.MSGTYPE_IMAGE.equals(message.msgtype) ||
-                        Message.MSGTYPE_VIDEO.equals(message.msgtype) ||
-                        Message.MSGTYPE_AUDIO.equals(message.msgtype)) {
-                    filteredEvents.add(event);
-                }
+            if (RoomFilesIndex.isAttachment(event)) {
+                events.add(event);
             }
         }
-
-        events.addAll(filteredEvents);
     }
 
     /**
-     * Search some files until find out at least 10 matching messages.
+     * Search some files until find out at least a page of matching messages.
+     * The retrieved attachments and the crawling state are stored in the files index.
      *
      * @param events   the result events lists
      * @param callback the result callback
      */
     private void remoteRoomHistoryRequest(final ArrayList<Event> events, final ApiCallback<ArrayList<Event>> callback) {
+        final RoomFilesIndex filesIndex = RoomFilesIndex.getInstance(getActivity(), mSession);
+
         mRoom.requestServerRoomHistory(mNextBatch, MESSAGES_PAGINATION_LIMIT, new ApiCallback<TokensChunkResponse<Event>>() {
             @Override
             public void onSuccess(TokensChunkResponse<Event> eventsChunk) {
@@ -360,6 +529,11 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
                     // no more message in the history
                     if (TextUtils.equals(eventsChunk.start, eventsChunk.end)) {
                         mCanPaginateBack = false;
+
+                        if (null != filesIndex) {
+                            filesIndex.setHistoryState(mRoom.getRoomId(), mNextBatch, true);
+                        }
+
                         callback.onSuccess(events);
                     } else {
                         // decrypt the encrypted events
@@ -373,7 +547,12 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
                         appendEvents(events, eventsChunk.chunk);
                         mNextBatch = eventsChunk.end;
 
-                        if (events.size() >= 10) {
+                        if (null != filesIndex) {
+                            filesIndex.indexEvents(eventsChunk.chunk);
+                            filesIndex.setHistoryState(mRoom.getRoomId(), mNextBatch, false);
+                        }
+
+                        if (events.size() >= FILES_PAGE_SIZE) {
                             callback.onSuccess(events);
                         } else {
                             remoteRoomHistoryRequest(events, callback);
@@ -405,6 +584,4 @@ public class VectorSearchRoomFilesListFragment extends VectorSearchRoomsFilesLis
             }
         });
     }
-
-
 }
@@ -89,7 +89,7 @@ public class VectorSearchRoomsFilesListFragment extends VectorSearchMessagesList
                 // video and images are displayed inside a medias slider.
                 if (Message.MSGTYPE_IMAGE.equals(message.msgtype) || (Message.MSGTYPE_VIDEO.equals(message.msgtype))) {
                     ArrayList<SlidableMediaInfo> mediaMessagesList = listSlidableMessages();
-                    int listPosition = getMediaMessagePosition(mediaMessagesList, message);
+                    int listPosition = getMediaMessagePosition(event);
 
                     if (listPosition >= 0) {
                         Intent viewImageIntent = new Intent(getActivity(), VectorMediasViewerActivity.class);
@@ -43,6 +43,7 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.activity.VectorPublicRoomsActivity;
 import im.vector.activity.VectorRoomActivity;
 import im.vector.adapters.VectorRoomSummaryAdapter;
+import im.vector.util.RoomAliasCache;
 import im.vector.view.RecentsExpandableListView;
 
 public class VectorSearchRoomsListFragment extends VectorRecentsListFragment {
@@ -104,7 +105,7 @@ public class VectorSearchRoomsListFragment extends VectorRecentsListFragment {
                         showWaitingView();
 
                         // test if the room Id / alias exists
-                        mSession.getDataHandler().roomIdByAlias(roomIdOrAlias, new ApiCallback<String>() {
+                        RoomAliasCache.getInstance(mSession).resolve(roomIdOrAlias, new ApiCallback<String>() {
                             @Override
                             public void onSuccess(String roomId) {
                                 previewRoom(roomId, roomIdOrAlias);
@@ -40,11 +40,10 @@ import im.vector.Matrix;
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
 import im.vector.util.PreferencesManager;
+import im.vector.util.VectorScheduler;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * Helper class to store the GCM registration ID in {@link SharedPreferences}
@@ -441,10 +440,8 @@ public final class GcmRegistrationManager {
     private void manage500Error() {
         Log.d(LOG_TAG, "got a 500 error -> reset the registration and try again");
 
-        Timer relaunchTimer = new Timer();
-
-        // wait 5 seconds before registering
-        relaunchTimer.schedule(new TimerTask() {
+        // wait 30 seconds before registering
+        VectorScheduler.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
                 if (RegistrationState.SERVER_REGISTERED == mRegistrationState) {
@@ -39,8 +39,6 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.Matrix;
 import im.vector.VectorApp;
@@ -49,6 +47,8 @@ import im.vector.activity.LoginActivity;
 import im.vector.activity.VectorHomeActivity;
 import im.vector.activity.VectorMemberDetailsActivity;
 import im.vector.activity.VectorRoomActivity;
+import im.vector.util.RoomAliasCache;
+import im.vector.util.VectorScheduler;
 
 @SuppressLint("LongLogTag")
 /**
@@ -82,6 +82,10 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
     public static final String ULINK_ROOM_ID_OR_ALIAS_KEY = "ULINK_ROOM_ID_OR_ALIAS_KEY";
     public static final String ULINK_MATRIX_USER_ID_KEY = "ULINK_MATRIX_USER_ID_KEY";
     private static final String ULINK_EVENT_ID_KEY = "ULINK_EVENT_ID_KEY";
+
+    // the home activity is waited at most 2 seconds before previewing a room
+    private static final int MAX_HOME_ACTIVITY_WAITING_ATTEMPTS = 10;
+
     /*public static final String ULINK_EMAIL_ID_KEY = "email";
     public static final String ULINK_SIGN_URL_KEY = "signurl";
     public static final String ULINK_ROOM_NAME_KEY = "room_name";
@@ -239,19 +243,12 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
             intent.putExtra(VectorHomeActivity.EXTRA_WAITING_VIEW_STATUS, VectorHomeActivity.WAITING_VIEW_START);
             aContext.startActivity(intent);
 
-            try {
-                final Timer wakeup = new Timer();
-                wakeup.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        wakeup.cancel();
-                        manageRoomOnActivity(aContext);
-                    }
-                }, 200);
-            } catch (Throwable throwable) {
-                Log.e(LOG_TAG, "## manageRoomOnActivity timer creation failed " + throwable.getMessage());
-                manageRoomOnActivity(aContext);
-            }
+            VectorScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    manageRoomOnActivity(aContext);
+                }
+            }, 200);
         }
     }
 
@@ -298,6 +295,19 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
 
             Log.d(LOG_TAG, "manageRoom : it is a room Alias");
 
+            final RoomAliasCache aliasCache = RoomAliasCache.getInstance(mSession);
+            String cachedRoomId = aliasCache.getCachedRoomId(roomIdOrAlias);
+
+            Room cachedRoom = (null != cachedRoomId) ? mSession.getDataHandler().getRoom(cachedRoomId, false) : null;
+
+            // the alias of a joined room is known : no server request, the room is opened from the home activity
+            if ((null != cachedRoom) && !cachedRoom.isInvited()) {
+                Log.d(LOG_TAG, "manageRoom : the room ID " + cachedRoomId + " is cached");
+                mParameters.put(ULINK_ROOM_ID_OR_ALIAS_KEY, cachedRoomId);
+                manageRoom(aContext, roomIdOrAlias);
+                return;
+            }
+
             // Start the home activity with the waiting view enabled, while the URL link
             // is processed in the receiver. The receiver, once the URL was parsed, will stop the waiting view.
             Intent intent = new Intent(aContext, VectorHomeActivity.class);
@@ -305,7 +315,15 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
             intent.putExtra(VectorHomeActivity.EXTRA_WAITING_VIEW_STATUS, VectorHomeActivity.WAITING_VIEW_START);
             aContext.startActivity(intent);
 
-            mSession.getDataHandler().roomIdByAlias(roomIdOrAlias, new ApiCallback<String>() {
+            // the alias is known : no server request, the room is previewed once the home activity is displayed
+            if (null != cachedRoomId) {
+                Log.d(LOG_TAG, "manageRoom : the room ID " + cachedRoomId + " is cached");
+                mParameters.put(ULINK_ROOM_ID_OR_ALIAS_KEY, cachedRoomId);
+                manageRoomOnHomeActivity(aContext, roomIdOrAlias, MAX_HOME_ACTIVITY_WAITING_ATTEMPTS);
+                return;
+            }
+
+            aliasCache.resolve(roomIdOrAlias, new ApiCallback<String>() {
                 @Override
                 public void onSuccess(final String roomId) {
                     Log.d(LOG_TAG, "manageRoom : retrieve the room ID " + roomId);
@@ -338,6 +356,26 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Manage the room presence when the home activity is displayed.
+     *
+     * @param aContext  the context
+     * @param roomAlias the room alias
+     * @param attempts  the remaining attempts to wait for the home activity
+     */
+    private void manageRoomOnHomeActivity(final Context aContext, final String roomAlias, final int attempts) {
+        VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if ((VectorApp.getCurrentActivity() instanceof VectorHomeActivity) || (attempts <= 1)) {
+                    manageRoom(aContext, roomAlias);
+                } else {
+                    manageRoomOnHomeActivity(aContext, roomAlias, attempts - 1);
+                }
+            }
+        }, 200);
+    }
+
     /**
      * Open the room activity with the dedicated parameters
      *
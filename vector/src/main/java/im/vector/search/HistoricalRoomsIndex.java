@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXDataHandler;
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import im.vector.util.VectorScheduler;
+import im.vector.util.VectorUtils;
+
+/**
+ * Sorted index of the historical (left) rooms of a session.
+ * The left rooms are retrieved once, sorted by latest event and their display names are
+ * computed once. The index is then updated when a room is left or forgotten; the left rooms
+ * are only retrieved again when the index is empty (e.g. the SDK has released them).
+ * The SDK keeps the left rooms in memory only, so does this index.
+ * The methods must be called from the UI thread.
+ */
+public class HistoricalRoomsIndex {
+    private static final String LOG_TAG = HistoricalRoomsIndex.class.getSimpleName();
+
+    // indexes by user id
+    private static final Map<String, HistoricalRoomsIndex> mIndexByUserId = new HashMap<>();
+
+    /**
+     * An indexed room.
+     */
+    private static class Entry {
+        final Room mRoom;
+        final long mTs;
+        final String mLowerCaseName;
+
+        Entry(Room room, long ts, String name) {
+            mRoom = room;
+            mTs = ts;
+            mLowerCaseName = (null == name) ? "" : name.toLowerCase(Locale.getDefault());
+        }
+    }
+
+    // the most recent room first
+    private static final Comparator<Entry> mEntriesComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            return (entry1.mTs == entry2.mTs) ? 0 : ((entry1.mTs > entry2.mTs) ? -1 : 1);
+        }
+    };
+
+    private final MXSession mSession;
+
+    // the sorted entries, null if the index is not built
+    private List<Entry> mEntries;
+
+    // the pending load callbacks
+    private final List<ApiCallback<Void>> mLoadCallbacks = new ArrayList<>();
+
+    // the latest search, used to narrow the next search when the pattern is extended
+    private String mLatestPattern;
+    private List<Entry> mLatestMatches;
+
+    /**
+     * Provides the historical rooms index of a session.
+     *
+     * @param session the session
+     * @return the index, null if the session is not valid
+     */
+    public static HistoricalRoomsIndex getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId())) {
+            return null;
+        }
+
+        synchronized (mIndexByUserId) {
+            HistoricalRoomsIndex index = mIndexByUserId.get(session.getMyUserId());
+
+            if (null == index) {
+                index = new HistoricalRoomsIndex(session);
+                mIndexByUserId.put(session.getMyUserId(), index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Release the index of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            synchronized (mIndexByUserId) {
+                mIndexByUserId.remove(session.getMyUserId());
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private HistoricalRoomsIndex(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Tells if the index is built and the left rooms are still loaded.
+     *
+     * @return true if the rooms can be listed
+     */
+    public boolean isReady() {
+        // the SDK has released the left rooms (e.g. the application has been backgrounded)
+        if ((null != mEntries) && !mSession.getDataHandler().areLeftRoomsSynced()) {
+            Log.d(LOG_TAG, "## isReady() : the left rooms have been released");
+            clear();
+        }
+
+        return null != mEntries;
+    }
+
+    /**
+     * Build the index if it is not ready.
+     *
+     * @param context  the context
+     * @param callback the asynchronous callback
+     */
+    public void load(final Context context, final ApiCallback<Void> callback) {
+        if (isReady()) {
+            callback.onSuccess(null);
+            return;
+        }
+
+        mLoadCallbacks.add(callback);
+
+        // a load is in progress
+        if (mLoadCallbacks.size() > 1) {
+            return;
+        }
+
+        final MXDataHandler dataHandler = mSession.getDataHandler();
+
+        if (dataHandler.areLeftRoomsSynced()) {
+            build(context);
+        } else {
+            dataHandler.retrieveLeftRooms(new ApiCallback<Void>() {
+                @Override
+                public void onSuccess(Void info) {
+                    onLeftRoomsRetrieved(context, null);
+                }
+
+                @Override
+                public void onNetworkError(Exception e) {
+                    onLeftRoomsRetrieved(context, e);
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    onLeftRoomsRetrieved(context, new Exception(e.getLocalizedMessage()));
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    onLeftRoomsRetrieved(context, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * The left rooms retrieval is done.
+     *
+     * @param context the context
+     * @param e       the error, null if it succeeded
+     */
+    private void onLeftRoomsRetrieved(final Context context, final Exception e) {
+        // the SDK callbacks are not always called from the UI thread
+        VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (null == e) {
+                    build(context);
+                } else {
+                    onLoadDone(e);
+                }
+            }
+        }, 0);
+    }
+
+    /**
+     * Build the sorted entries in background.
+     *
+     * @param context the context
+     */
+    private void build(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final Collection<Room> leftRooms = mSession.getDataHandler().getLeftRooms();
+
+        VectorScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                final List<Entry> entries = new ArrayList<>(leftRooms.size());
+
+                try {
+                    for (Room room : leftRooms) {
+                        if (!room.isConferenceUserRoom()) {
+                            entries.add(new Entry(room, getLatestEventTs(room), VectorUtils.getRoomDisplayName(appContext, mSession, room)));
+                        }
+                    }
+
+                    // the sort keys are computed once
+                    Collections.sort(entries, mEntriesComparator);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## build() failed " + e.getMessage());
+                }
+
+                Log.d(LOG_TAG, "## build() : " + entries.size() + " rooms indexed in " + (System.currentTimeMillis() - startTime) + " ms");
+
+                VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mEntries = entries;
+                        mLatestPattern = null;
+                        mLatestMatches = null;
+                        onLoadDone(null);
+                    }
+                }, 0);
+            }
+        }, 0);
+    }
+
+    /**
+     * Provides the timestamp of the latest received event of a room.
+     *
+     * @param room the room
+     * @return the timestamp, 0 if it is unknown
+     */
+    private long getLatestEventTs(Room room) {
+        RoomSummary summary = mSession.getDataHandler().getStore(room.getRoomId()).getSummary(room.getRoomId());
+        return ((null != summary) && (null != summary.getLatestReceivedEvent())) ? summary.getLatestReceivedEvent().getOriginServerTs() : 0;
+    }
+
+    /**
+     * The load is done.
+     *
+     * @param e the error, null if it succeeded
+     */
+    private void onLoadDone(Exception e) {
+        List<ApiCallback<Void>> callbacks = new ArrayList<>(mLoadCallbacks);
+        mLoadCallbacks.clear();
+
+        for (ApiCallback<Void> callback : callbacks) {
+            try {
+                if (null == e) {
+                    callback.onSuccess(null);
+                } else {
+                    callback.onUnexpectedError(e);
+                }
+            } catch (Exception callbackException) {
+                Log.e(LOG_TAG, "## onLoadDone() failed " + callbackException.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Clear the index.
+     */
+    private void clear() {
+        mEntries = null;
+        mLatestPattern = null;
+        mLatestMatches = null;
+    }
+
+    /**
+     * Search the rooms whose display name contains a pattern.
+     * When the pattern contains the previous one, only the previous matches are scanned.
+     *
+     * @param pattern the pattern, empty to list all the rooms
+     * @return the rooms, from the most recent one
+     */
+    public List<Room> search(String pattern) {
+        List<Room> rooms = new ArrayList<>();
+
+        if (null == mEntries) {
+            return rooms;
+        }
+
+        String lowerCasePattern = (null == pattern) ? "" : pattern.trim().toLowerCase(Locale.getDefault());
+        List<Entry> matches;
+
+        if (TextUtils.isEmpty(lowerCasePattern)) {
+            matches = mEntries;
+        } else {
+            List<Entry> candidates = ((null != mLatestMatches) && lowerCasePattern.contains(mLatestPattern)) ? mLatestMatches : mEntries;
+            matches = new ArrayList<>();
+
+            for (Entry entry : candidates) {
+                if (entry.mLowerCaseName.contains(lowerCasePattern)) {
+                    matches.add(entry);
+                }
+            }
+        }
+
+        mLatestPattern = lowerCasePattern;
+        mLatestMatches = matches;
+
+        for (Entry entry : matches) {
+            rooms.add(entry.mRoom);
+        }
+
+        return rooms;
+    }
+
+    /**
+     * A room has been forgotten.
+     *
+     * @param roomId the room id
+     */
+    public void removeRoom(String roomId) {
+        if (null != mEntries) {
+            removeEntry(mEntries, roomId);
+        }
+
+        if ((null != mLatestMatches) && (mLatestMatches != mEntries)) {
+            removeEntry(mLatestMatches, roomId);
+        }
+    }
+
+    /**
+     * Remove a room from an entries list.
+     *
+     * @param entries the entries
+     * @param roomId  the room id
+     */
+    private static void removeEntry(List<Entry> entries, String roomId) {
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+            if (TextUtils.equals(iterator.next().mRoom.getRoomId(), roomId)) {
+                iterator.remove();
+                break;
+            }
+        }
+    }
+
+    /**
+     * A room has been left.
+     * The SDK adds it to its left rooms when they are loaded, so it is inserted at its sorted position.
+     *
+     * @param context the context
+     * @param roomId  the room id
+     */
+    public void onLeaveRoom(Context context, String roomId) {
+        if (null == mEntries) {
+            return;
+        }
+
+        Room leftRoom = null;
+
+        for (Room room : mSession.getDataHandler().getLeftRooms()) {
+            if (TextUtils.equals(room.getRoomId(), roomId)) {
+                leftRoom = room;
+                break;
+            }
+        }
+
+        // the left rooms have been released, they will be retrieved at the next load
+        if (null == leftRoom) {
+            Log.d(LOG_TAG, "## onLeaveRoom() : " + roomId + " is not in the left rooms");
+            clear();
+            return;
+        }
+
+        removeEntry(mEntries, roomId);
+
+        if (!leftRoom.isConferenceUserRoom()) {
+            // the leave event may not be stored yet
+            long ts = Math.max(getLatestEventTs(leftRoom), System.currentTimeMillis());
+            Entry entry = new Entry(leftRoom, ts, VectorUtils.getRoomDisplayName(context.getApplicationContext(), mSession, leftRoom));
+
+            int position = Collections.binarySearch(mEntries, entry, mEntriesComparator);
+            mEntries.add((position < 0) ? -(position + 1) : position, entry);
+        }
+
+        mLatestPattern = null;
+        mLatestMatches = null;
+    }
+}
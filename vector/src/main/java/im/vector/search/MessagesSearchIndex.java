@@ -0,0 +1,832 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * On device full text index of the messages of a session.
+ * It is fed with the decrypted timeline events (live and back paginated) so the encrypted rooms can be searched.
+ * The index is a contentless SQLite FTS4 table of keyed token hashes; the message texts are stored encrypted.
+ * The queries support prefixes ("foo*", the last typed word is always a prefix) and phrases ("\"foo bar\"").
+ * All the database accesses are done on a dedicated thread.
+ */
+public class MessagesSearchIndex {
+    private static final String LOG_TAG = MessagesSearchIndex.class.getSimpleName();
+
+    // indexes by user id
+    private static final Map<String, MessagesSearchIndex> mIndexByUserId = new HashMap<>();
+
+    private static final int DB_VERSION = 1;
+
+    // the events are indexed by batch
+    private static final long INDEX_BATCH_DELAY_MS = 500;
+    private static final int INDEX_BATCH_MAX_SIZE = 200;
+
+    // prefixes are indexed from MIN_PREFIX_LENGTH to MAX_PREFIX_LENGTH characters
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MAX_PREFIX_LENGTH = 12;
+
+
+    // the tokens hashes domains
+    private static final char WORD_DOMAIN = 'w';
+    private static final char PREFIX_DOMAIN = 'p';
+
+    // the query phrases and terms
+    private static final Pattern QUERY_PATTERN = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+    // combining marks (removed to ignore the accents)
+    private static final Pattern COMBINING_MARKS_PATTERN = Pattern.compile("\\p{Mn}+");
+
+    /**
+     * A search result.
+     */
+    public static class SearchResult {
+        // the rebuilt event : only the message type and the body are known
+        public final Event mEvent;
+        // the ranking score
+        public final double mScore;
+
+        SearchResult(Event event, double score) {
+            mEvent = event;
+            mScore = score;
+        }
+    }
+
+    /**
+     * Indexing and querying statistics.
+     */
+    public static class Stats {
+        public long mIndexedEventsCount;
+        public long mIndexingTimeMs;
+        public long mQueriesCount;
+        public long mLastQueryTimeMs;
+        public long mTotalQueryTimeMs;
+
+        /**
+         * @return the number of indexed events per second
+         */
+        public double getIndexingThroughput() {
+            return (0 == mIndexingTimeMs) ? 0 : (mIndexedEventsCount * 1000.0 / mIndexingTimeMs);
+        }
+
+        @Override
+        public String toString() {
+            return "indexed " + mIndexedEventsCount + " events in " + mIndexingTimeMs + " ms (" + Math.round(getIndexingThroughput()) + " events/s)"
+                    + ", " + mQueriesCount + " queries, last " + mLastQueryTimeMs + " ms, total " + mTotalQueryTimeMs + " ms";
+        }
+    }
+
+    private final Context mContext;
+    private final String mUserId;
+    private final IndexDbHelper mDbHelper;
+    private SearchIndexCipher mCipher;
+
+    private final HandlerThread mIndexThread;
+    private final Handler mIndexHandler;
+    private final Handler mUiHandler;
+
+    // events waiting to be indexed (by event id)
+    private final Map<String, Event> mPendingEvents = new HashMap<>();
+    private boolean mIsFlushScheduled = false;
+
+    private final Stats mStats = new Stats();
+
+    /**
+     * Provides the index of a session.
+     *
+     * @param context the context
+     * @param session the session
+     * @return the index, null if the parameters are not valid or if the device does not support the indexes
+     */
+    public static MessagesSearchIndex getInstance(Context context, MXSession session) {
+        // the index key cannot be protected on this device
+        if ((null == context) || (null == session) || (null == session.getMyUserId()) || !SearchIndexCipher.isSupported()) {
+            return null;
+        }
+
+        synchronized (mIndexByUserId) {
+            MessagesSearchIndex index = mIndexByUserId.get(session.getMyUserId());
+
+            if (null == index) {
+                index = new MessagesSearchIndex(context.getApplicationContext(), session.getMyUserId());
+                mIndexByUserId.put(session.getMyUserId(), index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Delete the index of a session (e.g. on logout).
+     *
+     * @param context the context
+     * @param session the session
+     */
+    public static void deleteIndex(final Context context, MXSession session) {
+        final String userId = session.getMyUserId();
+        final MessagesSearchIndex index;
+
+        synchronized (mIndexByUserId) {
+            index = mIndexByUserId.remove(userId);
+        }
+
+        if (null != index) {
+            index.mIndexHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    index.mPendingEvents.clear();
+                    index.mDbHelper.close();
+                    context.deleteDatabase(getDatabaseName(userId));
+                    SearchIndexCipher.deleteKey(context, userId);
+                    index.mIndexThread.quit();
+                }
+            });
+        } else {
+            context.deleteDatabase(getDatabaseName(userId));
+            SearchIndexCipher.deleteKey(context, userId);
+        }
+    }
+
+    /**
+     * Compute the database name of a session.
+     *
+     * @param userId the user id
+     * @return the database name
+     */
+    private static String getDatabaseName(String userId) {
+        return "messages_search_index_" + SearchIndexCipher.getSessionId(userId) + ".db";
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     * @param userId  the session user id
+     */
+    private MessagesSearchIndex(Context context, String userId) {
+        mContext = context;
+        mUserId = userId;
+        mDbHelper = new IndexDbHelper(context, getDatabaseName(userId));
+
+        mIndexThread = new HandlerThread("MessagesSearchIndex", Thread.MIN_PRIORITY);
+        mIndexThread.start();
+        mIndexHandler = new Handler(mIndexThread.getLooper());
+        mUiHandler = new Handler(Looper.getMainLooper());
+
+        // check the key before any database access
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getCipher();
+            }
+        });
+    }
+
+    /**
+     * @return a copy of the statistics
+     */
+    public Stats getStats() {
+        synchronized (mStats) {
+            Stats stats = new Stats();
+            stats.mIndexedEventsCount = mStats.mIndexedEventsCount;
+            stats.mIndexingTimeMs = mStats.mIndexingTimeMs;
+            stats.mQueriesCount = mStats.mQueriesCount;
+            stats.mLastQueryTimeMs = mStats.mLastQueryTimeMs;
+            stats.mTotalQueryTimeMs = mStats.mTotalQueryTimeMs;
+            return stats;
+        }
+    }
+
+    /**
+     * Must be called from the index thread.
+     * The database is deleted when it has been written with another key.
+     *
+     * @return the cipher, null if it cannot be created
+     */
+    private SearchIndexCipher getCipher() {
+        if (null == mCipher) {
+            try {
+                mCipher = new SearchIndexCipher(mContext, mUserId);
+
+                // the rows written with another key cannot be read anymore
+                if (mCipher.bindDatabase(getDatabaseName(mUserId))) {
+                    mDbHelper.close();
+                    mContext.deleteDatabase(getDatabaseName(mUserId));
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## getCipher() failed " + e.getMessage());
+            }
+        }
+
+        return mCipher;
+    }
+
+    //==============================================================================================================
+    // Indexing
+    //==============================================================================================================
+
+    /**
+     * Tells if an event can be indexed.
+     *
+     * @param event the event
+     * @return true if the event has a searchable body
+     */
+    private static boolean isIndexable(Event event) {
+        if ((null == event) || (null == event.eventId) || (null == event.roomId) || event.isRedacted() || !event.isSent()) {
+            return false;
+        }
+
+        // getType() returns the clear type of the decrypted events
+        if (!Event.EVENT_TYPE_MESSAGE.equals(event.getType())) {
+            return false;
+        }
+
+        JsonObject content = event.getContentAsJsonObject();
+
+        if ((null == content) || !content.has("body")) {
+            return false;
+        }
+
+        JsonElement body = content.get("body");
+        return body.isJsonPrimitive() && body.getAsJsonPrimitive().isString();
+    }
+
+    /**
+     * Index an event.
+     * It is ignored if it is not a message or if it is still encrypted.
+     *
+     * @param event the event
+     */
+    public void indexEvent(Event event) {
+        if (isIndexable(event)) {
+            indexEvents(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Index some events.
+     * They are written by batch on the index thread.
+     *
+     * @param events the events
+     */
+    public void indexEvents(Collection<Event> events) {
+        boolean flushNow;
+
+        synchronized (mPendingEvents) {
+            for (Event event : events) {
+                if (isIndexable(event)) {
+                    mPendingEvents.put(event.eventId, event);
+                }
+            }
+
+            if (mPendingEvents.isEmpty() || mIsFlushScheduled && (mPendingEvents.size() < INDEX_BATCH_MAX_SIZE)) {
+                return;
+            }
+
+            flushNow = mPendingEvents.size() >= INDEX_BATCH_MAX_SIZE;
+            mIsFlushScheduled = true;
+        }
+
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                flushPendingEvents();
+            }
+        };
+
+        if (flushNow) {
+            mIndexHandler.post(flush);
+        } else {
+            mIndexHandler.postDelayed(flush, INDEX_BATCH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Remove an event from the index (e.g. it has been redacted).
+     *
+     * @param eventId the event id
+     */
+    public void removeEvent(final String eventId) {
+        if (null == eventId) {
+            return;
+        }
+
+        synchronized (mPendingEvents) {
+            mPendingEvents.remove(eventId);
+        }
+
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the FTS entry cannot be deleted from a contentless table
+                    // but it will not match any document anymore.
+                    mDbHelper.getWritableDatabase().delete(IndexDbHelper.TABLE_DOCS, IndexDbHelper.COLUMN_EVENT_ID + "=?", new String[]{eventId});
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## removeEvent() failed " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the pending events in a single transaction.
+     * Must be called from the index thread.
+     */
+    private void flushPendingEvents() {
+        List<Event> events;
+
+        synchronized (mPendingEvents) {
+            events = new ArrayList<>(mPendingEvents.values());
+            mPendingEvents.clear();
+            mIsFlushScheduled = false;
+        }
+
+        SearchIndexCipher cipher = getCipher();
+
+        if (events.isEmpty() || (null == cipher)) {
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        int count = 0;
+
+        SQLiteDatabase db;
+
+        try {
+            db = mDbHelper.getWritableDatabase();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## flushPendingEvents() : cannot open the database " + e.getMessage());
+            return;
+        }
+
+        SQLiteStatement termsStatement = db.compileStatement("INSERT INTO " + IndexDbHelper.TABLE_TERMS
+                + "(docid, " + IndexDbHelper.COLUMN_WORDS + ", " + IndexDbHelper.COLUMN_PREFIXES + ") VALUES (?, ?, ?)");
+
+        db.beginTransaction();
+
+        try {
+            for (Event event : events) {
+                JsonObject content = event.getContentAsJsonObject();
+                String body = content.get("body").getAsString();
+                String msgType = content.has("msgtype") ? content.get("msgtype").getAsString() : Message.MSGTYPE_TEXT;
+                List<String> tokens = tokenize(body);
+
+                if (tokens.isEmpty()) {
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(IndexDbHelper.COLUMN_EVENT_ID, event.eventId);
+                values.put(IndexDbHelper.COLUMN_ROOM_ID, event.roomId);
+                values.put(IndexDbHelper.COLUMN_SENDER, event.getSender());
+                values.put(IndexDbHelper.COLUMN_TS, event.getOriginServerTs());
+                values.put(IndexDbHelper.COLUMN_MSGTYPE, msgType);
+                values.put(IndexDbHelper.COLUMN_BODY, cipher.encrypt(body));
+
+                long docId = db.insertWithOnConflict(IndexDbHelper.TABLE_DOCS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+                // already indexed
+                if (docId < 0) {
+                    continue;
+                }
+
+                StringBuilder words = new StringBuilder();
+                Set<String> prefixes = new LinkedHashSet<>();
+
+                for (String token : tokens) {
+                    words.append(cipher.hashToken(WORD_DOMAIN, token)).append(' ');
+
+                    for (int length = MIN_PREFIX_LENGTH; length <= Math.min(token.length(), MAX_PREFIX_LENGTH); length++) {
+                        prefixes.add(cipher.hashToken(PREFIX_DOMAIN, token.substring(0, length)));
+                    }
+                }
+
+                termsStatement.clearBindings();
+                termsStatement.bindLong(1, docId);
+                termsStatement.bindString(2, words.toString());
+                termsStatement.bindString(3, TextUtils.join(" ", prefixes));
+                termsStatement.executeInsert();
+
+                count++;
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## flushPendingEvents() failed " + e.getMessage());
+        } finally {
+            db.endTransaction();
+            termsStatement.close();
+        }
+
+        long duration = SystemClock.elapsedRealtime() - startTime;
+
+        synchronized (mStats) {
+            mStats.mIndexedEventsCount += count;
+            mStats.mIndexingTimeMs += duration;
+        }
+
+        Log.d(LOG_TAG, "## flushPendingEvents() : " + count + " events indexed in " + duration + " ms");
+    }
+
+    /**
+     * Split a text into normalised tokens (lower case, without accents).
+     *
+     * @param text the text
+     * @return the tokens list
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+
+        if (TextUtils.isEmpty(text)) {
+            return tokens;
+        }
+
+        String normalised = COMBINING_MARKS_PATTERN.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        int start = -1;
+
+        for (int i = 0; i <= normalised.length(); i++) {
+            boolean isTokenChar = (i < normalised.length()) && Character.isLetterOrDigit(normalised.charAt(i));
+
+            if (isTokenChar) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(normalised.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return tokens;
+    }
+
+    //==============================================================================================================
+    // Search
+    //==============================================================================================================
+
+    /**
+     * Convert an user query into a FTS match expression.
+     * The quoted texts are phrases, the words ending with '*' and the last word are prefixes.
+     * Must be called from the index thread.
+     *
+     * @param query  the user query
+     * @param cipher the cipher
+     * @return the match expression, null if the query is empty
+     */
+    private static String buildMatchExpression(String query, SearchIndexCipher cipher) {
+        List<String> clauses = new ArrayList<>();
+        Matcher matcher = QUERY_PATTERN.matcher(query);
+        boolean isLastTermPrefix = (query.length() > 0) && !Character.isWhitespace(query.charAt(query.length() - 1));
+
+        while (matcher.find()) {
+            if (null != matcher.group(1)) {
+                // phrase
+                List<String> tokens = tokenize(matcher.group(1));
+
+                if (!tokens.isEmpty()) {
+                    StringBuilder phrase = new StringBuilder("\"");
+
+                    for (String token : tokens) {
+                        if (phrase.length() > 1) {
+                            phrase.append(' ');
+                        }
+                        phrase.append(cipher.hashToken(WORD_DOMAIN, token));
+                    }
+
+                    clauses.add(phrase.append('"').toString());
+                }
+            } else {
+                String term = matcher.group(2);
+                boolean isPrefix = term.endsWith("*") || (isLastTermPrefix && matcher.hitEnd());
+                List<String> tokens = tokenize(term);
+
+                for (int i = 0; i < tokens.size(); i++) {
+                    String token = tokens.get(i);
+                    boolean isTokenPrefix = isPrefix && (i == tokens.size() - 1) && (token.length() >= MIN_PREFIX_LENGTH);
+
+                    if (isTokenPrefix) {
+                        clauses.add(cipher.hashToken(PREFIX_DOMAIN, token.substring(0, Math.min(token.length(), MAX_PREFIX_LENGTH))));
+                    } else {
+                        clauses.add(cipher.hashToken(WORD_DOMAIN, token));
+                    }
+                }
+            }
+        }
+
+        return clauses.isEmpty() ? null : TextUtils.join(" ", clauses);
+    }
+
+    /**
+     * Search some messages.
+     * The results are ranked by relevance (terms frequencies weighted by their rarity) and recency;
+     * all the matching messages are ranked, whatever their age.
+     *
+     * @param query    the user query
+     * @param roomId   the room id, null to search in all the rooms
+     * @param limit    the max number of results
+     * @param callback the callback, called on the UI thread
+     */
+    public void search(final String query, final String roomId, final int limit, final ApiCallback<List<SearchResult>> callback) {
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final List<SearchResult> results = searchSync(query, roomId, limit);
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != results) {
+                            callback.onSuccess(results);
+                        } else {
+                            callback.onUnexpectedError(new Exception("search failed"));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Search some messages.
+     * Must be called from the index thread.
+     *
+     * @param query  the user query
+     * @param roomId the room id, null to search in all the rooms
+     * @param limit  the max number of results
+     * @return the results, null on error
+     */
+    private List<SearchResult> searchSync(String query, String roomId, int limit) {
+        // the pending events must be searchable
+        flushPendingEvents();
+
+        final List<SearchResult> results = new ArrayList<>();
+        SearchIndexCipher cipher = getCipher();
+
+        if ((null == cipher) || TextUtils.isEmpty(query)) {
+            return results;
+        }
+
+        String matchExpression = buildMatchExpression(query, cipher);
+
+        if (null == matchExpression) {
+            return results;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+
+        // rank all the matches from their match info only, the documents are read for the best ones
+        String sql = "SELECT d.docid, d." + IndexDbHelper.COLUMN_TS + ", matchinfo(" + IndexDbHelper.TABLE_TERMS + ", 'pcnx')"
+                + " FROM " + IndexDbHelper.TABLE_TERMS + " JOIN " + IndexDbHelper.TABLE_DOCS + " d ON d.docid = " + IndexDbHelper.TABLE_TERMS + ".docid"
+                + " WHERE " + IndexDbHelper.TABLE_TERMS + " MATCH ?"
+                + ((null != roomId) ? " AND d." + IndexDbHelper.COLUMN_ROOM_ID + " = ?" : "");
+
+        String[] args = (null != roomId) ? new String[]{matchExpression, roomId} : new String[]{matchExpression};
+
+        // the best scores, the worst one first
+        PriorityQueue<ScoredDoc> bestDocs = new PriorityQueue<>(Math.max(1, limit), new Comparator<ScoredDoc>() {
+            @Override
+            public int compare(ScoredDoc doc1, ScoredDoc doc2) {
+                return Double.compare(doc1.mScore, doc2.mScore);
+            }
+        });
+
+        Cursor cursor = null;
+        long now = System.currentTimeMillis();
+        int matchesCount = 0;
+
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery(sql, args);
+
+            while (cursor.moveToNext()) {
+                matchesCount++;
+                double score = computeScore(cursor.getBlob(2), cursor.getLong(1), now);
+
+                if (bestDocs.size() < limit) {
+                    bestDocs.add(new ScoredDoc(cursor.getLong(0), score));
+                } else if ((limit > 0) && (score > bestDocs.peek().mScore)) {
+                    bestDocs.poll();
+                    bestDocs.add(new ScoredDoc(cursor.getLong(0), score));
+                }
+            }
+
+            cursor.close();
+            cursor = null;
+
+            if (!bestDocs.isEmpty()) {
+                Map<Long, Double> scoreByDocId = new HashMap<>();
+                List<String> placeholders = new ArrayList<>();
+                List<String> docIds = new ArrayList<>();
+
+                for (ScoredDoc doc : bestDocs) {
+                    scoreByDocId.put(doc.mDocId, doc.mScore);
+                    placeholders.add("?");
+                    docIds.add(String.valueOf(doc.mDocId));
+                }
+
+                cursor = db.rawQuery("SELECT docid, " + IndexDbHelper.COLUMN_EVENT_ID + ", " + IndexDbHelper.COLUMN_ROOM_ID + ", " + IndexDbHelper.COLUMN_SENDER
+                        + ", " + IndexDbHelper.COLUMN_TS + ", " + IndexDbHelper.COLUMN_MSGTYPE + ", " + IndexDbHelper.COLUMN_BODY
+                        + " FROM " + IndexDbHelper.TABLE_DOCS + " WHERE docid IN (" + TextUtils.join(",", placeholders) + ")", docIds.toArray(new String[docIds.size()]));
+
+                while (cursor.moveToNext()) {
+                    String body;
+
+                    try {
+                        body = cipher.decrypt(cursor.getBlob(6));
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## searchSync() : cannot decrypt a document " + e.getMessage());
+                        continue;
+                    }
+
+                    JsonObject content = new JsonObject();
+                    content.addProperty("msgtype", cursor.getString(5));
+                    content.addProperty("body", body);
+
+                    Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, cursor.getString(3), cursor.getString(2));
+                    event.eventId = cursor.getString(1);
+                    event.sender = cursor.getString(3);
+                    event.originServerTs = cursor.getLong(4);
+
+                    results.add(new SearchResult(event, scoreByDocId.get(cursor.getLong(0))));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## searchSync() failed " + e.getMessage());
+            return null;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        Collections.sort(results, new Comparator<SearchResult>() {
+            @Override
+            public int compare(SearchResult r1, SearchResult r2) {
+                return Double.compare(r2.mScore, r1.mScore);
+            }
+        });
+
+        long duration = SystemClock.elapsedRealtime() - startTime;
+
+        synchronized (mStats) {
+            mStats.mQueriesCount++;
+            mStats.mLastQueryTimeMs = duration;
+            mStats.mTotalQueryTimeMs += duration;
+        }
+
+        Log.d(LOG_TAG, "## searchSync() : " + results.size() + " results (" + matchesCount + " ranked matches) in " + duration + " ms");
+
+        return results;
+    }
+
+    /**
+     * A ranked document.
+     */
+    private static class ScoredDoc {
+        final long mDocId;
+        final double mScore;
+
+        ScoredDoc(long docId, double score) {
+            mDocId = docId;
+            mScore = score;
+        }
+    }
+
+    /**
+     * Compute a result score from the FTS matchinfo 'pcnx' blob.
+     * Each phrase hit count is weighted by its inverse document frequency, then the score decays with the age.
+     *
+     * @param matchInfo the matchinfo blob
+     * @param ts        the message timestamp
+     * @param now       the current timestamp
+     * @return the score
+     */
+    private static double computeScore(byte[] matchInfo, long ts, long now) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+
+        int phrasesCount = buffer.getInt(0);
+        int columnsCount = buffer.getInt(4);
+        int docsCount = buffer.getInt(8);
+
+        double score = 0;
+
+        for (int phrase = 0; phrase < phrasesCount; phrase++) {
+            for (int column = 0; column < columnsCount; column++) {
+                // 3 values per phrase / column : hits in this row, hits in all rows, rows with hits
+                int offset = 12 + 12 * (phrase * columnsCount + column);
+                int hitsInRow = buffer.getInt(offset);
+                int docsWithHits = buffer.getInt(offset + 8);
+
+                if (hitsInRow > 0) {
+                    double idf = Math.log(1.0 + (double) docsCount / Math.max(1, docsWithHits));
+                    score += idf * (1.0 + Math.log(hitsInRow));
+                }
+            }
+        }
+
+        // half the score every 30 days
+        double ageInDays = Math.max(0, now - ts) / (24.0 * 3600 * 1000);
+        return score * Math.pow(0.5, ageInDays / 30.0);
+    }
+
+    //==============================================================================================================
+    // Database
+    //==============================================================================================================
+
+    /**
+     * The index database.
+     */
+    private static class IndexDbHelper extends SQLiteOpenHelper {
+        static final String TABLE_DOCS = "docs";
+        static final String TABLE_TERMS = "terms";
+
+        static final String COLUMN_EVENT_ID = "event_id";
+        static final String COLUMN_ROOM_ID = "room_id";
+        static final String COLUMN_SENDER = "sender";
+        static final String COLUMN_TS = "ts";
+        static final String COLUMN_MSGTYPE = "msgtype";
+        static final String COLUMN_BODY = "body";
+
+        static final String COLUMN_WORDS = "words";
+        static final String COLUMN_PREFIXES = "prefixes";
+
+        IndexDbHelper(Context context, String name) {
+            super(context, name, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_DOCS + " (docid INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_EVENT_ID + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_ROOM_ID + " TEXT NOT NULL, "
+                    + COLUMN_SENDER + " TEXT, "
+                    + COLUMN_TS + " INTEGER NOT NULL, "
+                    + COLUMN_MSGTYPE + " TEXT, "
+                    + COLUMN_BODY + " BLOB NOT NULL)");
+            db.execSQL("CREATE INDEX " + TABLE_DOCS + "_room_ts ON " + TABLE_DOCS + " (" + COLUMN_ROOM_ID + ", " + COLUMN_TS + ")");
+
+            // contentless table : only the tokens hashes are stored
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_TERMS + " USING fts4(content=\"\", " + COLUMN_WORDS + ", " + COLUMN_PREFIXES + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // the index can be rebuilt from the timelines
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_TERMS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOCS);
+            onCreate(db);
+        }
+    }
+}
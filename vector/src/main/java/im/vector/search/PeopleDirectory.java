@@ -0,0 +1,584 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.call.MXCallsManager;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.Search.SearchUsersResponse;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import im.vector.adapters.ParticipantAdapterItem;
+import im.vector.util.VectorUtils;
+
+/**
+ * People directory of a session, shared by the people search screens.
+ * - the known users are the users sharing a joined or invited room; they are listed once, then updated from
+ * the membership events and the user directory results, and listed again when a room is left,
+ * - the user directory results are cached by pattern for a few minutes; a complete result also answers
+ * the longer patterns it starts with, without any request, by applying the server words prefix match,
+ * - the same user directory request is sent only once while it is pending; as the SDK answers only its latest
+ * users search, a new request cancels the pending one and its callers are answered with an error.
+ * The known users can be read from any thread, the user directory must be searched from the UI thread.
+ */
+public class PeopleDirectory {
+    private static final String LOG_TAG = PeopleDirectory.class.getSimpleName();
+
+    private static final int MAX_CACHED_PATTERNS = 50;
+    private static final long SERVER_RESULT_LIFETIME_MS = 5 * 60 * 1000;
+
+    // the server splits the display names, the user ids and the search terms into words
+    private static final Pattern mWordsSeparatorPattern = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // directories by user id
+    private static final Map<String, PeopleDirectory> mDirectoryByUserId = new HashMap<>();
+
+    /**
+     * A user directory result.
+     */
+    private static class ServerResult {
+        final List<User> mUsers;
+        final boolean mIsLimited;
+        // the number of users requested to the server
+        final int mRequestedCount;
+        final long mTs;
+
+        ServerResult(List<User> users, boolean isLimited, int requestedCount, long ts) {
+            mUsers = users;
+            mIsLimited = isLimited;
+            mRequestedCount = requestedCount;
+            mTs = ts;
+        }
+
+        /**
+         * Tells if the result can answer a search.
+         *
+         * @param requestedCount the number of users to request
+         * @return true if it can be used
+         */
+        boolean canAnswer(int requestedCount) {
+            return ((System.currentTimeMillis() - mTs) < SERVER_RESULT_LIFETIME_MS) && (!mIsLimited || (mRequestedCount >= requestedCount));
+        }
+    }
+
+    /**
+     * A search waiting for a pending user directory request.
+     */
+    private static class PendingSearch {
+        final int mLimit;
+        final Set<String> mExcludedUserIds;
+        final ApiCallback<SearchUsersResponse> mCallback;
+
+        PendingSearch(int limit, Set<String> excludedUserIds, ApiCallback<SearchUsersResponse> callback) {
+            mLimit = limit;
+            mExcludedUserIds = excludedUserIds;
+            mCallback = callback;
+        }
+    }
+
+    private final MXSession mSession;
+
+    // the known users by user id, null until they are listed
+    private Map<String, ParticipantAdapterItem> mKnownParticipantByUserId;
+    // incremented when the known users must be listed again
+    private int mKnownParticipantsGeneration = 0;
+
+    // the user directory results by lower case pattern
+    private final LruCache<String, ServerResult> mServerResultByPattern = new LruCache<>(MAX_CACHED_PATTERNS);
+
+    // the SDK keeps only the latest users search active, the previous ones are never answered
+    // the key of the active request, null if there is none
+    private String mActiveRequestKey;
+    // the searches waiting for the active request
+    private List<PendingSearch> mActivePendingSearches = new ArrayList<>();
+
+    // statistics
+    private int mRequestsCount = 0;
+    private int mCacheHitsCount = 0;
+    private int mUpdatesCount = 0;
+
+    /**
+     * Provides the people directory of a session.
+     *
+     * @param session the session
+     * @return the directory, null if the session is not valid
+     */
+    public static PeopleDirectory getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId())) {
+            return null;
+        }
+
+        synchronized (mDirectoryByUserId) {
+            PeopleDirectory directory = mDirectoryByUserId.get(session.getMyUserId());
+
+            if (null == directory) {
+                directory = new PeopleDirectory(session);
+                mDirectoryByUserId.put(session.getMyUserId(), directory);
+            }
+
+            return directory;
+        }
+    }
+
+    /**
+     * Release the directory of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            synchronized (mDirectoryByUserId) {
+                mDirectoryByUserId.remove(session.getMyUserId());
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private PeopleDirectory(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Provides the known users i.e the users of the joined or invited rooms and the user directory results.
+     * The users are listed the first time it is called, so it should be called in background.
+     *
+     * @return the known users
+     */
+    public List<ParticipantAdapterItem> getKnownParticipants() {
+        int generation;
+
+        synchronized (this) {
+            if (null != mKnownParticipantByUserId) {
+                return new ArrayList<>(mKnownParticipantByUserId.values());
+            }
+
+            generation = mKnownParticipantsGeneration;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Map<String, ParticipantAdapterItem> knownParticipantByUserId = VectorUtils.listKnownParticipants(mSession);
+
+        // the store keeps the users of the left rooms
+        Set<String> activeMemberIds = listActiveMemberIds();
+        knownParticipantByUserId.keySet().retainAll(activeMemberIds);
+
+        Log.d(LOG_TAG, "## getKnownParticipants() : " + knownParticipantByUserId.size() + " users listed in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        synchronized (this) {
+            // another thread has listed them in the meantime, or a room has been left during the listing
+            if ((null == mKnownParticipantByUserId) && (generation == mKnownParticipantsGeneration)) {
+                mKnownParticipantByUserId = knownParticipantByUserId;
+            }
+
+            return new ArrayList<>(knownParticipantByUserId.values());
+        }
+    }
+
+    /**
+     * @return the ids of the joined or invited members of the joined or invited rooms
+     */
+    private Set<String> listActiveMemberIds() {
+        Set<String> userIds = new HashSet<>();
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        if (null != store) {
+            for (Room room : store.getRooms()) {
+                for (RoomMember member : room.getActiveMembers()) {
+                    userIds.add(member.getUserId());
+                }
+            }
+        }
+
+        return userIds;
+    }
+
+    /**
+     * Tells if a user is a joined or invited member of a joined or invited room.
+     *
+     * @param userId the user id
+     * @return true if a room is shared
+     */
+    private boolean sharesRoom(String userId) {
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        if (null != store) {
+            for (Room room : store.getRooms()) {
+                RoomMember member = room.getMember(userId);
+
+                if ((null != member) && (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN) || TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_INVITE))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A room has been left.
+     * Its members might not share any other room, so the known users are listed again when they are requested.
+     */
+    public synchronized void onLeaveRoom() {
+        mKnownParticipantByUserId = null;
+        mKnownParticipantsGeneration++;
+    }
+
+    /**
+     * A live event has been received.
+     * The known users are updated when a user joins or is invited to a room, or leaves the latest shared room.
+     *
+     * @param event the event
+     */
+    public void onLiveEvent(Event event) {
+        if (!Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType()) || (null == event.stateKey) || MXCallsManager.isConferenceUserId(event.stateKey)) {
+            return;
+        }
+
+        synchronized (this) {
+            // the users are not yet listed
+            if (null == mKnownParticipantByUserId) {
+                return;
+            }
+        }
+
+        RoomMember member = null;
+
+        try {
+            member = JsonUtils.toRoomMember(event.getContent());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## onLiveEvent() failed " + e.getMessage());
+        }
+
+        if (null == member) {
+            return;
+        }
+
+        if (!TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN) && !TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_INVITE)) {
+            // the own leaves are managed by onLeaveRoom
+            if (!TextUtils.equals(event.stateKey, mSession.getMyUserId()) && !sharesRoom(event.stateKey)) {
+                synchronized (this) {
+                    if ((null != mKnownParticipantByUserId) && (null != mKnownParticipantByUserId.remove(event.stateKey))) {
+                        mUpdatesCount++;
+                    }
+                }
+            }
+            return;
+        }
+
+        IMXStore store = mSession.getDataHandler().getStore();
+        User user = (null != store) ? store.getUser(event.stateKey) : null;
+
+        if (null != user) {
+            synchronized (this) {
+                if (null != mKnownParticipantByUserId) {
+                    // the display name or the avatar might have been updated
+                    mKnownParticipantByUserId.put(user.user_id, new ParticipantAdapterItem(user));
+                    mUpdatesCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Search users in the user directory.
+     * The callback is called synchronously when the result is cached.
+     *
+     * @param pattern         the pattern
+     * @param limit           the max number of users
+     * @param excludedUserIds the user ids to exclude from the result
+     * @param callback        the callback
+     */
+    public void searchUsers(final String pattern, final int limit, final Set<String> excludedUserIds, final ApiCallback<SearchUsersResponse> callback) {
+        final String lowerCasePattern = pattern.toLowerCase(Locale.getDefault());
+        final Set<String> excludedIds = (null != excludedUserIds) ? excludedUserIds : Collections.<String>emptySet();
+        final int requestedCount = limit + excludedIds.size();
+
+        ServerResult result = getServerResult(lowerCasePattern, requestedCount);
+
+        if (null != result) {
+            mCacheHitsCount++;
+            callback.onSuccess(toResponse(result, limit, excludedIds));
+            return;
+        }
+
+        final String key = lowerCasePattern + "|" + requestedCount;
+
+        if (TextUtils.equals(key, mActiveRequestKey)) {
+            mActivePendingSearches.add(new PendingSearch(limit, excludedIds, callback));
+            return;
+        }
+
+        // the active request is superseded by the new one
+        cancelActiveRequest();
+
+        mActiveRequestKey = key;
+        mActivePendingSearches.add(new PendingSearch(limit, excludedIds, callback));
+        mRequestsCount++;
+
+        // the exclusion is done locally to share the result
+        mSession.searchUsers(pattern, requestedCount, Collections.<String>emptySet(), new ApiCallback<SearchUsersResponse>() {
+            @Override
+            public void onSuccess(SearchUsersResponse searchUsersResponse) {
+                List<User> users = (null != searchUsersResponse.results) ? searchUsersResponse.results : new ArrayList<User>();
+                boolean isLimited = (null != searchUsersResponse.limited) ? searchUsersResponse.limited : false;
+                ServerResult result = new ServerResult(users, isLimited, requestedCount, System.currentTimeMillis());
+
+                mServerResultByPattern.put(lowerCasePattern, result);
+                addKnownUsers(users);
+
+                for (PendingSearch pendingSearch : removePendingSearches(key)) {
+                    pendingSearch.mCallback.onSuccess(toResponse(result, pendingSearch.mLimit, pendingSearch.mExcludedUserIds));
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                for (PendingSearch pendingSearch : removePendingSearches(key)) {
+                    pendingSearch.mCallback.onNetworkError(e);
+                }
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                for (PendingSearch pendingSearch : removePendingSearches(key)) {
+                    pendingSearch.mCallback.onMatrixError(e);
+                }
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                for (PendingSearch pendingSearch : removePendingSearches(key)) {
+                    pendingSearch.mCallback.onUnexpectedError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel the active user directory request.
+     * Its pending searches are answered with an error, so the callers can search offline.
+     */
+    private void cancelActiveRequest() {
+        if (null == mActiveRequestKey) {
+            return;
+        }
+
+        Log.d(LOG_TAG, "## cancelActiveRequest() : cancel the search " + mActiveRequestKey);
+
+        List<PendingSearch> pendingSearches = mActivePendingSearches;
+
+        mSession.cancelUsersSearch();
+        mActiveRequestKey = null;
+        mActivePendingSearches = new ArrayList<>();
+
+        Exception exception = new Exception("The users search has been cancelled");
+
+        for (PendingSearch pendingSearch : pendingSearches) {
+            pendingSearch.mCallback.onUnexpectedError(exception);
+        }
+    }
+
+    /**
+     * Provides the searches waiting for a request and release it.
+     *
+     * @param key the request key
+     * @return the pending searches, empty if the request is not anymore the active one
+     */
+    private List<PendingSearch> removePendingSearches(String key) {
+        if (!TextUtils.equals(key, mActiveRequestKey)) {
+            return new ArrayList<>();
+        }
+
+        List<PendingSearch> pendingSearches = mActivePendingSearches;
+
+        mActiveRequestKey = null;
+        mActivePendingSearches = new ArrayList<>();
+
+        return pendingSearches;
+    }
+
+    /**
+     * @return a description of the directory usage
+     */
+    public synchronized String getStats() {
+        return ((null == mKnownParticipantByUserId) ? 0 : mKnownParticipantByUserId.size()) + " known users, " + mUpdatesCount + " updates, "
+                + mRequestsCount + " directory requests, " + mCacheHitsCount + " cache hits";
+    }
+
+    /**
+     * Provides a cached user directory result.
+     * The complete result of a shorter pattern is narrowed when there is no result for the pattern.
+     *
+     * @param lowerCasePattern the lower case pattern
+     * @param requestedCount   the number of users to request
+     * @return the result, null if there is none
+     */
+    private ServerResult getServerResult(String lowerCasePattern, int requestedCount) {
+        ServerResult result = mServerResultByPattern.get(lowerCasePattern);
+
+        if ((null != result) && result.canAnswer(requestedCount)) {
+            return result;
+        }
+
+        for (int length = lowerCasePattern.length() - 1; length > 0; length--) {
+            ServerResult prefixResult = mServerResultByPattern.get(lowerCasePattern.substring(0, length));
+
+            if ((null != prefixResult) && !prefixResult.mIsLimited && prefixResult.canAnswer(requestedCount)) {
+                List<User> users = new ArrayList<>();
+
+                // the users matching the pattern match its prefix too, so they are all in the complete result
+                List<String> patternWords = splitWords(lowerCasePattern);
+
+                for (User user : prefixResult.mUsers) {
+                    if (matches(user, patternWords)) {
+                        users.add(user);
+                    }
+                }
+
+                result = new ServerResult(users, false, prefixResult.mRequestedCount, prefixResult.mTs);
+                mServerResultByPattern.put(lowerCasePattern, result);
+                return result;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Split a lower case text into words.
+     *
+     * @param lowerCaseText the lower case text
+     * @return the non empty words
+     */
+    private static List<String> splitWords(String lowerCaseText) {
+        List<String> words = new ArrayList<>();
+
+        for (String word : mWordsSeparatorPattern.split(lowerCaseText)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Tells if a user matches a pattern as the user directory does:
+     * each pattern word must start a word of the display name or of the user id.
+     *
+     * @param user         the user
+     * @param patternWords the lower case pattern words
+     * @return true if it matches
+     */
+    private static boolean matches(User user, List<String> patternWords) {
+        List<String> userWords = new ArrayList<>();
+
+        if (null != user.user_id) {
+            userWords.addAll(splitWords(user.user_id.toLowerCase(Locale.getDefault())));
+        }
+
+        if (null != user.displayname) {
+            userWords.addAll(splitWords(user.displayname.toLowerCase(Locale.getDefault())));
+        }
+
+        for (String patternWord : patternWords) {
+            boolean isFound = false;
+
+            for (String userWord : userWords) {
+                if (userWord.startsWith(patternWord)) {
+                    isFound = true;
+                    break;
+                }
+            }
+
+            if (!isFound) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Build the response of a search from a cached result.
+     *
+     * @param result          the cached result
+     * @param limit           the max number of users
+     * @param excludedUserIds the user ids to exclude
+     * @return the response
+     */
+    private static SearchUsersResponse toResponse(ServerResult result, int limit, Set<String> excludedUserIds) {
+        SearchUsersResponse response = new SearchUsersResponse();
+        response.results = new ArrayList<>();
+        response.limited = result.mIsLimited;
+
+        for (User user : result.mUsers) {
+            if (!excludedUserIds.contains(user.user_id)) {
+                if (response.results.size() == limit) {
+                    response.limited = true;
+                    break;
+                }
+
+                response.results.add(user);
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Add the user directory results to the known users.
+     *
+     * @param users the users
+     */
+    private synchronized void addKnownUsers(List<User> users) {
+        if (null == mKnownParticipantByUserId) {
+            return;
+        }
+
+        for (User user : users) {
+            if ((null != user.user_id) && !mKnownParticipantByUserId.containsKey(user.user_id) && !MXCallsManager.isConferenceUserId(user.user_id)) {
+                mKnownParticipantByUserId.put(user.user_id, new ParticipantAdapterItem(user));
+                mUpdatesCount++;
+            }
+        }
+    }
+}
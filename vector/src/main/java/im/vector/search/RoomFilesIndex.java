@@ -0,0 +1,761 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of the attachments (files, images, videos and audio messages) of the rooms of a session.
+ * It is fed by the live events, the timeline back paginations and the files search history crawling.
+ * The files search is served from this index; the server history is only requested below the oldest
+ * crawled point of a room until the room creation is reached, and in the gaps of the live timeline
+ * (i.e. the limited syncs which flush the room timeline).
+ * The event contents (names, urls, encryption keys) are stored encrypted.
+ * All the database accesses are done on a dedicated thread.
+ */
+public class RoomFilesIndex {
+    private static final String LOG_TAG = RoomFilesIndex.class.getSimpleName();
+
+    // indexes by user id
+    private static final Map<String, RoomFilesIndex> mIndexByUserId = new HashMap<>();
+
+    private static final int DB_VERSION = 3;
+
+    /**
+     * The history crawling state of a room.
+     */
+    public static class HistoryState {
+        // the pagination token to resume the server history crawling, null if it has not been started
+        public final String mToken;
+        // true when the room creation has been reached
+        public final boolean mIsComplete;
+        // the pagination token to crawl the live timeline gap, null if there is no gap
+        public final String mGapToken;
+        // the gap is crawled until this timestamp is reached
+        public final long mGapTs;
+
+        HistoryState(String token, boolean isComplete, String gapToken, long gapTs) {
+            mToken = token;
+            mIsComplete = isComplete;
+            mGapToken = gapToken;
+            mGapTs = gapTs;
+        }
+    }
+
+    /**
+     * A page of attachments.
+     */
+    public static class FilesPage {
+        // the events, from the most recent to the oldest one
+        public final List<Event> mEvents;
+        // the room history crawling state
+        public final HistoryState mHistoryState;
+
+        FilesPage(List<Event> events, HistoryState historyState) {
+            mEvents = events;
+            mHistoryState = historyState;
+        }
+    }
+
+    private final Context mContext;
+    private final String mUserId;
+    private final IndexDbHelper mDbHelper;
+    private SearchIndexCipher mCipher;
+
+    private final HandlerThread mIndexThread;
+    private final Handler mIndexHandler;
+    private final Handler mUiHandler;
+
+    // the latest live event timestamp by room id
+    private final Map<String, Long> mLatestLiveTsByRoomId = new HashMap<>();
+
+    // the pagination token of the latest sync timeline by room id and the latest live event timestamp before this timeline
+    private final Map<String, String> mSyncTokenByRoomId = new HashMap<>();
+    private final Map<String, Long> mSyncStartTsByRoomId = new HashMap<>();
+
+    /**
+     * Provides the files index of a session.
+     *
+     * @param context the context
+     * @param session the session
+     * @return the index, null if the parameters are not valid or if the device does not support the indexes
+     */
+    public static RoomFilesIndex getInstance(Context context, MXSession session) {
+        // the index key cannot be protected on this device
+        if ((null == context) || (null == session) || (null == session.getMyUserId()) || !SearchIndexCipher.isSupported()) {
+            return null;
+        }
+
+        synchronized (mIndexByUserId) {
+            RoomFilesIndex index = mIndexByUserId.get(session.getMyUserId());
+
+            if (null == index) {
+                index = new RoomFilesIndex(context.getApplicationContext(), session.getMyUserId());
+                mIndexByUserId.put(session.getMyUserId(), index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Delete the files index of a session (e.g. on logout).
+     * The cipher key is deleted by {@link MessagesSearchIndex#deleteIndex(Context, MXSession)}.
+     *
+     * @param context the context
+     * @param session the session
+     */
+    public static void deleteIndex(final Context context, MXSession session) {
+        final String userId = session.getMyUserId();
+        final RoomFilesIndex index;
+
+        synchronized (mIndexByUserId) {
+            index = mIndexByUserId.remove(userId);
+        }
+
+        if (null != index) {
+            index.mIndexHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    index.mDbHelper.close();
+                    context.deleteDatabase(getDatabaseName(userId));
+                    index.mIndexThread.quit();
+                }
+            });
+        } else {
+            context.deleteDatabase(getDatabaseName(userId));
+        }
+    }
+
+    /**
+     * Compute the database name of a session.
+     *
+     * @param userId the user id
+     * @return the database name
+     */
+    private static String getDatabaseName(String userId) {
+        return "room_files_index_" + SearchIndexCipher.getSessionId(userId) + ".db";
+    }
+
+    /**
+     * Tells if an event is an attachment.
+     *
+     * @param event the event
+     * @return true if the event is a file, an image, a video or an audio message
+     */
+    public static boolean isAttachment(Event event) {
+        if ((null == event) || (null == event.eventId) || (null == event.roomId) || event.isRedacted() || !event.isSent()) {
+            return false;
+        }
+
+        if (!Event.EVENT_TYPE_MESSAGE.equals(event.getType())) {
+            return false;
+        }
+
+        String msgType = getMsgType(event.getContentAsJsonObject());
+
+        return Message.MSGTYPE_FILE.equals(msgType) ||
+                Message.MSGTYPE_IMAGE.equals(msgType) ||
+                Message.MSGTYPE_VIDEO.equals(msgType) ||
+                Message.MSGTYPE_AUDIO.equals(msgType);
+    }
+
+    /**
+     * @param content the message content
+     * @return the message type, null if it is not defined
+     */
+    private static String getMsgType(JsonObject content) {
+        if ((null != content) && content.has("msgtype") && content.get("msgtype").isJsonPrimitive()) {
+            return content.get("msgtype").getAsString();
+        }
+
+        return null;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     * @param userId  the session user id
+     */
+    private RoomFilesIndex(Context context, String userId) {
+        mContext = context;
+        mUserId = userId;
+        mDbHelper = new IndexDbHelper(context, getDatabaseName(userId));
+
+        mIndexThread = new HandlerThread("RoomFilesIndex", Thread.MIN_PRIORITY);
+        mIndexThread.start();
+        mIndexHandler = new Handler(mIndexThread.getLooper());
+        mUiHandler = new Handler(Looper.getMainLooper());
+
+        // check the key before any database access
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getCipher();
+            }
+        });
+    }
+
+    /**
+     * Must be called from the index thread.
+     * The database is deleted when it has been written with another key.
+     *
+     * @return the cipher, null if it cannot be created
+     */
+    private SearchIndexCipher getCipher() {
+        if (null == mCipher) {
+            try {
+                mCipher = new SearchIndexCipher(mContext, mUserId);
+
+                // the rows written with another key cannot be read anymore
+                if (mCipher.bindDatabase(getDatabaseName(mUserId))) {
+                    mDbHelper.close();
+                    mContext.deleteDatabase(getDatabaseName(mUserId));
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## getCipher() failed " + e.getMessage());
+            }
+        }
+
+        return mCipher;
+    }
+
+    /**
+     * Index an event.
+     * It is ignored if it is not an attachment.
+     *
+     * @param event the event
+     */
+    public void indexEvent(Event event) {
+        if (isAttachment(event)) {
+            indexEvents(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Index some events.
+     * The events which are not attachments are ignored.
+     *
+     * @param events the events
+     */
+    public void indexEvents(Collection<Event> events) {
+        final List<Event> attachments = new ArrayList<>();
+
+        for (Event event : events) {
+            if (isAttachment(event)) {
+                attachments.add(event);
+            }
+        }
+
+        if (attachments.isEmpty()) {
+            return;
+        }
+
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                insertEvents(attachments);
+            }
+        });
+    }
+
+    /**
+     * Remove an event from the index (e.g. it has been redacted).
+     *
+     * @param eventId the event id
+     */
+    public void removeEvent(final String eventId) {
+        if (null == eventId) {
+            return;
+        }
+
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDbHelper.getWritableDatabase().delete(IndexDbHelper.TABLE_FILES, IndexDbHelper.COLUMN_EVENT_ID + "=?", new String[]{eventId});
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## removeEvent() failed " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * The store has been loaded.
+     * The latest events of the rooms bound the gaps of the first sync.
+     *
+     * @param summaries the rooms summaries
+     */
+    public synchronized void onStoreReady(Collection<RoomSummary> summaries) {
+        for (RoomSummary summary : summaries) {
+            Event event = summary.getLatestReceivedEvent();
+
+            if ((null != event) && (null != summary.getRoomId())) {
+                updateLatestLiveTs(summary.getRoomId(), event.getOriginServerTs());
+            }
+        }
+    }
+
+    /**
+     * A live event has been received.
+     * The first event of a sync timeline provides the pagination token to crawl the timeline gap
+     * if this timeline is limited.
+     *
+     * @param event the event
+     */
+    public synchronized void onLiveEvent(Event event) {
+        if (null == event.roomId) {
+            return;
+        }
+
+        if (null != event.mToken) {
+            Long latestTs = mLatestLiveTsByRoomId.get(event.roomId);
+            mSyncTokenByRoomId.put(event.roomId, event.mToken);
+            mSyncStartTsByRoomId.put(event.roomId, (null == latestTs) ? 0L : latestTs);
+        }
+
+        updateLatestLiveTs(event.roomId, event.getOriginServerTs());
+    }
+
+    /**
+     * The room timeline has been flushed i.e. a limited sync has been received
+     * (e.g. after a long offline period): the events between the latest known one and the sync timeline are missing.
+     *
+     * @param roomId the room id
+     */
+    public synchronized void onRoomFlush(String roomId) {
+        String token = mSyncTokenByRoomId.remove(roomId);
+        Long startTs = mSyncStartTsByRoomId.remove(roomId);
+
+        // the room creation is in the sync timeline
+        if ((null == token) || Event.PAGINATE_BACK_TOKEN_END.equals(token)) {
+            return;
+        }
+
+        addGap(roomId, token, (null == startTs) ? 0 : startTs);
+    }
+
+    /**
+     * Update the latest live event timestamp of a room.
+     *
+     * @param roomId the room id
+     * @param ts     the event timestamp
+     */
+    private void updateLatestLiveTs(String roomId, long ts) {
+        Long latestTs = mLatestLiveTsByRoomId.get(roomId);
+
+        if ((null == latestTs) || (latestTs < ts)) {
+            mLatestLiveTsByRoomId.put(roomId, ts);
+        }
+    }
+
+    /**
+     * Record a live timeline gap.
+     * A pending gap is merged with the new one: the crawl starts from the new token until the oldest bound.
+     *
+     * @param roomId the room id
+     * @param token  the pagination token at the recent end of the gap
+     * @param ts     the latest known event timestamp before the gap, 0 if it is unknown
+     */
+    private void addGap(final String roomId, final String token, final long ts) {
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = null;
+
+                try {
+                    SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                    HistoryState historyState = readHistoryState(db, roomId);
+
+                    // the history crawling has not been started : it will start from the live timeline
+                    if (null == historyState.mToken) {
+                        return;
+                    }
+
+                    long gapTs = ts;
+
+                    // unknown bound : the gap ends at the latest indexed attachment
+                    if (0 == gapTs) {
+                        cursor = db.rawQuery("SELECT MAX(" + IndexDbHelper.COLUMN_TS + ") FROM " + IndexDbHelper.TABLE_FILES
+                                + " WHERE " + IndexDbHelper.COLUMN_ROOM_ID + "=?", new String[]{roomId});
+
+                        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                            gapTs = cursor.getLong(0);
+                        }
+                    }
+
+                    if (null != historyState.mGapToken) {
+                        gapTs = Math.min(gapTs, historyState.mGapTs);
+                    }
+
+                    ContentValues values = new ContentValues();
+                    values.put(IndexDbHelper.COLUMN_GAP_TOKEN, token);
+                    values.put(IndexDbHelper.COLUMN_GAP_TS, gapTs);
+                    db.update(IndexDbHelper.TABLE_HISTORY, values, IndexDbHelper.COLUMN_ROOM_ID + "=?", new String[]{roomId});
+
+                    Log.d(LOG_TAG, "## addGap() : the attachments of " + roomId + " are missing until " + gapTs);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## addGap() failed " + e.getMessage());
+                } finally {
+                    if (null != cursor) {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Update the crawling state of a live timeline gap.
+     * The update is ignored if another gap has been recorded in the meantime.
+     *
+     * @param roomId    the room id
+     * @param fromToken the crawled gap token
+     * @param toToken   the token to resume the gap crawling, null if the gap has been filled
+     */
+    public void updateGap(final String roomId, final String fromToken, final String toToken) {
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ContentValues values = new ContentValues();
+                    values.put(IndexDbHelper.COLUMN_GAP_TOKEN, toToken);
+                    mDbHelper.getWritableDatabase().update(IndexDbHelper.TABLE_HISTORY, values,
+                            IndexDbHelper.COLUMN_ROOM_ID + "=? AND " + IndexDbHelper.COLUMN_GAP_TOKEN + "=?", new String[]{roomId, fromToken});
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## updateGap() failed " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Update the history crawling state of a room.
+     *
+     * @param roomId     the room id
+     * @param token      the token to resume the crawling
+     * @param isComplete true if the room creation has been reached
+     */
+    public void setHistoryState(final String roomId, final String token, final boolean isComplete) {
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+                    ContentValues values = new ContentValues();
+                    values.put(IndexDbHelper.COLUMN_TOKEN, token);
+                    values.put(IndexDbHelper.COLUMN_COMPLETE, isComplete ? 1 : 0);
+
+                    // the live timeline gap is kept
+                    if (0 == db.update(IndexDbHelper.TABLE_HISTORY, values, IndexDbHelper.COLUMN_ROOM_ID + "=?", new String[]{roomId})) {
+                        values.put(IndexDbHelper.COLUMN_ROOM_ID, roomId);
+                        db.insert(IndexDbHelper.TABLE_HISTORY, null, values);
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## setHistoryState() failed " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Retrieve a page of attachments of a room.
+     * The pending writes are done before reading.
+     *
+     * The attachments are sorted by timestamp then by event id, the most recent first;
+     * the page starts after the (beforeTs, beforeEventId) attachment.
+     *
+     * @param roomId        the room id
+     * @param beforeTs      the timestamp of the latest read attachment, Long.MAX_VALUE to start from the most recent one
+     * @param beforeEventId the event id of the latest read attachment, null to start from the most recent one
+     * @param limit         the max number of attachments
+     * @param callback      the callback, called on the UI thread
+     */
+    public void getFiles(final String roomId, final long beforeTs, final String beforeEventId, final int limit, final ApiCallback<FilesPage> callback) {
+        mIndexHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final FilesPage page = readFiles(roomId, beforeTs, beforeEventId, limit);
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != page) {
+                            callback.onSuccess(page);
+                        } else {
+                            callback.onUnexpectedError(new Exception("cannot read the files index"));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Write some attachments in a single transaction.
+     * Must be called from the index thread.
+     *
+     * @param events the attachments
+     */
+    private void insertEvents(List<Event> events) {
+        SearchIndexCipher cipher = getCipher();
+
+        if (null == cipher) {
+            return;
+        }
+
+        SQLiteDatabase db;
+
+        try {
+            db = mDbHelper.getWritableDatabase();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## insertEvents() : cannot open the database " + e.getMessage());
+            return;
+        }
+
+        db.beginTransaction();
+
+        try {
+            for (Event event : events) {
+                JsonObject content = event.getContentAsJsonObject();
+                JsonObject info = (content.has("info") && content.get("info").isJsonObject()) ? content.getAsJsonObject("info") : null;
+
+                ContentValues values = new ContentValues();
+                values.put(IndexDbHelper.COLUMN_EVENT_ID, event.eventId);
+                values.put(IndexDbHelper.COLUMN_ROOM_ID, event.roomId);
+                values.put(IndexDbHelper.COLUMN_SENDER, event.getSender());
+                values.put(IndexDbHelper.COLUMN_TS, event.getOriginServerTs());
+                values.put(IndexDbHelper.COLUMN_MSGTYPE, getMsgType(content));
+                values.put(IndexDbHelper.COLUMN_MIMETYPE, getString(info, "mimetype"));
+
+                if ((null != info) && info.has("size") && info.get("size").isJsonPrimitive()) {
+                    values.put(IndexDbHelper.COLUMN_SIZE, info.get("size").getAsLong());
+                }
+
+                // the name, the url and the encryption keys are in the content
+                values.put(IndexDbHelper.COLUMN_CONTENT, cipher.encrypt(content.toString()));
+
+                db.insertWithOnConflict(IndexDbHelper.TABLE_FILES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## insertEvents() failed " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param object the json object
+     * @param key    the key
+     * @return the string value, null if it is not defined
+     */
+    private static String getString(JsonObject object, String key) {
+        if ((null != object) && object.has(key)) {
+            JsonElement element = object.get(key);
+
+            if (element.isJsonPrimitive()) {
+                return element.getAsString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a page of attachments.
+     * Must be called from the index thread.
+     *
+     * The (ts, event id) keyset cursor does not skip the attachments sharing the timestamp of the latest read one.
+     *
+     * @param roomId        the room id
+     * @param beforeTs      the timestamp of the latest read attachment
+     * @param beforeEventId the event id of the latest read attachment, null to read the attachments older than beforeTs
+     * @param limit         the max number of attachments
+     * @return the page, null on error
+     */
+    private FilesPage readFiles(String roomId, long beforeTs, String beforeEventId, int limit) {
+        SearchIndexCipher cipher = getCipher();
+
+        if (null == cipher) {
+            return null;
+        }
+
+        List<Event> events = new ArrayList<>();
+        HistoryState historyState;
+        Cursor cursor = null;
+
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+            String selection;
+            String[] selectionArgs;
+
+            if (null == beforeEventId) {
+                selection = IndexDbHelper.COLUMN_ROOM_ID + "=? AND " + IndexDbHelper.COLUMN_TS + "<?";
+                selectionArgs = new String[]{roomId, String.valueOf(beforeTs)};
+            } else {
+                selection = IndexDbHelper.COLUMN_ROOM_ID + "=? AND (" + IndexDbHelper.COLUMN_TS + "<? OR ("
+                        + IndexDbHelper.COLUMN_TS + "=? AND " + IndexDbHelper.COLUMN_EVENT_ID + "<?))";
+                selectionArgs = new String[]{roomId, String.valueOf(beforeTs), String.valueOf(beforeTs), beforeEventId};
+            }
+
+            cursor = db.query(IndexDbHelper.TABLE_FILES,
+                    new String[]{IndexDbHelper.COLUMN_EVENT_ID, IndexDbHelper.COLUMN_SENDER, IndexDbHelper.COLUMN_TS, IndexDbHelper.COLUMN_CONTENT},
+                    selection, selectionArgs,
+                    null, null, IndexDbHelper.COLUMN_TS + " DESC, " + IndexDbHelper.COLUMN_EVENT_ID + " DESC", String.valueOf(limit));
+
+            JsonParser parser = new JsonParser();
+
+            while (cursor.moveToNext()) {
+                JsonObject content;
+
+                try {
+                    content = parser.parse(cipher.decrypt(cursor.getBlob(3))).getAsJsonObject();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## readFiles() : cannot decrypt an entry " + e.getMessage());
+                    continue;
+                }
+
+                Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, cursor.getString(1), roomId);
+                event.eventId = cursor.getString(0);
+                event.sender = cursor.getString(1);
+                event.originServerTs = cursor.getLong(2);
+                events.add(event);
+            }
+
+            historyState = readHistoryState(db, roomId);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## readFiles() failed " + e.getMessage());
+            return null;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        return new FilesPage(events, historyState);
+    }
+
+    /**
+     * Read the history crawling state of a room.
+     * Must be called from the index thread.
+     *
+     * @param db     the database
+     * @param roomId the room id
+     * @return the history state
+     */
+    private static HistoryState readHistoryState(SQLiteDatabase db, String roomId) {
+        Cursor cursor = db.query(IndexDbHelper.TABLE_HISTORY,
+                new String[]{IndexDbHelper.COLUMN_TOKEN, IndexDbHelper.COLUMN_COMPLETE, IndexDbHelper.COLUMN_GAP_TOKEN, IndexDbHelper.COLUMN_GAP_TS},
+                IndexDbHelper.COLUMN_ROOM_ID + "=?", new String[]{roomId}, null, null, null);
+
+        try {
+            if (cursor.moveToFirst()) {
+                return new HistoryState(cursor.getString(0), 0 != cursor.getInt(1), cursor.getString(2), cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return new HistoryState(null, false, null, 0);
+    }
+
+    /**
+     * The index database.
+     */
+    private static class IndexDbHelper extends SQLiteOpenHelper {
+        static final String TABLE_FILES = "files";
+        static final String TABLE_HISTORY = "history";
+
+        static final String COLUMN_EVENT_ID = "event_id";
+        static final String COLUMN_ROOM_ID = "room_id";
+        static final String COLUMN_SENDER = "sender";
+        static final String COLUMN_TS = "ts";
+        static final String COLUMN_MSGTYPE = "msgtype";
+        static final String COLUMN_MIMETYPE = "mimetype";
+        static final String COLUMN_SIZE = "size";
+        static final String COLUMN_CONTENT = "content";
+
+        static final String COLUMN_TOKEN = "token";
+        static final String COLUMN_COMPLETE = "complete";
+        static final String COLUMN_GAP_TOKEN = "gap_token";
+        static final String COLUMN_GAP_TS = "gap_ts";
+
+        IndexDbHelper(Context context, String name) {
+            super(context, name, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_FILES + " ("
+                    + COLUMN_EVENT_ID + " TEXT PRIMARY KEY, "
+                    + COLUMN_ROOM_ID + " TEXT NOT NULL, "
+                    + COLUMN_SENDER + " TEXT, "
+                    + COLUMN_TS + " INTEGER NOT NULL, "
+                    + COLUMN_MSGTYPE + " TEXT, "
+                    + COLUMN_MIMETYPE + " TEXT, "
+                    + COLUMN_SIZE + " INTEGER, "
+                    + COLUMN_CONTENT + " BLOB NOT NULL)");
+            db.execSQL("CREATE INDEX " + TABLE_FILES + "_room_ts ON " + TABLE_FILES + " (" + COLUMN_ROOM_ID + ", " + COLUMN_TS + ", " + COLUMN_EVENT_ID + ")");
+
+            db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                    + COLUMN_ROOM_ID + " TEXT PRIMARY KEY, "
+                    + COLUMN_TOKEN + " TEXT, "
+                    + COLUMN_COMPLETE + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_GAP_TOKEN + " TEXT, "
+                    + COLUMN_GAP_TS + " INTEGER NOT NULL DEFAULT 0)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // the index can be rebuilt from the server history
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILES);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTORY);
+            onCreate(db);
+        }
+    }
+}
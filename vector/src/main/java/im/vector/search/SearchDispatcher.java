@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import org.matrix.androidsdk.fragments.MatrixMessageListFragment;
+import org.matrix.androidsdk.util.Log;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Dispatch the search patterns to the search tabs.
+ * - only the displayed tab is searched, the other ones are searched when they are displayed,
+ * - a tab is not searched again with the pattern it is already displaying, as long as its view is not recreated,
+ * - a new search cancels the in-flight one and the results of the superseded searches are ignored.
+ * The methods must be called from the UI thread.
+ */
+public class SearchDispatcher {
+    private static final String LOG_TAG = SearchDispatcher.class.getSimpleName();
+
+    /**
+     * The searchable tabs.
+     */
+    public interface Delegate {
+        /**
+         * Tell if a tab is able to run a search i.e its view is created.
+         *
+         * @param tab the tab index
+         * @return true if the tab can be searched
+         */
+        boolean isSearchable(int tab);
+
+        /**
+         * Provides the view displaying the results of a tab.
+         * The view is recreated when the tab is scrolled out of the pager, the results are then lost.
+         *
+         * @param tab the tab index
+         * @return the view, null if it is not created
+         */
+        Object getResultsView(int tab);
+
+        /**
+         * Search a pattern in a tab.
+         *
+         * @param tab      the tab index
+         * @param pattern  the pattern
+         * @param listener the result listener
+         * @return true if a remote search has been triggered
+         */
+        boolean search(int tab, String pattern, MatrixMessageListFragment.OnSearchResultListener listener);
+
+        /**
+         * Cancel the in-flight search of a tab.
+         *
+         * @param tab the tab index
+         */
+        void cancelSearch(int tab);
+    }
+
+    /**
+     * The search results listener.
+     */
+    public interface Listener {
+        /**
+         * The search of a tab is done.
+         *
+         * @param tab   the tab index
+         * @param count the results count
+         */
+        void onSearchEnd(int tab, int count);
+    }
+
+    private final Delegate mDelegate;
+    private final Listener mListener;
+
+    /**
+     * The pattern displayed by a tab.
+     */
+    private static class DisplayedPattern {
+        final String mPattern;
+        // the view displaying the results
+        final WeakReference<Object> mResultsView;
+
+        DisplayedPattern(String pattern, Object resultsView) {
+            mPattern = pattern;
+            mResultsView = new WeakReference<>(resultsView);
+        }
+    }
+
+    // the pattern displayed by each tab
+    private final SparseArray<DisplayedPattern> mSearchedPatterns = new SparseArray<>();
+
+    // the tab with an in-flight search
+    private int mInFlightTab = -1;
+
+    // incremented at each search, used to detect the superseded results
+    private int mGeneration = 0;
+
+    // statistics
+    private int mSearchesCount = 0;
+    private int mSkippedCount = 0;
+    private int mSupersededCount = 0;
+    private long mDispatchDurationNs = 0;
+
+    /**
+     * Constructor
+     *
+     * @param delegate the searchable tabs
+     * @param listener the results listener
+     */
+    public SearchDispatcher(Delegate delegate, Listener listener) {
+        mDelegate = delegate;
+        mListener = listener;
+    }
+
+    /**
+     * Tell if a tab displays (or is searching) the results of a pattern.
+     *
+     * @param tab     the tab index
+     * @param pattern the pattern
+     * @return true if the tab does not need to be searched again
+     */
+    public boolean isDisplayed(int tab, String pattern) {
+        DisplayedPattern displayedPattern = mSearchedPatterns.get(tab);
+
+        if (null == displayedPattern) {
+            return false;
+        }
+
+        // the view has been destroyed or recreated since the search
+        Object resultsView = mDelegate.getResultsView(tab);
+
+        if ((null == resultsView) || (displayedPattern.mResultsView.get() != resultsView)) {
+            mSearchedPatterns.remove(tab);
+            return false;
+        }
+
+        if (TextUtils.equals(displayedPattern.mPattern, (null == pattern) ? "" : pattern)) {
+            mSkippedCount++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Search a pattern in a tab.
+     * The in-flight search is cancelled.
+     *
+     * @param tab     the tab index
+     * @param pattern the pattern
+     * @return true if a remote search has been triggered
+     */
+    public boolean dispatch(final int tab, String pattern) {
+        long startTime = System.nanoTime();
+
+        if (null == pattern) {
+            pattern = "";
+        }
+
+        cancel();
+
+        final int generation = ++mGeneration;
+        mInFlightTab = tab;
+
+        // the tab will search the pattern when its view is created
+        if (mDelegate.isSearchable(tab)) {
+            mSearchedPatterns.put(tab, new DisplayedPattern(pattern, mDelegate.getResultsView(tab)));
+        } else {
+            mSearchedPatterns.remove(tab);
+        }
+
+        boolean res = mDelegate.search(tab, pattern, new MatrixMessageListFragment.OnSearchResultListener() {
+            @Override
+            public void onSearchSucceed(int nbrMessages) {
+                onDone(nbrMessages);
+            }
+
+            @Override
+            public void onSearchFailed() {
+                // the tab must be searched again
+                if (generation == mGeneration) {
+                    mSearchedPatterns.remove(tab);
+                }
+                onDone(0);
+            }
+
+            private void onDone(int count) {
+                if (generation != mGeneration) {
+                    Log.d(LOG_TAG, "## dispatch() : ignore the superseded results of the tab " + tab);
+                    return;
+                }
+
+                mInFlightTab = -1;
+                mListener.onSearchEnd(tab, count);
+            }
+        });
+
+        mSearchesCount++;
+        mDispatchDurationNs += System.nanoTime() - startTime;
+
+        return res;
+    }
+
+    /**
+     * Cancel the in-flight search.
+     */
+    public void cancel() {
+        if (mInFlightTab >= 0) {
+            mDelegate.cancelSearch(mInFlightTab);
+            // the tab content is not anymore reliable
+            mSearchedPatterns.remove(mInFlightTab);
+            mInFlightTab = -1;
+            mSupersededCount++;
+        }
+
+        // ignore the pending results
+        mGeneration++;
+    }
+
+    /**
+     * @return a description of the dispatched searches
+     */
+    public String getStats() {
+        long average = (0 == mSearchesCount) ? 0 : (mDispatchDurationNs / mSearchesCount);
+        return mSearchesCount + " searches (average dispatch " + (average / 1000) + " us), " + mSkippedCount + " skipped, " + mSupersededCount + " superseded";
+    }
+}
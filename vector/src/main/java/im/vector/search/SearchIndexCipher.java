@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.search;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.text.TextUtils;
+import android.util.Base64;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per session secrets of a local search index.
+ * The stored texts are encrypted (AES-CBC then HMAC-SHA256) and the indexed tokens are keyed hashes,
+ * so the index files do not contain any clear text.
+ * The encryption, MAC and token hash keys are derived from the session key material, which is
+ * wrapped by an Android keystore key: the local indexes are not available when the device does not
+ * support it (see {@link #isSupported()}).
+ * The index databases written with another key material must be deleted (see {@link #bindDatabase(String)}).
+ * This class is not thread safe.
+ */
+class SearchIndexCipher {
+    private static final String LOG_TAG = SearchIndexCipher.class.getSimpleName();
+
+    private static final String PREFS_NAME = "SearchIndexCipher";
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String KEY_STORE_ALIAS_PREFIX = "riot_search_index_";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the key material, the keys are derived from it
+    private static final int KEY_MATERIAL_LENGTH = 32;
+    private static final int KEY_ID_LENGTH = 8;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+
+    // number of bytes kept from the token hash
+    private static final int TOKEN_HASH_LENGTH = 10;
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec mAesKey;
+    private final SecretKeySpec mMacKey;
+    private final Mac mTokenMac;
+    // identifies the key material without revealing it
+    private final String mKeyId;
+    private final SharedPreferences mPreferences;
+    private final SecureRandom mSecureRandom = new SecureRandom();
+
+    /**
+     * Constructor
+     *
+     * @param context the context
+     * @param userId  the session user id
+     * @throws Exception if the key cannot be loaded nor created
+     */
+    SearchIndexCipher(Context context, String userId) throws Exception {
+        byte[] keyMaterial;
+
+        // the key is shared by the session indexes
+        synchronized (SearchIndexCipher.class) {
+            keyMaterial = loadOrCreateKeyMaterial(context, userId);
+        }
+
+        mAesKey = new SecretKeySpec(deriveKey(keyMaterial, "aes"), "AES");
+        mMacKey = new SecretKeySpec(deriveKey(keyMaterial, "mac"), "HmacSHA256");
+
+        mTokenMac = Mac.getInstance("HmacSHA256");
+        mTokenMac.init(new SecretKeySpec(deriveKey(keyMaterial, "token"), "HmacSHA256"));
+
+        mKeyId = toHex(deriveKey(keyMaterial, "id"), KEY_ID_LENGTH);
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Tells if the local search indexes can be used on this device.
+     * The key material is never stored unwrapped, so the Android keystore symmetric keys (API 23) are required.
+     *
+     * @return true if the indexes are supported
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * Derive a key from the key material (HKDF expand with a single block).
+     *
+     * @param keyMaterial the key material
+     * @param info        the key purpose
+     * @return the 32 bytes key
+     * @throws Exception if the MAC is not supported
+     */
+    private static byte[] deriveKey(byte[] keyMaterial, String info) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(keyMaterial, "HmacSHA256"));
+        mac.update(info.getBytes(UTF8));
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+
+    /**
+     * Bind an index database to the current key material.
+     * It must be called before reading the database.
+     *
+     * @param databaseName the database name
+     * @return true if the database has been written with another key material, it must then be deleted
+     */
+    boolean bindDatabase(String databaseName) {
+        String prefKey = "key_id_" + databaseName;
+
+        synchronized (SearchIndexCipher.class) {
+            if (TextUtils.equals(mKeyId, mPreferences.getString(prefKey, null))) {
+                return false;
+            }
+
+            mPreferences.edit().putString(prefKey, mKeyId).commit();
+        }
+
+        Log.d(LOG_TAG, "## bindDatabase() : " + databaseName + " has been written with another key");
+        return true;
+    }
+
+    /**
+     * Compute a collision free identifier of a session, to name its files and keys.
+     *
+     * @param userId the user id
+     * @return the hexadecimal SHA-256 of the user id
+     */
+    static String getSessionId(String userId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(userId.getBytes(UTF8));
+            return toHex(hash, hash.length);
+        } catch (Exception e) {
+            // SHA-256 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convert bytes to an hexadecimal string.
+     *
+     * @param bytes  the bytes
+     * @param length the number of bytes to convert
+     * @return the hexadecimal string
+     */
+    private static String toHex(byte[] bytes, int length) {
+        char[] hex = new char[length * 2];
+
+        for (int i = 0; i < length; i++) {
+            hex[2 * i] = HEX_CHARS[(bytes[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX_CHARS[bytes[i] & 0x0F];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Delete the key of a session.
+     *
+     * @param context the context
+     * @param userId  the session user id
+     */
+    static void deleteKey(Context context, String userId) {
+        String alias = getAlias(userId);
+
+        synchronized (SearchIndexCipher.class) {
+            SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            SharedPreferences.Editor editor = preferences.edit().remove(alias);
+
+            // the databases bindings
+            for (String key : preferences.getAll().keySet()) {
+                if (key.startsWith("key_id_") && key.contains(getSessionId(userId))) {
+                    editor.remove(key);
+                }
+            }
+
+            editor.commit();
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+                keyStore.load(null);
+                keyStore.deleteEntry(alias);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## deleteKey() failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compute the key alias of a session.
+     *
+     * @param userId the user id
+     * @return the alias
+     */
+    private static String getAlias(String userId) {
+        return KEY_STORE_ALIAS_PREFIX + getSessionId(userId);
+    }
+
+    /**
+     * Load the session key material or create it.
+     *
+     * @param context the context
+     * @param userId  the user id
+     * @return the key material
+     * @throws Exception if the key cannot be loaded nor created
+     */
+    private byte[] loadOrCreateKeyMaterial(Context context, String userId) throws Exception {
+        if (!isSupported()) {
+            throw new Exception("the keystore cannot wrap the key");
+        }
+
+        SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String alias = getAlias(userId);
+        String storedValue = preferences.getString(alias, null);
+
+        if (!TextUtils.isEmpty(storedValue)) {
+            try {
+                return unwrapKeyMaterial(alias, Base64.decode(storedValue, Base64.NO_WRAP));
+            } catch (Exception e) {
+                // a new key is created, the index databases are deleted when they are bound to it
+                Log.e(LOG_TAG, "## loadOrCreateKeyMaterial() : cannot load the key " + e.getMessage());
+            }
+        }
+
+        byte[] keyMaterial = new byte[KEY_MATERIAL_LENGTH];
+        mSecureRandom.nextBytes(keyMaterial);
+
+        preferences.edit().putString(alias, Base64.encodeToString(wrapKeyMaterial(alias, keyMaterial), Base64.NO_WRAP)).apply();
+
+        return keyMaterial;
+    }
+
+    /**
+     * Encrypt the key material with a keystore key.
+     *
+     * @param alias       the keystore alias
+     * @param keyMaterial the key material
+     * @return the IV followed by the encrypted key material
+     * @throws Exception if the keystore fails
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] wrapKeyMaterial(String alias, byte[] keyMaterial) throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        keyGenerator.init(new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        SecretKey wrappingKey = keyGenerator.generateKey();
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey);
+
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(keyMaterial);
+
+        byte[] res = new byte[1 + iv.length + encrypted.length];
+        res[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, res, 1, iv.length);
+        System.arraycopy(encrypted, 0, res, 1 + iv.length, encrypted.length);
+        return res;
+    }
+
+    /**
+     * Decrypt the key material with the keystore key.
+     *
+     * @param alias   the keystore alias
+     * @param wrapped the wrapped key material
+     * @return the key material
+     * @throws Exception if the keystore fails
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] unwrapKeyMaterial(String alias, byte[] wrapped) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+        keyStore.load(null);
+        SecretKey wrappingKey = (SecretKey) keyStore.getKey(alias, null);
+
+        int ivLength = wrapped[0];
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, wrappingKey, new GCMParameterSpec(128, wrapped, 1, ivLength));
+
+        return cipher.doFinal(wrapped, 1 + ivLength, wrapped.length - 1 - ivLength);
+    }
+
+    /**
+     * Encrypt a text.
+     *
+     * @param text the text
+     * @return the IV, the cipher text and the MAC
+     * @throws Exception if the encryption fails
+     */
+    byte[] encrypt(String text) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        mSecureRandom.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, mAesKey, new IvParameterSpec(iv));
+        byte[] encrypted = cipher.doFinal(text.getBytes(UTF8));
+
+        byte[] res = new byte[IV_LENGTH + encrypted.length + MAC_LENGTH];
+        System.arraycopy(iv, 0, res, 0, IV_LENGTH);
+        System.arraycopy(encrypted, 0, res, IV_LENGTH, encrypted.length);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(mMacKey);
+        mac.update(res, 0, IV_LENGTH + encrypted.length);
+        System.arraycopy(mac.doFinal(), 0, res, IV_LENGTH + encrypted.length, MAC_LENGTH);
+
+        return res;
+    }
+
+    /**
+     * Decrypt a text encrypted with {@link #encrypt(String)}.
+     *
+     * @param data the encrypted data
+     * @return the text
+     * @throws Exception if the data is corrupted
+     */
+    String decrypt(byte[] data) throws Exception {
+        int encryptedLength = data.length - IV_LENGTH - MAC_LENGTH;
+
+        if (encryptedLength <= 0) {
+            throw new IllegalArgumentException("invalid length");
+        }
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(mMacKey);
+        mac.update(data, 0, IV_LENGTH + encryptedLength);
+
+        if (!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(data, IV_LENGTH + encryptedLength, data.length))) {
+            throw new SecurityException("invalid MAC");
+        }
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, mAesKey, new IvParameterSpec(data, 0, IV_LENGTH));
+
+        return new String(cipher.doFinal(data, IV_LENGTH, encryptedLength), UTF8);
+    }
+
+    /**
+     * Compute the keyed hash of an index token.
+     * The domain separates the words and the prefixes hashes.
+     *
+     * @param domain the token domain
+     * @param token  the token
+     * @return the hash as an hexadecimal string
+     */
+    String hashToken(char domain, String token) {
+        mTokenMac.update((byte) domain);
+        return toHex(mTokenMac.doFinal(token.getBytes(UTF8)), TOKEN_HASH_LENGTH);
+    }
+}
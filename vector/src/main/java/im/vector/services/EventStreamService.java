@@ -73,6 +73,7 @@ import im.vector.gcm.GcmRegistrationManager;
 import im.vector.receiver.DismissNotificationReceiver;
 import im.vector.util.CallsManager;
 import im.vector.util.NotificationUtils;
+import im.vector.util.PushRulesEvaluator;
 import im.vector.util.RiotEventDisplay;
 
 /**
@@ -1222,8 +1223,8 @@ public class EventStreamService extends Service {
                     Log.d(LOG_TAG, "## onMessageReceivedInternal() : trigger a notification " + notifiedLine);
 
                     mBackgroundNotificationStrings.add(0, notifiedLine);
-                    BingRulesManager bingRulesManager = session.getDataHandler().getBingRulesManager();
-                    BingRule rule = bingRulesManager.isReady() ? bingRulesManager.fulfilledBingRule(event) : new BingRule(false);
+                    PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(session);
+                    BingRule rule = ((null != pushRulesEvaluator) && pushRulesEvaluator.isReady()) ? pushRulesEvaluator.getRule(event) : new BingRule(false);
 
                     displayMessagesNotification(mBackgroundNotificationStrings, rule);
                 }
@@ -1439,6 +1440,8 @@ public class EventStreamService extends Service {
             return false;
         }
 
+        PushRulesEvaluator pushRulesEvaluator = PushRulesEvaluator.getInstance(session);
+
         if (!store.areReceiptsReady()) {
             return false;
         }
@@ -1464,7 +1467,7 @@ public class EventStreamService extends Service {
                             } else if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType())) {
                                 try {
                                     if ("invite".equals(event.getContentAsJsonObject().getAsJsonPrimitive("membership").getAsString())) {
-                                        BingRule rule = session.fulfillRule(event);
+                                        BingRule rule = pushRulesEvaluator.getRule(event);
 
                                         if ((null != rule) && rule.isEnabled && rule.shouldNotify()) {
                                             List<NotificationUtils.NotifiedEvent> list = new ArrayList<>();
@@ -1487,7 +1490,7 @@ public class EventStreamService extends Service {
 
                             for (Event event : unreadEvents) {
                                 if (event.getOriginServerTs() > minTs) {
-                                    BingRule rule = session.fulfillRule(event);
+                                    BingRule rule = pushRulesEvaluator.getRule(event);
 
                                     if ((null != rule) && rule.isEnabled && rule.shouldNotify()) {
                                         list.add(new NotificationUtils.NotifiedEvent(event.roomId, event.eventId, rule, event.getOriginServerTs()));
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.widget.ImageView;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import im.vector.R;
+
+/**
+ * Load the user avatars in image views.
+ * - the cached avatars are set synchronously,
+ * - the letter avatars are built on a small workers pool, one build per letter and color,
+ * - the most recent requests are served first (i.e. the visible rows after a fling),
+ * - a new request on an image view cancels the previous one.
+ * The avatar downloads are coalesced by the medias cache.
+ * The methods must be called from the UI thread.
+ */
+public class AvatarLoader {
+    private static final String LOG_TAG = AvatarLoader.class.getSimpleName();
+
+    private static final int WORKERS_COUNT = 2;
+
+    private static AvatarLoader mInstance = null;
+
+    /**
+     * An avatar request for an image view.
+     * The image view is weakly referenced: it is the key of the pending requests map
+     * and the pending jobs must not retain the views (and their activity).
+     */
+    private static class Request {
+        final WeakReference<ImageView> mImageView;
+        final MXSession mSession;
+        final String mAvatarUrl;
+        final int mSize;
+        boolean mIsCancelled;
+
+        Request(ImageView imageView, MXSession session, String avatarUrl, int size) {
+            mImageView = new WeakReference<>(imageView);
+            mSession = session;
+            mAvatarUrl = avatarUrl;
+            mSize = size;
+        }
+    }
+
+    /**
+     * A letter avatar build, shared by the requests with the same letter and color.
+     */
+    private class Job implements Runnable, Comparable<Job> {
+        final Context mContext;
+        final String mKey;
+        final int mColor;
+        final String mText;
+        // the most recent jobs have the highest sequence number
+        long mSequence;
+        final List<Request> mRequests = new ArrayList<>();
+
+        Job(Context context, String key, int color, String text) {
+            mContext = context;
+            mKey = key;
+            mColor = color;
+            mText = text;
+        }
+
+        /**
+         * @return true if at least one request has not been cancelled and its image view has not been released
+         */
+        boolean hasLiveRequests() {
+            synchronized (mJobs) {
+                for (Request request : mRequests) {
+                    if (!request.mIsCancelled && (null != request.mImageView.get())) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = hasLiveRequests() ? VectorUtils.getAvatar(mContext, mColor, mText, true) : null;
+
+            mUIHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onJobDone(Job.this, bitmap);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            // LIFO
+            return (mSequence == other.mSequence) ? 0 : ((mSequence > other.mSequence) ? -1 : 1);
+        }
+    }
+
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    // pending jobs by letter avatar key
+    private final Map<String, Job> mJobs = new HashMap<>();
+
+    // pending request by image view
+    private final Map<ImageView, Request> mRequestByView = new WeakHashMap<>();
+
+    private long mSequence = 0;
+
+    // statistics
+    private long mBindsCount = 0;
+    private long mBindsDurationNs = 0;
+    private int mMaxQueueDepth = 0;
+
+    /**
+     * @return the shared instance
+     */
+    public static synchronized AvatarLoader getInstance() {
+        if (null == mInstance) {
+            mInstance = new AvatarLoader();
+        }
+
+        return mInstance;
+    }
+
+    private AvatarLoader() {
+        mExecutor = new ThreadPoolExecutor(WORKERS_COUNT, WORKERS_COUNT, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AvatarLoader");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return a description of the binds cost and of the queue depth
+     */
+    public String getStats() {
+        long averageNs = (0 == mBindsCount) ? 0 : (mBindsDurationNs / mBindsCount);
+        return mBindsCount + " binds (average " + (averageNs / 1000) + " us), queue " + mExecutor.getQueue().size() + " (max " + mMaxQueueDepth + ")";
+    }
+
+    /**
+     * Set the user avatar in an imageView.
+     *
+     * @param context     the context
+     * @param session     the session
+     * @param imageView   the image view
+     * @param avatarUrl   the avatar url
+     * @param userId      the user id
+     * @param displayName the user display name
+     */
+    public void load(Context context, MXSession session, ImageView imageView, String avatarUrl, String userId, String displayName) {
+        long startTime = System.nanoTime();
+
+        // cancel the previous request
+        cancel(imageView);
+
+        // reset the imageView tag (it is used by the medias cache to check the recycled views)
+        imageView.setTag(null);
+
+        int size = context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size);
+        MXMediasCache mediasCache = session.getMediasCache();
+
+        if (!TextUtils.isEmpty(avatarUrl) && mediasCache.isAvatarThumbnailCached(avatarUrl, size)) {
+            mediasCache.loadAvatarThumbnail(session.getHomeServerConfig(), imageView, avatarUrl, size);
+        } else {
+            int color = VectorUtils.getAvatarColor(userId);
+            String text = TextUtils.isEmpty(displayName) ? userId : displayName;
+            Bitmap letterAvatar = VectorUtils.getAvatar(imageView.getContext(), color, text, false);
+            String url = MXMediasCache.isMediaUrlUnreachable(avatarUrl) ? null : avatarUrl;
+
+            if (null != letterAvatar) {
+                // the letter avatar is displayed until the avatar is downloaded
+                if (null != url) {
+                    mediasCache.loadAvatarThumbnail(session.getHomeServerConfig(), imageView, url, size, letterAvatar);
+                } else {
+                    imageView.setImageBitmap(letterAvatar);
+                }
+            } else {
+                Request request = new Request(imageView, session, url, size);
+                mRequestByView.put(imageView, request);
+                enqueue(imageView.getContext(), VectorUtils.getInitialLetter(text) + "_" + color, color, text, request);
+            }
+        }
+
+        mBindsCount++;
+        mBindsDurationNs += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Cancel the pending request of an image view.
+     *
+     * @param imageView the image view
+     */
+    public void cancel(ImageView imageView) {
+        Request request = mRequestByView.remove(imageView);
+
+        if (null != request) {
+            synchronized (mJobs) {
+                request.mIsCancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Add a request to the letter avatar job.
+     *
+     * @param context the context
+     * @param key     the letter avatar key
+     * @param color   the avatar color
+     * @param text    the avatar text
+     * @param request the request
+     */
+    private void enqueue(Context context, String key, int color, String text, Request request) {
+        Job job;
+        boolean isNewJob = false;
+
+        synchronized (mJobs) {
+            job = mJobs.get(key);
+
+            if (null == job) {
+                job = new Job(context.getApplicationContext(), key, color, text);
+                mJobs.put(key, job);
+                isNewJob = true;
+            }
+
+            job.mRequests.add(request);
+        }
+
+        if (isNewJob) {
+            job.mSequence = mSequence++;
+            mExecutor.execute(job);
+        } else if (mExecutor.getQueue().remove(job)) {
+            // the job is requested again : serve it first
+            job.mSequence = mSequence++;
+            mExecutor.execute(job);
+        }
+
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, mExecutor.getQueue().size());
+    }
+
+    /**
+     * A letter avatar has been built.
+     *
+     * @param job    the job
+     * @param bitmap the letter avatar, null if the job has been cancelled
+     */
+    private void onJobDone(Job job, Bitmap bitmap) {
+        List<Request> requests;
+
+        synchronized (mJobs) {
+            mJobs.remove(job.mKey);
+            requests = new ArrayList<>(job.mRequests);
+        }
+
+        for (Request request : requests) {
+            ImageView imageView = request.mImageView.get();
+
+            // the image view has been released
+            if (request.mIsCancelled || (null == imageView)) {
+                continue;
+            }
+
+            mRequestByView.remove(imageView);
+
+            // the requests cancelled before the build
+            if (null == bitmap) {
+                bitmap = VectorUtils.getAvatar(job.mContext, job.mColor, job.mText, true);
+            }
+
+            try {
+                if ((null != request.mAvatarUrl) && request.mSession.isAlive()) {
+                    request.mSession.getMediasCache().loadAvatarThumbnail(request.mSession.getHomeServerConfig(), imageView, request.mAvatarUrl, request.mSize, bitmap);
+                } else {
+                    imageView.setImageBitmap(bitmap);
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## onJobDone() failed " + e.getMessage());
+            }
+        }
+    }
+}
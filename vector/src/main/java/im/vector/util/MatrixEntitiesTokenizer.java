@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+/**
+ * Find the matrix items (permalinks, user ids, aliases, room ids and message ids) of a text in a single pass.
+ * It matches the same items as the MXSession.PATTERN_CONTAIN_XXX regular expressions :
+ * - user id      : @[A-Z0-9._=-]+:server
+ * - alias        : #[A-Z0-9._%#+-]+:server
+ * - room id      : ![A-Z0-9]+:server
+ * - message id   : $[A-Z0-9]+:server
+ * - permalinks   : https://matrix.to/#/(room id|alias)/message id
+ * - app links    : https://domain/path/#/room/(room id|alias)/message id
+ * with server = [A-Z0-9.-]+\.[A-Z]{2,}(:[0-9]{2,})? (case insensitive).
+ * The items preceded by a '/' are ignored.
+ */
+public class MatrixEntitiesTokenizer {
+
+    // the item types
+    public static final int TYPE_MATRIX_TO_PERMALINK_ROOM_ID = 0;
+    public static final int TYPE_MATRIX_TO_PERMALINK_ROOM_ALIAS = 1;
+    public static final int TYPE_APP_LINK_PERMALINK_ROOM_ID = 2;
+    public static final int TYPE_APP_LINK_PERMALINK_ROOM_ALIAS = 3;
+    public static final int TYPE_USER_IDENTIFIER = 4;
+    public static final int TYPE_ALIAS = 5;
+    public static final int TYPE_ROOM_IDENTIFIER = 6;
+    public static final int TYPE_MESSAGE_IDENTIFIER = 7;
+
+    private static final String HTTPS_PREFIX = "https://";
+    private static final String MATRIX_TO_PREFIX = "https://matrix.to/#/";
+    private static final String APP_LINK_ROOM_PATH = "/#/room/";
+
+    // no result
+    private static final int[] NO_TOKENS = new int[0];
+
+    /**
+     * Find the matrix items of a text.
+     *
+     * @param text the text
+     * @return the items as (start, end, type) triplets, sorted by start position
+     */
+    public static int[] tokenize(CharSequence text) {
+        int length = text.length();
+        int[] tokens = NO_TOKENS;
+        int count = 0;
+        int pos = 0;
+
+        while (pos < length) {
+            char c = text.charAt(pos);
+            int end = -1;
+            int type = -1;
+
+            if (('h' == c) || ('H' == c)) {
+                // permalinks
+                if (regionMatches(text, pos, MATRIX_TO_PREFIX)) {
+                    int itemStart = pos + MATRIX_TO_PREFIX.length();
+                    end = parsePermalinkTail(text, itemStart);
+
+                    if (end > 0) {
+                        type = ('!' == text.charAt(itemStart)) ? TYPE_MATRIX_TO_PERMALINK_ROOM_ID : TYPE_MATRIX_TO_PERMALINK_ROOM_ALIAS;
+                    }
+                }
+
+                if ((end < 0) && regionMatches(text, pos, HTTPS_PREFIX)) {
+                    int itemStart = parseAppLinkPrefix(text, pos + HTTPS_PREFIX.length());
+
+                    if (itemStart > 0) {
+                        end = parsePermalinkTail(text, itemStart);
+
+                        if (end > 0) {
+                            type = ('!' == text.charAt(itemStart)) ? TYPE_APP_LINK_PERMALINK_ROOM_ID : TYPE_APP_LINK_PERMALINK_ROOM_ALIAS;
+                        }
+                    }
+                }
+            } else if (('@' == c) || ('#' == c) || ('!' == c) || ('$' == c)) {
+                end = parseIdentifier(text, pos);
+
+                if (end > 0) {
+                    type = ('@' == c) ? TYPE_USER_IDENTIFIER : (('#' == c) ? TYPE_ALIAS : (('!' == c) ? TYPE_ROOM_IDENTIFIER : TYPE_MESSAGE_IDENTIFIER));
+                }
+            }
+
+            if (end < 0) {
+                pos++;
+                continue;
+            }
+
+            // the items inside an URL path are not managed
+            if ((0 == pos) || ('/' != text.charAt(pos - 1))) {
+                if (tokens.length < (count + 3)) {
+                    int[] newTokens = new int[Math.max(12, tokens.length * 2)];
+                    System.arraycopy(tokens, 0, newTokens, 0, count);
+                    tokens = newTokens;
+                }
+
+                tokens[count++] = pos;
+                tokens[count++] = end;
+                tokens[count++] = type;
+            }
+
+            pos = end;
+        }
+
+        if (count != tokens.length) {
+            int[] trimmedTokens = new int[count];
+            System.arraycopy(tokens, 0, trimmedTokens, 0, count);
+            tokens = trimmedTokens;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Case insensitive prefix check.
+     *
+     * @param text   the text
+     * @param pos    the position in the text
+     * @param prefix the lower case prefix
+     * @return true if the text contains the prefix at this position
+     */
+    private static boolean regionMatches(CharSequence text, int pos, String prefix) {
+        if ((pos + prefix.length()) > text.length()) {
+            return false;
+        }
+
+        for (int index = 0; index < prefix.length(); index++) {
+            if (Character.toLowerCase(text.charAt(pos + index)) != prefix.charAt(index)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the character is an ASCII letter
+     */
+    private static boolean isLetter(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+    }
+
+    /**
+     * @return true if the character is an ASCII digit
+     */
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    /**
+     * @return true if the character is allowed in a domain name
+     */
+    private static boolean isDomainCharacter(char c) {
+        return isLetter(c) || isDigit(c) || ('.' == c) || ('-' == c);
+    }
+
+    /**
+     * Tell if a character is allowed in the local part of an identifier.
+     *
+     * @param sigil the identifier sigil
+     * @param c     the character
+     * @return true if it is allowed
+     */
+    private static boolean isLocalPartCharacter(char sigil, char c) {
+        if (isLetter(c) || isDigit(c)) {
+            return true;
+        }
+
+        switch (sigil) {
+            case '@':
+                return ('.' == c) || ('_' == c) || ('=' == c) || ('-' == c);
+            case '#':
+                return ('.' == c) || ('_' == c) || ('%' == c) || ('#' == c) || ('+' == c) || ('-' == c);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parse a server name : [A-Z0-9.-]+\.[A-Z]{2,}(:[0-9]{2,})?
+     *
+     * @param text  the text
+     * @param start the server name start position
+     * @return the server name end position, -1 if there is no server name
+     */
+    private static int parseServer(CharSequence text, int start) {
+        int length = text.length();
+        int runEnd = start;
+
+        while ((runEnd < length) && isDomainCharacter(text.charAt(runEnd))) {
+            runEnd++;
+        }
+
+        // the top level domain follows the latest dot followed by at least two letters
+        int end = -1;
+
+        for (int dot = runEnd - 3; dot > start; dot--) {
+            if (('.' == text.charAt(dot)) && isLetter(text.charAt(dot + 1)) && isLetter(text.charAt(dot + 2))) {
+                end = dot + 3;
+
+                while ((end < length) && isLetter(text.charAt(end))) {
+                    end++;
+                }
+                break;
+            }
+        }
+
+        // the port
+        if ((end > 0) && ((end + 2) < length) && (':' == text.charAt(end)) && isDigit(text.charAt(end + 1)) && isDigit(text.charAt(end + 2))) {
+            end += 3;
+
+            while ((end < length) && isDigit(text.charAt(end))) {
+                end++;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Parse an identifier : sigil, local part, ':' and server name.
+     *
+     * @param text  the text
+     * @param start the sigil position
+     * @return the identifier end position, -1 if there is no identifier
+     */
+    private static int parseIdentifier(CharSequence text, int start) {
+        int length = text.length();
+        char sigil = text.charAt(start);
+        int pos = start + 1;
+
+        while ((pos < length) && isLocalPartCharacter(sigil, text.charAt(pos))) {
+            pos++;
+        }
+
+        if ((pos == (start + 1)) || (pos >= length) || (':' != text.charAt(pos))) {
+            return -1;
+        }
+
+        return parseServer(text, pos + 1);
+    }
+
+    /**
+     * Parse the end of a permalink : a room id or an alias, '/' and a message id.
+     *
+     * @param text  the text
+     * @param start the room id or alias position
+     * @return the permalink end position, -1 if there is no permalink
+     */
+    private static int parsePermalinkTail(CharSequence text, int start) {
+        int length = text.length();
+
+        if ((start >= length) || (('!' != text.charAt(start)) && ('#' != text.charAt(start)))) {
+            return -1;
+        }
+
+        int end = parseIdentifier(text, start);
+
+        if ((end < 0) || ((end + 1) >= length) || ('/' != text.charAt(end)) || ('$' != text.charAt(end + 1))) {
+            return -1;
+        }
+
+        return parseIdentifier(text, end + 1);
+    }
+
+    /**
+     * Parse the app link part after "https://" : [A-Z0-9.-]+\.[A-Z]{2,}/[A-Z]{3,}/#/room/
+     *
+     * @param text  the text
+     * @param start the domain position
+     * @return the room id or alias position, -1 if it is not an app link
+     */
+    private static int parseAppLinkPrefix(CharSequence text, int start) {
+        int length = text.length();
+        int pos = start;
+
+        while ((pos < length) && isDomainCharacter(text.charAt(pos))) {
+            pos++;
+        }
+
+        // the domain must end with a dot and at least two letters
+        int dot = pos - 1;
+
+        while ((dot > start) && isLetter(text.charAt(dot))) {
+            dot--;
+        }
+
+        if ((dot <= start) || ('.' != text.charAt(dot)) || ((pos - dot) < 3) || (pos >= length) || ('/' != text.charAt(pos))) {
+            return -1;
+        }
+
+        // the path
+        int pathStart = ++pos;
+
+        while ((pos < length) && isLetter(text.charAt(pos))) {
+            pos++;
+        }
+
+        if (((pos - pathStart) < 3) || !regionMatches(text, pos, APP_LINK_ROOM_PATH)) {
+            return -1;
+        }
+
+        return pos + APP_LINK_ROOM_PATH.length();
+    }
+}
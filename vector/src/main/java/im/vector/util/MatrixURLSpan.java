@@ -22,6 +22,7 @@ import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.provider.Browser;
+import android.support.v4.util.LruCache;
 import android.text.ParcelableSpan;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
@@ -33,7 +34,6 @@ import org.matrix.androidsdk.util.Log;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import im.vector.listeners.IMessagesAdapterActionsListener;
@@ -147,7 +147,7 @@ public class MatrixURLSpan extends ClickableSpan implements ParcelableSpan {
         }
     }
 
-    // list of patterns to find some matrix item.
+    // the patterns of the MatrixEntitiesTokenizer item types
     private static final List<Pattern> mMatrixItemPatterns = Arrays.asList(
             MXSession.PATTERN_CONTAIN_MATRIX_TO_PERMALINK_ROOM_ID,
             MXSession.PATTERN_CONTAIN_MATRIX_TO_PERMALINK_ROOM_ALIAS,
@@ -159,37 +159,79 @@ public class MatrixURLSpan extends ClickableSpan implements ParcelableSpan {
             MXSession.PATTERN_CONTAIN_MATRIX_MESSAGE_IDENTIFIER
     );
 
+    /**
+     * The matrix items of a text.
+     */
+    private static class TextTokens {
+        // the text version
+        final int mTextLength;
+        final int mTextHashCode;
+        // the (start, end, type) triplets
+        final int[] mTokens;
+
+        TextTokens(String text, int[] tokens) {
+            mTextLength = text.length();
+            mTextHashCode = text.hashCode();
+            mTokens = tokens;
+        }
+    }
+
+    private static final int MAX_CACHED_TEXT_TOKENS = 500;
+
+    // the matrix items by event id
+    private static final LruCache<String, TextTokens> mTokensByEventId = new LruCache<>(MAX_CACHED_TEXT_TOKENS);
+
     /**
      * Find the matrix spans i.e matrix id , user id ... to display them as URL.
      *
      * @param stringBuilder the text in which the matrix items has to be clickable.
      */
     public static void refreshMatrixSpans(SpannableStringBuilder stringBuilder, IMessagesAdapterActionsListener mActionsListener) {
+        refreshMatrixSpans(stringBuilder, null, mActionsListener);
+    }
+
+    /**
+     * Find the matrix spans i.e matrix id , user id ... to display them as URL.
+     * The matrix items are cached by event id and text version.
+     *
+     * @param stringBuilder    the text in which the matrix items has to be clickable.
+     * @param eventId          the id of the event which is displayed, null if the text is not cached
+     * @param mActionsListener the click listener
+     */
+    public static void refreshMatrixSpans(SpannableStringBuilder stringBuilder, String eventId, IMessagesAdapterActionsListener mActionsListener) {
         // sanity checks
         if ((null == stringBuilder) || (0 == stringBuilder.length())) {
             return;
         }
 
         String text = stringBuilder.toString();
+        int[] tokens = null;
 
-        for (int index = 0; index < mMatrixItemPatterns.size(); index++) {
-            Pattern pattern = mMatrixItemPatterns.get(index);
+        if (null != eventId) {
+            TextTokens textTokens = mTokensByEventId.get(eventId);
 
-            // room id.
-            Matcher matcher = pattern.matcher(stringBuilder);
-            while (matcher.find()) {
+            // the text is the same (e.g. the event has not been edited or redacted)
+            if ((null != textTokens) && (textTokens.mTextLength == text.length()) && (textTokens.mTextHashCode == text.hashCode())) {
+                tokens = textTokens.mTokens;
+            }
+        }
 
-                try {
-                    int startPos = matcher.start(0);
+        if (null == tokens) {
+            tokens = MatrixEntitiesTokenizer.tokenize(text);
 
-                    if ((startPos == 0) || (text.charAt(startPos - 1) != '/')) {
-                        int endPos = matcher.end(0);
-                        String url = text.substring(matcher.start(0), matcher.end(0));
-                        stringBuilder.setSpan(new MatrixURLSpan(url, pattern, mActionsListener), startPos, endPos, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "refreshMatrixSpans " + e.getLocalizedMessage());
-                }
+            if (null != eventId) {
+                mTokensByEventId.put(eventId, new TextTokens(text, tokens));
+            }
+        }
+
+        for (int index = 0; index < tokens.length; index += 3) {
+            try {
+                int startPos = tokens[index];
+                int endPos = tokens[index + 1];
+                String url = text.substring(startPos, endPos);
+                stringBuilder.setSpan(new MatrixURLSpan(url, mMatrixItemPatterns.get(tokens[index + 2]), mActionsListener), startPos, endPos, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "refreshMatrixSpans " + e.getLocalizedMessage());
             }
         }
     }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.widget.ArrayAdapter;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.adapters.MessageRow;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.rest.model.VideoMessage;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the image and video messages displayed by a messages adapter.
+ * - the media rows are tracked when the adapter rows are added or removed, the adapter rows are scanned only when
+ * they have been reordered or bulk inserted,
+ * - the slidable media info of a row is built once and kept until its content changes (e.g. redaction),
+ * - the rows which are not yet decrypted are checked again when the medias are requested,
+ * - the events which are not images or videos are detected without deserializing their content.
+ * The methods must be called from the UI thread.
+ */
+public class MediaMessagesIndex {
+    private static final String LOG_TAG = MediaMessagesIndex.class.getSimpleName();
+
+    /**
+     * An indexed media row.
+     */
+    private static class MediaRow {
+        final MessageRow mRow;
+        // the content used to build the info
+        JsonElement mContent;
+        SlidableMediaInfo mInfo;
+
+        MediaRow(MessageRow row, JsonElement content, SlidableMediaInfo info) {
+            mRow = row;
+            mContent = content;
+            mInfo = info;
+        }
+    }
+
+    private final ArrayAdapter<MessageRow> mAdapter;
+
+    // the media rows, in the adapter order
+    private final ArrayList<MediaRow> mMediaRows = new ArrayList<>();
+
+    // the rows which are not yet decrypted, they might be medias
+    private final List<MessageRow> mEncryptedRows = new ArrayList<>();
+
+    // the medias list, in the adapter order
+    private ArrayList<SlidableMediaInfo> mMediasList = new ArrayList<>();
+    private final Map<String, Integer> mPositionByEventId = new HashMap<>();
+
+    // true when the adapter rows must be scanned again
+    private boolean mIsDirty = true;
+
+    // true when the medias list must be built again from the media rows
+    private boolean mIsMediasListDirty = true;
+
+    /**
+     * Constructor
+     *
+     * @param adapter the messages adapter
+     */
+    public MediaMessagesIndex(ArrayAdapter<MessageRow> adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * The adapter rows have been reordered or inserted without being tracked.
+     */
+    public void invalidate() {
+        mIsDirty = true;
+    }
+
+    /**
+     * An adapter row has been added.
+     *
+     * @param row     the row
+     * @param toFront true if it has been added before the media rows, else after them
+     */
+    public void addRow(MessageRow row, boolean toFront) {
+        if (mIsDirty) {
+            return;
+        }
+
+        Event event = row.getEvent();
+
+        if (Event.EVENT_TYPE_MESSAGE_ENCRYPTED.equals(event.getType())) {
+            mEncryptedRows.add(row);
+            return;
+        }
+
+        SlidableMediaInfo info = toSlidableMediaInfo(event);
+
+        if (null != info) {
+            mMediaRows.add(toFront ? 0 : mMediaRows.size(), new MediaRow(row, event.getContent(), info));
+            mIsMediasListDirty = true;
+        }
+    }
+
+    /**
+     * An adapter row has been removed.
+     *
+     * @param row the row
+     */
+    public void removeRow(MessageRow row) {
+        if (mIsDirty) {
+            return;
+        }
+
+        for (Iterator<MediaRow> iterator = mMediaRows.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().mRow == row) {
+                iterator.remove();
+                mIsMediasListDirty = true;
+                return;
+            }
+        }
+
+        mEncryptedRows.remove(row);
+    }
+
+    /**
+     * The event id of an adapter row has been updated (e.g. the echo of a sent event).
+     */
+    public void onEventIdUpdated() {
+        mIsMediasListDirty = true;
+    }
+
+    /**
+     * The adapter rows have been cleared.
+     */
+    public void clear() {
+        mMediaRows.clear();
+        mEncryptedRows.clear();
+        mIsDirty = false;
+        mIsMediasListDirty = true;
+    }
+
+    /**
+     * Provides the image and video messages of the adapter.
+     * The list must not be updated by the caller.
+     *
+     * @return the medias list, in the adapter order
+     */
+    public ArrayList<SlidableMediaInfo> getMediasList() {
+        refresh();
+        return mMediasList;
+    }
+
+    /**
+     * Provides the position of a media event in the medias list.
+     *
+     * @param eventId the event id
+     * @return the position, -1 if it is not found
+     */
+    public int getMediaPosition(String eventId) {
+        refresh();
+        Integer position = (null == eventId) ? null : mPositionByEventId.get(eventId);
+        return (null == position) ? -1 : position;
+    }
+
+    /**
+     * Update the medias list with the rows updates.
+     */
+    private void refresh() {
+        // a decrypted media has to be placed among the media rows
+        for (Iterator<MessageRow> iterator = mEncryptedRows.iterator(); !mIsDirty && iterator.hasNext(); ) {
+            Event event = iterator.next().getEvent();
+
+            if (!Event.EVENT_TYPE_MESSAGE_ENCRYPTED.equals(event.getType())) {
+                iterator.remove();
+                mIsDirty = (null != toSlidableMediaInfo(event));
+            }
+        }
+
+        if (mIsDirty) {
+            build();
+            return;
+        }
+
+        // the content is replaced when the event is redacted
+        for (Iterator<MediaRow> iterator = mMediaRows.iterator(); iterator.hasNext(); ) {
+            MediaRow mediaRow = iterator.next();
+            Event event = mediaRow.mRow.getEvent();
+
+            if (mediaRow.mContent != event.getContent()) {
+                mediaRow.mContent = event.getContent();
+                mediaRow.mInfo = toSlidableMediaInfo(event);
+                mIsMediasListDirty = true;
+
+                if (null == mediaRow.mInfo) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (!mIsMediasListDirty) {
+            return;
+        }
+
+        ArrayList<SlidableMediaInfo> mediasList = new ArrayList<>(mMediaRows.size());
+        mPositionByEventId.clear();
+
+        for (MediaRow mediaRow : mMediaRows) {
+            String eventId = mediaRow.mRow.getEvent().eventId;
+
+            if (null != eventId) {
+                mPositionByEventId.put(eventId, mediasList.size());
+            }
+            mediasList.add(mediaRow.mInfo);
+        }
+
+        mMediasList = mediasList;
+        mIsMediasListDirty = false;
+    }
+
+    /**
+     * Scan the adapter rows.
+     */
+    private void build() {
+        long startTime = System.currentTimeMillis();
+        int count = mAdapter.getCount();
+
+        // keep the infos which are already built
+        Map<MessageRow, MediaRow> mediaRowByRow = new IdentityHashMap<>();
+
+        for (MediaRow mediaRow : mMediaRows) {
+            mediaRowByRow.put(mediaRow.mRow, mediaRow);
+        }
+
+        mMediaRows.clear();
+        mEncryptedRows.clear();
+
+        for (int position = 0; position < count; position++) {
+            MessageRow row = mAdapter.getItem(position);
+            Event event = row.getEvent();
+            MediaRow mediaRow = mediaRowByRow.get(row);
+
+            if ((null != mediaRow) && (mediaRow.mContent == event.getContent())) {
+                mMediaRows.add(mediaRow);
+            } else if (Event.EVENT_TYPE_MESSAGE_ENCRYPTED.equals(event.getType())) {
+                mEncryptedRows.add(row);
+            } else {
+                SlidableMediaInfo info = toSlidableMediaInfo(event);
+
+                if (null != info) {
+                    mMediaRows.add(new MediaRow(row, event.getContent(), info));
+                }
+            }
+        }
+
+        mIsDirty = false;
+        mIsMediasListDirty = true;
+
+        Log.d(LOG_TAG, "## build() : " + mMediaRows.size() + " medias in " + count + " rows indexed in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        refresh();
+    }
+
+    /**
+     * Build the slidable media info of an event.
+     *
+     * @param event the event
+     * @return the info, null if the event is neither an image nor a video
+     */
+    public static SlidableMediaInfo toSlidableMediaInfo(Event event) {
+        if (!Event.EVENT_TYPE_MESSAGE.equals(event.getType())) {
+            return null;
+        }
+
+        JsonElement content = event.getContent();
+
+        // check the message type before deserializing the content
+        if ((null == content) || !content.isJsonObject()) {
+            return null;
+        }
+
+        JsonElement msgtype = ((JsonObject) content).get("msgtype");
+
+        if ((null == msgtype) || !msgtype.isJsonPrimitive()) {
+            return null;
+        }
+
+        String messageType = msgtype.getAsString();
+
+        if (!Message.MSGTYPE_IMAGE.equals(messageType) && !Message.MSGTYPE_VIDEO.equals(messageType)) {
+            return null;
+        }
+
+        SlidableMediaInfo info = null;
+
+        try {
+            Message message = JsonUtils.toMessage(content);
+
+            if (message instanceof ImageMessage) {
+                ImageMessage imageMessage = (ImageMessage) message;
+
+                info = new SlidableMediaInfo();
+                info.mMessageType = Message.MSGTYPE_IMAGE;
+                info.mFileName = imageMessage.body;
+                info.mMediaUrl = imageMessage.getUrl();
+                info.mRotationAngle = imageMessage.getRotation();
+                info.mOrientation = imageMessage.getOrientation();
+                info.mMimeType = imageMessage.getMimeType();
+                info.mEncryptedFileInfo = imageMessage.file;
+            } else if (message instanceof VideoMessage) {
+                VideoMessage videoMessage = (VideoMessage) message;
+
+                info = new SlidableMediaInfo();
+                info.mMessageType = Message.MSGTYPE_VIDEO;
+                info.mFileName = videoMessage.body;
+                info.mMediaUrl = videoMessage.getUrl();
+                info.mThumbnailUrl = (null != videoMessage.info) ? videoMessage.info.thumbnail_url : null;
+                info.mMimeType = videoMessage.getMimeType();
+                info.mEncryptedFileInfo = videoMessage.file;
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## toSlidableMediaInfo() failed " + e.getMessage());
+        }
+
+        return info;
+    }
+}
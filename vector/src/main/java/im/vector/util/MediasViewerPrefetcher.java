@@ -0,0 +1,577 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.google.gson.JsonElement;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.ImageUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+/**
+ * Prepare the images around the displayed page of the medias viewer.
+ * - the images of the neighbour pages are downloaded before being displayed,
+ * - the images larger than twice the display size are downsampled to bound the webview decode memory,
+ * - the images are downsampled on a dedicated low priority thread, so they do not delay the other background tasks,
+ * - the pages which are swiped away are not prepared anymore; their downloads are cancelled when they have been
+ * started by the prefetcher and their page is not displayed,
+ * - the neighbours count and the prepared images memory are bounded according to the device class.
+ * The methods must be called from the UI thread.
+ */
+public class MediasViewerPrefetcher {
+    private static final String LOG_TAG = MediasViewerPrefetcher.class.getSimpleName();
+
+    private static final String PREPARED_MEDIAS_FOLDER = "MediasViewerPrefetcher";
+
+    // the decoding thread
+    private static HandlerThread mHandlerThread = null;
+    private static Handler mDecodeHandler = null;
+
+    /**
+     * The prepared media listener.
+     */
+    public interface Listener {
+        /**
+         * An image is ready to be displayed.
+         *
+         * @param position the page position
+         * @param media    the prepared media
+         */
+        void onMediaPrepared(int position, PreparedMedia media);
+
+        /**
+         * Tells if a page is instantiated, its download is then also awaited by the page.
+         *
+         * @param position the page position
+         * @return true if the page is instantiated
+         */
+        boolean isPageInstantiated(int position);
+    }
+
+    /**
+     * An image ready to be displayed.
+     */
+    public static class PreparedMedia {
+        // the file to display
+        public final File mFile;
+        // the rotation angle to apply
+        public final int mRotationAngle;
+        // the decoded size in bytes
+        final long mByteCount;
+        // true when the file is a downsampled copy
+        final boolean mIsDownsampled;
+
+        PreparedMedia(File file, int rotationAngle, long byteCount, boolean isDownsampled) {
+            mFile = file;
+            mRotationAngle = rotationAngle;
+            mByteCount = byteCount;
+            mIsDownsampled = isDownsampled;
+        }
+    }
+
+    /**
+     * The preparation of a page.
+     */
+    private static class Prefetch {
+        final int mPosition;
+        String mDownloadId;
+        // true when the download has been started by the prefetcher, else it is shared with another consumer
+        boolean mIsDownloadOwner;
+        MXMediaDownloadListener mDownloadListener;
+        Runnable mDecodeRunnable;
+        volatile boolean mIsCancelled;
+
+        Prefetch(int position) {
+            mPosition = position;
+        }
+    }
+
+    private final Context mContext;
+    private final MXSession mSession;
+    private final MXMediasCache mMediasCache;
+    private final List<SlidableMediaInfo> mMediasList;
+    private final Listener mListener;
+
+    // the downsampled images are bounded to this size
+    private final int mMaxDecodedSize;
+
+    // the number of pages prepared on each side of the displayed one
+    private final int mRadius;
+
+    // the prepared images memory budget
+    private final long mBudgetBytes;
+
+    private final File mPreparedMediasFolder;
+
+    // the in-progress preparations and the prepared medias by position
+    private final SparseArray<Prefetch> mPrefetches = new SparseArray<>();
+    private final SparseArray<PreparedMedia> mPreparedMedias = new SparseArray<>();
+
+    private int mPrimaryPosition = -1;
+
+    // time to sharp image
+    private long mSwipeStartTime;
+    private boolean mIsWaitingSharpImage;
+
+    // statistics
+    private int mSwipesCount = 0;
+    private int mImmediateSharpCount = 0;
+    private int mWaitedSharpCount = 0;
+    private long mWaitedSharpDurationMs = 0;
+    private long mMaxWaitedSharpDurationMs = 0;
+    private int mCancelledCount = 0;
+    private int mDownsampledCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param context       the context
+     * @param session       the session
+     * @param mediasCache   the medias cache
+     * @param mediasList    the medias list
+     * @param displayWidth  the display width
+     * @param displayHeight the display height
+     * @param listener      the prepared media listener
+     */
+    public MediasViewerPrefetcher(Context context, MXSession session, MXMediasCache mediasCache, List<SlidableMediaInfo> mediasList, int displayWidth, int displayHeight, Listener listener) {
+        mContext = context.getApplicationContext();
+        mSession = session;
+        mMediasCache = mediasCache;
+        mMediasList = mediasList;
+        mListener = listener;
+
+        // keep some margin to zoom in
+        mMaxDecodedSize = 2 * Math.max(displayWidth, displayHeight);
+
+        ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass();
+        boolean isLowRamDevice = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) && activityManager.isLowRamDevice();
+
+        if (isLowRamDevice || (memoryClass <= 64)) {
+            mRadius = 1;
+            mBudgetBytes = memoryClass * 1024L * 1024L / 16;
+        } else if (memoryClass <= 128) {
+            mRadius = 2;
+            mBudgetBytes = memoryClass * 1024L * 1024L / 8;
+        } else {
+            mRadius = 3;
+            mBudgetBytes = memoryClass * 1024L * 1024L / 8;
+        }
+
+        mPreparedMediasFolder = new File(mContext.getCacheDir(), PREPARED_MEDIAS_FOLDER);
+
+        if (null == mHandlerThread) {
+            mHandlerThread = new HandlerThread("MediasViewerPrefetcher", Process.THREAD_PRIORITY_BACKGROUND);
+            mHandlerThread.start();
+
+            mDecodeHandler = new Handler(mHandlerThread.getLooper());
+        }
+
+        Log.d(LOG_TAG, "## MediasViewerPrefetcher() : memory class " + memoryClass + " MB (low ram " + isLowRamDevice + "), radius " + mRadius + ", budget " + (mBudgetBytes / 1024) + " KB");
+    }
+
+    /**
+     * Provides the prepared image of a page.
+     *
+     * @param position the page position
+     * @return the prepared media, null if it is not yet prepared
+     */
+    public PreparedMedia getPreparedMedia(int position) {
+        return mPreparedMedias.get(position);
+    }
+
+    /**
+     * A page is displayed : prepare its neighbours and forget the pages which are too far.
+     *
+     * @param position the displayed page position
+     */
+    public void onPageSelected(int position) {
+        if (mPrimaryPosition == position) {
+            return;
+        }
+
+        mPrimaryPosition = position;
+        mSwipesCount++;
+
+        if (null != mPreparedMedias.get(position)) {
+            mImmediateSharpCount++;
+            mIsWaitingSharpImage = false;
+        } else {
+            mSwipeStartTime = System.currentTimeMillis();
+            mIsWaitingSharpImage = isImage(position);
+        }
+
+        // cancel the swiped away pages
+        for (int index = mPrefetches.size() - 1; index >= 0; index--) {
+            Prefetch prefetch = mPrefetches.valueAt(index);
+
+            if (Math.abs(prefetch.mPosition - position) > mRadius) {
+                cancel(prefetch);
+                mPrefetches.removeAt(index);
+            }
+        }
+
+        // forget the prepared medias out of the window
+        for (int index = mPreparedMedias.size() - 1; index >= 0; index--) {
+            if (Math.abs(mPreparedMedias.keyAt(index) - position) > mRadius) {
+                mPreparedMedias.removeAt(index);
+            }
+        }
+
+        // the nearest pages first
+        prefetch(position);
+
+        for (int distance = 1; distance <= mRadius; distance++) {
+            prefetch(position + distance);
+            prefetch(position - distance);
+        }
+    }
+
+    /**
+     * Tell if a page is an image.
+     *
+     * @param position the page position
+     * @return true if it is an image
+     */
+    private boolean isImage(int position) {
+        return (position >= 0) && (position < mMediasList.size()) && TextUtils.equals(mMediasList.get(position).mMessageType, Message.MSGTYPE_IMAGE);
+    }
+
+    /**
+     * @return the memory used by the prepared images
+     */
+    private long getPreparedBytes() {
+        long bytes = 0;
+
+        for (int index = 0; index < mPreparedMedias.size(); index++) {
+            bytes += mPreparedMedias.valueAt(index).mByteCount;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Prepare the image of a page.
+     *
+     * @param position the page position
+     */
+    private void prefetch(final int position) {
+        // the videos are only downloaded on demand
+        if (!isImage(position) || (null != mPreparedMedias.get(position)) || (null != mPrefetches.get(position))) {
+            return;
+        }
+
+        // the displayed page is always prepared
+        if ((position != mPrimaryPosition) && (getPreparedBytes() >= mBudgetBytes)) {
+            Log.d(LOG_TAG, "## prefetch() : the budget is reached, skip the page " + position);
+            return;
+        }
+
+        final SlidableMediaInfo mediaInfo = mMediasList.get(position);
+
+        if (TextUtils.isEmpty(mediaInfo.mMimeType)) {
+            mediaInfo.mMimeType = "image/jpeg";
+        }
+
+        final Prefetch prefetch = new Prefetch(position);
+        mPrefetches.put(position, prefetch);
+
+        File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType);
+
+        if (null != file) {
+            decode(prefetch, file);
+            return;
+        }
+
+        prefetch.mIsDownloadOwner = (null == mMediasCache.downloadIdFromUrl(mediaInfo.mMediaUrl));
+        prefetch.mDownloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaInfo.mMediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
+
+        if (null == prefetch.mDownloadId) {
+            mPrefetches.remove(position);
+            return;
+        }
+
+        prefetch.mDownloadListener = new MXMediaDownloadListener() {
+            @Override
+            public void onDownloadError(String downloadId, JsonElement jsonElement) {
+                onDownloadDone(downloadId, false);
+            }
+
+            @Override
+            public void onDownloadCancel(String downloadId) {
+                onDownloadDone(downloadId, false);
+            }
+
+            @Override
+            public void onDownloadComplete(String downloadId) {
+                onDownloadDone(downloadId, true);
+            }
+
+            private void onDownloadDone(String downloadId, final boolean succeeded) {
+                if (!TextUtils.equals(downloadId, prefetch.mDownloadId)) {
+                    return;
+                }
+
+                // the download listeners are not always called from the UI thread
+                VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetch.mDownloadId = null;
+
+                        if (prefetch.mIsCancelled || (mPrefetches.get(position) != prefetch)) {
+                            return;
+                        }
+
+                        File file = succeeded ? mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType) : null;
+
+                        if (null != file) {
+                            decode(prefetch, file);
+                        } else {
+                            // it will be tried again when the page is selected again
+                            mPrefetches.remove(position);
+                        }
+                    }
+                }, 0);
+            }
+        };
+
+        mMediasCache.addDownloadListener(prefetch.mDownloadId, prefetch.mDownloadListener);
+    }
+
+    /**
+     * Downsample the image in background if it is larger than the display.
+     *
+     * @param prefetch the preparation
+     * @param file     the downloaded image
+     */
+    private void decode(final Prefetch prefetch, final File file) {
+        final SlidableMediaInfo mediaInfo = mMediasList.get(prefetch.mPosition);
+
+        prefetch.mDecodeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (prefetch.mIsCancelled) {
+                    return;
+                }
+
+                final PreparedMedia media = prepare(file, mediaInfo);
+
+                VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPrepared(prefetch, media);
+                    }
+                }, 0);
+            }
+        };
+
+        mDecodeHandler.post(prefetch.mDecodeRunnable);
+    }
+
+    /**
+     * Build the displayed file of an image.
+     * This method must be called from a background thread.
+     *
+     * @param file      the downloaded image
+     * @param mediaInfo the media description
+     * @return the prepared media
+     */
+    private PreparedMedia prepare(File file, SlidableMediaInfo mediaInfo) {
+        int rotationAngle = mediaInfo.mRotationAngle;
+
+        // the downsampled copy has no exif metadata
+        if (Integer.MAX_VALUE == rotationAngle) {
+            rotationAngle = ImageUtils.getRotationAngleForBitmap(mContext, Uri.fromFile(file));
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        int width = Math.max(options.outWidth, 1);
+        int height = Math.max(options.outHeight, 1);
+        int sampleSize = 1;
+
+        while ((Math.max(width, height) / sampleSize) > mMaxDecodedSize) {
+            sampleSize *= 2;
+        }
+
+        // the animated images cannot be downsampled
+        boolean canBeDownsampled = TextUtils.equals(mediaInfo.mMimeType, "image/jpeg") || TextUtils.equals(mediaInfo.mMimeType, "image/png");
+
+        if ((1 == sampleSize) || !canBeDownsampled || (options.outWidth <= 0)) {
+            return new PreparedMedia(file, rotationAngle, 4L * width * height, false);
+        }
+
+        long startTime = System.currentTimeMillis();
+        Bitmap bitmap = null;
+        FileOutputStream outputStream = null;
+
+        try {
+            options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+
+            if (null != bitmap) {
+                if (!mPreparedMediasFolder.exists()) {
+                    mPreparedMediasFolder.mkdirs();
+                }
+
+                boolean isPng = TextUtils.equals(mediaInfo.mMimeType, "image/png");
+                File downsampledFile = new File(mPreparedMediasFolder, file.getName() + "_" + sampleSize + (isPng ? ".png" : ".jpg"));
+                outputStream = new FileOutputStream(downsampledFile);
+                bitmap.compress(isPng ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90, outputStream);
+
+                Log.d(LOG_TAG, "## prepare() : " + width + "x" + height + " downsampled by " + sampleSize + " in " + (System.currentTimeMillis() - startTime) + " ms");
+
+                return new PreparedMedia(downsampledFile, rotationAngle, (long) bitmap.getRowBytes() * bitmap.getHeight(), true);
+            }
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## prepare() : out of memory " + oom.getMessage());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## prepare() failed " + e.getMessage());
+        } finally {
+            if (null != bitmap) {
+                bitmap.recycle();
+            }
+
+            try {
+                if (null != outputStream) {
+                    outputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## prepare() : close failed " + e.getMessage());
+            }
+        }
+
+        // display the downloaded file
+        return new PreparedMedia(file, rotationAngle, 4L * width * height, false);
+    }
+
+    /**
+     * An image has been prepared.
+     *
+     * @param prefetch the preparation
+     * @param media    the prepared media
+     */
+    private void onPrepared(Prefetch prefetch, PreparedMedia media) {
+        if (prefetch.mIsCancelled || (mPrefetches.get(prefetch.mPosition) != prefetch)) {
+            return;
+        }
+
+        mPrefetches.remove(prefetch.mPosition);
+        mPreparedMedias.put(prefetch.mPosition, media);
+
+        if (media.mIsDownsampled) {
+            mDownsampledCount++;
+        }
+
+        if ((prefetch.mPosition == mPrimaryPosition) && mIsWaitingSharpImage) {
+            long duration = System.currentTimeMillis() - mSwipeStartTime;
+            mIsWaitingSharpImage = false;
+            mWaitedSharpCount++;
+            mWaitedSharpDurationMs += duration;
+            mMaxWaitedSharpDurationMs = Math.max(mMaxWaitedSharpDurationMs, duration);
+            Log.d(LOG_TAG, "## onPrepared() : the page " + prefetch.mPosition + " is sharp after " + duration + " ms");
+        }
+
+        try {
+            mListener.onMediaPrepared(prefetch.mPosition, media);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## onPrepared() failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cancel a preparation.
+     *
+     * @param prefetch the preparation
+     */
+    private void cancel(Prefetch prefetch) {
+        prefetch.mIsCancelled = true;
+
+        if (null != prefetch.mDecodeRunnable) {
+            mDecodeHandler.removeCallbacks(prefetch.mDecodeRunnable);
+        }
+
+        if (null != prefetch.mDownloadId) {
+            // the shared downloads are still awaited by their other consumers
+            if (prefetch.mIsDownloadOwner && !mListener.isPageInstantiated(prefetch.mPosition)) {
+                mMediasCache.cancelDownload(prefetch.mDownloadId);
+            }
+            prefetch.mDownloadId = null;
+        }
+
+        mCancelledCount++;
+    }
+
+    /**
+     * Cancel the preparations and delete the downsampled images.
+     */
+    public void release() {
+        for (int index = 0; index < mPrefetches.size(); index++) {
+            cancel(mPrefetches.valueAt(index));
+        }
+
+        mPrefetches.clear();
+        mPreparedMedias.clear();
+
+        final File folder = mPreparedMediasFolder;
+
+        // after the in-progress decoding
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = folder.listFiles();
+
+                if (null != files) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a description of the time to sharp image per swipe
+     */
+    public String getStats() {
+        long average = (0 == mWaitedSharpCount) ? 0 : (mWaitedSharpDurationMs / mWaitedSharpCount);
+        return mSwipesCount + " swipes, " + mImmediateSharpCount + " sharp at once, " + mWaitedSharpCount + " sharp after " + average + " ms (max " + mMaxWaitedSharpDurationMs + " ms), "
+                + mDownsampledCount + " downsampled, " + mCancelledCount + " cancelled";
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.db.MXMediaDownloadWorkerTask;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import im.vector.Matrix;
+import im.vector.search.HistoricalRoomsIndex;
+
+/**
+ * Maps the memory trim levels to progressively stronger actions.
+ * The application cache is only fully reloaded when the device is still on low memory
+ * after the strongest level has been applied.
+ */
+public class MemoryPressureManager {
+    private static final String LOG_TAG = "Memory usage";
+
+    /**
+     * The pressure tiers.
+     */
+    // the UI is hidden or the memory begins to be low : shrink the bitmaps caches
+    public static final int TIER_LIGHT = 1;
+    // the memory is low : drop the UI caches
+    public static final int TIER_MODERATE = 2;
+    // the memory is critical : release the left rooms and the medias bitmaps
+    public static final int TIER_CRITICAL = 3;
+
+    /**
+     * Listener to release some caches.
+     */
+    public interface TrimMemoryListener {
+        /**
+         * Release some memory.
+         *
+         * @param tier the pressure tier
+         * @return the number of reclaimed bytes (estimation), 0 if unknown
+         */
+        long onTrimMemory(int tier);
+    }
+
+    // the listeners are weakly referenced : the owners (e.g. the adapters) are not leaked
+    private static final Set<TrimMemoryListener> mListeners = Collections.newSetFromMap(new WeakHashMap<TrimMemoryListener, Boolean>());
+
+    /**
+     * Add a listener.
+     * The listener is weakly referenced so the caller must keep a reference on it.
+     *
+     * @param listener the listener
+     */
+    public static void addListener(TrimMemoryListener listener) {
+        if (null != listener) {
+            synchronized (mListeners) {
+                mListeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener the listener
+     */
+    public static void removeListener(TrimMemoryListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Convert a trim memory level to a tier.
+     *
+     * @param level the trim memory level
+     * @return the tier, 0 if there is nothing to do
+     */
+    static int levelToTier(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // the application is in the LRU list
+            // and it is in the middle or near the end of the list
+            return TIER_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return TIER_MODERATE;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return TIER_LIGHT;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_MODERATE;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return TIER_LIGHT;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Manage a trim memory callback.
+     *
+     * @param context the context
+     * @param level   the trim memory level
+     * @return the number of reclaimed bytes (estimation)
+     */
+    public static long onTrimMemory(Context context, int level) {
+        int tier = levelToTier(level);
+
+        if (0 == tier) {
+            return 0;
+        }
+
+        return trim(context, tier);
+    }
+
+    /**
+     * Apply a pressure tier.
+     *
+     * @param context the context
+     * @param tier    the tier
+     * @return the number of reclaimed bytes (estimation)
+     */
+    public static long trim(Context context, int tier) {
+        long usedBefore = getUsedMemory();
+        long reclaimed = 0;
+
+        // the avatars are cheap to rebuild
+        reclaimed += VectorUtils.trimAvatarsCache((tier >= TIER_MODERATE) ? 0 : 0.5f);
+
+        if (tier >= TIER_MODERATE) {
+            List<TrimMemoryListener> listeners;
+
+            synchronized (mListeners) {
+                listeners = new ArrayList<>(mListeners);
+            }
+
+            for (TrimMemoryListener listener : listeners) {
+                try {
+                    reclaimed += listener.onTrimMemory(tier);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## trim() : listener failed " + e.getMessage(), e);
+                }
+            }
+        }
+
+        if (tier >= TIER_CRITICAL) {
+            MXMediaDownloadWorkerTask.clearBitmapsCache();
+
+            if (null != context) {
+                for (MXSession session : Matrix.getMXSessions(context)) {
+                    if (session.isAlive() && (null != session.getDataHandler())) {
+                        session.getDataHandler().releaseLeftRooms();
+                        HistoricalRoomsIndex.release(session);
+                    }
+                }
+            }
+        }
+
+        long heapDelta = usedBefore - getUsedMemory();
+
+        Log.e(LOG_TAG, "## trim() : tier " + tier + " reclaimed " + (reclaimed / 1024L) + " KB in the caches (heap delta " + (heapDelta / 1024L) + " KB)");
+
+        return reclaimed;
+    }
+
+    /**
+     * @return the used heap size in bytes
+     */
+    private static long getUsedMemory() {
+        Runtime info = Runtime.getRuntime();
+        return info.totalMemory() - info.freeMemory();
+    }
+}
@@ -19,23 +19,26 @@ package im.vector.util;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.support.v4.util.LruCache;
 import android.support.v4.util.Pair;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
-import com.google.i18n.phonenumbers.NumberParseException;
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.Phonenumber;
 
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import im.vector.VectorApp;
 
@@ -48,6 +51,11 @@ public class PhoneNumberUtils {
     // preference keys
     public static final String COUNTRY_CODE_PREF_KEY = "COUNTRY_CODE_PREF_KEY";
 
+    // the E164 phone numbers cache size in bytes
+    private static final int E164_CACHE_MAX_SIZE = 1024 * 1024;
+    // the estimated size of a cache entry without its strings
+    private static final int CACHE_ENTRY_OVERHEAD = 64;
+
     private static String[] mCountryCodes;
     private static String[] mCountryNames;
     // ex FR -> France
@@ -179,12 +187,18 @@ public class PhoneNumberUtils {
 
     /**
      * Update the selected country code.
+     * The cached E164 phone numbers are cleared when it changes.
      *
      * @param context     the context
      * @param countryCode the country code
      */
     public static void setCountryCode(final Context context, final String countryCode) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        if (!TextUtils.equals(countryCode, preferences.getString(COUNTRY_CODE_PREF_KEY, null))) {
+            mE164PhoneNumberByText.evictAll();
+        }
+
         SharedPreferences.Editor editor = preferences.edit();
         editor.putString(COUNTRY_CODE_PREF_KEY, countryCode);
         editor.commit();
@@ -202,59 +216,69 @@ public class PhoneNumberUtils {
     }
 
     /**
-     * Phone numbers cache by text.
+     * E164 phone number by unformatted phonenumber, "" when it cannot be converted.
+     * The size is the strings size in bytes.
      */
-    private static final HashMap<String, Object> mPhoneNumberByText = new HashMap<>();
+    private static final LruCache<String, String> mE164PhoneNumberByText = new LruCache<String, String>(E164_CACHE_MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, String value) {
+            return (key.length() + value.length()) * 2 + CACHE_ENTRY_OVERHEAD;
+        }
+    };
 
     /**
-     * Provide libphonenumber phonenumber from an unformatted one.
+     * Convert an unformatted phone number to a E164 format one.
      *
-     * @param text        the unformatted phone number
-     * @param countryCode the cuntry code
-     * @return the phone number
+     * @param context     the coontext
+     * @param phoneNumber the unformatted phone number
+     * @return the E164 phone number
      */
-    private static Phonenumber.PhoneNumber getPhoneNumber(final String text, final String countryCode) {
-        String key = getMapKey(text, countryCode);
-        Phonenumber.PhoneNumber phoneNumber = null;
+    public static String getE164format(final Context context, final String phoneNumber) {
+        return getE164format(phoneNumber, getCountryCode(context));
+    }
 
-        if (mPhoneNumberByText.containsKey(key)) {
-            Object value = mPhoneNumberByText.get(key);
+    /**
+     * Convert unformatted phone numbers to E164 format ones.
+     * The country code is read once and each distinct phone number is parsed once.
+     *
+     * @param context      the context
+     * @param phoneNumbers the unformatted phone numbers
+     * @return the E164 phone numbers by unformatted phone number, the phone numbers which cannot be converted are not listed
+     */
+    public static Map<String, String> getE164formats(final Context context, final Collection<String> phoneNumbers) {
+        Map<String, String> e164PhoneNumbers = new HashMap<>();
+        String countryCode = getCountryCode(context);
 
-            if (value instanceof Phonenumber.PhoneNumber) {
-                phoneNumber = (Phonenumber.PhoneNumber) value;
+        if ((null == phoneNumbers) || TextUtils.isEmpty(countryCode)) {
+            return e164PhoneNumbers;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Set<String> checkedPhoneNumbers = new HashSet<>();
+        int parsesCount = 0;
+
+        for (String phoneNumber : phoneNumbers) {
+            if (TextUtils.isEmpty(phoneNumber) || !checkedPhoneNumbers.add(phoneNumber)) {
+                continue;
             }
-        } else {
-            try {
-                phoneNumber = PhoneNumberUtil.getInstance().parse(text, countryCode);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## getPhoneNumber() : failed " + e.getMessage());
+
+            String key = getMapKey(phoneNumber, countryCode);
+            String e164Pn = mE164PhoneNumberByText.get(key);
+
+            if (null == e164Pn) {
+                e164Pn = parseE164format(phoneNumber, countryCode);
+                mE164PhoneNumberByText.put(key, e164Pn);
+                parsesCount++;
             }
 
-            if (null != phoneNumber) {
-                mPhoneNumberByText.put(key, phoneNumber);
-            } else {
-                // add a dummy object to avoid searching twice
-                mPhoneNumberByText.put(key, "");
+            if (!TextUtils.isEmpty(e164Pn)) {
+                e164PhoneNumbers.put(phoneNumber, e164Pn);
             }
         }
 
-        return phoneNumber;
-    }
-
-    /**
-     * E164 phone number by unformatted phonenumber
-     */
-    private static final HashMap<String, String> mE164PhoneNumberByText = new HashMap<>();
+        Log.d(LOG_TAG, "## getE164formats() : " + checkedPhoneNumbers.size() + " phone numbers, " + parsesCount + " parsed in " + (System.currentTimeMillis() - startTime) + " ms");
 
-    /**
-     * Convert an unformatted phone number to a E164 format one.
-     *
-     * @param context     the coontext
-     * @param phoneNumber the unformatted phone number
-     * @return the E164 phone number
-     */
-    public static String getE164format(final Context context, final String phoneNumber) {
-        return getE164format(phoneNumber, getCountryCode(context));
+        return e164PhoneNumbers;
     }
 
     /**
@@ -273,26 +297,47 @@ public class PhoneNumberUtils {
         String e164Pn = mE164PhoneNumberByText.get(key);
 
         if (null == e164Pn) {
-            e164Pn = "";
-            try {
-                Phonenumber.PhoneNumber pn = getPhoneNumber(phoneNumber, countryCode);
-                if (null != pn) {
-                    e164Pn = PhoneNumberUtil.getInstance().format(pn, PhoneNumberUtil.PhoneNumberFormat.E164);
-                }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## getE164format() failed " + e.getMessage());
-            }
+            e164Pn = parseE164format(phoneNumber, countryCode);
+            mE164PhoneNumberByText.put(key, e164Pn);
+        }
+
+        return !TextUtils.isEmpty(e164Pn) ? e164Pn : null;
+    }
+
+    /**
+     * Parse an unformatted phone number with libphonenumber.
+     *
+     * @param phoneNumber the unformatted phone number
+     * @param countryCode the country code
+     * @return the E164 phone number without the leading "+", "" if it cannot be converted
+     */
+    private static String parseE164format(final String phoneNumber, final String countryCode) {
+        String e164Pn = "";
 
-            if (e164Pn.startsWith("+")) {
-                e164Pn = e164Pn.substring(1);
+        try {
+            Phonenumber.PhoneNumber pn = PhoneNumberUtil.getInstance().parse(phoneNumber, countryCode);
+
+            if (null != pn) {
+                e164Pn = PhoneNumberUtil.getInstance().format(pn, PhoneNumberUtil.PhoneNumberFormat.E164);
             }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## parseE164format() failed " + e.getMessage());
+        }
 
-            mE164PhoneNumberByText.put(key, e164Pn);
+        if (e164Pn.startsWith("+")) {
+            e164Pn = e164Pn.substring(1);
         }
 
-        return !TextUtils.isEmpty(e164Pn) ? e164Pn : null;
+        return e164Pn;
     }
 
+    /**
+     * @return a description of the E164 phone numbers cache
+     */
+    public static String getCacheStats() {
+        return mE164PhoneNumberByText.size() / 1024 + " KB (max " + mE164PhoneNumberByText.maxSize() / 1024 + " KB), "
+                + mE164PhoneNumberByText.hitCount() + " hits, " + mE164PhoneNumberByText.missCount() + " misses, " + mE164PhoneNumberByText.evictionCount() + " evictions";
+    }
 
     /**
      * Convert a @{@link com.google.i18n.phonenumbers.Phonenumber.PhoneNumber} to a string with E164 format.
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.support.v4.util.LruCache;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.bingrules.BingRule;
+import org.matrix.androidsdk.util.BingRulesManager;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluate the push rules of a session with as few rules walks as possible.
+ * - the rule fulfilled by an event and its highlight status are evaluated once per event and decryption state, in a bounded cache,
+ * - the events outcomes of a room are discarded when its members or its power levels are updated
+ * (the display name, the members count and the sender permission conditions),
+ * - the room notification modes (mention only, disabled) are evaluated once per room,
+ * - the outcomes are discarded when the push rules are updated.
+ * The methods can be called from any thread.
+ */
+public class PushRulesEvaluator {
+    private static final String LOG_TAG = PushRulesEvaluator.class.getSimpleName();
+
+    private static final int MAX_CACHED_EVENTS = 500;
+
+    // the statistics are logged every STATS_LOG_PERIOD evaluations
+    private static final int STATS_LOG_PERIOD = 1000;
+
+    // evaluators by user id
+    private static final Map<String, PushRulesEvaluator> mEvaluatorByUserId = new HashMap<>();
+
+    /**
+     * The outcomes for an event.
+     */
+    private static class Outcome {
+        // the room state version used for the evaluation
+        final int mRoomStateVersion;
+
+        boolean mIsRuleEvaluated = false;
+        BingRule mRule;
+
+        // null until it is evaluated
+        Boolean mIsHighlighted;
+
+        Outcome(int roomStateVersion) {
+            mRoomStateVersion = roomStateVersion;
+        }
+    }
+
+    private final BingRulesManager mBingRulesManager;
+
+    // incremented each time the push rules are updated
+    private int mRulesVersion = 0;
+
+    // the outcomes by event key (event id and type, the type is updated when the event is decrypted)
+    private final LruCache<String, Outcome> mOutcomeByEventKey = new LruCache<>(MAX_CACHED_EVENTS);
+
+    // incremented when the members or the power levels of a room are updated
+    private final Map<String, Integer> mRoomStateVersionByRoomId = new HashMap<>();
+
+    // the room notification modes
+    private final Map<String, Boolean> mIsMentionOnlyByRoomId = new HashMap<>();
+    private final Map<String, Boolean> mAreNotificationsDisabledByRoomId = new HashMap<>();
+
+    // statistics
+    private int mHitsCount = 0;
+    private int mEvaluationsCount = 0;
+    private long mEvaluationsDurationNs = 0;
+
+    private final BingRulesManager.onBingRulesUpdateListener mBingRulesUpdateListener = new BingRulesManager.onBingRulesUpdateListener() {
+        @Override
+        public void onBingRulesUpdate() {
+            synchronized (PushRulesEvaluator.this) {
+                Log.d(LOG_TAG, "## onBingRulesUpdate() : " + getStats());
+                mRulesVersion++;
+                mOutcomeByEventKey.evictAll();
+                mIsMentionOnlyByRoomId.clear();
+                mAreNotificationsDisabledByRoomId.clear();
+            }
+        }
+    };
+
+    /**
+     * A live event has been received.
+     * The room events outcomes are discarded when its members or its power levels are updated.
+     *
+     * @param event the event
+     */
+    public synchronized void onLiveEvent(Event event) {
+        if ((null != event.roomId) && (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType()) || Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(event.getType()))) {
+            mRoomStateVersionByRoomId.put(event.roomId, getRoomStateVersion(event.roomId) + 1);
+        }
+    }
+
+    /**
+     * Provides the push rules evaluator of a session.
+     *
+     * @param session the session
+     * @return the evaluator, null if the session is not valid
+     */
+    public static PushRulesEvaluator getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId()) || (null == session.getDataHandler()) || (null == session.getDataHandler().getBingRulesManager())) {
+            return null;
+        }
+
+        synchronized (mEvaluatorByUserId) {
+            PushRulesEvaluator evaluator = mEvaluatorByUserId.get(session.getMyUserId());
+
+            if (null == evaluator) {
+                evaluator = new PushRulesEvaluator(session.getDataHandler().getBingRulesManager());
+                mEvaluatorByUserId.put(session.getMyUserId(), evaluator);
+            }
+
+            return evaluator;
+        }
+    }
+
+    /**
+     * Release the evaluator of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            PushRulesEvaluator evaluator;
+
+            synchronized (mEvaluatorByUserId) {
+                evaluator = mEvaluatorByUserId.remove(session.getMyUserId());
+            }
+
+            if (null != evaluator) {
+                evaluator.mBingRulesManager.removeBingRulesUpdateListener(evaluator.mBingRulesUpdateListener);
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bingRulesManager the session push rules manager
+     */
+    private PushRulesEvaluator(BingRulesManager bingRulesManager) {
+        mBingRulesManager = bingRulesManager;
+        mBingRulesManager.addBingRulesUpdateListener(mBingRulesUpdateListener);
+    }
+
+    /**
+     * @return true if the push rules are loaded
+     */
+    public boolean isReady() {
+        return mBingRulesManager.isReady();
+    }
+
+    /**
+     * Provides the push rule fulfilled by an event.
+     *
+     * @param event the event
+     * @return the rule, null if there is none
+     */
+    public BingRule getRule(Event event) {
+        int rulesVersion;
+        int roomStateVersion;
+
+        synchronized (this) {
+            Outcome outcome = getOutcome(event);
+
+            if ((null != outcome) && outcome.mIsRuleEvaluated) {
+                mHitsCount++;
+                return outcome.mRule;
+            }
+
+            rulesVersion = mRulesVersion;
+            roomStateVersion = (null == event) ? 0 : getRoomStateVersion(event.roomId);
+        }
+
+        long startTime = System.nanoTime();
+        BingRule rule = mBingRulesManager.fulfilledBingRule(event);
+        long duration = System.nanoTime() - startTime;
+
+        synchronized (this) {
+            Outcome outcome = putOutcome(event, rulesVersion, roomStateVersion, duration);
+
+            if (null != outcome) {
+                outcome.mRule = rule;
+                outcome.mIsRuleEvaluated = true;
+            }
+        }
+
+        return rule;
+    }
+
+    /**
+     * Tells if an event fulfills a highlight push rule.
+     *
+     * @param event the event
+     * @return true if the event must be highlighted
+     */
+    public boolean isHighlighted(Event event) {
+        int rulesVersion;
+        int roomStateVersion;
+
+        synchronized (this) {
+            Outcome outcome = getOutcome(event);
+
+            if ((null != outcome) && (null != outcome.mIsHighlighted)) {
+                mHitsCount++;
+                return outcome.mIsHighlighted;
+            }
+
+            rulesVersion = mRulesVersion;
+            roomStateVersion = (null == event) ? 0 : getRoomStateVersion(event.roomId);
+        }
+
+        long startTime = System.nanoTime();
+        boolean isHighlighted = (null != mBingRulesManager.fulfilledHighlightBingRule(event));
+        long duration = System.nanoTime() - startTime;
+
+        synchronized (this) {
+            Outcome outcome = putOutcome(event, rulesVersion, roomStateVersion, duration);
+
+            if (null != outcome) {
+                outcome.mIsHighlighted = isHighlighted;
+            }
+        }
+
+        return isHighlighted;
+    }
+
+    /**
+     * Tells if only the mentions are notified in a room.
+     *
+     * @param roomId the room id
+     * @return true if the room is in mention only mode
+     */
+    public boolean isRoomMentionOnly(String roomId) {
+        int rulesVersion;
+
+        synchronized (this) {
+            Boolean isMentionOnly = mIsMentionOnlyByRoomId.get(roomId);
+
+            if (null != isMentionOnly) {
+                mHitsCount++;
+                return isMentionOnly;
+            }
+
+            rulesVersion = mRulesVersion;
+        }
+
+        long startTime = System.nanoTime();
+        boolean isMentionOnly = mBingRulesManager.isRoomMentionOnly(roomId);
+        long duration = System.nanoTime() - startTime;
+
+        synchronized (this) {
+            // the outcome is not cached until the rules are loaded
+            if ((rulesVersion == mRulesVersion) && mBingRulesManager.isReady()) {
+                mIsMentionOnlyByRoomId.put(roomId, isMentionOnly);
+            }
+            onEvaluated(duration);
+        }
+
+        return isMentionOnly;
+    }
+
+    /**
+     * Tells if the notifications are disabled in a room.
+     *
+     * @param roomId the room id
+     * @return true if the room notifications are disabled
+     */
+    public boolean isRoomNotificationsDisabled(String roomId) {
+        int rulesVersion;
+
+        synchronized (this) {
+            Boolean areDisabled = mAreNotificationsDisabledByRoomId.get(roomId);
+
+            if (null != areDisabled) {
+                mHitsCount++;
+                return areDisabled;
+            }
+
+            rulesVersion = mRulesVersion;
+        }
+
+        long startTime = System.nanoTime();
+        boolean areDisabled = mBingRulesManager.isRoomNotificationsDisabled(roomId);
+        long duration = System.nanoTime() - startTime;
+
+        synchronized (this) {
+            if ((rulesVersion == mRulesVersion) && mBingRulesManager.isReady()) {
+                mAreNotificationsDisabledByRoomId.put(roomId, areDisabled);
+            }
+            onEvaluated(duration);
+        }
+
+        return areDisabled;
+    }
+
+    /**
+     * @return a description of the cache usage
+     */
+    public synchronized String getStats() {
+        long averageNs = (0 == mEvaluationsCount) ? 0 : (mEvaluationsDurationNs / mEvaluationsCount);
+        return mEvaluationsCount + " evaluations (average " + (averageNs / 1000) + " us), " + mHitsCount + " cache hits (about "
+                + ((mHitsCount * averageNs) / 1000000) + " ms saved), " + mOutcomeByEventKey.size() + " cached events";
+    }
+
+    /**
+     * Update the statistics after an evaluation.
+     *
+     * @param durationNs the evaluation duration
+     */
+    private void onEvaluated(long durationNs) {
+        mEvaluationsCount++;
+        mEvaluationsDurationNs += durationNs;
+
+        if (0 == (mEvaluationsCount % STATS_LOG_PERIOD)) {
+            Log.d(LOG_TAG, "## onEvaluated() : " + getStats());
+        }
+    }
+
+    /**
+     * Provides the members and power levels version of a room.
+     *
+     * @param roomId the room id
+     * @return the version
+     */
+    private int getRoomStateVersion(String roomId) {
+        Integer version = (null == roomId) ? null : mRoomStateVersionByRoomId.get(roomId);
+        return (null == version) ? 0 : version;
+    }
+
+    /**
+     * Provides the cache key of an event.
+     * The type is part of the key, so an event evaluated before being decrypted is evaluated again.
+     *
+     * @param event the event
+     * @return the key, null if the event cannot be cached
+     */
+    private static String getEventKey(Event event) {
+        return ((null == event) || (null == event.eventId)) ? null : (event.eventId + "|" + event.getType());
+    }
+
+    /**
+     * Provides the cached outcome of an event.
+     *
+     * @param event the event
+     * @return the outcome, null if there is none
+     */
+    private Outcome getOutcome(Event event) {
+        String key = getEventKey(event);
+        Outcome outcome = (null == key) ? null : mOutcomeByEventKey.get(key);
+
+        // the room members or power levels have been updated since the evaluation
+        if ((null != outcome) && (outcome.mRoomStateVersion != getRoomStateVersion(event.roomId))) {
+            mOutcomeByEventKey.remove(key);
+            outcome = null;
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Provides the outcome of an event to update.
+     *
+     * @param event            the event
+     * @param rulesVersion     the rules version used for the evaluation
+     * @param roomStateVersion the room state version used for the evaluation
+     * @param durationNs       the evaluation duration
+     * @return the outcome, null if the evaluation must not be cached
+     */
+    private Outcome putOutcome(Event event, int rulesVersion, int roomStateVersion, long durationNs) {
+        onEvaluated(durationNs);
+
+        String key = getEventKey(event);
+
+        // the rules or the room state have been updated during the evaluation or the rules are not loaded
+        if ((null == key) || (rulesVersion != mRulesVersion) || (roomStateVersion != getRoomStateVersion(event.roomId)) || !mBingRulesManager.isReady()) {
+            return null;
+        }
+
+        Outcome outcome = getOutcome(event);
+
+        if (null == outcome) {
+            outcome = new Outcome(roomStateVersion);
+            mOutcomeByEventKey.put(key, outcome);
+        }
+
+        return outcome;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rooms of a session ordered by recent activity i.e by the latest received event, the most recent first.
+ * The rooms are sorted once in background, then the order is updated from the live events and the
+ * joined / left rooms; the order is only rebuilt when the store is reloaded.
+ * It is used by the rooms selection dialogs (e.g. to share some contents).
+ * The methods must be called from the UI thread.
+ */
+public class RecentRoomsOrder {
+    private static final String LOG_TAG = RecentRoomsOrder.class.getSimpleName();
+
+    // orders by user id
+    private static final Map<String, RecentRoomsOrder> mOrderByUserId = new HashMap<>();
+
+    /**
+     * The rooms summaries listener.
+     */
+    public interface Listener {
+        /**
+         * Provides the ordered rooms summaries.
+         * It is called on the UI thread.
+         *
+         * @param summaries the summaries, the most recent first
+         */
+        void onRoomSummaries(List<RoomSummary> summaries);
+    }
+
+    /**
+     * An ordered room.
+     */
+    private static class Entry {
+        final String mRoomId;
+        // the latest received event timestamp, 0 if there is none
+        long mTs;
+
+        Entry(String roomId, long ts) {
+            mRoomId = roomId;
+            mTs = ts;
+        }
+    }
+
+    // the most recent room first
+    private static final Comparator<Entry> mEntriesComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            return (entry1.mTs == entry2.mTs) ? 0 : ((entry1.mTs > entry2.mTs) ? -1 : 1);
+        }
+    };
+
+    private final MXSession mSession;
+
+    // the ordered entries, null until they are built
+    private List<Entry> mEntries;
+    private Map<String, Entry> mEntryByRoomId;
+
+    // true while the entries are sorted in background
+    private boolean mIsBuilding = false;
+    // incremented each time the entries are invalidated
+    private int mBuildVersion = 0;
+
+    // the rooms timestamps received while the entries are built
+    private final Map<String, Long> mPendingTsByRoomId = new HashMap<>();
+
+    // the listeners waiting for the entries
+    private final List<Listener> mPendingListeners = new ArrayList<>();
+
+    // statistics
+    private int mBuildsCount = 0;
+    private int mUpdatesCount = 0;
+    private long mLatestBuildDurationMs = 0;
+
+    /**
+     * Provides the recent rooms order of a session.
+     *
+     * @param session the session
+     * @return the order, null if the session is not valid
+     */
+    public static RecentRoomsOrder getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId())) {
+            return null;
+        }
+
+        synchronized (mOrderByUserId) {
+            RecentRoomsOrder order = mOrderByUserId.get(session.getMyUserId());
+
+            if (null == order) {
+                order = new RecentRoomsOrder(session);
+                mOrderByUserId.put(session.getMyUserId(), order);
+            }
+
+            return order;
+        }
+    }
+
+    /**
+     * Release the order of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            synchronized (mOrderByUserId) {
+                mOrderByUserId.remove(session.getMyUserId());
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private RecentRoomsOrder(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Provides the joined rooms summaries, the most recent first.
+     * The invited rooms and the conference user rooms are ignored.
+     * The listener is called synchronously when the order is built.
+     *
+     * @param listener the listener
+     */
+    public void getJoinedRoomSummaries(Listener listener) {
+        if (null != mEntries) {
+            listener.onRoomSummaries(listJoinedRoomSummaries());
+        } else {
+            mPendingListeners.add(listener);
+            build();
+        }
+    }
+
+    /**
+     * The rooms have been reloaded (e.g. the store is ready or the initial sync is complete).
+     * The order is rebuilt in background.
+     */
+    public void onRoomsUpdate() {
+        mEntries = null;
+        mEntryByRoomId = null;
+        mIsBuilding = false;
+        mBuildVersion++;
+        mPendingTsByRoomId.clear();
+
+        build();
+    }
+
+    /**
+     * A live event has been received.
+     *
+     * @param event the event
+     */
+    public void onLiveEvent(Event event) {
+        if ((null == event.roomId) || (0 == event.getOriginServerTs())) {
+            return;
+        }
+
+        if (null == mEntries) {
+            if (mIsBuilding) {
+                Long ts = mPendingTsByRoomId.get(event.roomId);
+
+                if ((null == ts) || (ts < event.getOriginServerTs())) {
+                    mPendingTsByRoomId.put(event.roomId, event.getOriginServerTs());
+                }
+            }
+        } else {
+            updateEntry(event.roomId, event.getOriginServerTs());
+        }
+    }
+
+    /**
+     * A room has been joined.
+     *
+     * @param roomId the room id
+     */
+    public void onJoinRoom(String roomId) {
+        if ((null != mEntries) && !mEntryByRoomId.containsKey(roomId)) {
+            updateEntry(roomId, getTs(mSession.getDataHandler().getStore().getSummary(roomId)));
+        }
+    }
+
+    /**
+     * A room has been left.
+     *
+     * @param roomId the room id
+     */
+    public void onLeaveRoom(String roomId) {
+        if (null != mEntries) {
+            Entry entry = mEntryByRoomId.remove(roomId);
+
+            if (null != entry) {
+                mEntries.remove(entry);
+                mUpdatesCount++;
+            }
+        }
+    }
+
+    /**
+     * @return a description of the order usage
+     */
+    public String getStats() {
+        return ((null == mEntries) ? 0 : mEntries.size()) + " rooms, " + mBuildsCount + " builds (latest " + mLatestBuildDurationMs + " ms), " + mUpdatesCount + " updates";
+    }
+
+    /**
+     * Sort the rooms in background.
+     */
+    private void build() {
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        if (mIsBuilding || (null == store) || !store.isReady()) {
+            return;
+        }
+
+        mIsBuilding = true;
+
+        // the summaries are read on the UI thread, only the sort is done in background
+        final List<RoomSummary> summaries = new ArrayList<>(store.getSummaries());
+        final int buildVersion = mBuildVersion;
+        final long startTime = System.currentTimeMillis();
+
+        VectorScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                final List<Entry> entries = new ArrayList<>(summaries.size());
+                final Map<String, Entry> entryByRoomId = new HashMap<>(summaries.size());
+
+                for (RoomSummary summary : summaries) {
+                    Entry entry = new Entry(summary.getRoomId(), getTs(summary));
+                    entries.add(entry);
+                    entryByRoomId.put(entry.mRoomId, entry);
+                }
+
+                Collections.sort(entries, mEntriesComparator);
+
+                VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the order has been invalidated in the meantime
+                        if (buildVersion != mBuildVersion) {
+                            return;
+                        }
+
+                        mEntries = entries;
+                        mEntryByRoomId = entryByRoomId;
+                        mIsBuilding = false;
+
+                        for (Map.Entry<String, Long> pendingTs : mPendingTsByRoomId.entrySet()) {
+                            updateEntry(pendingTs.getKey(), pendingTs.getValue());
+                        }
+                        mPendingTsByRoomId.clear();
+
+                        mBuildsCount++;
+                        mLatestBuildDurationMs = System.currentTimeMillis() - startTime;
+                        Log.d(LOG_TAG, "## build() : " + entries.size() + " rooms sorted in " + mLatestBuildDurationMs + " ms");
+
+                        if (!mPendingListeners.isEmpty()) {
+                            List<Listener> listeners = new ArrayList<>(mPendingListeners);
+                            mPendingListeners.clear();
+
+                            List<RoomSummary> summaries = listJoinedRoomSummaries();
+
+                            for (Listener listener : listeners) {
+                                try {
+                                    listener.onRoomSummaries(summaries);
+                                } catch (Exception e) {
+                                    Log.e(LOG_TAG, "## build() failed " + e.getMessage());
+                                }
+                            }
+                        }
+                    }
+                }, 0);
+            }
+        }, 0);
+    }
+
+    /**
+     * Update the timestamp of a room and move it to its new position.
+     *
+     * @param roomId the room id
+     * @param ts     the timestamp
+     */
+    private void updateEntry(String roomId, long ts) {
+        Entry entry = mEntryByRoomId.get(roomId);
+
+        if (null == entry) {
+            entry = new Entry(roomId, ts);
+            mEntryByRoomId.put(roomId, entry);
+        } else if (ts > entry.mTs) {
+            mEntries.remove(entry);
+            entry.mTs = ts;
+        } else {
+            return;
+        }
+
+        // the entries are sorted, the insertion point is found by dichotomy
+        int position = Collections.binarySearch(mEntries, entry, mEntriesComparator);
+        mEntries.add((position < 0) ? -(position + 1) : position, entry);
+        mUpdatesCount++;
+    }
+
+    /**
+     * @return the ordered joined rooms summaries
+     */
+    private List<RoomSummary> listJoinedRoomSummaries() {
+        IMXStore store = mSession.getDataHandler().getStore();
+        List<RoomSummary> summaries = new ArrayList<>(mEntries.size());
+
+        for (Entry entry : mEntries) {
+            RoomSummary summary = store.getSummary(entry.mRoomId);
+            Room room = (null != summary) ? mSession.getDataHandler().getRoom(entry.mRoomId) : null;
+
+            if ((null != room) && !room.isInvited() && !room.isConferenceUserRoom()) {
+                summaries.add(summary);
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Provides the latest received event timestamp of a room.
+     *
+     * @param summary the room summary
+     * @return the timestamp, 0 if there is none
+     */
+    private static long getTs(RoomSummary summary) {
+        return ((null != summary) && (null != summary.getLatestReceivedEvent())) ? summary.getLatestReceivedEvent().getOriginServerTs() : 0;
+    }
+}
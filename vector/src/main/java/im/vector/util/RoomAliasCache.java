@@ -0,0 +1,311 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolve the room aliases with as few server requests as possible.
+ * - the aliases of the joined rooms (canonical alias and aliases lists) are resolved locally,
+ * - the server responses are cached for an hour,
+ * - the unknown aliases are cached for five minutes,
+ * - the concurrent requests for the same alias share the same server request.
+ * The methods must be called from the UI thread.
+ */
+public class RoomAliasCache {
+    private static final String LOG_TAG = RoomAliasCache.class.getSimpleName();
+
+    private static final long RESOLVED_ALIAS_TTL_MS = 60 * 60 * 1000;
+    private static final long UNKNOWN_ALIAS_TTL_MS = 5 * 60 * 1000;
+    private static final int MAX_CACHED_LOOKUPS = 200;
+
+    // caches by user id
+    private static final Map<String, RoomAliasCache> mCacheByUserId = new HashMap<>();
+
+    /**
+     * A server lookup result.
+     */
+    private static class Lookup {
+        // null when the alias is unknown
+        final String mRoomId;
+        final String mErrorMessage;
+        final long mExpirationTs;
+
+        Lookup(String roomId, String errorMessage, long ttl) {
+            mRoomId = roomId;
+            mErrorMessage = errorMessage;
+            mExpirationTs = System.currentTimeMillis() + ttl;
+        }
+    }
+
+    private final MXSession mSession;
+
+    // the joined rooms aliases, null when it must be rebuilt
+    private Map<String, String> mJoinedRoomIdByAlias;
+
+    // the server lookups
+    private final LruCache<String, Lookup> mLookups = new LruCache<>(MAX_CACHED_LOOKUPS);
+
+    // the in-flight server requests
+    private final Map<String, List<ApiCallback<String>>> mPendingCallbacks = new HashMap<>();
+
+    /**
+     * Provides the alias cache of a session.
+     *
+     * @param session the session
+     * @return the cache, null if the session is not valid
+     */
+    public static RoomAliasCache getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId())) {
+            return null;
+        }
+
+        synchronized (mCacheByUserId) {
+            RoomAliasCache cache = mCacheByUserId.get(session.getMyUserId());
+
+            if (null == cache) {
+                cache = new RoomAliasCache(session);
+                mCacheByUserId.put(session.getMyUserId(), cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Release the cache of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            synchronized (mCacheByUserId) {
+                mCacheByUserId.remove(session.getMyUserId());
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private RoomAliasCache(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * A live event has been received.
+     * The joined rooms aliases are rebuilt when an alias state event is received.
+     *
+     * @param event the event
+     */
+    public void onLiveEvent(Event event) {
+        if (Event.EVENT_TYPE_STATE_CANONICAL_ALIAS.equals(event.getType()) || Event.EVENT_TYPE_STATE_ROOM_ALIASES.equals(event.getType())) {
+            mJoinedRoomIdByAlias = null;
+        }
+    }
+
+    /**
+     * The joined rooms list has been updated (join, leave...).
+     */
+    public void onRoomsUpdate() {
+        mJoinedRoomIdByAlias = null;
+    }
+
+    /**
+     * Provides the room id of an alias without any server request.
+     *
+     * @param alias the alias
+     * @return the room id, null if it is not known
+     */
+    public String getCachedRoomId(String alias) {
+        if (TextUtils.isEmpty(alias)) {
+            return null;
+        }
+
+        String roomId = getJoinedRoomIdByAlias().get(alias);
+
+        if (null == roomId) {
+            Lookup lookup = getLookup(alias);
+
+            if (null != lookup) {
+                roomId = lookup.mRoomId;
+            }
+        }
+
+        return roomId;
+    }
+
+    /**
+     * Resolve a room alias.
+     * The callback is called synchronously when the alias is cached.
+     *
+     * @param alias    the alias
+     * @param callback the callback
+     */
+    public void resolve(final String alias, final ApiCallback<String> callback) {
+        String roomId = getJoinedRoomIdByAlias().get(alias);
+
+        if (null != roomId) {
+            callback.onSuccess(roomId);
+            return;
+        }
+
+        Lookup lookup = getLookup(alias);
+
+        if (null != lookup) {
+            if (null != lookup.mRoomId) {
+                callback.onSuccess(lookup.mRoomId);
+            } else {
+                callback.onMatrixError(new MatrixError(MatrixError.NOT_FOUND, lookup.mErrorMessage));
+            }
+            return;
+        }
+
+        List<ApiCallback<String>> callbacks = mPendingCallbacks.get(alias);
+
+        // a request is in progress
+        if (null != callbacks) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        mPendingCallbacks.put(alias, callbacks);
+
+        Log.d(LOG_TAG, "## resolve() : request the room id of " + alias);
+
+        mSession.getDataHandler().roomIdByAlias(alias, new ApiCallback<String>() {
+            @Override
+            public void onSuccess(String roomId) {
+                if (!TextUtils.isEmpty(roomId)) {
+                    mLookups.put(alias, new Lookup(roomId, null, RESOLVED_ALIAS_TTL_MS));
+                }
+
+                for (ApiCallback<String> callback : removePendingCallbacks()) {
+                    callback.onSuccess(roomId);
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                for (ApiCallback<String> callback : removePendingCallbacks()) {
+                    callback.onNetworkError(e);
+                }
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                // the alias does not exist
+                if (TextUtils.equals(MatrixError.NOT_FOUND, e.errcode)) {
+                    mLookups.put(alias, new Lookup(null, e.getLocalizedMessage(), UNKNOWN_ALIAS_TTL_MS));
+                }
+
+                for (ApiCallback<String> callback : removePendingCallbacks()) {
+                    callback.onMatrixError(e);
+                }
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                for (ApiCallback<String> callback : removePendingCallbacks()) {
+                    callback.onUnexpectedError(e);
+                }
+            }
+
+            /**
+             * @return the callbacks of the request
+             */
+            private List<ApiCallback<String>> removePendingCallbacks() {
+                List<ApiCallback<String>> callbacks = mPendingCallbacks.remove(alias);
+                return (null == callbacks) ? new ArrayList<ApiCallback<String>>() : callbacks;
+            }
+        });
+    }
+
+    /**
+     * Provides a valid server lookup.
+     *
+     * @param alias the alias
+     * @return the lookup, null if there is none or if it has expired
+     */
+    private Lookup getLookup(String alias) {
+        Lookup lookup = mLookups.get(alias);
+
+        if ((null != lookup) && (lookup.mExpirationTs < System.currentTimeMillis())) {
+            mLookups.remove(alias);
+            lookup = null;
+        }
+
+        return lookup;
+    }
+
+    /**
+     * @return the room ids of the joined rooms aliases
+     */
+    private Map<String, String> getJoinedRoomIdByAlias() {
+        if (null == mJoinedRoomIdByAlias) {
+            Map<String, String> roomIdByAlias = new HashMap<>();
+
+            if (mSession.isAlive()) {
+                Collection<Room> rooms = mSession.getDataHandler().getStore().getRooms();
+
+                for (Room room : rooms) {
+                    RoomState state = room.getState();
+
+                    if ((null == state) || room.isInvited()) {
+                        continue;
+                    }
+
+                    List<String> aliases = state.getAliases();
+
+                    if (null != aliases) {
+                        for (String alias : aliases) {
+                            roomIdByAlias.put(alias, room.getRoomId());
+                        }
+                    }
+
+                    // the canonical alias wins
+                    if (!TextUtils.isEmpty(state.alias)) {
+                        roomIdByAlias.put(state.alias, room.getRoomId());
+                    }
+                }
+            }
+
+            mJoinedRoomIdByAlias = roomIdByAlias;
+        }
+
+        return mJoinedRoomIdByAlias;
+    }
+}
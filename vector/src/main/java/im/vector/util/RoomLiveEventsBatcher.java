@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+/**
+ * Collect the live events of a room and apply their UI updates once per sync chunk.
+ * Each event flags the screen parts ("facets") it invalidates; the union of the flagged facets
+ * is applied on the UI thread when the sync chunk has been processed.
+ * The events which are not received by a sync (e.g. the local echoes) are applied after a short delay.
+ * The events can be provided from any thread.
+ */
+public class RoomLiveEventsBatcher {
+    private static final String LOG_TAG = RoomLiveEventsBatcher.class.getSimpleName();
+
+    // the screen parts
+    public static final int FACET_TITLE = 1;
+    public static final int FACET_MEMBERS = 1 << 1;
+    public static final int FACET_AVATAR = 1 << 2;
+    public static final int FACET_TOPIC = 1 << 3;
+    public static final int FACET_TYPING = 1 << 4;
+    public static final int FACET_NOTIFICATIONS_AREA = 1 << 5;
+    public static final int FACET_ENCRYPTION = 1 << 6;
+    public static final int FACET_POWER_LEVELS = 1 << 7;
+
+    // max delay before applying the events received out of a sync chunk
+    private static final long MAX_BATCH_DELAY_MS = 200;
+
+    // an apply longer than a frame is logged
+    private static final long SLOW_APPLY_NS = 16 * 1000 * 1000;
+
+    /**
+     * The facets updater.
+     */
+    public interface Listener {
+        /**
+         * Update some screen parts.
+         * It is called on the UI thread.
+         *
+         * @param facets the FACET_XX flags
+         */
+        void onFacetsUpdate(int facets);
+    }
+
+    private final Listener mListener;
+
+    // the facets to update
+    private int mDirtyFacets = 0;
+    private int mPendingEventsCount = 0;
+
+    // the delayed apply of the events received out of a sync chunk
+    private VectorScheduler.Task mDelayedApplyTask;
+
+    // statistics
+    private int mAppliesCount = 0;
+    private int mEventsCount = 0;
+    private long mApplyDurationNs = 0;
+    private long mMaxApplyDurationNs = 0;
+
+    /**
+     * Constructor
+     *
+     * @param listener the facets updater
+     */
+    public RoomLiveEventsBatcher(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Provides the facets invalidated by a live event.
+     *
+     * @param event the event
+     * @return the FACET_XX flags
+     */
+    public static int getFacets(Event event) {
+        String eventType = event.getType();
+
+        // The various events that could possibly change the room title
+        if (Event.EVENT_TYPE_STATE_ROOM_NAME.equals(eventType)
+                || Event.EVENT_TYPE_STATE_ROOM_ALIASES.equals(eventType)
+                || Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
+            return FACET_TITLE | FACET_MEMBERS | FACET_AVATAR | FACET_NOTIFICATIONS_AREA;
+        } else if (Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
+            return FACET_POWER_LEVELS | FACET_NOTIFICATIONS_AREA;
+        } else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(eventType)) {
+            return FACET_TOPIC | FACET_NOTIFICATIONS_AREA;
+        } else if (Event.EVENT_TYPE_TYPING.equals(eventType)) {
+            // the typing events are ephemeral ones, they do not change the unsent events
+            return FACET_TYPING;
+        } else if (Event.EVENT_TYPE_STATE_ROOM_AVATAR.equals(eventType)) {
+            return FACET_AVATAR | FACET_NOTIFICATIONS_AREA;
+        } else if (Event.EVENT_TYPE_MESSAGE_ENCRYPTION.equals(eventType)) {
+            return FACET_ENCRYPTION | FACET_NOTIFICATIONS_AREA;
+        }
+
+        return FACET_NOTIFICATIONS_AREA;
+    }
+
+    /**
+     * A live event has been received.
+     *
+     * @param event the event
+     */
+    public void onLiveEvent(Event event) {
+        invalidate(getFacets(event));
+    }
+
+    /**
+     * Flag some facets to update.
+     * They are updated at the end of the current sync chunk.
+     *
+     * @param facets the FACET_XX flags
+     */
+    public synchronized void invalidate(int facets) {
+        mDirtyFacets |= facets;
+        mPendingEventsCount++;
+
+        if (null == mDelayedApplyTask) {
+            mDelayedApplyTask = VectorScheduler.getInstance().scheduleOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    apply();
+                }
+            }, MAX_BATCH_DELAY_MS);
+        }
+    }
+
+    /**
+     * A sync chunk has been processed.
+     * It must be called on the UI thread.
+     */
+    public void onLiveEventsChunkProcessed() {
+        apply();
+    }
+
+    /**
+     * Apply the pending updates.
+     * It must be called on the UI thread.
+     */
+    private void apply() {
+        int facets;
+        int eventsCount;
+
+        synchronized (this) {
+            facets = mDirtyFacets;
+            eventsCount = mPendingEventsCount;
+            mDirtyFacets = 0;
+            mPendingEventsCount = 0;
+
+            if (null != mDelayedApplyTask) {
+                mDelayedApplyTask.cancel();
+                mDelayedApplyTask = null;
+            }
+        }
+
+        if (0 == facets) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+
+        try {
+            mListener.onFacetsUpdate(facets);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## apply() failed " + e.getMessage(), e);
+        }
+
+        long duration = System.nanoTime() - startTime;
+
+        mAppliesCount++;
+        mEventsCount += eventsCount;
+        mApplyDurationNs += duration;
+        mMaxApplyDurationNs = Math.max(mMaxApplyDurationNs, duration);
+
+        if (duration > SLOW_APPLY_NS) {
+            Log.d(LOG_TAG, "## apply() : " + eventsCount + " events applied in " + (duration / 1000000) + " ms");
+        }
+    }
+
+    /**
+     * Cancel the pending updates (e.g. the screen is paused).
+     */
+    public synchronized void cancel() {
+        mDirtyFacets = 0;
+        mPendingEventsCount = 0;
+
+        if (null != mDelayedApplyTask) {
+            mDelayedApplyTask.cancel();
+            mDelayedApplyTask = null;
+        }
+    }
+
+    /**
+     * @return a description of the applied batches
+     */
+    public String getStats() {
+        long average = (0 == mAppliesCount) ? 0 : (mApplyDurationNs / mAppliesCount);
+        return mEventsCount + " events in " + mAppliesCount + " batches (average apply " + (average / 1000) + " us, max " + (mMaxApplyDurationNs / 1000) + " us)";
+    }
+}
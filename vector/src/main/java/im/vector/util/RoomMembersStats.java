@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.call.MXCallsManager;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Joined and active members counters of the rooms.
+ * The members of a room are scanned once, the first time its counters are requested.
+ * The counters are then updated from the membership events and the presence updates.
+ * The methods must be called from the UI thread.
+ */
+public class RoomMembersStats {
+    private static final String LOG_TAG = RoomMembersStats.class.getSimpleName();
+
+    // stats by user id
+    private static final Map<String, RoomMembersStats> mStatsByUserId = new HashMap<>();
+
+    /**
+     * The members of a room.
+     */
+    private static class Members {
+        final Set<String> mJoinedUserIds = new HashSet<>();
+        final Set<String> mActiveUserIds = new HashSet<>();
+    }
+
+    private final MXSession mSession;
+
+    // the members by room id
+    private final Map<String, Members> mMembersByRoomId = new HashMap<>();
+
+    // statistics
+    private int mScansCount = 0;
+    private int mUpdatesCount = 0;
+
+    /**
+     * Provides the members stats of a session.
+     *
+     * @param session the session
+     * @return the stats, null if the session is not valid
+     */
+    public static RoomMembersStats getInstance(MXSession session) {
+        if ((null == session) || (null == session.getMyUserId())) {
+            return null;
+        }
+
+        synchronized (mStatsByUserId) {
+            RoomMembersStats stats = mStatsByUserId.get(session.getMyUserId());
+
+            if (null == stats) {
+                stats = new RoomMembersStats(session);
+                mStatsByUserId.put(session.getMyUserId(), stats);
+            }
+
+            return stats;
+        }
+    }
+
+    /**
+     * Release the stats of a session (e.g. on logout).
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        if ((null != session) && (null != session.getMyUserId())) {
+            synchronized (mStatsByUserId) {
+                mStatsByUserId.remove(session.getMyUserId());
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private RoomMembersStats(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Provides the joined members count of a room.
+     * The conference user is not counted.
+     *
+     * @param room the room
+     * @return the joined members count
+     */
+    public int getJoinedMembersCount(Room room) {
+        Members members = getMembers(room);
+        return (null == members) ? 0 : members.mJoinedUserIds.size();
+    }
+
+    /**
+     * Provides the active joined members count of a room.
+     *
+     * @param room the room
+     * @return the active members count
+     */
+    public int getActiveMembersCount(Room room) {
+        Members members = getMembers(room);
+        return (null == members) ? 0 : members.mActiveUserIds.size();
+    }
+
+    /**
+     * A live event has been received.
+     * The counters are updated when a membership event is received.
+     *
+     * @param event the event
+     */
+    public void onLiveEvent(Event event) {
+        if (!Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType()) || (null == event.stateKey)) {
+            return;
+        }
+
+        Members members = mMembersByRoomId.get(event.roomId);
+
+        // the room counters are not yet built
+        if (null == members) {
+            return;
+        }
+
+        String userId = event.stateKey;
+
+        if (TextUtils.equals(userId, MXCallsManager.getConferenceUserId(event.roomId))) {
+            return;
+        }
+
+        RoomMember member = null;
+
+        try {
+            member = JsonUtils.toRoomMember(event.getContent());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## onLiveEvent() failed " + e.getMessage());
+        }
+
+        if ((null != member) && TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
+            members.mJoinedUserIds.add(userId);
+
+            if (isActive(userId)) {
+                members.mActiveUserIds.add(userId);
+            } else {
+                members.mActiveUserIds.remove(userId);
+            }
+        } else {
+            members.mJoinedUserIds.remove(userId);
+            members.mActiveUserIds.remove(userId);
+        }
+
+        mUpdatesCount++;
+    }
+
+    /**
+     * A presence update has been received.
+     *
+     * @param user the user
+     */
+    public void onPresenceUpdate(User user) {
+        if ((null == user) || (null == user.user_id)) {
+            return;
+        }
+
+        boolean isActive = user.isActive();
+
+        for (Members members : mMembersByRoomId.values()) {
+            if (members.mJoinedUserIds.contains(user.user_id)) {
+                if (isActive) {
+                    members.mActiveUserIds.add(user.user_id);
+                } else {
+                    members.mActiveUserIds.remove(user.user_id);
+                }
+            }
+        }
+
+        mUpdatesCount++;
+    }
+
+    /**
+     * The room members must be scanned again (e.g. the room has been left or flushed).
+     *
+     * @param roomId the room id
+     */
+    public void onRoomUpdate(String roomId) {
+        mMembersByRoomId.remove(roomId);
+    }
+
+    /**
+     * All the rooms members must be scanned again (e.g. after an initial sync).
+     */
+    public void onRoomsUpdate() {
+        mMembersByRoomId.clear();
+    }
+
+    /**
+     * @return a description of the counters usage
+     */
+    public String getStats() {
+        return mMembersByRoomId.size() + " rooms, " + mScansCount + " scans, " + mUpdatesCount + " incremental updates";
+    }
+
+    /**
+     * Tells if an user is active.
+     *
+     * @param userId the user id
+     * @return true if the user is active
+     */
+    private boolean isActive(String userId) {
+        User user = mSession.getDataHandler().getStore().getUser(userId);
+        return (null != user) && user.isActive();
+    }
+
+    /**
+     * Provides the members of a room, scan them if they are not known.
+     *
+     * @param room the room
+     * @return the members, null if the room state is not available
+     */
+    private Members getMembers(Room room) {
+        if ((null == room) || (null == room.getRoomId())) {
+            return null;
+        }
+
+        Members members = mMembersByRoomId.get(room.getRoomId());
+
+        if (null == members) {
+            RoomState roomState = room.getState();
+
+            if (null == roomState) {
+                return null;
+            }
+
+            members = new Members();
+
+            for (RoomMember member : roomState.getDisplayableMembers()) {
+                if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
+                    members.mJoinedUserIds.add(member.getUserId());
+
+                    if (isActive(member.getUserId())) {
+                        members.mActiveUserIds.add(member.getUserId());
+                    }
+                }
+            }
+
+            mMembersByRoomId.put(room.getRoomId(), members);
+            mScansCount++;
+        }
+
+        return members;
+    }
+}
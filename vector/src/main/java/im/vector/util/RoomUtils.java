@@ -155,7 +155,7 @@ public class RoomUtils {
              */
             private Comparator<RoomSummary> getSummaryComparator() {
                 if (null == mRoomSummaryComparator) {
-                    mRoomSummaryComparator = getNotifCountRoomSummaryComparator(session.getDataHandler().getBingRulesManager(), pinMissedNotifications, pinUnreadMessages);
+                    mRoomSummaryComparator = getNotifCountRoomSummaryComparator(PushRulesEvaluator.getInstance(session), pinMissedNotifications, pinUnreadMessages);
                 }
                 return mRoomSummaryComparator;
             }
@@ -248,12 +248,12 @@ public class RoomUtils {
      * 3- the unread rooms if pinUnreadMessages is true
      * 4- latest event timestamp
      *
-     * @param bingRulesManager       the bing rules manager
+     * @param pushRulesEvaluator     the push rules evaluator
      * @param pinMissedNotifications whether missed notifications should be pinned
      * @param pinUnreadMessages      whether unread messages should be pinned
      * @return comparator
      */
-    private static Comparator<RoomSummary> getNotifCountRoomSummaryComparator(final BingRulesManager bingRulesManager,
+    private static Comparator<RoomSummary> getNotifCountRoomSummaryComparator(final PushRulesEvaluator pushRulesEvaluator,
                                                                               final boolean pinMissedNotifications,
                                                                               final boolean pinUnreadMessages) {
         return new Comparator<RoomSummary>() {
@@ -269,7 +269,7 @@ public class RoomUtils {
                     leftNotificationCount = leftRoomSummary.getNotificationCount();
                     leftUnreadCount = leftRoomSummary.getUnreadEventsCount();
 
-                    if (bingRulesManager.isRoomMentionOnly(leftRoomSummary.getRoomId())) {
+                    if (pushRulesEvaluator.isRoomMentionOnly(leftRoomSummary.getRoomId())) {
                         leftNotificationCount = leftHighlightCount;
                     }
                 }
@@ -279,7 +279,7 @@ public class RoomUtils {
                     rightNotificationCount = rightRoomSummary.getNotificationCount();
                     rightUnreadCount = rightRoomSummary.getUnreadEventsCount();
 
-                    if (bingRulesManager.isRoomMentionOnly(rightRoomSummary.getRoomId())) {
+                    if (pushRulesEvaluator.isRoomMentionOnly(rightRoomSummary.getRoomId())) {
                         rightNotificationCount = rightHighlightCount;
                     }
                 }
@@ -481,9 +481,7 @@ public class RoomUtils {
 
             MenuItem item;
 
-            final BingRulesManager bingRulesManager = session.getDataHandler().getBingRulesManager();
-
-            if (bingRulesManager.isRoomNotificationsDisabled(room.getRoomId())) {
+            if (PushRulesEvaluator.getInstance(session).isRoomNotificationsDisabled(room.getRoomId())) {
                 item = popup.getMenu().getItem(0);
                 item.setIcon(null);
             }
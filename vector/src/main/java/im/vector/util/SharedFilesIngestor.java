@@ -0,0 +1,488 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.ClipData;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.data.RoomMediaMessage;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Copies the files shared by the other applications into the application cache.
+ * The source streams are opened immediately (the URI permissions are granted to the calling activity only),
+ * then they are copied in background with a bounded parallelism.
+ * The copies are stored by content hash so a file shared twice is only stored once,
+ * and the old copies are removed incrementally.
+ */
+public class SharedFilesIngestor {
+    private static final String LOG_TAG = SharedFilesIngestor.class.getSimpleName();
+
+    /**
+     * The ingestion id extra of a pending shared files intent.
+     */
+    public static final String EXTRA_INGESTION_ID = "SharedFilesIngestor.EXTRA_INGESTION_ID";
+
+    private static final String SHARED_FOLDER = "VectorShared";
+    private static final String TMP_FILE_PREFIX = "tmp_";
+
+    // max number of parallel copies
+    private static final int MAX_PARALLEL_COPIES = 3;
+
+    // the copies which have not been used since this delay are deleted
+    private static final long SHARED_FILES_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Ingestion listener
+     */
+    public interface IngestionListener {
+        /**
+         * Called on the UI thread when a file has been copied.
+         *
+         * @param copiedCount the number of copied files
+         * @param totalCount  the number of files
+         */
+        void onProgress(int copiedCount, int totalCount);
+
+        /**
+         * Called on the UI thread when all the files have been copied.
+         *
+         * @param sharedFilesIntent the shared files intent (Intent.EXTRA_STREAM contains the copied RoomMediaMessage list)
+         */
+        void onComplete(Intent sharedFilesIntent);
+    }
+
+    /**
+     * An ingestion job
+     */
+    private static class Job {
+        final RoomMediaMessage[] mMediaMessages;
+        final List<IngestionListener> mListeners = new ArrayList<>();
+        int mCopiedCount;
+        long mCopiedBytes;
+        final long mStartTime = SystemClock.elapsedRealtime();
+
+        Job(int count) {
+            mMediaMessages = new RoomMediaMessage[count];
+        }
+
+        boolean isComplete() {
+            return mCopiedCount == mMediaMessages.length;
+        }
+    }
+
+    private static SharedFilesIngestor mInstance = null;
+
+    private final File mSharedFolder;
+    private final ExecutorService mExecutorService;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // accessed from the UI thread
+    private final Map<String, Job> mJobs = new HashMap<>();
+
+    /**
+     * @param context the context
+     * @return the shared instance
+     */
+    public static synchronized SharedFilesIngestor getInstance(Context context) {
+        if (null == mInstance) {
+            mInstance = new SharedFilesIngestor(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Tells if an intent is a pending shared files intent.
+     *
+     * @param intent the intent
+     * @return true if the files are being copied
+     */
+    public static boolean isIngestionIntent(Intent intent) {
+        return (null != intent) && intent.hasExtra(EXTRA_INGESTION_ID);
+    }
+
+    private SharedFilesIngestor(Context context) {
+        mSharedFolder = new File(context.getCacheDir(), SHARED_FOLDER);
+
+        mExecutorService = Executors.newFixedThreadPool(MAX_PARALLEL_COPIES, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SharedFilesIngestor");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start to copy some shared medias.
+     * Must be called from the UI thread, while the calling activity is still alive.
+     *
+     * @param context       the calling activity
+     * @param mediaMessages the shared medias
+     * @return the pending shared files intent
+     */
+    public Intent ingest(Context context, List<RoomMediaMessage> mediaMessages) {
+        final String ingestionId = UUID.randomUUID().toString();
+        final Job job = new Job(mediaMessages.size());
+
+        mJobs.put(ingestionId, job);
+
+        // clean the shared folder incrementally
+        mExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteOldCopies();
+            }
+        });
+
+        for (int index = 0; index < mediaMessages.size(); index++) {
+            RoomMediaMessage mediaMessage = mediaMessages.get(index);
+            Uri uri = mediaMessage.getUri();
+            InputStream inputStream = null;
+            String fileName = null;
+            String mimeType = null;
+
+            if (null != uri) {
+                try {
+                    fileName = mediaMessage.getFileName(context);
+                    // the mime type is resolved while the URI is readable
+                    mimeType = mediaMessage.getMimeType(context);
+                    // the stream remains readable when the URI permission is revoked
+                    inputStream = context.getContentResolver().openInputStream(uri);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## ingest() : cannot open " + uri + " " + e.getMessage());
+                }
+            }
+
+            // nothing to copy (e.g. a text)
+            if (null == inputStream) {
+                job.mMediaMessages[index] = mediaMessage;
+                job.mCopiedCount++;
+                continue;
+            }
+
+            final int fIndex = index;
+            final RoomMediaMessage fMediaMessage = mediaMessage;
+            final InputStream fInputStream = inputStream;
+            final String fFileName = sanitizeFileName(fileName, index);
+            final String fMimeType = mimeType;
+
+            mExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long[] copiedBytes = new long[1];
+                    File file = copy(fInputStream, fFileName, copiedBytes);
+                    final RoomMediaMessage copiedMediaMessage = (null != file) ? toCopiedMediaMessage(fMediaMessage, file, fMimeType) : fMediaMessage;
+                    final long fCopiedBytes = copiedBytes[0];
+
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            job.mMediaMessages[fIndex] = copiedMediaMessage;
+                            job.mCopiedBytes += fCopiedBytes;
+                            job.mCopiedCount++;
+                            onJobUpdate(ingestionId, job);
+                        }
+                    });
+                }
+            });
+        }
+
+        Log.d(LOG_TAG, "## ingest() : " + mediaMessages.size() + " shared medias, " + job.mCopiedCount + " without copy");
+
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_SEND_MULTIPLE);
+        intent.setType("*/*");
+        intent.putExtra(EXTRA_INGESTION_ID, ingestionId);
+
+        return intent;
+    }
+
+    /**
+     * Wait that a pending shared files intent is ready.
+     * The listener is called immediately if the files are already copied.
+     * A completed job is kept until a listener has consumed it.
+     * Must be called from the UI thread.
+     *
+     * @param intent   the pending shared files intent
+     * @param listener the listener
+     * @return false if the ingestion is unknown (e.g. the application has been killed while copying the files)
+     */
+    public boolean waitForIngestion(Intent intent, IngestionListener listener) {
+        String ingestionId = intent.getStringExtra(EXTRA_INGESTION_ID);
+        Job job = mJobs.get(ingestionId);
+
+        if (null == job) {
+            Log.e(LOG_TAG, "## waitForIngestion() : unknown ingestion " + ingestionId);
+            return false;
+        }
+
+        job.mListeners.add(listener);
+        onJobUpdate(ingestionId, job);
+        return true;
+    }
+
+    /**
+     * Remove an ingestion listener (e.g. its activity is destroyed).
+     * Must be called from the UI thread.
+     *
+     * @param listener the listener
+     */
+    public void removeIngestionListener(IngestionListener listener) {
+        for (Job job : mJobs.values()) {
+            job.mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Dispatch a job update to its listeners.
+     *
+     * @param ingestionId the ingestion id
+     * @param job         the job
+     */
+    private void onJobUpdate(String ingestionId, Job job) {
+        if (job.mListeners.isEmpty()) {
+            return;
+        }
+
+        List<IngestionListener> listeners = new ArrayList<>(job.mListeners);
+
+        if (!job.isComplete()) {
+            for (IngestionListener listener : listeners) {
+                try {
+                    listener.onProgress(job.mCopiedCount, job.mMediaMessages.length);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onJobUpdate() : onProgress failed " + e.getMessage());
+                }
+            }
+            return;
+        }
+
+        mJobs.remove(ingestionId);
+
+        long duration = Math.max(1, SystemClock.elapsedRealtime() - job.mStartTime);
+        Log.d(LOG_TAG, "## onJobUpdate() : " + job.mMediaMessages.length + " medias (" + (job.mCopiedBytes / 1024) + " KB) ingested in " + duration
+                + " ms (" + (job.mCopiedBytes * 1000 / 1024 / duration) + " KB/s)");
+
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_SEND_MULTIPLE);
+        intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, new ArrayList<>(Arrays.asList(job.mMediaMessages)));
+        intent.setExtrasClassLoader(RoomMediaMessage.class.getClassLoader());
+        intent.setType("*/*");
+
+        for (IngestionListener listener : listeners) {
+            try {
+                listener.onComplete(intent);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## onJobUpdate() : onComplete failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Provide a file name which can be used in the cache.
+     *
+     * @param fileName the shared file name
+     * @param index    the file index in the shared files list
+     * @return the file name
+     */
+    private static String sanitizeFileName(String fileName, int index) {
+        if (TextUtils.isEmpty(fileName)) {
+            return "file_" + index;
+        }
+
+        return fileName.replace(File.separatorChar, '_');
+    }
+
+    /**
+     * Build the media message of a copied media.
+     * The copy keeps the mime type, the message type and the thumbnail size of the shared media,
+     * so an image or a video is not sent as a file.
+     *
+     * @param mediaMessage the shared media
+     * @param file         the copied file
+     * @param mimeType     the shared media mime type
+     * @return the media message
+     */
+    private static RoomMediaMessage toCopiedMediaMessage(RoomMediaMessage mediaMessage, File file, String mimeType) {
+        RoomMediaMessage copiedMediaMessage = new RoomMediaMessage(new ClipData.Item(Uri.fromFile(file)), mimeType);
+        copiedMediaMessage.setMessageType(mediaMessage.getMessageType());
+        copiedMediaMessage.setThumnailSize(mediaMessage.getThumnailSize());
+        return copiedMediaMessage;
+    }
+
+    /**
+     * Copy a stream into the shared folder.
+     * The copy is stored in a folder named by its content hash; an existing copy is reused.
+     * Called from the copy threads.
+     *
+     * @param inputStream the stream to copy, it is closed
+     * @param fileName    the file name
+     * @param copiedBytes the number of copied bytes (out)
+     * @return the copied file, null on failure
+     */
+    private File copy(InputStream inputStream, String fileName, long[] copiedBytes) {
+        File tmpFile = null;
+
+        try {
+            if (!mSharedFolder.exists()) {
+                mSharedFolder.mkdirs();
+            }
+
+            tmpFile = new File(mSharedFolder, TMP_FILE_PREFIX + UUID.randomUUID());
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            OutputStream outputStream = new FileOutputStream(tmpFile);
+
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+
+                while ((len = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, len);
+                    outputStream.write(buffer, 0, len);
+                    copiedBytes[0] += len;
+                }
+            } finally {
+                outputStream.close();
+            }
+
+            File hashFolder = new File(mSharedFolder, toHex(digest.digest()));
+            File file = new File(hashFolder, fileName);
+
+            synchronized (this) {
+                if (file.exists()) {
+                    // already shared : reuse it
+                    tmpFile.delete();
+                } else {
+                    hashFolder.mkdirs();
+
+                    if (!tmpFile.renameTo(file)) {
+                        Log.e(LOG_TAG, "## copy() : cannot rename the copy");
+                        tmpFile.delete();
+                        return null;
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                file.setLastModified(now);
+                hashFolder.setLastModified(now);
+            }
+
+            return file;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## copy() failed " + e.getMessage());
+
+            if (null != tmpFile) {
+                tmpFile.delete();
+            }
+        } finally {
+            try {
+                inputStream.close();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## copy() : close failed " + e.getMessage());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Delete the copies which have not been shared for a while.
+     * Called from a copy thread.
+     */
+    private void deleteOldCopies() {
+        File[] files = mSharedFolder.listFiles();
+
+        if (null == files) {
+            return;
+        }
+
+        long minTs = System.currentTimeMillis() - SHARED_FILES_MAX_AGE_MS;
+        int count = 0;
+
+        synchronized (this) {
+            for (File file : files) {
+                if (file.lastModified() < minTs) {
+                    deleteRecursively(file);
+                    count++;
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "## deleteOldCopies() : " + count + " deleted entries");
+    }
+
+    /**
+     * Delete a file or a folder.
+     *
+     * @param file the file
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+
+        if (null != children) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * @param bytes the bytes
+     * @return the hexadecimal representation
+     */
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_CHARS[(bytes[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX_CHARS[bytes[i] & 0x0F];
+        }
+
+        return new String(hex);
+    }
+}
@@ -20,6 +20,7 @@ package im.vector.util;
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Resources;
 import android.preference.PreferenceManager;
 import android.support.annotation.AttrRes;
 import android.support.annotation.ColorInt;
@@ -27,8 +28,7 @@ import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
 import android.util.TypedValue;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import im.vector.R;
 import im.vector.VectorApp;
@@ -70,7 +70,29 @@ public class ThemeUtils {
     private static final String THEME_LIGHT_VALUE = "light";
     private static final String THEME_BLACK_VALUE = "black";
 
-    private static final Map<Integer, Integer> mColorByAttr = new HashMap<>();
+    /**
+     * The resolved colors of an application theme.
+     * A palette is never updated once it is published: a new color is resolved into a copy.
+     */
+    private static class Palette {
+        // the theme description
+        final String mThemeValue;
+        // the colors by attribute entry index
+        final int[] mColors;
+        final boolean[] mIsResolved;
+
+        Palette(String themeValue, int[] colors, boolean[] isResolved) {
+            mThemeValue = themeValue;
+            mColors = colors;
+            mIsResolved = isResolved;
+        }
+    }
+
+    // the application attributes type, the palettes are indexed by the attribute entry index
+    private static final int APPLICATION_ATTRIBUTES_TYPE = R.attr.primary_color & 0xFFFF0000;
+
+    // the palette of the selected application theme, null until a color is requested
+    private static volatile Palette mPalette;
 
     /**
      * Provides the selected application theme
@@ -116,7 +138,7 @@ public class ThemeUtils {
             VectorApp.getInstance().setTheme(R.style.AppTheme);
         }
 
-        mColorByAttr.clear();
+        selectPalette(TextUtils.equals(aTheme, THEME_DARK_VALUE) || TextUtils.equals(aTheme, THEME_BLACK_VALUE) ? aTheme : THEME_LIGHT_VALUE);
     }
 
     /**
@@ -244,11 +266,26 @@ public class ThemeUtils {
             }
         }
 
-        mColorByAttr.clear();
+        selectPalette(getApplicationTheme(activity));
     }
 
     /**
-     * Translates color attributes to colors
+     * Select the palette of an application theme.
+     * The colors are resolved again when the theme is updated.
+     *
+     * @param themeValue the theme description
+     */
+    private static synchronized void selectPalette(String themeValue) {
+        Palette palette = mPalette;
+
+        if ((null == palette) || !TextUtils.equals(palette.mThemeValue, themeValue)) {
+            mPalette = new Palette(themeValue, new int[0], new boolean[0]);
+        }
+    }
+
+    /**
+     * Translates color attributes to colors.
+     * The application colors are resolved once per application theme, from its base style.
      *
      * @param c              Context
      * @param colorAttribute Color Attribute
@@ -257,23 +294,81 @@ public class ThemeUtils {
     public static
     @ColorInt
     int getColor(Context c, @AttrRes final int colorAttribute) {
-        if (mColorByAttr.containsKey(colorAttribute)) {
-            return mColorByAttr.get(colorAttribute);
+        // the framework attributes are not cached
+        if ((colorAttribute & 0xFFFF0000) != APPLICATION_ATTRIBUTES_TYPE) {
+            return resolveColor(c, c.getTheme(), colorAttribute);
+        }
+
+        int index = colorAttribute & 0xFFFF;
+        Palette palette = mPalette;
+
+        if ((null != palette) && (index < palette.mIsResolved.length) && palette.mIsResolved[index]) {
+            return palette.mColors[index];
         }
 
-        int matchedColor;
+        return resolvePaletteColor(c, index, colorAttribute);
+    }
 
+    /**
+     * Resolve a color which is not yet in the palette, and publish a palette containing it.
+     *
+     * @param c              the context
+     * @param index          the attribute entry index
+     * @param colorAttribute the color attribute
+     * @return the color
+     */
+    private static synchronized int resolvePaletteColor(Context c, int index, @AttrRes int colorAttribute) {
+        if (null == mPalette) {
+            selectPalette(getApplicationTheme(c));
+        }
+
+        Palette palette = mPalette;
+
+        // resolved by another thread in the meantime
+        if ((index < palette.mIsResolved.length) && palette.mIsResolved[index]) {
+            return palette.mColors[index];
+        }
+
+        Resources.Theme theme = c.getResources().newTheme();
+
+        if (TextUtils.equals(palette.mThemeValue, THEME_DARK_VALUE)) {
+            theme.applyStyle(R.style.Theme_Vector_Dark, true);
+        } else if (TextUtils.equals(palette.mThemeValue, THEME_BLACK_VALUE)) {
+            theme.applyStyle(R.style.Theme_Vector_Black, true);
+        } else {
+            theme.applyStyle(R.style.Theme_Vector_Light, true);
+        }
+
+        int length = Math.max(index + 1, palette.mColors.length);
+        int[] colors = Arrays.copyOf(palette.mColors, length);
+        boolean[] isResolved = Arrays.copyOf(palette.mIsResolved, length);
+
+        colors[index] = resolveColor(c, theme, colorAttribute);
+        isResolved[index] = true;
+
+        mPalette = new Palette(palette.mThemeValue, colors, isResolved);
+
+        return colors[index];
+    }
+
+    /**
+     * Resolve a color attribute.
+     *
+     * @param c              the context
+     * @param theme          the theme
+     * @param colorAttribute the color attribute
+     * @return the color
+     */
+    private static
+    @ColorInt
+    int resolveColor(Context c, Resources.Theme theme, @AttrRes int colorAttribute) {
         try {
             TypedValue color = new TypedValue();
-            c.getTheme().resolveAttribute(colorAttribute, color, true);
-            matchedColor = color.data;
+            theme.resolveAttribute(colorAttribute, color, true);
+            return color.data;
         } catch (Exception e) {
-            matchedColor = ContextCompat.getColor(c, android.R.color.holo_red_dark);
+            return ContextCompat.getColor(c, android.R.color.holo_red_dark);
         }
-
-        mColorByAttr.put(colorAttribute, matchedColor);
-
-        return matchedColor;
     }
 
     /**
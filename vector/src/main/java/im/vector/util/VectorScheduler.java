@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application wide scheduler.
+ * It replaces the java.util.Timer instances (one thread per timer) by a single background looper
+ * and the main looper.
+ */
+public class VectorScheduler {
+    private static final String LOG_TAG = VectorScheduler.class.getSimpleName();
+
+    private static VectorScheduler mInstance = null;
+
+    // background tasks
+    private final HandlerThread mHandlerThread;
+    private final Handler mBackgroundHandler;
+
+    // UI tasks
+    private final Handler mUiHandler;
+
+    // number of scheduled tasks which are neither run nor cancelled
+    private final AtomicInteger mLiveTasksCount = new AtomicInteger(0);
+
+    /**
+     * @return the shared instance
+     */
+    public static synchronized VectorScheduler getInstance() {
+        if (null == mInstance) {
+            mInstance = new VectorScheduler();
+        }
+
+        return mInstance;
+    }
+
+    private VectorScheduler() {
+        mHandlerThread = new HandlerThread("VectorScheduler", Thread.MIN_PRIORITY);
+        mHandlerThread.start();
+        mBackgroundHandler = new Handler(mHandlerThread.getLooper());
+        mUiHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * @return the number of tasks which are pending (neither run nor cancelled).
+     * It should go back to 0 when the application is idle; a growing value reveals a leak.
+     */
+    public int getLiveTasksCount() {
+        return mLiveTasksCount.get();
+    }
+
+    /**
+     * Schedule a runnable on the scheduler background thread.
+     *
+     * @param runnable the runnable
+     * @param delayMs  the delay in milliseconds
+     * @return the task
+     */
+    public Task schedule(Runnable runnable, long delayMs) {
+        return new Task(mBackgroundHandler, runnable, delayMs);
+    }
+
+    /**
+     * Schedule a runnable on the UI thread.
+     *
+     * @param runnable the runnable
+     * @param delayMs  the delay in milliseconds
+     * @return the task
+     */
+    public Task scheduleOnUiThread(Runnable runnable, long delayMs) {
+        return new Task(mUiHandler, runnable, delayMs);
+    }
+
+    /**
+     * Create a debouncer i.e only the latest call within the delay is run.
+     *
+     * @param delayMs    the quiet period in milliseconds
+     * @param onUiThread true to run the runnables on the UI thread
+     * @return a new debouncer
+     */
+    public Debouncer createDebouncer(long delayMs, boolean onUiThread) {
+        return new Debouncer(onUiThread ? mUiHandler : mBackgroundHandler, delayMs);
+    }
+
+    /**
+     * Create a throttler i.e the runnable is run at most once per period.
+     *
+     * @param periodMs   the period in milliseconds
+     * @param onUiThread true to run the runnables on the UI thread
+     * @return a new throttler
+     */
+    public Throttler createThrottler(long periodMs, boolean onUiThread) {
+        return new Throttler(onUiThread ? mUiHandler : mBackgroundHandler, periodMs);
+    }
+
+    /**
+     * A cancellable scheduled task.
+     */
+    public class Task {
+        private final Handler mHandler;
+        private final Runnable mWrapper;
+        private boolean mIsDone = false;
+
+        private Task(Handler handler, final Runnable runnable, long delayMs) {
+            mHandler = handler;
+            mWrapper = new Runnable() {
+                @Override
+                public void run() {
+                    if (!markDone()) {
+                        return;
+                    }
+
+                    try {
+                        runnable.run();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## Task.run() failed " + e.getMessage(), e);
+                    }
+                }
+            };
+
+            mLiveTasksCount.incrementAndGet();
+            mHandler.postDelayed(mWrapper, Math.max(0, delayMs));
+        }
+
+        /**
+         * Flag the task as done.
+         *
+         * @return true if the task was pending
+         */
+        private synchronized boolean markDone() {
+            if (mIsDone) {
+                return false;
+            }
+
+            mIsDone = true;
+            mLiveTasksCount.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * @return true if the task has been neither run nor cancelled
+         */
+        public synchronized boolean isPending() {
+            return !mIsDone;
+        }
+
+        /**
+         * Cancel the task.
+         * It has no effect if the task has already been run.
+         */
+        public void cancel() {
+            if (markDone()) {
+                mHandler.removeCallbacks(mWrapper);
+            }
+        }
+    }
+
+    /**
+     * Only runs the latest submitted runnable once no other one has been submitted during the delay.
+     */
+    public class Debouncer {
+        private final Handler mHandler;
+        private final long mDelayMs;
+        private Task mPendingTask;
+
+        private Debouncer(Handler handler, long delayMs) {
+            mHandler = handler;
+            mDelayMs = delayMs;
+        }
+
+        /**
+         * Submit a runnable; it replaces the pending one.
+         *
+         * @param runnable the runnable
+         */
+        public synchronized void submit(Runnable runnable) {
+            cancel();
+            mPendingTask = new Task(mHandler, runnable, mDelayMs);
+        }
+
+        /**
+         * Cancel the pending runnable.
+         */
+        public synchronized void cancel() {
+            if (null != mPendingTask) {
+                mPendingTask.cancel();
+                mPendingTask = null;
+            }
+        }
+
+        /**
+         * @return true if there is a pending runnable
+         */
+        public synchronized boolean isPending() {
+            return (null != mPendingTask) && mPendingTask.isPending();
+        }
+    }
+
+    /**
+     * Runs the latest submitted runnable at most once per period.
+     * The first call within a period is delayed to the end of the previous period.
+     */
+    public class Throttler {
+        private final Handler mHandler;
+        private final long mPeriodMs;
+        private long mLastRunTs = 0;
+        private Runnable mLatestRunnable;
+        private Task mPendingTask;
+
+        private Throttler(Handler handler, long periodMs) {
+            mHandler = handler;
+            mPeriodMs = periodMs;
+        }
+
+        /**
+         * Submit a runnable; it replaces the pending one if any.
+         *
+         * @param runnable the runnable
+         */
+        public synchronized void submit(Runnable runnable) {
+            mLatestRunnable = runnable;
+
+            if ((null != mPendingTask) && mPendingTask.isPending()) {
+                return;
+            }
+
+            long delay = Math.max(0, mLastRunTs + mPeriodMs - SystemClock.elapsedRealtime());
+
+            mPendingTask = new Task(mHandler, new Runnable() {
+                @Override
+                public void run() {
+                    Runnable toRun;
+
+                    synchronized (Throttler.this) {
+                        toRun = mLatestRunnable;
+                        mLatestRunnable = null;
+                        mPendingTask = null;
+                        mLastRunTs = SystemClock.elapsedRealtime();
+                    }
+
+                    if (null != toRun) {
+                        toRun.run();
+                    }
+                }
+            }, delay);
+        }
+
+        /**
+         * Cancel the pending runnable.
+         */
+        public synchronized void cancel() {
+            mLatestRunnable = null;
+
+            if (null != mPendingTask) {
+                mPendingTask.cancel();
+                mPendingTask = null;
+            }
+        }
+    }
+}
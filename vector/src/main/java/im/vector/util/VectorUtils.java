@@ -32,9 +32,6 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 import android.support.v4.util.LruCache;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -288,10 +285,33 @@ public class VectorUtils {
     //==============================================================================================================
 
     // avatars cache
-    static final private LruCache<String, Bitmap> mAvatarImageByKeyDict = new LruCache<>(20 * 1024 * 1024);
+    static final private LruCache<String, Bitmap> mAvatarImageByKeyDict = new LruCache<String, Bitmap>(20 * 1024 * 1024) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight(); // size in bytes
+        }
+    };
     // the avatars background color
     static final private ArrayList<Integer> mColorList = new ArrayList<>(Arrays.asList(0xff76cfa6, 0xff50e2c2, 0xfff4c371));
 
+    /**
+     * Shrink the avatars cache.
+     *
+     * @param ratio the ratio of the current size to keep (0 to empty it)
+     * @return the number of released bytes
+     */
+    public static long trimAvatarsCache(float ratio) {
+        int sizeBefore = mAvatarImageByKeyDict.size();
+
+        if (ratio <= 0) {
+            mAvatarImageByKeyDict.evictAll();
+        } else {
+            mAvatarImageByKeyDict.trimToSize((int) (sizeBefore * ratio));
+        }
+
+        return sizeBefore - mAvatarImageByKeyDict.size();
+    }
+
     /**
      * Provides the avatar background color from a text.
      *
@@ -369,7 +389,7 @@ public class VectorUtils {
      * @param name the name
      * @return teh first char
      */
-    private static String getInitialLetter(String name) {
+    static String getInitialLetter(String name) {
         String firstChar = " ";
 
         if (!TextUtils.isEmpty(name)) {
@@ -428,36 +448,6 @@ public class VectorUtils {
         return thumbnail;
     }
 
-    /**
-     * Set the default vector avatar for a member.
-     *
-     * @param imageView   the imageView to set.
-     * @param userId      the member userId.
-     * @param displayName the member display name.
-     */
-    private static void setDefaultMemberAvatar(final ImageView imageView, final String userId, final String displayName) {
-        // sanity checks
-        if (null != imageView && !TextUtils.isEmpty(userId)) {
-            final Bitmap bitmap = VectorUtils.getAvatar(imageView.getContext(), VectorUtils.getAvatarColor(userId), TextUtils.isEmpty(displayName) ? userId : displayName, true);
-
-            if (Looper.getMainLooper().getThread() == Thread.currentThread()) {
-                imageView.setImageBitmap(bitmap);
-            } else {
-                final String tag = userId + " - " + displayName;
-                imageView.setTag(tag);
-
-                mUIHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (TextUtils.equals(tag, (String) imageView.getTag())) {
-                            imageView.setImageBitmap(bitmap);
-                        }
-                    }
-                });
-            }
-        }
-    }
-
     /**
      * Set the room avatar in an imageView.
      *
@@ -550,11 +540,6 @@ public class VectorUtils {
         }
     }
 
-    // the background thread
-    private static HandlerThread mImagesThread = null;
-    private static android.os.Handler mImagesThreadHandler = null;
-    private static Handler mUIHandler = null;
-
     /**
      * Set the user avatar in an imageView.
      *
@@ -565,88 +550,13 @@ public class VectorUtils {
      * @param userId      the user id
      * @param displayName the user display name
      */
-    public static void loadUserAvatar(final Context context, final MXSession session, final ImageView imageView, final String avatarUrl, final String userId, final String displayName) {
+    public static void loadUserAvatar(Context context, MXSession session, ImageView imageView, String avatarUrl, String userId, String displayName) {
         // sanity check
         if ((null == session) || (null == imageView) || !session.isAlive()) {
             return;
         }
 
-        // reset the imageView tag
-        imageView.setTag(null);
-
-        if (session.getMediasCache().isAvatarThumbnailCached(avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size))) {
-            session.getMediasCache().loadAvatarThumbnail(session.getHomeServerConfig(), imageView, avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size));
-        } else {
-            if (null == mImagesThread) {
-                mImagesThread = new HandlerThread("ImagesThread", Thread.MIN_PRIORITY);
-                mImagesThread.start();
-                mImagesThreadHandler = new android.os.Handler(mImagesThread.getLooper());
-                mUIHandler = new Handler(Looper.getMainLooper());
-            }
-
-            final Bitmap bitmap = VectorUtils.getAvatar(imageView.getContext(), VectorUtils.getAvatarColor(userId), TextUtils.isEmpty(displayName) ? userId : displayName, false);
-
-            // test if the default avatar has been computed
-            if (null != bitmap) {
-                imageView.setImageBitmap(bitmap);
-
-                final String tag = avatarUrl + userId + displayName;
-                imageView.setTag(tag);
-
-                if (!MXMediasCache.isMediaUrlUnreachable(avatarUrl)) {
-                    mImagesThreadHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (TextUtils.equals(tag, (String) imageView.getTag())) {
-                                session.getMediasCache().loadAvatarThumbnail(session.getHomeServerConfig(), imageView, avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size), bitmap);
-                            }
-                        }
-                    });
-                }
-            } else {
-                final String tmpTag0 = "00" + avatarUrl + "-" + userId + "--" + displayName;
-                imageView.setTag(tmpTag0);
-
-                // create the default avatar in the background thread
-                mImagesThreadHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (TextUtils.equals(tmpTag0, (String) imageView.getTag())) {
-                            imageView.setTag(null);
-                            setDefaultMemberAvatar(imageView, userId, displayName);
-
-                            if (!MXMediasCache.isMediaUrlUnreachable(avatarUrl)) {
-                                final String tmpTag1 = "11" + avatarUrl + "-" + userId + "--" + displayName;
-                                imageView.setTag(tmpTag1);
-
-                                // wait that it is rendered to load the right one
-                                mUIHandler.post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        // test if the imageView tag has not been updated
-                                        if (TextUtils.equals(tmpTag1, (String) imageView.getTag())) {
-                                            final String tmptag2 = "22" + avatarUrl + userId + displayName;
-                                            imageView.setTag(tmptag2);
-
-                                            mImagesThreadHandler.post(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    // test if the imageView tag has not been updated
-                                                    if (TextUtils.equals(tmptag2, (String) imageView.getTag())) {
-                                                        final Bitmap bitmap = VectorUtils.getAvatar(imageView.getContext(), VectorUtils.getAvatarColor(userId), TextUtils.isEmpty(displayName) ? userId : displayName, false);
-                                                        session.getMediasCache().loadAvatarThumbnail(session.getHomeServerConfig(), imageView, avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size), bitmap);
-                                                    }
-                                                }
-                                            });
-                                        }
-                                    }
-                                });
-                            }
-                        }
-                    }
-                });
-            }
-        }
+        AvatarLoader.getInstance().load(context, session, imageView, avatarUrl, userId, displayName);
     }
 
     //==============================================================================================================
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draw a bitmap in a circle.
+ * The bitmap is center cropped by the shader matrix at draw time so no intermediate bitmap is created.
+ * The drawables built from the same {@link ConstantState} share the bitmap.
+ */
+public class CircularBitmapDrawable extends Drawable {
+
+    /**
+     * The shared state : the bitmap.
+     */
+    static class BitmapState extends ConstantState {
+        final Bitmap mBitmap;
+
+        BitmapState(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new CircularBitmapDrawable(this);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+    }
+
+    private final BitmapState mState;
+    private final BitmapShader mShader;
+    private final Paint mPaint;
+    private final Matrix mShaderMatrix = new Matrix();
+
+    private float mCenterX;
+    private float mCenterY;
+    private float mRadius;
+
+    /**
+     * Constructor
+     *
+     * @param bitmap the bitmap to draw
+     */
+    public CircularBitmapDrawable(Bitmap bitmap) {
+        this(new BitmapState(bitmap));
+    }
+
+    private CircularBitmapDrawable(BitmapState state) {
+        mState = state;
+        mShader = new BitmapShader(state.mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        mPaint.setShader(mShader);
+    }
+
+    /**
+     * @return the drawn bitmap
+     */
+    public Bitmap getBitmap() {
+        return mState.mBitmap;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+
+        int bitmapWidth = mState.mBitmap.getWidth();
+        int bitmapHeight = mState.mBitmap.getHeight();
+        float size = Math.min(bounds.width(), bounds.height());
+
+        if ((0 == bitmapWidth) || (0 == bitmapHeight)) {
+            mRadius = 0;
+            return;
+        }
+
+        // center crop
+        float scale = size / Math.min(bitmapWidth, bitmapHeight);
+        mShaderMatrix.setScale(scale, scale);
+        mShaderMatrix.postTranslate(bounds.exactCenterX() - bitmapWidth * scale / 2.0f, bounds.exactCenterY() - bitmapHeight * scale / 2.0f);
+        mShader.setLocalMatrix(mShaderMatrix);
+
+        mCenterX = bounds.exactCenterX();
+        mCenterY = bounds.exactCenterY();
+        mRadius = size / 2.0f;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mRadius > 0) {
+            canvas.drawCircle(mCenterX, mCenterY, mRadius, mPaint);
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        // the bitmap is drawn as a square
+        return Math.min(mState.mBitmap.getWidth(), mState.mBitmap.getHeight());
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return getIntrinsicWidth();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (alpha != mPaint.getAlpha()) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return mPaint.getAlpha();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        return mState;
+    }
+}
@@ -20,23 +20,8 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 import android.support.annotation.Nullable;
-import android.support.v4.graphics.drawable.RoundedBitmapDrawable;
-import android.support.v4.graphics.drawable.RoundedBitmapDrawableFactory;
-import android.support.v4.util.LruCache;
 import android.util.AttributeSet;
-import android.util.Pair;
-
-import org.matrix.androidsdk.util.Log;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Display a circular image.
@@ -58,148 +43,33 @@ public class VectorCircularImageView extends android.support.v7.widget.AppCompat
 
     @Override
     public void setImageDrawable(@Nullable Drawable drawable) {
-        super.setImageDrawable(drawable);
-
-        if ((null != drawable) && (drawable instanceof BitmapDrawable)) {
-            final Bitmap b = ((BitmapDrawable) drawable).getBitmap();
-
-            if (null != b) {
-                this.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        setImageBitmap(b);
-                    }
-                });
-            }
+        if ((null != drawable) && (drawable instanceof BitmapDrawable) && (null != ((BitmapDrawable) drawable).getBitmap())) {
+            setImageBitmap(((BitmapDrawable) drawable).getBitmap());
+        } else {
+            super.setImageDrawable(drawable);
         }
     }
 
-    // We use a lru cache to reduce the screen loading time.
-    // Create a RoundedBitmapDrawable might be slow
-    private static final LruCache<String, RoundedBitmapDrawable> mCache = new LruCache<String, RoundedBitmapDrawable>(4 * 1024 * 1024) {
-        @Override
-        protected int sizeOf(String key, RoundedBitmapDrawable drawable) {
-            return drawable.getBitmap().getRowBytes() * drawable.getBitmap().getHeight(); // size in bytes
-        }
-    };
-
-    // the background thread
-    private static HandlerThread mConversionImagesThread = null;
-    private static android.os.Handler mConversionImagesThreadHandler = null;
-    private static Handler mUIHandler = null;
-
-    private static Map<String, ArrayList<Pair<Object, VectorCircularImageView>>> mPendingConversion = new HashMap<>();
-
     /**
      * Update the bitmap.
-     * The bitmap is first squared before adding corners
+     * The bitmap is center cropped in a circle at draw time.
      *
      * @param bm the new bitmap
      */
+    @Override
     public void setImageBitmap(final Bitmap bm) {
-        if (null != bm) {
-            // convert the bitmap to a square bitmap
-            final int width = bm.getWidth();
-            final int height = bm.getHeight();
-
-            final String key = bm.toString() + width + "-" + height;
-
-            // We use a lru cache to reduce the screen loading time.
-            // Create a RoundedBitmapDrawable might be slow
-            RoundedBitmapDrawable cachedDrawable = mCache.get(key);
-            if (null != cachedDrawable) {
-                super.setImageDrawable(cachedDrawable);
-                return;
-            }
-
-            if (null == mConversionImagesThread) {
-                mConversionImagesThread = new HandlerThread("VectorCircularImageViewThread", Thread.MIN_PRIORITY);
-                mConversionImagesThread.start();
-                mConversionImagesThreadHandler = new android.os.Handler(mConversionImagesThread.getLooper());
-                mUIHandler = new Handler(Looper.getMainLooper());
-            }
-
-            // there is a conversion in progress
-            if (mPendingConversion.containsKey(key)) {
-                mPendingConversion.get(key).add(new Pair<>(getTag(), this));
-                return;
-            }
-
-            // build a list
-            mPendingConversion.put(key, new ArrayList(Arrays.asList(new Pair<>(getTag(), this))));
-
-            mConversionImagesThreadHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Bitmap squareBitmap = bm;
-
-                    if (width == height) {
-                        // nothing to do
-                    }
-                    // larger than high
-                    else if (width > height) {
-                        try {
-                            squareBitmap = Bitmap.createBitmap(
-                                    squareBitmap,
-                                    (width - height) / 2,
-                                    0,
-                                    height,
-                                    height
-                            );
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## setImageBitmap - createBitmap " + e.getMessage());
-                        }
-                    }
-                    // higher than large
-                    else {
-                        try {
-                            squareBitmap = Bitmap.createBitmap(
-                                    squareBitmap,
-                                    0,
-                                    (height - width) / 2,
-                                    width,
-                                    width
-                            );
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## setImageBitmap - createBitmap " + e.getMessage());
-                        }
-                    }
-                    try {
-                        // create a rounded bitmap
-                        final RoundedBitmapDrawable drawable = RoundedBitmapDrawableFactory.create(getResources(), squareBitmap);
-                        drawable.setAntiAlias(true);
-                        drawable.setCornerRadius(height / 2.0f);
-
-                        mUIHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                // save it in a cache
-                                mCache.put(key, drawable);
+        if (null == bm) {
+            super.setImageDrawable(null);
+            return;
+        }
 
-                                List<Pair<Object, VectorCircularImageView>> pairs = mPendingConversion.get(key);
-                                mPendingConversion.remove(key);
+        Drawable currentDrawable = getDrawable();
 
-                                for (Pair<Object, VectorCircularImageView> pair : pairs) {
-                                    // update only if the tag is the same
-                                    if (pair.second.getTag() == pair.first) {
-                                        pair.second.setImageDrawable(drawable);
-                                    }
-                                }
-                            }
-                        });
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## setImageBitmap - RoundedBitmapDrawableFactory.create " + e.getMessage());
-                        mUIHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                VectorCircularImageView.this.setImageBitmap(null);
-                            }
-                        });
-                    }
-                }
-            });
-        } else {
-            super.setImageBitmap(null);
+        // already displayed
+        if ((currentDrawable instanceof CircularBitmapDrawable) && (((CircularBitmapDrawable) currentDrawable).getBitmap() == bm)) {
+            return;
         }
+
+        super.setImageDrawable(new CircularBitmapDrawable(bm));
     }
 }